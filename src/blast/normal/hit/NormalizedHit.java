@@ -1,6 +1,7 @@
 package blast.normal.hit;
 
 import blast.ncbi.output.Hit;
+import blast.ncbi.output.Hsp;
 import format.BadFormatException;
 import taxonomy.Ranks;
 import taxonomy.node.TaxonomicNode;
@@ -35,6 +36,10 @@ public class NormalizedHit<H extends Hit> {
      */
     @SuppressWarnings("WeakerAccess")
     public static final double MINIMAL_EVLAUE = 2.225074e-308;
+    /**
+     * A symbol that BLAST uses to mark a gap
+     */
+    private static final char GAP = '-';
     /**
      * An ancestor hit that was normalized to have convenient parameters
      */
@@ -45,6 +50,12 @@ public class NormalizedHit<H extends Hit> {
      */
     @SuppressWarnings("WeakerAccess")
     protected final int GI;
+    /**
+     * Accession of the hit as reported, with the version if any (the version gets dropped only when the accession is
+     * hashed for a lookup), is used to find the taxonomy of the hits that carry no GI
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected final String accession;
     /**
      * Double representation of the pIdent
      */
@@ -60,6 +71,26 @@ public class NormalizedHit<H extends Hit> {
      */
     @SuppressWarnings("WeakerAccess")
     protected final double hitEvalue;
+    /**
+     * Total alignment length over all the HSPs
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected final int alignmentLength;
+    /**
+     * Total number of identities over all the HSPs
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected final int numberOfIdentities;
+    /**
+     * Total number of gaps over all the HSPs
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected final int numberOfGaps;
+    /**
+     * Total number of gap opens over both the query and the hit sequences of all the HSPs
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected final int numberOfGapOpens;
     /**
      * A taxonomic tree reassembled back form the gi_taxid pair
      */
@@ -92,8 +123,95 @@ public class NormalizedHit<H extends Hit> {
         } else {
             this.hitEvalue = eval;
         }
-        this.GI = Integer.parseInt(BlastOutputUtil.extractGIFromHitID(hit.getHitId()));
-        //System.out.println(this.GI);
+        //The NCBI no longer issues GIs, so a hit ID may not have one, in which case the hit gets identified by its accession
+        int gi;
+        try {
+            gi = Integer.parseInt(BlastOutputUtil.extractGIFromHitID(hit.getHitId()));
+        } catch (BadFormatException | NumberFormatException e) {
+            gi = 0;
+        }
+        this.GI = gi;
+        this.accession = NormalizedHit.extractAccession(hit);
+        //Sum up the HSPs once, so that the statistical tests do not need to parse them on every comparison
+        int alignmentLength = 0;
+        int numberOfIdentities = 0;
+        int numberOfGaps = 0;
+        int numberOfGapOpens = 0;
+        if (hit.getHitHsps() != null) {
+            for (Hsp hsp : hit.getHitHsps().getHsp()) {
+                alignmentLength += NormalizedHit.parseCount(hsp.getHspAlignLen());
+                numberOfIdentities += NormalizedHit.parseCount(hsp.getHspIdentity());
+                numberOfGaps += NormalizedHit.parseCount(hsp.getHspGaps());
+                numberOfGapOpens += NormalizedHit.calculateNumberOfGapOpens(hsp.getHspQseq())
+                        + NormalizedHit.calculateNumberOfGapOpens(hsp.getHspHseq());
+            }
+        }
+        this.alignmentLength = alignmentLength;
+        this.numberOfIdentities = numberOfIdentities;
+        this.numberOfGaps = numberOfGaps;
+        this.numberOfGapOpens = numberOfGapOpens;
+    }
+
+    /**
+     * Parses a count of an HSP, BLAST leaves out the ones that are zero, such as the gaps
+     *
+     * @param count {@link String} count, may be {@code null}
+     * @return {@code int} count, {@code 0} if none is given
+     */
+    private static int parseCount(final String count) {
+        if (count == null || count.isEmpty()) {
+            return 0;
+        }
+        return Integer.parseInt(count.trim());
+    }
+
+    /**
+     * As long as BLAST outputs treats every gap as an independent event, this method allows to correct for this by calculating gapopen.
+     * A standard BLAST XMP output reports only gaps, but not gapopens. Note: gaps&lt;=gapopens
+     *
+     * @param seq {@link String} Nucleotide sequence with gaps, marked as '-'
+     * @return {@code int} number of gapopens
+     */
+    public static int calculateNumberOfGapOpens(final String seq) {
+        if (seq == null) {
+            return 0;
+        }
+        int numGapOpen = 0;
+        for (int i = 1; i < seq.length(); i++) {
+            if (seq.charAt(i) == GAP) {
+                if (seq.charAt(i - 1) != GAP) {
+                    numGapOpen++;
+                }
+            }
+        }
+        return numGapOpen;
+    }
+
+    /**
+     * Extracts an accession from a given {@link Hit}: the Hit_accession field if present, otherwise the accession part of the
+     * hit ID ("gi|123|gb|AB000001.1|", "gb|AB000001.1|" or "AB000001.1")
+     *
+     * @param hit {@link Hit} to extract the accession from
+     * @return {@link String} accession, possibly with a version, {@code null} if the hit has neither
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected static String extractAccession(final Hit hit) {
+        final String hitAccession = hit.getHitAccession();
+        if (hitAccession != null && !hitAccession.trim().isEmpty()) {
+            return hitAccession.trim();
+        }
+        final String hitId = hit.getHitId();
+        if (hitId == null) {
+            return null;
+        }
+        final String[] split = hitId.split("\\|");
+        if (split.length >= 4 && split[0].equals("gi")) {
+            return split[3];
+        } else if (split.length >= 2) {
+            return split[1];
+        } else {
+            return split[0];
+        }
     }
 
     /**
@@ -148,6 +266,15 @@ public class NormalizedHit<H extends Hit> {
         return GI;
     }
 
+    /**
+     * A getter for the accession
+     *
+     * @return {@link String} the accession of the current hit, {@code null} if the hit has none
+     */
+    public String getAccession() {
+        return accession;
+    }
+
     /**
      * A getter for the pIdent
      *
@@ -175,6 +302,42 @@ public class NormalizedHit<H extends Hit> {
         return hitEvalue;
     }
 
+    /**
+     * A getter for the total alignment length over all the HSPs
+     *
+     * @return {@code int} alignment length
+     */
+    public int getAlignmentLength() {
+        return alignmentLength;
+    }
+
+    /**
+     * A getter for the total number of identities over all the HSPs
+     *
+     * @return {@code int} number of identities
+     */
+    public int getNumberOfIdentities() {
+        return numberOfIdentities;
+    }
+
+    /**
+     * A getter for the total number of gaps over all the HSPs
+     *
+     * @return {@code int} number of gaps
+     */
+    public int getNumberOfGaps() {
+        return numberOfGaps;
+    }
+
+    /**
+     * A getter for the total number of gap opens over both the query and the hit sequences of all the HSPs
+     *
+     * @return {@code int} number of gap opens
+     */
+    public int getNumberOfGapOpens() {
+        return numberOfGapOpens;
+    }
+
     /**
      * Getter for {@code H}
      * @return {@code H}
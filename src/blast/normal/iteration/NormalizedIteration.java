@@ -5,6 +5,8 @@ import blast.ncbi.output.Hit;
 import blast.ncbi.output.Iteration;
 import blast.specification.BLASTIdentifier;
 import blast.normal.hit.NormalizedHit;
+import blast.specification.cutoff.PValueMemo;
+import db.connect.TaxonomicDatabaseOperator;
 import format.BadFormatException;
 import format.fasta.nucleotide.NucleotideFasta;
 import logger.Log;
@@ -41,6 +43,12 @@ public class NormalizedIteration<I extends Iteration> {
      */
     @SuppressWarnings("WeakerAccess")
     protected final BLASTIdentifier blastIdentifier;
+    /**
+     * A {@link db.connect.TaxonomicDatabaseOperator} that answers the taxonomic lookups, either the parent
+     * {@link blast.specification.BLASTIdentifier} or a cache in front of it
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected final TaxonomicDatabaseOperator taxonomicDatabaseOperator;
     /**
      * I extends {@link Iteration}
      */
@@ -56,6 +64,11 @@ public class NormalizedIteration<I extends Iteration> {
      */
     @SuppressWarnings("WeakerAccess")
     protected final int queryLength;
+    /**
+     * The p-values of the hit pairs that have been tested, as the same pair gets tested again at the higher ranks with only
+     * the alpha changing
+     */
+    private final PValueMemo pValueMemo;
 
     /**
      * Current level of specification
@@ -85,7 +98,9 @@ public class NormalizedIteration<I extends Iteration> {
         this.query = query;
         this.iteration = iteration;
         this.blastIdentifier = blastIdentifier;
+        this.taxonomicDatabaseOperator = blastIdentifier.getTaxonomicDatabaseOperator();
         this.queryLength = Integer.parseInt(this.iteration.getIterationQueryLen());
+        this.pValueMemo = PValueMemo.newInstance();
     }
 
     /**
@@ -98,39 +113,51 @@ public class NormalizedIteration<I extends Iteration> {
     }
 
     /**
-     * Normalizes the {@link Hit}s from the I extends {@link Iteration} hit list
+     * Normalizes the {@link Hit}s from the I extends {@link Iteration} hit list, unless they have already been normalized
+     * along with the rest of the batch
      *
      * @throws SQLException       in case a database communication error occurs
      * @throws BadFormatException in case formatting the {@link Hit} GI fails
      */
     @SuppressWarnings("WeakerAccess")
     protected void normaliseHits() throws Exception {
-        //Check if the costly procedure of Hits normalization has already been performed
         if (this.normalizedHits == null) {
-            //If not yet - create a new list of the size of the list of hits
-            this.normalizedHits = new ArrayList<NormalizedHit>(this.iteration.getIterationHits().getHit().size());
-            //For every hit on the hit list
-            for (Hit hit : this.iteration.getIterationHits().getHit()) {
-                //Create a normalized version and store in the newly created list
-                NormalizedHit normalizedHit = this.blastIdentifier.assignTaxonomy(NormalizedHit.newDefaultInstanceFromHit(hit, this.queryLength));
-                //The hit may be returned as null upon errors and inability of the blastIdentifier module to process the request
-                if (normalizedHit != null) {
-                    this.normalizedHits.add(normalizedHit);
-                }else{
-                    Log.getInstance().log(Level.SEVERE,"A GI: "+hit.getHitId()+" was not found in the current version of the taxonomic database. " +
-                            "As this may affect results, please update both BLAST and taxonomic database as soon as possible.");
-                }
-            }
-        } else {
-            this.normalizedHits.clear();
+            this.setNormalizedHits(this.taxonomicDatabaseOperator.assignTaxonomy(this.newNormalizedHits()));
+        }
+    }
+
+    /**
+     * Creates a normalized version of every hit of the iteration, the taxonomy is yet to be assigned
+     *
+     * @return {@link List} of {@link NormalizedHit}s in the order of the hits
+     * @throws BadFormatException in case formatting the {@link Hit} GI fails
+     */
+    public List<NormalizedHit> newNormalizedHits() throws BadFormatException {
+        final List<Hit> hits = this.iteration.getIterationHits().getHit();
+        final List<NormalizedHit> normalizedHits = new ArrayList<NormalizedHit>(hits.size());
+        for (Hit hit : hits) {
+            normalizedHits.add(NormalizedHit.newDefaultInstanceFromHit(hit, this.queryLength));
         }
-        //For every hit on the hit list
-        for (Hit hit : this.iteration.getIterationHits().getHit()) {
-            //Create a normalized version and store in the newly created list
-            NormalizedHit normalizedHit = this.blastIdentifier.assignTaxonomy(NormalizedHit.newDefaultInstanceFromHit(hit, this.queryLength));
+        return normalizedHits;
+    }
+
+    /**
+     * Sets the normalized hits once the taxonomy has been assigned, the hits that could not be resolved get dropped
+     *
+     * @param assignedHits {@link List} of {@link NormalizedHit}s in the order of the hits, as returned by the
+     *                     {@link db.connect.TaxonomicDatabaseOperator}, {@code null} in place of the hits that could not be resolved
+     */
+    public void setNormalizedHits(final List<NormalizedHit> assignedHits) {
+        final List<Hit> hits = this.iteration.getIterationHits().getHit();
+        this.normalizedHits = new ArrayList<NormalizedHit>(assignedHits.size());
+        for (int i = 0; i < assignedHits.size(); i++) {
+            final NormalizedHit normalizedHit = assignedHits.get(i);
             //The hit may be returned as null upon errors and inability of the blastIdentifier module to process the request
             if (normalizedHit != null) {
                 this.normalizedHits.add(normalizedHit);
+            } else {
+                Log.getInstance().log(Level.SEVERE,"A GI: "+hits.get(i).getHitId()+" was not found in the current version of the taxonomic database. " +
+                        "As this may affect results, please update both BLAST and taxonomic database as soon as possible.");
             }
         }
     }
@@ -142,11 +169,13 @@ public class NormalizedIteration<I extends Iteration> {
     protected void findLowestRank() throws Exception {
         //Go down starting with the root of life
         //The algorithm is only interested in real ranks, so the "no rank" is of no interest
+        final List<NormalizedHit> normalizedHitsToLift = new ArrayList<NormalizedHit>();
         for (NormalizedHit normalizedHit : this.normalizedHits) {
-            if(this.blastIdentifier.hitHasANoRankParent(normalizedHit)){
-                this.blastIdentifier.liftRankForNormalizedHit(normalizedHit);
+            if(this.taxonomicDatabaseOperator.hitHasANoRankParent(normalizedHit)){
+                normalizedHitsToLift.add(normalizedHit);
             }
         }
+        this.liftRankForNormalizedHits(normalizedHitsToLift);
         this.reduceNoRanks();
         Ranks lowestRank = Ranks.root_of_life;
         for (NormalizedHit normalizedHit : this.normalizedHits) {
@@ -219,14 +248,16 @@ public class NormalizedIteration<I extends Iteration> {
             //Create a new list to hold those hits that have passed the cutoffs assuming in an optimistic way that all of the
             //hits will pass and a list of the same size will be needed
             List<NormalizedHit> ensuredNormalizedHits = new ArrayList<NormalizedHit>(normalizedHitsUnderTest.size());
+            final List<NormalizedHit> normalizedHitsToLift = new ArrayList<NormalizedHit>();
             for (NormalizedHit normalizedHit : normalizedHitsUnderTest) {
                 if (this.blastIdentifier.normalisedHitChecksAgainstParametersForRank(normalizedHit, this.currentRank)) {
                     ensuredNormalizedHits.add(normalizedHit);
                 } else {
                     //If the hit does not check, it should be identified at a higher taxonomic level in the next round (if such occurs)
-                    this.blastIdentifier.liftRankForNormalizedHit(normalizedHit);
+                    normalizedHitsToLift.add(normalizedHit);
                 }
             }
+            this.liftRankForNormalizedHits(normalizedHitsToLift);
             if (ensuredNormalizedHits.size() > 0) {
                 return ensuredNormalizedHits;
             } else {
@@ -290,9 +321,15 @@ public class NormalizedIteration<I extends Iteration> {
         Log.getInstance().log(Level.FINE,"Looking for hits with better E-value...");
         List<NormalizedHit> normalizedHitsWithBetterEvalue = this.getNormalisedHitsWithBetterEvalue();
         if (normalizedHitsWithBetterEvalue != null) {
-            for (NormalizedHit normalizedHit : normalizedHitsWithBetterEvalue) {
-                //Assign taxonomy down to the leaves for each hit on the list
-                if(!this.blastIdentifier.isParentOf(normalizedHit.getAssignedTaxid(), this.pivotalHit.getAssignedTaxid())){
+            //Check all the hits on the list at once
+            final int[] parentTaxids = new int[normalizedHitsWithBetterEvalue.size()];
+            for (int i = 0; i < parentTaxids.length; i++) {
+                parentTaxids[i] = normalizedHitsWithBetterEvalue.get(i).getAssignedTaxid();
+            }
+            final boolean[] areParents = this.taxonomicDatabaseOperator.areParentsOf(parentTaxids, this.pivotalHit.getAssignedTaxid());
+            for (int i = 0; i < parentTaxids.length; i++) {
+                final NormalizedHit normalizedHit = normalizedHitsWithBetterEvalue.get(i);
+                if(!areParents[i]){
                     Log.getInstance().log(Level.FINE,"Hit with GI:" + normalizedHit.getGI() + " and taxid: " + normalizedHit.getAssignedTaxid() + " did not allow the current potential pivotal because ");
                             Log.getInstance().log(Level.FINE," it points to a taxid, which is not a parent to the current potential pivotal taxid of " + this.pivotalHit.getAssignedTaxid() + ".");
                     return false;
@@ -343,10 +380,9 @@ public class NormalizedIteration<I extends Iteration> {
     protected void reduceNoRanks() throws Exception {
 
         for (NormalizedHit normalizedHit : this.normalizedHits) {
-            int count=0;
-            while (normalizedHit.getAssignedRank() == Ranks.no_rank&&normalizedHit.getAssignedTaxid()!=1&&count<25) {
-                normalizedHit= this.blastIdentifier.liftRankForNormalizedHit(normalizedHit);
-                count++;
+            if (normalizedHit.getAssignedRank() == Ranks.no_rank && normalizedHit.getAssignedTaxid() != 1) {
+                //A single lift over the whole chain of "no rank" ancestors
+                this.taxonomicDatabaseOperator.liftRankToNextRealRank(normalizedHit);
             }
         }
     }
@@ -359,11 +395,13 @@ public class NormalizedIteration<I extends Iteration> {
      */
     @SuppressWarnings("WeakerAccess")
     protected void liftCurrentRankOfSpecificationForHits() throws Exception {
+        final List<NormalizedHit> normalizedHitsToLift = new ArrayList<NormalizedHit>();
         for (NormalizedHit normalizedHit : this.normalizedHits) {
             if (normalizedHit.getAssignedRank() == this.currentRank) {
-                this.blastIdentifier.liftRankForNormalizedHit(normalizedHit);
+                normalizedHitsToLift.add(normalizedHit);
             }
         }
+        this.liftRankForNormalizedHits(normalizedHitsToLift);
         this.reduceNoRanks();
     }
 
@@ -380,13 +418,23 @@ public class NormalizedIteration<I extends Iteration> {
 
         //Go through the hits that have worse E-value than the pivotal hit
         if (this.pivotalHit != null) {
+            //Check all the hits that point to a different taxonomic node at once
+            final List<NormalizedHit> normalizedHitsWithWorseEvalue = new ArrayList<NormalizedHit>();
             for (int i = this.normalizedHits.indexOf(this.pivotalHit) + 1; i < this.normalizedHits.size(); i++) {
                 NormalizedHit normalizedHit = this.normalizedHits.get(i);
-                //If the next hit has current rank and points to a different taxonomic node
-                if (normalizedHit.getAssignedTaxid() == this.pivotalHit.getAssignedTaxid()){
-                    continue;
+                if (normalizedHit.getAssignedTaxid() != this.pivotalHit.getAssignedTaxid()){
+                    normalizedHitsWithWorseEvalue.add(normalizedHit);
                 }
-                if(!this.blastIdentifier.isParentOf(normalizedHit.getAssignedTaxid(),this.pivotalHit.getAssignedTaxid())) {
+            }
+            final int[] parentTaxids = new int[normalizedHitsWithWorseEvalue.size()];
+            for (int i = 0; i < parentTaxids.length; i++) {
+                parentTaxids[i] = normalizedHitsWithWorseEvalue.get(i).getAssignedTaxid();
+            }
+            final boolean[] areParents = this.taxonomicDatabaseOperator.areParentsOf(parentTaxids, this.pivotalHit.getAssignedTaxid());
+            for (int i = 0; i < parentTaxids.length; i++) {
+                NormalizedHit normalizedHit = normalizedHitsWithWorseEvalue.get(i);
+                //If the next hit points to a different taxonomic node
+                if(!areParents[i]) {
                     Log.getInstance().log(
                             Level.FINE,"A hit with worse E-value (GI: "+normalizedHit.getGI()+", \""+normalizedHit.getHit().getHitDef()+"\") " +
                             "was from a different taxonomic group with taxid: " + normalizedHit.getAssignedTaxid()
@@ -394,7 +442,7 @@ public class NormalizedIteration<I extends Iteration> {
                     //if the E-value difference (in folds) between the next hit and the current pivotal
                     //is less then the threshold cutoff - do not allow the pivotal hit
                     Log.getInstance().log(Level.FINE,"Checking whether the hits are statistically different...");
-                    if (this.blastIdentifier.hitsAreStatisticallyDifferentAtRank(normalizedHit, this.pivotalHit, this.currentRank)) {
+                    if (this.blastIdentifier.hitsAreStatisticallyDifferentAtRank(normalizedHit, this.pivotalHit, this.currentRank, this.pValueMemo)) {
                         Log.getInstance().log(Level.FINE,"The hits are far enough (alpha <= "+this.blastIdentifier.getCufoffsetByRank(this.currentRank).getAlpha()+" ).");
                         return true;
                     } else {
@@ -410,6 +458,18 @@ public class NormalizedIteration<I extends Iteration> {
         }
     }
 
+    /**
+     * Lifts a list of hits one step higher with a single call to the operator
+     *
+     * @param normalizedHitsToLift {@link List} of {@link NormalizedHit}s to lift, may be empty
+     * @throws Exception in case a database communication error occurs
+     */
+    private void liftRankForNormalizedHits(final List<NormalizedHit> normalizedHitsToLift) throws Exception {
+        if (!normalizedHitsToLift.isEmpty()) {
+            this.taxonomicDatabaseOperator.liftRankForNormalizedHits(normalizedHitsToLift);
+        }
+    }
+
     /**
      * Performs the taxonomic specification. Tries to find a pivotal hit at the lowest rank possible,
      * looks if the hits with higher ranks and better E-values allow the pivotal hit, if the hits with
@@ -433,7 +493,7 @@ public class NormalizedIteration<I extends Iteration> {
                 if (this.normalizedHitsWithBetterEvalueAllowPivotal() && this.normalisedHitsWithWorseEvalueAllowPivotal()) {
                     //success
                     Log.getInstance().log(Level.FINE,"Successfully classified down to \""+this.currentRank+"\" rank.");
-                    this.blastIdentifier.attachFullDirectLineage(this.pivotalHit.getFocusNode());
+                    this.taxonomicDatabaseOperator.attachFullDirectLineage(this.pivotalHit.getFocusNode());
                     break;
                 } else {
                     Log.getInstance().log(Level.FINE,"Lifting up current rank of specification for those hits that have \"" + this.currentRank+"\"");
@@ -6,6 +6,7 @@ import blast.ncbi.output.BlastOutput;
 import blast.ncbi.output.Iteration;
 import blast.normal.hit.NormalizedHit;
 import blast.normal.iteration.NormalizedIteration;
+import blast.specification.cutoff.PValueMemo;
 import blast.specification.cutoff.TUITCutoffSet;
 import db.connect.TaxonomicDatabaseOperator;
 import format.BadFormatException;
@@ -14,6 +15,7 @@ import io.file.TUITFileOperator;
 import logger.Log;
 import org.xml.sax.SAXException;
 import taxonomy.Ranks;
+import taxonomy.node.TaxonomicNode;
 
 import javax.xml.bind.JAXBException;
 import java.io.File;
@@ -23,6 +25,14 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 /**
  * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
@@ -121,6 +131,44 @@ public abstract class BLASTIdentifier<T extends NucleotideFasta> extends NCBI_EX
     @SuppressWarnings("WeakerAccess")
     protected int progressEdge;
 
+    /**
+     * The {@link db.connect.TaxonomicDatabaseOperator} that the {@link blast.normal.iteration.NormalizedIteration}s use for the
+     * taxonomic lookups, the identifier itself unless a cache has been put in front of it
+     */
+    private volatile TaxonomicDatabaseOperator taxonomicDatabaseOperator;
+    /**
+     * The number of iterations of a batch that get classified at a time
+     */
+    private int classifierThreads;
+    /**
+     * The queries of the iterations that have been classified by the workers, but not yet saved, {@code null} unless a batch
+     * is being classified concurrently
+     */
+    private volatile Map<NormalizedIteration<Iteration>, NucleotideFasta> pendingResults;
+    /**
+     * Classifies the iterations of a batch concurrently, {@code null} for a single thread or before the first batch
+     */
+    private ExecutorService workers;
+
+    /**
+     * Returns the {@link db.connect.TaxonomicDatabaseOperator} that answers the taxonomic lookups during the classification
+     *
+     * @return {@link db.connect.TaxonomicDatabaseOperator}, the identifier itself by default
+     */
+    public TaxonomicDatabaseOperator getTaxonomicDatabaseOperator() {
+        return this.taxonomicDatabaseOperator == null ? this : this.taxonomicDatabaseOperator;
+    }
+
+    /**
+     * Puts another {@link db.connect.TaxonomicDatabaseOperator}, such as a {@link db.connect.CachingTaxonomicDatabaseOperator}
+     * that wraps this identifier, in front of the identifier's own lookups
+     *
+     * @param taxonomicDatabaseOperator {@link db.connect.TaxonomicDatabaseOperator}, {@code null} to use the identifier itself
+     */
+    public void setTaxonomicDatabaseOperator(final TaxonomicDatabaseOperator taxonomicDatabaseOperator) {
+        this.taxonomicDatabaseOperator = taxonomicDatabaseOperator;
+    }
+
     /**
      * Returns a cutoff set for a given taxonomic rank
      *
@@ -134,6 +182,29 @@ public abstract class BLASTIdentifier<T extends NucleotideFasta> extends NCBI_EX
         return this.cutoffSetMap.get(rank);
     }
 
+    /**
+     * @return {@code int} the number of iterations of a batch that get classified at a time
+     */
+    public int getClassifierThreads() {
+        return this.classifierThreads;
+    }
+
+    /**
+     * Sets the number of iterations of a batch that get classified at a time, all the taxonomic lookups of the identifier
+     * must then be safe to call from that many threads. Takes effect from the next batch.
+     *
+     * @param classifierThreads {@code int} number of threads, {@code 1} classifies the iterations one by one
+     */
+    public void setClassifierThreads(final int classifierThreads) {
+        if (classifierThreads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed to classify the iterations.");
+        }
+        if (classifierThreads != this.classifierThreads) {
+            this.shutdownWorkers();
+            this.classifierThreads = classifierThreads;
+        }
+    }
+
     /**
      * A setter for a BLAST output to identify
      *
@@ -179,6 +250,7 @@ public abstract class BLASTIdentifier<T extends NucleotideFasta> extends NCBI_EX
         this.batchSize=batchSize;
         this.cleanup=cleanup;
         this.progressEdge=0;
+        this.classifierThreads = 1;
     }
 
     /**
@@ -211,11 +283,106 @@ public abstract class BLASTIdentifier<T extends NucleotideFasta> extends NCBI_EX
      * returns {@code false}.
      */
     public boolean hitsAreStatisticallyDifferentAtRank(final NormalizedHit oneNormalizedHit, final NormalizedHit anotherNormalizedHit, final Ranks rank) {
+        return this.cutoffSetForComparison(oneNormalizedHit, anotherNormalizedHit, rank)
+                .hitsAreStatisticallyDifferent(oneNormalizedHit, anotherNormalizedHit);
+    }
+
+    /**
+     * Same as {@code hitsAreStatisticallyDifferentAtRank(NormalizedHit, NormalizedHit, Ranks)}, but the p-value of a pair gets
+     * computed once per {@link blast.specification.cutoff.StatisticalTest} and kept in the given memo, so that the same pair
+     * tested again at a higher rank only gets compared against the alpha of that rank
+     *
+     * @param oneNormalizedHit     {@link NormalizedHit} first hit (a hit with a worse E-value)
+     * @param anotherNormalizedHit a {@link NormalizedHit}  with a better E-value)
+     * @param rank                 {@link Ranks} at which the hits are being compared
+     * @param pValueMemo           {@link PValueMemo} of the pairs tested so far, such as within a single iteration
+     * @return {@code true} if the p-value is below the alpha of the rank, {@code false} otherwise
+     */
+    public boolean hitsAreStatisticallyDifferentAtRank(final NormalizedHit oneNormalizedHit, final NormalizedHit anotherNormalizedHit, final Ranks rank,
+                                                       final PValueMemo pValueMemo) {
+        return this.cutoffSetForComparison(oneNormalizedHit, anotherNormalizedHit, rank)
+                .hitsAreStatisticallyDifferent(oneNormalizedHit, anotherNormalizedHit, pValueMemo);
+    }
+
+    /**
+     * Picks the cutoff set to compare two hits at a given rank, the default one if none has been given for the rank
+     */
+    private TUITCutoffSet cutoffSetForComparison(final NormalizedHit oneNormalizedHit, final NormalizedHit anotherNormalizedHit, final Ranks rank) {
         TUITCutoffSet tuitCutoffSet;
         if ((tuitCutoffSet = this.cutoffSetMap.get(rank)) == null || oneNormalizedHit == null || anotherNormalizedHit == null) {
             tuitCutoffSet = BLASTIdentifier.DEFAULT_CUTOFFS.get(rank);
         }
-        return tuitCutoffSet.hitsAreStatisticallyDifferent(oneNormalizedHit, anotherNormalizedHit);
+        return tuitCutoffSet;
+    }
+
+    /**
+     * Assigns the taxonomy to the hits one by one, an identifier that is able to resolve them at once should override this
+     *
+     * @param normalizedHits {@link java.util.List} of {@link blast.normal.hit.NormalizedHit}s that need to get their own taxonomy
+     * @return {@link java.util.List} of the same size and order, {@code null} in place of the hits that could not be resolved
+     * @throws Exception in case a database communication error occurs
+     */
+    @Override
+    public List<NormalizedHit> assignTaxonomy(final List<NormalizedHit> normalizedHits) throws Exception {
+        final List<NormalizedHit> assigned = new ArrayList<NormalizedHit>(normalizedHits.size());
+        //The hits with the same GI, which repeat across the queries of a batch, get looked up once
+        final Map<Integer, NormalizedHit> assignedByGi = new HashMap<Integer, NormalizedHit>();
+        for (NormalizedHit normalizedHit : normalizedHits) {
+            final int gi = normalizedHit.getGI();
+            if (gi == 0) {
+                assigned.add(this.assignTaxonomy(normalizedHit));
+            } else if (assignedByGi.containsKey(gi)) {
+                final NormalizedHit sameGi = assignedByGi.get(gi);
+                if (sameGi == null) {
+                    assigned.add(null);
+                } else {
+                    //Each hit gets a node of its own, as the nodes get attached to the lineage upon the classification
+                    final TaxonomicNode taxonomicNode = TaxonomicNode.newDefaultInstance(sameGi.getAssignedTaxid(),
+                            sameGi.getAssignedRank(), sameGi.getFocusNode().getScientificName());
+                    normalizedHit.setTaxonomy(taxonomicNode);
+                    normalizedHit.setFocusNode(taxonomicNode);
+                    assigned.add(normalizedHit);
+                }
+            } else {
+                final NormalizedHit resolved = this.assignTaxonomy(normalizedHit);
+                assignedByGi.put(gi, resolved);
+                assigned.add(resolved);
+            }
+        }
+        return assigned;
+    }
+
+    /**
+     * Lifts the hits one by one, an identifier that is able to lift them at once should override this
+     *
+     * @param normalizedHits {@link java.util.List} of {@link blast.normal.hit.NormalizedHit}s to lift
+     * @return {@link java.util.List} of the same size and order, {@code null} in place of the hits that have no parent
+     * @throws Exception in case a database communication error occurs
+     */
+    @Override
+    public List<NormalizedHit> liftRankForNormalizedHits(final List<NormalizedHit> normalizedHits) throws Exception {
+        final List<NormalizedHit> lifted = new ArrayList<NormalizedHit>(normalizedHits.size());
+        for (NormalizedHit normalizedHit : normalizedHits) {
+            lifted.add(this.liftRankForNormalizedHit(normalizedHit));
+        }
+        return lifted;
+    }
+
+    /**
+     * Checks the supposed parents one by one, an identifier that is able to check them at once should override this
+     *
+     * @param parentTaxids taxids of the supposed parents
+     * @param taxid        of the pivotal taxid
+     * @return {@code boolean[]} of the same size and order, {@code true} where the taxid is indeed a parent of the given one
+     * @throws Exception in case a database communication error occurs
+     */
+    @Override
+    public boolean[] areParentsOf(final int[] parentTaxids, final int taxid) throws Exception {
+        final boolean[] areParents = new boolean[parentTaxids.length];
+        for (int i = 0; i < parentTaxids.length; i++) {
+            areParents[i] = this.isParentOf(parentTaxids[i], taxid);
+        }
+        return areParents;
     }
 
     /**
@@ -233,22 +400,50 @@ public abstract class BLASTIdentifier<T extends NucleotideFasta> extends NCBI_EX
 
     /**
      * Accepts a result pair of a query {@link NucleotideFasta} and its {@link NormalizedIteration} (thereby specified)
-     * {@link TUITFileOperator} in order to save the result in the way defined by the current file operator
+     * {@link TUITFileOperator} in order to save the result in the way defined by the current file operator. While a batch
+     * is classified concurrently, the results are held until the preceding queries are saved.
      *
      * @param query               {@link NucleotideFasta}
      * @param normalizedIteration {@link NormalizedIteration}
-     * @return {@code true} if the file operator returns success, {@code false} otherwise
+     * @return {@code true} if the file operator returns success or the results are held, {@code false} otherwise
      */
     @SuppressWarnings({"unchecked", "UnusedReturnValue"})
     public boolean acceptResults(NucleotideFasta query, NormalizedIteration<Iteration> normalizedIteration) throws Exception {
+        final Map<NormalizedIteration<Iteration>, NucleotideFasta> pendingResults = this.pendingResults;
+        if (pendingResults != null) {
+            pendingResults.put(normalizedIteration, query);
+            return true;
+        }
         return ((TUITFileOperator) this.fileOperator).saveResults(query, normalizedIteration);
     }
 
     /**
-     * Utility method that handles the process of taxonomic specification
+     * Classifies a single iteration, gets called on a worker thread if the batch is classified concurrently
+     *
+     * @param normalizedIteration {@link NormalizedIteration} to specify
+     * @throws Exception in case the iteration fails to get classified
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected void classify(final NormalizedIteration<Iteration> normalizedIteration) throws Exception {
+        normalizedIteration.specify();
+    }
+
+    /**
+     * Stops the threads that classify the iterations, if any
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected void shutdownWorkers() {
+        if (this.workers != null) {
+            this.workers.shutdown();
+            this.workers = null;
+        }
+    }
+
+    /**
+     * Specifies the taxonomy of every iteration of the batch. The iterations get classified one by one, or concurrently if
+     * there are several classifier threads, in which case the results are still saved in the order of the queries.
      *
-     * @throws SQLException       in case an error occurs during database communication
-     * @throws BadFormatException in case an error in case formatting the {@link blast.ncbi.output.Hit} GI fails
+     * @throws Exception in case an iteration fails to get classified
      */
     @SuppressWarnings("WeakerAccess")
     protected void specify() throws Exception {
@@ -256,17 +451,119 @@ public abstract class BLASTIdentifier<T extends NucleotideFasta> extends NCBI_EX
         if (this.blastOutput.getBlastOutputIterations().getIteration().size() > 0) {
             this.normalizedIterations = new ArrayList<NormalizedIteration<Iteration>>(this.blastOutput.getBlastOutputIterations().getIteration().size());
             this.normalizeIterations();
-            int count=0;
-            for (NormalizedIteration<Iteration> normalizedIteration : this.normalizedIterations) {
-                Log.getInstance().log(Level.FINE,"<------------------"+normalizedIteration.getIterationQueryName()+"----------------->");
-                Log.getInstance().log(Level.FINE,"Classification process for iteration: "+count+", query: "+normalizedIteration.getIterationQueryName()+".");
-                normalizedIteration.specify();
-                Log.getInstance().log(Level.FINE,"Finished classifying iteration: "+count+", query: "+normalizedIteration.getIterationQueryName()+".");
-                count++;
+            this.normaliseHits();
+            if (this.classifierThreads > 1 && this.normalizedIterations.size() > 1) {
+                this.specifyConcurrently();
+            } else {
+                int count = 0;
+                for (NormalizedIteration<Iteration> normalizedIteration : this.normalizedIterations) {
+                    Log.getInstance().log(Level.FINE,"<------------------"+normalizedIteration.getIterationQueryName()+"----------------->");
+                    Log.getInstance().log(Level.FINE,"Classification process for iteration: "+count+", query: "+normalizedIteration.getIterationQueryName()+".");
+                    this.classify(normalizedIteration);
+                    Log.getInstance().log(Level.FINE,"Finished classifying iteration: "+count+", query: "+normalizedIteration.getIterationQueryName()+".");
+                    count++;
+                }
             }
             this.normalizedIterations=null;
         } else {
             Log.getInstance().log(Level.SEVERE,"No Iterations were returned, an error might have occurred during BLAST, proceeding with the next query.");
         }
     }
+
+    /**
+     * Normalizes the hits of all the iterations of the batch, each hit once, and assigns their taxonomy with a single call
+     * to the operator, so that a GI that repeats across the queries of the batch gets looked up once
+     *
+     * @throws Exception in case a database communication error occurs
+     */
+    private void normaliseHits() throws Exception {
+        final List<NormalizedHit> batchHits = new ArrayList<NormalizedHit>();
+        final int[] ends = new int[this.normalizedIterations.size()];
+        for (int i = 0; i < ends.length; i++) {
+            batchHits.addAll(this.normalizedIterations.get(i).newNormalizedHits());
+            ends[i] = batchHits.size();
+        }
+        final List<NormalizedHit> assigned = this.getTaxonomicDatabaseOperator().assignTaxonomy(batchHits);
+        int start = 0;
+        for (int i = 0; i < ends.length; i++) {
+            this.normalizedIterations.get(i).setNormalizedHits(assigned.subList(start, ends[i]));
+            start = ends[i];
+        }
+    }
+
+    /**
+     * Classifies the normalized iterations on the worker threads and saves the results in the order of the queries, each as
+     * soon as the iterations before it are saved
+     */
+    @SuppressWarnings("unchecked")
+    private void specifyConcurrently() throws Exception {
+        Log.getInstance().log(Level.FINE, "Classifying " + this.normalizedIterations.size() + " iterations on " + this.classifierThreads + " threads..");
+        if (this.workers == null) {
+            this.workers = Executors.newFixedThreadPool(this.classifierThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "classifier");
+                    //Do not keep the application alive if the identifier has not been shut down
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        this.pendingResults = new ConcurrentHashMap<NormalizedIteration<Iteration>, NucleotideFasta>();
+        final List<Future<?>> futures = new ArrayList<Future<?>>(this.normalizedIterations.size());
+        boolean classified = false;
+        try {
+            for (final NormalizedIteration<Iteration> normalizedIteration : this.normalizedIterations) {
+                futures.add(this.workers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        BLASTIdentifier.this.classify(normalizedIteration);
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+                final NormalizedIteration<Iteration> normalizedIteration = this.normalizedIterations.get(i);
+                final NucleotideFasta query = this.pendingResults.remove(normalizedIteration);
+                if (query != null) {
+                    ((TUITFileOperator) this.fileOperator).saveResults(query, normalizedIteration);
+                }
+            }
+            classified = true;
+        } finally {
+            if (!classified) {
+                this.stopWorkers();
+            }
+            this.pendingResults = null;
+        }
+    }
+
+    /**
+     * Interrupts the workers and waits for those still classifying, so that none of them uses the database or the file operator
+     * after a failed batch, once the identifier closes them. The workers get recreated for the next batch.
+     */
+    private void stopWorkers() {
+        final ExecutorService workers = this.workers;
+        this.workers = null;
+        workers.shutdownNow();
+        boolean interrupted = false;
+        while (!workers.isTerminated()) {
+            try {
+                workers.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
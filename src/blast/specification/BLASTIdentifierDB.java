@@ -1,10 +1,15 @@
 package blast.specification;
 
+import blast.ncbi.output.Iteration;
+import blast.normal.iteration.NormalizedIteration;
 import blast.normal.hit.NormalizedHit;
 import blast.specification.cutoff.TUITCutoffSet;
+import db.connect.SubtreeBuilder;
+import db.connect.SubtreeVisitor;
 import db.tables.LookupNames;
 import format.fasta.nucleotide.NucleotideFasta;
 import io.file.TUITFileOperator;
+import logger.Log;
 import taxonomy.Ranks;
 import taxonomy.node.TaxonomicNode;
 
@@ -13,8 +18,15 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLSyntaxErrorException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
 
 /**
  * An abstraciton of a {@link blast.specification.BLASTIdentifier}, that uses a RDBMS-based taxonomic database.
@@ -22,10 +34,189 @@ import java.util.Map;
 public abstract class BLASTIdentifierDB extends BLASTIdentifier<NucleotideFasta> {
 
     /**
-     * A connection to an SQL database, which contains a NCBI schema with taxonomic information
+     * A guard against the cyclic lineages: the NCBI taxonomy has no "no rank" chains anywhere near as long
+     */
+    private static final int MAX_NO_RANK_LIFTS = 25;
+
+    /**
+     * The IN-list sizes for the bulk lookups: a list gets padded up to the closest size, so that only a few statements get
+     * prepared, while the largest one bounds the length of a single query
+     */
+    private static final int[] IN_LIST_SIZES = {1, 8, 64, 512};
+    /**
+     * Selects a taxon by GI
+     */
+    private static final String TAXON_BY_GI = "SELECT * FROM "
+            + LookupNames.dbs.NCBI.name + "."
+            + LookupNames.dbs.NCBI.views.taxon_by_gi.getName()
+            + " where "
+            + LookupNames.dbs.NCBI.gi_taxid.columns.gi.name()
+            + "=? ";
+    /**
+     * Selects the parent taxon of a taxId
+     */
+    private static final String PARENT_TAXON_BY_TAXID = "SELECT * FROM "
+            + LookupNames.dbs.NCBI.name + "."
+            + LookupNames.dbs.NCBI.views.f_level_children_by_parent.getName()
+            + " WHERE "
+            + LookupNames.dbs.NCBI.names.columns.taxid.name()
+            + "=(SELECT "
+            + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name()
+            + " FROM "
+            + LookupNames.dbs.NCBI.name + "."
+            + LookupNames.dbs.NCBI.nodes.name
+            + " WHERE "
+            + LookupNames.dbs.NCBI.names.columns.taxid.name() + "=?)";
+    /**
+     * Selects the rank of the parent of a taxId
+     */
+    private static final String PARENT_RANK_BY_TAXID = "SELECT * FROM "
+            + LookupNames.dbs.NCBI.name + "."
+            + LookupNames.dbs.NCBI.views.rank_by_taxid.getName()
+            + " WHERE "
+            + LookupNames.dbs.NCBI.names.columns.taxid.name()
+            + "=(SELECT "
+            + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name()
+            + " FROM "
+            + LookupNames.dbs.NCBI.name + "."
+            + LookupNames.dbs.NCBI.nodes.name
+            + " WHERE "
+            + LookupNames.dbs.NCBI.names.columns.taxid.name() + "=?)";
+    /**
+     * Selects the taxa of a list of GIs, to be completed with an IN-list
+     */
+    private static final String TAXA_BY_GIS = "SELECT * FROM "
+            + LookupNames.dbs.NCBI.name + "."
+            + LookupNames.dbs.NCBI.views.taxon_by_gi.getName()
+            + " WHERE "
+            + LookupNames.dbs.NCBI.gi_taxid.columns.gi.name();
+    /**
+     * Selects the children taxa of a list of taxIds, to be completed with an IN-list
+     */
+    private static final String CHILDREN_TAXA_BY_PARENTS = "SELECT * FROM "
+            + LookupNames.dbs.NCBI.name + "."
+            + LookupNames.dbs.NCBI.views.f_level_children_by_parent.getName()
+            + " WHERE "
+            + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name();
+    /**
+     * Selects the parent taxa of a list of taxIds, each preceded by the taxId, to be completed with an IN-list
+     */
+    private static final String PARENT_TAXA_BY_TAXIDS = "SELECT n." + LookupNames.dbs.NCBI.nodes.columns.taxid.name() + ", v.* FROM "
+            + LookupNames.dbs.NCBI.name + "." + LookupNames.dbs.NCBI.nodes.name + " n JOIN "
+            + LookupNames.dbs.NCBI.name + "." + LookupNames.dbs.NCBI.views.f_level_children_by_parent.getName()
+            + " v ON v." + LookupNames.dbs.NCBI.names.columns.taxid.name() + "=n." + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name()
+            + " WHERE n." + LookupNames.dbs.NCBI.nodes.columns.taxid.name();
+    /**
+     * Selects the enter and exit labels of a list of taxIds, to be completed with an IN-list
+     */
+    private static final String LABELS_BY_TAXID_LIST = "SELECT " + LookupNames.dbs.NCBI.node_labels.columns.taxid.name()
+            + ", " + LookupNames.dbs.NCBI.node_labels.columns.enter_label.name()
+            + ", " + LookupNames.dbs.NCBI.node_labels.columns.exit_label.name()
+            + " FROM " + LookupNames.dbs.NCBI.name + "." + LookupNames.dbs.NCBI.node_labels.name
+            + " WHERE " + LookupNames.dbs.NCBI.node_labels.columns.taxid.name();
+    /**
+     * Selects the parent taxId of a taxId
+     */
+    private static final String PARENT_TAXID_BY_TAXID = "SELECT "
+            + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name()
+            + " FROM "
+            + LookupNames.dbs.NCBI.name + "."
+            + LookupNames.dbs.NCBI.views.f_level_children_by_parent.getName()
+            + " where "
+            + LookupNames.dbs.NCBI.nodes.columns.taxid.name()
+            + "=?";
+    /**
+     * SQL state of a syntax error or an access rule violation
+     */
+    private static final String SQL_SYNTAX_ERROR_STATE = "42000";
+    /**
+     * SQL state of a missing table
+     */
+    private static final String SQL_NO_TABLE_STATE = "42S02";
+    /**
+     * Selects the labels of two nodes: the enter and the exit label of the first one, and the enter label of the second one
+     */
+    private static final String LABELS_BY_TAXIDS = "SELECT a." + LookupNames.dbs.NCBI.node_labels.columns.enter_label.name()
+            + ", a." + LookupNames.dbs.NCBI.node_labels.columns.exit_label.name()
+            + ", d." + LookupNames.dbs.NCBI.node_labels.columns.enter_label.name()
+            + " FROM " + LookupNames.dbs.NCBI.name + "." + LookupNames.dbs.NCBI.node_labels.name + " a, "
+            + LookupNames.dbs.NCBI.name + "." + LookupNames.dbs.NCBI.node_labels.name + " d"
+            + " WHERE a." + LookupNames.dbs.NCBI.node_labels.columns.taxid.name() + "=?"
+            + " AND d." + LookupNames.dbs.NCBI.node_labels.columns.taxid.name() + "=?";
+    /**
+     * Selects the closest ancestor of a real rank of a taxId
+     */
+    private static final String RANKED_PARENT_TAXON_BY_TAXID = "SELECT v.* FROM "
+            + LookupNames.dbs.NCBI.name + "." + LookupNames.dbs.NCBI.node_labels.name + " l JOIN "
+            + LookupNames.dbs.NCBI.name + "." + LookupNames.dbs.NCBI.views.f_level_children_by_parent.getName()
+            + " v ON v." + LookupNames.dbs.NCBI.nodes.columns.taxid.name() + "=l." + LookupNames.dbs.NCBI.node_labels.columns.ranked_parent_taxid.name()
+            + " WHERE l." + LookupNames.dbs.NCBI.node_labels.columns.taxid.name() + "=?";
+    /**
+     * Longer lineages are considered cyclic, the NCBI taxonomy is less than 50 levels deep
+     */
+    private static final int MAX_LINEAGE_DEPTH = 128;
+    /**
+     * Walks up the lineage of a taxId: the taxId, its parent, and the depth, starting with zero for the taxId itself
+     */
+    private static final String LINEAGE_CTE = "WITH RECURSIVE lineage ("
+            + LookupNames.dbs.NCBI.nodes.columns.taxid.name() + ", "
+            + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name() + ", depth) AS ("
+            + "SELECT " + LookupNames.dbs.NCBI.nodes.columns.taxid.name() + ", "
+            + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name() + ", 0 FROM "
+            + LookupNames.dbs.NCBI.name + "." + LookupNames.dbs.NCBI.nodes.name
+            + " WHERE " + LookupNames.dbs.NCBI.nodes.columns.taxid.name() + "=?"
+            + " UNION ALL SELECT n." + LookupNames.dbs.NCBI.nodes.columns.taxid.name() + ", n."
+            + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name() + ", l.depth+1 FROM "
+            + LookupNames.dbs.NCBI.name + "." + LookupNames.dbs.NCBI.nodes.name + " n JOIN lineage l ON n."
+            + LookupNames.dbs.NCBI.nodes.columns.taxid.name() + "=l." + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name()
+            + " WHERE l." + LookupNames.dbs.NCBI.nodes.columns.taxid.name() + "<>l." + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name()
+            + " AND l.depth<" + MAX_LINEAGE_DEPTH + ") ";
+    /**
+     * Selects the taxa of a whole lineage, same columns as the {@code f_level_children_by_parent} view followed by the depth,
+     * the taxId itself first
+     */
+    private static final String LINEAGE_BY_TAXID = LINEAGE_CTE
+            + "SELECT v.*, lineage.depth FROM lineage JOIN "
+            + LookupNames.dbs.NCBI.name + "." + LookupNames.dbs.NCBI.views.f_level_children_by_parent.getName()
+            + " v ON v." + LookupNames.dbs.NCBI.nodes.columns.taxid.name() + "=lineage." + LookupNames.dbs.NCBI.nodes.columns.taxid.name()
+            + " ORDER BY lineage.depth";
+    /**
+     * Selects a row if the second taxId is a parent of any node within the lineage of the first one, which holds for the root
+     * that is its own parent as well
+     */
+    private static final String IS_PARENT_OF = LINEAGE_CTE
+            + "SELECT 1 FROM lineage WHERE " + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name() + "=? LIMIT 1";
+    /**
+     * Marks a GI that was looked up in bulk, but is not in the database
+     */
+    private static final TaxonomicNode NO_TAXON = TaxonomicNode.newDefaultInstance(0, Ranks.no_rank, "");
+
+    /**
+     * A connection to an SQL database, which contains a NCBI schema with taxonomic information, the first one of the pool
      */
     @SuppressWarnings("WeakerAccess")
     protected final Connection connection;
+    /**
+     * A session per connection of the pool
+     */
+    private final List<Session> sessions;
+    /**
+     * The sessions that are not currently used by a worker
+     */
+    private final BlockingQueue<Session> idleSessions;
+    /**
+     * The session of the iteration that the current thread classifies, unset on the identifier's own thread, which uses the
+     * first session
+     */
+    private final ThreadLocal<Session> currentSession;
+    /**
+     * Whether the server is supposed to support recursive queries (WITH RECURSIVE), turns {@code false} upon the first rejection
+     */
+    private volatile boolean recursiveQueries;
+    /**
+     * Whether the database is supposed to have the node labels, turns {@code false} if the node_labels table is missing
+     */
+    private volatile boolean nodeLabels;
 
     /**
      * Protected constructor from parameters.
@@ -45,8 +236,134 @@ public abstract class BLASTIdentifierDB extends BLASTIdentifier<NucleotideFasta>
      */
     protected BLASTIdentifierDB(List<NucleotideFasta> query, File tempDir, File executive, String[] parameterList,
                                 TUITFileOperator identifierFileOperator, Connection connection, Map<Ranks, TUITCutoffSet> cutoffSetMap, final int batchSize, final boolean cleanup) {
+        this(query, tempDir, executive, parameterList, identifierFileOperator, Collections.singletonList(connection), cutoffSetMap, batchSize, cleanup);
+    }
+
+    /**
+     * Protected constructor from parameters, that classifies as many iterations of a batch at a time as there are connections.
+     *
+     * @param query                  a list of {@link format.fasta.nucleotide.NucleotideFasta}s that were used as query
+     * @param tempDir                {@link java.io.File} that points to the temporary directory, used to store blast I/O and GI-restrictions files
+     * @param executive              {@link java.io.File} that points to the BLASTN executable on the system
+     * @param parameterList          {@link String}[] of BLASTN parameters
+     * @param identifierFileOperator {@link io.file.TUITFileOperator} that reads queries, BLAST outputs, and saves results in s specified format
+     * @param connections            {@link java.util.List} of {@link java.sql.Connection}s to the RDBMS taxonomic database, at least one
+     * @param cutoffSetMap           {@link java.util.Map} of {@link blast.specification.cutoff.TUITCutoffSet}s
+     * @param batchSize              {@code int} value that determines how many files get blasted/classified in a single blast
+     * @param cleanup                {@code boolean} that determines whether the BLAST files should be deleted after the classification has finished
+     */
+    protected BLASTIdentifierDB(List<NucleotideFasta> query, File tempDir, File executive, String[] parameterList,
+                                TUITFileOperator identifierFileOperator, List<Connection> connections, Map<Ranks, TUITCutoffSet> cutoffSetMap, final int batchSize, final boolean cleanup) {
         super(query, tempDir, executive, parameterList, identifierFileOperator, cutoffSetMap, batchSize, cleanup);
-        this.connection = connection;
+        this.connection = connections.get(0);
+        this.sessions = new ArrayList<>(connections.size());
+        for (Connection pooled : connections) {
+            this.sessions.add(new Session(pooled));
+        }
+        this.idleSessions = new LinkedBlockingQueue<>(this.sessions);
+        this.currentSession = new ThreadLocal<>();
+        //Each classifier thread needs a connection of its own
+        this.setClassifierThreads(this.sessions.size());
+        this.recursiveQueries = true;
+        this.nodeLabels = true;
+    }
+
+    /**
+     * Returns a statement for a given SQL, prepared once per connection. The statement must not be closed by the caller, and its
+     * result set must be read out before the statement gets executed again.
+     *
+     * @param sql {@link String} SQL
+     * @return {@link java.sql.PreparedStatement} for the SQL
+     * @throws SQLException in case a database communication error occurs
+     */
+    protected PreparedStatement prepareStatement(final String sql) throws SQLException {
+        final Session session = this.session();
+        PreparedStatement preparedStatement = session.preparedStatements.get(sql);
+        if (preparedStatement == null || preparedStatement.isClosed()) {
+            preparedStatement = session.connection.prepareStatement(sql);
+            session.preparedStatements.put(sql, preparedStatement);
+        }
+        return preparedStatement;
+    }
+
+    /**
+     * Closes all the prepared statements and stops the workers
+     */
+    public void closeStatements() {
+        this.shutdownWorkers();
+        for (Session session : this.sessions) {
+            for (PreparedStatement preparedStatement : session.preparedStatements.values()) {
+                try {
+                    preparedStatement.close();
+                } catch (SQLException e) {
+                    Log.getInstance().log(Level.WARNING, e.getMessage());
+                }
+            }
+            session.preparedStatements.clear();
+            session.taxonByGi.clear();
+        }
+    }
+
+    /**
+     * Classifies a single iteration over an idle connection of the pool, so that the waits for the database of the
+     * iterations that are classified at a time overlap
+     *
+     * @param normalizedIteration {@link NormalizedIteration} to specify
+     * @throws Exception in case the iteration fails to get classified
+     */
+    @Override
+    protected void classify(final NormalizedIteration<Iteration> normalizedIteration) throws Exception {
+        final Session session = this.idleSessions.take();
+        this.currentSession.set(session);
+        try {
+            normalizedIteration.specify();
+        } finally {
+            this.currentSession.remove();
+            this.idleSessions.put(session);
+        }
+    }
+
+    /**
+     * Returns the session of the current thread
+     */
+    private Session session() {
+        final Session session = this.currentSession.get();
+        return session != null ? session : this.sessions.get(0);
+    }
+
+    /**
+     * Resolves the taxa of all the GIs of a list of hits, such as all the hits of an iteration, with a few IN-list queries (one
+     * per 512 GIs) instead of one query per hit. The taxa are kept until the next list and also used by the
+     * {@code assignTaxonomy(NormalizedHit)}.
+     *
+     * @param normalizedHits {@link java.util.List} of {@link blast.normal.hit.NormalizedHit}s that need to know their taxonomy
+     * @return {@link java.util.List} of the same size and order, {@code null} in place of the hits that could not be resolved
+     * @throws SQLException in case a database communication error occurs
+     */
+    @Override
+    public List<NormalizedHit> assignTaxonomy(final List<NormalizedHit> normalizedHits) throws SQLException {
+        final Map<Integer, TaxonomicNode> taxonByGi = this.session().taxonByGi;
+        taxonByGi.clear();
+        final List<Integer> gis = new ArrayList<>(normalizedHits.size());
+        for (NormalizedHit normalizedHit : normalizedHits) {
+            final int gi = normalizedHit.getGI();
+            //The hits that carry no GI will be looked up on their own
+            if (gi != 0 && taxonByGi.put(gi, NO_TAXON) == null) {
+                gis.add(gi);
+            }
+        }
+        this.queryInLists(TAXA_BY_GIS, gis, new RowReader() {
+            @Override
+            public void read(final ResultSet resultSet) throws SQLException {
+                taxonByGi.put(resultSet.getInt(1), TaxonomicNode.newDefaultInstance(resultSet.getInt(2),
+                        Ranks.values()[resultSet.getInt(5) - 1], resultSet.getString(3)));
+            }
+        });
+        final List<NormalizedHit> assigned = new ArrayList<>(normalizedHits.size());
+        for (NormalizedHit normalizedHit : normalizedHits) {
+            assigned.add(this.assignTaxonomy(normalizedHit));
+        }
+        return assigned;
     }
 
     /**
@@ -60,21 +377,22 @@ public abstract class BLASTIdentifierDB extends BLASTIdentifier<NucleotideFasta>
      */
     @Override
     public NormalizedHit assignTaxonomy(final NormalizedHit normalizedHit) throws SQLException {
-
+        //Take the taxon from the bulk lookup if the GI has been there
+        final TaxonomicNode resolved = this.session().taxonByGi.get(normalizedHit.getGI());
+        if (resolved != null) {
+            if (resolved == NO_TAXON) {
+                return null;
+            }
+            final TaxonomicNode taxonomicNode = TaxonomicNode.newDefaultInstance(resolved.getTaxid(), resolved.getRank(), resolved.getScientificName());
+            normalizedHit.setTaxonomy(taxonomicNode);
+            normalizedHit.setFocusNode(taxonomicNode);
+            return normalizedHit;
+        }
         //Get its taxid and reconstruct its child taxonomic nodes
-        try (PreparedStatement preparedStatement = this.connection.prepareStatement(
-                "SELECT * FROM "
-                        + LookupNames.dbs.NCBI.name + "."
-                        + LookupNames.dbs.NCBI.views.taxon_by_gi.getName()
-                        + " where "
-                        + LookupNames.dbs.NCBI.gi_taxid.columns.gi.name()
-                        + "=? "
-        );
-        ) {
-            //Try selecting the child nodes for the given hit
-            preparedStatement.setInt(1, normalizedHit.getGI());
-            final ResultSet resultSet = preparedStatement.executeQuery();
-
+        final PreparedStatement preparedStatement = this.prepareStatement(TAXON_BY_GI);
+        //Try selecting the child nodes for the given hit
+        preparedStatement.setInt(1, normalizedHit.getGI());
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
             int taxid;
             Ranks rank;
             String scientificName;
@@ -107,22 +425,9 @@ public abstract class BLASTIdentifierDB extends BLASTIdentifier<NucleotideFasta>
         //Get its taxid and reconstruct its child taxonomic nodes
         //Try selecting the parent node for the given hit
         //Assuming the database is consistent - one taxid should have only one immediate parent
-        try (PreparedStatement preparedStatement = this.connection.prepareStatement(
-                "SELECT * FROM "
-                        + LookupNames.dbs.NCBI.name + "."
-                        + LookupNames.dbs.NCBI.views.f_level_children_by_parent.getName()
-                        + " WHERE "
-                        + LookupNames.dbs.NCBI.names.columns.taxid.name()
-                        + "=(SELECT "
-                        + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name()
-                        + " FROM "
-                        + LookupNames.dbs.NCBI.name + "."
-                        + LookupNames.dbs.NCBI.nodes.name
-                        + " WHERE "
-                        + LookupNames.dbs.NCBI.names.columns.taxid.name() + "=?)"
-        );) {
-            preparedStatement.setInt(1, normalizedHit.getAssignedTaxid());
-            final ResultSet resultSet = preparedStatement.executeQuery();
+        final PreparedStatement preparedStatement = this.prepareStatement(PARENT_TAXON_BY_TAXID);
+        preparedStatement.setInt(1, normalizedHit.getAssignedTaxid());
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
             if (resultSet.next()) {
                 final TaxonomicNode taxonomicNode = TaxonomicNode.newDefaultInstance(resultSet.getInt(2),
                         Ranks.values()[resultSet.getInt(5) - 1],
@@ -137,6 +442,104 @@ public abstract class BLASTIdentifierDB extends BLASTIdentifier<NucleotideFasta>
         return normalizedHit;
     }
 
+    /**
+     * Lifts a list of hits one step higher with a few IN-list queries (one per 512 taxids) that select the parents of all the
+     * hits at once, instead of one query per hit
+     *
+     * @param normalizedHits {@link java.util.List} of {@link NormalizedHit}s to lift
+     * @return {@link java.util.List} of the same size and order, {@code null} in place of the hits that have no parent
+     * @throws SQLException in case a database communication error occurs
+     */
+    @Override
+    public List<NormalizedHit> liftRankForNormalizedHits(final List<NormalizedHit> normalizedHits) throws SQLException {
+        final Map<Integer, TaxonomicNode> parentByTaxid = new HashMap<>();
+        final List<Integer> taxids = new ArrayList<>(normalizedHits.size());
+        for (NormalizedHit normalizedHit : normalizedHits) {
+            if (parentByTaxid.put(normalizedHit.getAssignedTaxid(), NO_TAXON) == null) {
+                taxids.add(normalizedHit.getAssignedTaxid());
+            }
+        }
+        this.queryInLists(PARENT_TAXA_BY_TAXIDS, taxids, new RowReader() {
+            @Override
+            public void read(final ResultSet resultSet) throws SQLException {
+                parentByTaxid.put(resultSet.getInt(1), TaxonomicNode.newDefaultInstance(resultSet.getInt(3),
+                        Ranks.values()[resultSet.getInt(6) - 1], resultSet.getString(4)));
+            }
+        });
+        final List<NormalizedHit> lifted = new ArrayList<>(normalizedHits.size());
+        for (NormalizedHit normalizedHit : normalizedHits) {
+            final TaxonomicNode parent = parentByTaxid.get(normalizedHit.getAssignedTaxid());
+            if (parent == NO_TAXON) {
+                lifted.add(null);
+                continue;
+            }
+            //Every hit gets its own node, the same way the single lift builds it
+            final TaxonomicNode taxonomicNode = TaxonomicNode.newDefaultInstance(parent.getTaxid(), parent.getRank(), parent.getScientificName());
+            taxonomicNode.addChild(normalizedHit.getFocusNode());
+            normalizedHit.setTaxonomy(taxonomicNode);
+            normalizedHit.setFocusNode(taxonomicNode);
+            lifted.add(normalizedHit);
+        }
+        return lifted;
+    }
+
+    /**
+     * Based on the SQL database NCBI schema lifts the focus node of the given {@link NormalizedHit} over its "no rank" ancestors
+     * up to the closest one of a real rank with a single lookup of the node labels (see {@link helper.nodes.NodesDBDeployer}),
+     * or one parent at a time if the node has not been labeled
+     *
+     * @param normalizedHit {@link NormalizedHit}
+     * @return {@link NormalizedHit} which points to the same object as the given {@link NormalizedHit} parameter,
+     * but with a real {@code Ranks}, {@code null} if the lineage is broken
+     * @throws SQLException in case a database communication error occurs
+     */
+    @Override
+    public NormalizedHit liftRankToNextRealRank(final NormalizedHit normalizedHit) throws SQLException {
+        if (normalizedHit.getAssignedRank() != Ranks.no_rank || normalizedHit.getAssignedTaxid() == 1) {
+            return normalizedHit;
+        }
+        if (this.nodeLabels) {
+            try {
+                final PreparedStatement preparedStatement = this.prepareStatement(RANKED_PARENT_TAXON_BY_TAXID);
+                preparedStatement.setInt(1, normalizedHit.getAssignedTaxid());
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    if (resultSet.next()) {
+                        final TaxonomicNode taxonomicNode = TaxonomicNode.newDefaultInstance(resultSet.getInt(2),
+                                Ranks.values()[resultSet.getInt(5) - 1],
+                                resultSet.getString(3));
+                        taxonomicNode.addChild(normalizedHit.getFocusNode());
+                        normalizedHit.setTaxonomy(taxonomicNode);
+                        normalizedHit.setFocusNode(taxonomicNode);
+                        return normalizedHit;
+                    }
+                }
+            } catch (SQLException e) {
+                this.disableNodeLabels(e);
+            }
+        }
+        return this.liftRankToNextRealRankStepwise(normalizedHit);
+    }
+
+    /**
+     * Lifts the focus node of the given {@link NormalizedHit} over its "no rank" ancestors one parent at a time (the nodes table
+     * keeps only the direct parents)
+     *
+     * @param normalizedHit {@link NormalizedHit}
+     * @return {@link NormalizedHit} which points to the same object as the given {@link NormalizedHit} parameter,
+     * but with a real {@code Ranks}, {@code null} if the lineage is broken
+     * @throws SQLException in case a database communication error occurs
+     */
+    protected NormalizedHit liftRankToNextRealRankStepwise(final NormalizedHit normalizedHit) throws SQLException {
+        int count = 0;
+        while (normalizedHit.getAssignedRank() == Ranks.no_rank && normalizedHit.getAssignedTaxid() != 1 && count < MAX_NO_RANK_LIFTS) {
+            if (this.liftRankForNormalizedHit(normalizedHit) == null) {
+                return null;
+            }
+            count++;
+        }
+        return normalizedHit;
+    }
+
     /**
      * Allows to reduce those hits, which have a no_rank parent (such as unclassified Bacteria)
      *
@@ -149,25 +552,11 @@ public abstract class BLASTIdentifierDB extends BLASTIdentifier<NucleotideFasta>
         //Get its taxid and reconstruct its child taxonomic nodes
         //Try selecting the parent node for the given hit
         //Assuming the database is consistent - one taxid should have only one immediate parent
-        try (PreparedStatement preparedStatement = this.connection.prepareStatement(
-                "SELECT * FROM "
-                        + LookupNames.dbs.NCBI.name + "."
-                        + LookupNames.dbs.NCBI.views.rank_by_taxid.getName()
-                        + " WHERE "
-                        + LookupNames.dbs.NCBI.names.columns.taxid.name()
-                        + "=(SELECT "
-                        + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name()
-                        + " FROM "
-                        + LookupNames.dbs.NCBI.name + "."
-                        + LookupNames.dbs.NCBI.nodes.name
-                        + " WHERE "
-                        + LookupNames.dbs.NCBI.names.columns.taxid.name() + "=?)"
-        );) {
-            preparedStatement.setInt(1, normalizedHit.getAssignedTaxid());
-            final ResultSet resultSet = preparedStatement.executeQuery();
+        final PreparedStatement preparedStatement = this.prepareStatement(PARENT_RANK_BY_TAXID);
+        preparedStatement.setInt(1, normalizedHit.getAssignedTaxid());
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
             if (resultSet.next()) {
                 if (Ranks.values()[resultSet.getInt(4) - 1].equals(Ranks.no_rank)) {
-                    preparedStatement.close();
                     return true;
                 }
             } else {
@@ -179,7 +568,8 @@ public abstract class BLASTIdentifierDB extends BLASTIdentifier<NucleotideFasta>
 
     /**
      * For a given {@link TaxonomicNode} attaches its parent and higher lineage structure. Originally used to
-     * save results in a form of a taxonomic branch.
+     * save results in a form of a taxonomic branch. The whole lineage is fetched with a single recursive query, unless the
+     * server does not support those, in which case it is fetched one parent at a time.
      *
      * @param taxonomicNode {@link TaxonomicNode} that needs to get its full lineage structure
      * @return a pointer to the same {@link TaxonomicNode} object, but with attached pointers to its taxonomic lineage
@@ -187,47 +577,86 @@ public abstract class BLASTIdentifierDB extends BLASTIdentifier<NucleotideFasta>
      */
     @Override
     public TaxonomicNode attachFullDirectLineage(TaxonomicNode taxonomicNode) throws SQLException {
+        if (this.recursiveQueries) {
+            try {
+                return this.attachFullDirectLineageRecursively(taxonomicNode);
+            } catch (SQLException e) {
+                this.disableRecursiveQueries(e);
+            }
+        }
+        return this.attachFullDirectLineageStepwise(taxonomicNode);
+    }
+
+    /**
+     * Attaches the lineage fetched with a single recursive query, nearest ancestors first
+     *
+     * @param taxonomicNode {@link TaxonomicNode} that needs to get its full lineage structure
+     * @return a pointer to the same {@link TaxonomicNode} object, but with attached pointers to its taxonomic lineage,
+     * {@code null} if the node has no parent
+     * @throws SQLException in case an error in database communication occurs, or the server does not support recursive queries
+     */
+    protected TaxonomicNode attachFullDirectLineageRecursively(final TaxonomicNode taxonomicNode) throws SQLException {
+        final PreparedStatement preparedStatement = this.prepareStatement(LINEAGE_BY_TAXID);
+        preparedStatement.setInt(1, taxonomicNode.getTaxid());
+        TaxonomicNode childTaxonomicNode = taxonomicNode;
+        int depth = 1;
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            //The lineage ends where a node is missing from the view, the way the parent walk ends
+            while (resultSet.next() && resultSet.getInt(6) <= depth) {
+                if (resultSet.getInt(6) < depth && resultSet.getInt(1) != resultSet.getInt(2)) {
+                    //The node itself, unless it is the root, which the parent walk attaches as its own parent
+                    continue;
+                }
+                final TaxonomicNode parentTaxonomicNode = TaxonomicNode.newDefaultInstance(resultSet.getInt(2),
+                        Ranks.values()[resultSet.getInt(5) - 1], resultSet.getString(3));
+                parentTaxonomicNode.addChild(childTaxonomicNode);
+                childTaxonomicNode.setParent(parentTaxonomicNode);
+                childTaxonomicNode = parentTaxonomicNode;
+                depth++;
+            }
+        }
+        if (childTaxonomicNode == taxonomicNode) {
+            return null;
+        }
+        return taxonomicNode;
+    }
+
+    /**
+     * Attaches the lineage one parent at a time, for the servers that do not support recursive queries
+     *
+     * @param taxonomicNode {@link TaxonomicNode} that needs to get its full lineage structure
+     * @return a pointer to the same {@link TaxonomicNode} object, but with attached pointers to its taxonomic lineage,
+     * {@code null} if the node has no parent
+     * @throws SQLException in case an error in database communication occurs
+     */
+    protected TaxonomicNode attachFullDirectLineageStepwise(TaxonomicNode taxonomicNode) throws SQLException {
 
         //Get its taxid and reconstruct its child taxonomic nodes
         TaxonomicNode parentTaxonomicNode;
-        try (PreparedStatement preparedStatement = this.connection.prepareStatement(
-                "SELECT * FROM "
-                        + LookupNames.dbs.NCBI.name + "."
-                        + LookupNames.dbs.NCBI.views.f_level_children_by_parent.getName()
-                        + " WHERE "
-                        + LookupNames.dbs.NCBI.names.columns.taxid.name()
-                        + "=(SELECT "
-                        + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name()
-                        + " FROM "
-                        + LookupNames.dbs.NCBI.name + "."
-                        + LookupNames.dbs.NCBI.nodes.name
-                        + " WHERE "
-                        + LookupNames.dbs.NCBI.names.columns.taxid.name() + "=?)"
-        );) {
-
-            preparedStatement.setInt(1, taxonomicNode.getTaxid());
-            final ResultSet resultSet = preparedStatement.executeQuery();
-            int parent_taxid;
-            int taxid;
-            String scientificName;
-            Ranks rank;
+        final PreparedStatement preparedStatement = this.prepareStatement(PARENT_TAXON_BY_TAXID);
+        preparedStatement.setInt(1, taxonomicNode.getTaxid());
+        int parent_taxid;
+        int taxid;
+        String scientificName;
+        Ranks rank;
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
             if (resultSet.next()) {
                 parent_taxid = resultSet.getInt(1);
                 taxid = resultSet.getInt(2);
                 scientificName = resultSet.getString(3);
                 rank = Ranks.values()[resultSet.getInt(5) - 1];
-                parentTaxonomicNode = TaxonomicNode.newDefaultInstance(taxid, rank, scientificName);
-                parentTaxonomicNode.addChild(taxonomicNode);
-                taxonomicNode.setParent(parentTaxonomicNode);
-                if (parent_taxid != taxid) {
-                    preparedStatement.close();
-                    //noinspection UnusedAssignment
-                    parentTaxonomicNode = this.attachFullDirectLineage(parentTaxonomicNode);
-                }
             } else {
                 return null;
             }
         }
+        parentTaxonomicNode = TaxonomicNode.newDefaultInstance(taxid, rank, scientificName);
+        parentTaxonomicNode.addChild(taxonomicNode);
+        taxonomicNode.setParent(parentTaxonomicNode);
+        if (parent_taxid != taxid) {
+            //The statement gets reused one level up, its result set has been read out
+            //noinspection UnusedAssignment
+            parentTaxonomicNode = this.attachFullDirectLineageStepwise(parentTaxonomicNode);
+        }
         return taxonomicNode;
     }
 
@@ -242,33 +671,53 @@ public abstract class BLASTIdentifierDB extends BLASTIdentifier<NucleotideFasta>
      */
     @Override
     public TaxonomicNode attachChildrenForTaxonomicNode(TaxonomicNode parentNode) throws SQLException {
-        try (PreparedStatement preparedStatement = this.connection.prepareStatement(
-                "SELECT * FROM "
-                        + LookupNames.dbs.NCBI.name + "."
-                        + LookupNames.dbs.NCBI.views.f_level_children_by_parent.getName()
-                        + " where "
-                        + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name()
-                        + "=?"
-        );) {
-            //try selecting all children for a given taxid
-
-            preparedStatement.setInt(1, parentNode.getTaxid());
-            final ResultSet resultSet = preparedStatement.executeQuery();
-
-            TaxonomicNode taxonomicNode;
-            //Clear any children that the taxonomicNode may already have (as a result of leveling up from some other rank)
-            parentNode.getChildren().clear();
-            while (resultSet.next()) {
-                taxonomicNode = TaxonomicNode.newDefaultInstance(
-                        resultSet.getInt(2),
-                        Ranks.values()[resultSet.getInt(5) - 1],
-                        resultSet.getString(3));
-                taxonomicNode.setParent(parentNode);
-                //Recursively return to this procedure in order to get everything down to the leaves
-                parentNode.addChild(this.attachChildrenForTaxonomicNode(taxonomicNode));
+        this.visitSubtree(parentNode.getTaxid(), SubtreeBuilder.newInstance(parentNode));
+        return parentNode;
+    }
+
+    /**
+     * Walks the descendants of a given taxid level by level: the children of a whole level get selected with a few IN-list
+     * queries (one per 512 parents), so a subtree takes about as many round trips as it is deep, rather than one per node.
+     *
+     * @param taxid   of the root of the subtree, which itself does not get visited
+     * @param visitor {@link SubtreeVisitor} that gets every descendant
+     * @throws SQLException in case a database communication error occurs, or the visitor fails with one
+     */
+    @Override
+    public void visitSubtree(final int taxid, final SubtreeVisitor visitor) throws SQLException {
+        List<Integer> level = Collections.singletonList(taxid);
+        while (!level.isEmpty()) {
+            //The children are read out before they get visited, as the statements get reused on the next level
+            final List<TaxonomicNode> children = new ArrayList<>();
+            final List<Integer> parents = new ArrayList<>();
+            this.queryInLists(CHILDREN_TAXA_BY_PARENTS, level, new RowReader() {
+                @Override
+                public void read(final ResultSet resultSet) throws SQLException {
+                    final int parentTaxid = resultSet.getInt(1);
+                    final int childTaxid = resultSet.getInt(2);
+                    //The root is its own parent
+                    if (childTaxid != parentTaxid) {
+                        parents.add(parentTaxid);
+                        children.add(TaxonomicNode.newDefaultInstance(childTaxid, Ranks.values()[resultSet.getInt(5) - 1],
+                                resultSet.getString(3)));
+                    }
+                }
+            });
+            final List<Integer> nextLevel = new ArrayList<>();
+            for (int i = 0; i < children.size(); i++) {
+                final TaxonomicNode child = children.get(i);
+                try {
+                    if (visitor.visit(child.getTaxid(), parents.get(i), child.getRank(), child.getScientificName())) {
+                        nextLevel.add(child.getTaxid());
+                    }
+                } catch (SQLException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new SQLException("Failed to visit taxid " + child.getTaxid() + ".", e);
+                }
             }
+            level = nextLevel;
         }
-        return parentNode;
     }
 
     /**
@@ -285,24 +734,213 @@ public abstract class BLASTIdentifierDB extends BLASTIdentifier<NucleotideFasta>
      */
     @Override
     public boolean isParentOf(int parentTaxid, int taxid) throws SQLException {
-        try (PreparedStatement preparedStatement = this.connection.prepareStatement(
-                "SELECT "
-                        + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name()
-                        + " FROM "
-                        + LookupNames.dbs.NCBI.name + "."
-                        + LookupNames.dbs.NCBI.views.f_level_children_by_parent.getName()
-                        + " where "
-                        + LookupNames.dbs.NCBI.nodes.columns.taxid.name()
-                        + "=?"
-        );) {
-            //try selecting all children for a given taxid
-
-            preparedStatement.setInt(1, taxid);
-            final ResultSet resultSet = preparedStatement.executeQuery();
-            if (resultSet.next()) {
-                return parentTaxid == resultSet.getInt(1) || resultSet.getInt(1) != 1 && this.isParentOf(parentTaxid, resultSet.getInt(1));
+        //A node is only a parent of itself if it is the root, which is left to the lineage walk
+        if (this.nodeLabels && parentTaxid != taxid) {
+            try {
+                final PreparedStatement preparedStatement = this.prepareStatement(LABELS_BY_TAXIDS);
+                preparedStatement.setInt(1, parentTaxid);
+                preparedStatement.setInt(2, taxid);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    if (resultSet.next()) {
+                        final int enter = resultSet.getInt(3);
+                        return resultSet.getInt(1) < enter && enter <= resultSet.getInt(2);
+                    }
+                }
+            } catch (SQLException e) {
+                this.disableNodeLabels(e);
             }
         }
-        return false;
+        if (this.recursiveQueries) {
+            try {
+                return this.isParentOfRecursively(parentTaxid, taxid);
+            } catch (SQLException e) {
+                this.disableRecursiveQueries(e);
+            }
+        }
+        return this.isParentOfStepwise(parentTaxid, taxid);
+    }
+
+    /**
+     * Checks a set of supposed parents of a taxid with a few IN-list queries of their node labels (see
+     * {@link helper.nodes.NodesDBDeployer}), instead of one query per pair. Falls back to the one by one checks whenever
+     * some of the nodes have not been labeled.
+     *
+     * @param parentTaxids taxids of the supposed parents
+     * @param taxid        of the pivotal taxid
+     * @return {@code boolean[]} of the same size and order, {@code true} where the taxid is indeed a parent of the given one
+     * @throws SQLException in case a database communication error occurs
+     */
+    @Override
+    public boolean[] areParentsOf(final int[] parentTaxids, final int taxid) throws SQLException {
+        final boolean[] areParents = new boolean[parentTaxids.length];
+        final Map<Integer, int[]> labelsByTaxid = new HashMap<>();
+        if (this.nodeLabels) {
+            final List<Integer> taxids = new ArrayList<>(parentTaxids.length + 1);
+            taxids.add(taxid);
+            for (int parentTaxid : parentTaxids) {
+                taxids.add(parentTaxid);
+            }
+            try {
+                this.queryInLists(LABELS_BY_TAXID_LIST, taxids, new RowReader() {
+                    @Override
+                    public void read(final ResultSet resultSet) throws SQLException {
+                        labelsByTaxid.put(resultSet.getInt(1), new int[]{resultSet.getInt(2), resultSet.getInt(3)});
+                    }
+                });
+            } catch (SQLException e) {
+                this.disableNodeLabels(e);
+                labelsByTaxid.clear();
+            }
+        }
+        final int[] labels = labelsByTaxid.get(taxid);
+        for (int i = 0; i < parentTaxids.length; i++) {
+            final int[] parentLabels = labelsByTaxid.get(parentTaxids[i]);
+            //A node is only a parent of itself if it is the root, which is left to the lineage walk
+            if (labels != null && parentLabels != null && parentTaxids[i] != taxid) {
+                areParents[i] = parentLabels[0] < labels[0] && labels[0] <= parentLabels[1];
+            } else {
+                areParents[i] = this.isParentOf(parentTaxids[i], taxid);
+            }
+        }
+        return areParents;
+    }
+
+    /**
+     * Answers the ancestor test with a single recursive query over the lineage of the given taxid
+     *
+     * @param parentTaxid a taxid of the supposed parent
+     * @param taxid       a taxid of the supposed descendant
+     * @return {@code true} if the parent taxid is a parent of the given taxid, {@code false} otherwise
+     * @throws SQLException in case a database communication error occurs, or the server does not support recursive queries
+     */
+    protected boolean isParentOfRecursively(final int parentTaxid, final int taxid) throws SQLException {
+        final PreparedStatement preparedStatement = this.prepareStatement(IS_PARENT_OF);
+        preparedStatement.setInt(1, taxid);
+        preparedStatement.setInt(2, parentTaxid);
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            return resultSet.next();
+        }
+    }
+
+    /**
+     * Answers the ancestor test one parent at a time, for the servers that do not support recursive queries
+     *
+     * @param parentTaxid a taxid of the supposed parent
+     * @param taxid       a taxid of the supposed descendant
+     * @return {@code true} if the parent taxid is a parent of the given taxid, {@code false} otherwise
+     * @throws SQLException in case a database communication error occurs
+     */
+    protected boolean isParentOfStepwise(final int parentTaxid, final int taxid) throws SQLException {
+        //try selecting the parent for a given taxid
+        final PreparedStatement preparedStatement = this.prepareStatement(PARENT_TAXID_BY_TAXID);
+        preparedStatement.setInt(1, taxid);
+        final int parent;
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            if (!resultSet.next()) {
+                return false;
+            }
+            parent = resultSet.getInt(1);
+        }
+        return parentTaxid == parent || parent != 1 && this.isParentOfStepwise(parentTaxid, parent);
+    }
+
+    /**
+     * Stops using the node labels in case the database has been deployed without the node_labels table, rethrows any other error
+     */
+    private void disableNodeLabels(final SQLException e) throws SQLException {
+        if (!(e instanceof SQLSyntaxErrorException) && !SQL_SYNTAX_ERROR_STATE.equals(e.getSQLState())
+                && !SQL_NO_TABLE_STATE.equals(e.getSQLState())) {
+            throw e;
+        }
+        Log.getInstance().log(Level.WARNING, "The taxonomic database has no node labels, please update it to speed up the lineage checks: "
+                + e.getMessage());
+        this.nodeLabels = false;
+    }
+
+    /**
+     * Switches to the stepwise queries in case the server has rejected a recursive one as a syntax error (MySQL before 8.0),
+     * rethrows any other error
+     */
+    private void disableRecursiveQueries(final SQLException e) throws SQLException {
+        if (!(e instanceof SQLSyntaxErrorException) && !SQL_SYNTAX_ERROR_STATE.equals(e.getSQLState())) {
+            throw e;
+        }
+        Log.getInstance().log(Level.WARNING, "The database server does not support recursive queries, walking the lineages one parent at a time: "
+                + e.getMessage());
+        this.recursiveQueries = false;
+    }
+
+    /**
+     * Picks the size of the IN-list for a number of values, the values that do not fit go to the next list
+     */
+    private static int inListSize(final int remaining) {
+        for (int inListSize : IN_LIST_SIZES) {
+            if (inListSize >= remaining) {
+                return inListSize;
+            }
+        }
+        return IN_LIST_SIZES[IN_LIST_SIZES.length - 1];
+    }
+
+    /**
+     * Completes a query with an IN-list of a given size
+     */
+    private static String inListSql(final String select, final int size) {
+        final StringBuilder sql = new StringBuilder(select).append(" IN (?");
+        for (int i = 1; i < size; i++) {
+            sql.append(",?");
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * Runs a query for a list of values with a few IN-lists (one per 512 values) instead of one query per value
+     *
+     * @param select    {@link String} query up to the IN-list
+     * @param values    {@link java.util.List} of values
+     * @param rowReader {@link RowReader} that gets every row of the results
+     * @throws SQLException in case a database communication error occurs
+     */
+    private void queryInLists(final String select, final List<Integer> values, final RowReader rowReader) throws SQLException {
+        int from = 0;
+        while (from < values.size()) {
+            final int remaining = values.size() - from;
+            final int size = inListSize(remaining);
+            final PreparedStatement preparedStatement = this.prepareStatement(inListSql(select, size));
+            for (int i = 0; i < size; i++) {
+                //The list gets padded with its last value
+                preparedStatement.setInt(i + 1, values.get(Math.min(from + i, values.size() - 1)));
+            }
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    rowReader.read(resultSet);
+                }
+            }
+            from += Math.min(size, remaining);
+        }
+    }
+
+    /**
+     * Reads the rows of an IN-list query
+     */
+    private interface RowReader {
+        void read(ResultSet resultSet) throws SQLException;
+    }
+
+    /**
+     * A connection of the pool together with the statements prepared over it and the taxa of the GIs of the iteration it
+     * currently classifies, resolved in bulk (see {@code assignTaxonomy(List)}). The nodes serve as templates and
+     * never get attached to a hit. A session is used by a single thread at a time.
+     */
+    private static final class Session {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> preparedStatements;
+        private final Map<Integer, TaxonomicNode> taxonByGi;
+
+        private Session(final Connection connection) {
+            this.connection = connection;
+            this.preparedStatements = new HashMap<>();
+            this.taxonByGi = new HashMap<>();
+        }
     }
 }
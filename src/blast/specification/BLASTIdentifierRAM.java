@@ -3,8 +3,9 @@ package blast.specification;
 import blast.normal.hit.NormalizedHit;
 import blast.specification.cutoff.TUITCutoffSet;
 import com.ice.tar.tar;
+import db.connect.SubtreeBuilder;
+import db.connect.SubtreeVisitor;
 import db.ram.RamDb;
-import db.ram.row.NodesRow;
 import format.fasta.nucleotide.NucleotideFasta;
 import io.file.TUITFileOperator;
 import taxonomy.Ranks;
@@ -58,7 +59,14 @@ public abstract class BLASTIdentifierRAM extends BLASTIdentifier<NucleotideFasta
      */
     @Override
     public NormalizedHit assignTaxonomy(NormalizedHit normalizedHit){
-        final Integer taxid = this.ramDb.getTaxIdByGi(normalizedHit.getGI());
+        Integer taxid = null;
+        if (normalizedHit.getGI() != 0) {
+            taxid = this.ramDb.getTaxIdByGi(normalizedHit.getGI());
+        }
+        //Hits without a GI (or with a GI that the database does not know) get identified by their accession
+        if (taxid == null || taxid == 0) {
+            taxid = this.ramDb.getTaxIdByAccession(normalizedHit.getAccession());
+        }
         if (taxid == null) {
             return null;
         }
@@ -88,19 +96,15 @@ public abstract class BLASTIdentifierRAM extends BLASTIdentifier<NucleotideFasta
     @Override
     public NormalizedHit liftRankForNormalizedHit(NormalizedHit normalizedHit) {
 
-        final NodesRow nodesRow=this.ramDb.getNodeByTaxId(normalizedHit.getAssignedTaxid());
-        if(nodesRow==null){
+        final int parentTaxid=this.ramDb.getParentTaxId(normalizedHit.getAssignedTaxid());
+        if(!this.ramDb.containsTaxId(parentTaxid)){
             return null;
         }
-        final NodesRow parentNodesRow=this.ramDb.getNodeByTaxId(nodesRow.getV());
-        if(parentNodesRow==null){
-            return null;
-        }
-        final String scientificName=this.ramDb.getNameByTaxId(parentNodesRow.getK());
+        final String scientificName=this.ramDb.getNameByTaxId(parentTaxid);
         if(scientificName==null){
             return null;
         }
-        final TaxonomicNode taxonomicNode = TaxonomicNode.newDefaultInstance(parentNodesRow.getK(),parentNodesRow.getRank(),scientificName);
+        final TaxonomicNode taxonomicNode = TaxonomicNode.newDefaultInstance(parentTaxid,this.ramDb.getRank(parentTaxid),scientificName);
         taxonomicNode.addChild(normalizedHit.getFocusNode());
         normalizedHit.setTaxonomy(taxonomicNode);
         normalizedHit.setFocusNode(taxonomicNode);
@@ -109,14 +113,69 @@ public abstract class BLASTIdentifierRAM extends BLASTIdentifier<NucleotideFasta
     }
 
     /**
-     * This method is no longer used, however, was supposed to assign a full subtree for a given taxonomic node
-     * @param taxonomicNode
-     * @return {@code null}
+     * Based on the RAM taxonomic database lifts the focus node of the given {@link NormalizedHit} over all of its "no rank"
+     * ancestors at once, see {@link db.ram.RamDb}.getRankedParentTaxId(int)
+     *
+     * @param normalizedHit {@link NormalizedHit}
+     * @return {@link NormalizedHit} which points to the same object as the given {@link NormalizedHit} parameter,
+     * but with a real {@code Ranks}, {@code null} if the lineage is broken
      */
     @Override
-    public TaxonomicNode attachChildrenForTaxonomicNode(TaxonomicNode taxonomicNode){
-        //Currently not used
-        return null;
+    public NormalizedHit liftRankToNextRealRank(NormalizedHit normalizedHit) {
+        final int rankedTaxid = this.ramDb.getRankedParentTaxId(normalizedHit.getAssignedTaxid());
+        if (!this.ramDb.containsTaxId(rankedTaxid)) {
+            return null;
+        }
+        final String scientificName = this.ramDb.getNameByTaxId(rankedTaxid);
+        if (scientificName == null) {
+            return null;
+        }
+        final TaxonomicNode taxonomicNode = TaxonomicNode.newDefaultInstance(rankedTaxid, this.ramDb.getRank(rankedTaxid), scientificName);
+        taxonomicNode.addChild(normalizedHit.getFocusNode());
+        normalizedHit.setTaxonomy(taxonomicNode);
+        normalizedHit.setFocusNode(taxonomicNode);
+        return normalizedHit;
+    }
+
+    /**
+     * Assigns the full subtree of descendants for a given taxonomic node, see {@code visitSubtree(int, SubtreeVisitor)}
+     *
+     * @param taxonomicNode {@link TaxonomicNode} that needs to know its children
+     * @return {@link TaxonomicNode} which points to the same object as the given one, but with the attached subtree
+     * @throws Exception never, as the {@link db.connect.SubtreeBuilder} does not fail
+     */
+    @Override
+    public TaxonomicNode attachChildrenForTaxonomicNode(TaxonomicNode taxonomicNode) throws Exception {
+        this.visitSubtree(taxonomicNode.getTaxid(), SubtreeBuilder.newInstance(taxonomicNode));
+        return taxonomicNode;
+    }
+
+    /**
+     * Walks the descendants of a given taxid straight over the pre-order labels of the {@link db.ram.TaxonomyTree}, where a
+     * subtree occupies a single range, so a skipped subtree costs a single jump.
+     *
+     * @param taxid   of the root of the subtree, which itself does not get visited
+     * @param visitor {@link SubtreeVisitor} that gets every descendant
+     * @throws Exception in case the visitor fails
+     */
+    @Override
+    public void visitSubtree(final int taxid, final SubtreeVisitor visitor) throws Exception {
+        final int enter = this.ramDb.getEnterLabel(taxid);
+        if (enter < 0) {
+            return;
+        }
+        final int exit = this.ramDb.getExitLabel(taxid);
+        int label = enter + 1;
+        while (label <= exit) {
+            final int descendant = this.ramDb.getTaxIdByLabel(label);
+            final Ranks rank = this.ramDb.getRank(descendant);
+            if (visitor.visit(descendant, this.ramDb.getParentTaxId(descendant), rank != null ? rank : Ranks.no_rank,
+                    this.ramDb.getNameByTaxId(descendant))) {
+                label++;
+            } else {
+                label = this.ramDb.getExitLabel(descendant) + 1;
+            }
+        }
     }
 
     /**
@@ -132,11 +191,8 @@ public abstract class BLASTIdentifierRAM extends BLASTIdentifier<NucleotideFasta
      */
     @Override
     public boolean isParentOf(int parentTaxid, int taxid) {
-        final NodesRow nodesRow=this.ramDb.getNodeByTaxId(taxid);
-        if(nodesRow==null){
-            return false;
-        }
-        return parentTaxid == nodesRow.getV() || nodesRow.getV()!= 1 && this.isParentOf(parentTaxid, nodesRow.getV());
+        //Two label reads instead of a walk up the lineage
+        return this.ramDb.isParentOf(parentTaxid, taxid);
     }
 
     /**
@@ -148,22 +204,27 @@ public abstract class BLASTIdentifierRAM extends BLASTIdentifier<NucleotideFasta
      */
     @Override
     public TaxonomicNode attachFullDirectLineage(TaxonomicNode taxonomicNode) {
-        final NodesRow nodesRow=this.ramDb.getNodeByTaxId(taxonomicNode.getTaxid());
-        final NodesRow parentNodesRow=this.ramDb.getNodeByTaxId(nodesRow.getV());
-        if(parentNodesRow==null){
-            return null;
+        //Climb iteratively, so that a deep lineage does not risk the stack
+        TaxonomicNode currentTaxonomicNode = taxonomicNode;
+        int parentTaxid = this.ramDb.getParentTaxId(taxonomicNode.getTaxid());
+        while (true) {
+            if (!this.ramDb.containsTaxId(parentTaxid)) {
+                return currentTaxonomicNode == taxonomicNode ? null : taxonomicNode;
+            }
+            final String scientificName = this.ramDb.getNameByTaxId(parentTaxid);
+            if (scientificName == null) {
+                return currentTaxonomicNode == taxonomicNode ? null : taxonomicNode;
+            }
+            final TaxonomicNode parentTaxonomicNode = TaxonomicNode.newDefaultInstance(parentTaxid, this.ramDb.getRank(parentTaxid), scientificName);
+            parentTaxonomicNode.addChild(currentTaxonomicNode);
+            currentTaxonomicNode.setParent(parentTaxonomicNode);
+            final int grandParentTaxid = this.ramDb.getParentTaxId(parentTaxid);
+            if (parentTaxid == grandParentTaxid) {
+                return taxonomicNode;
+            }
+            currentTaxonomicNode = parentTaxonomicNode;
+            parentTaxid = grandParentTaxid;
         }
-        final String scientificName=this.ramDb.getNameByTaxId(parentNodesRow.getK());
-        if(scientificName==null){
-            return null;
-        }
-        TaxonomicNode parentTaxonomicNode = TaxonomicNode.newDefaultInstance(parentNodesRow.getK(),parentNodesRow.getRank(), scientificName);
-        parentTaxonomicNode.addChild(taxonomicNode);
-        taxonomicNode.setParent(parentTaxonomicNode);
-        if (parentNodesRow.getK()!=parentNodesRow.getV()) {
-            parentTaxonomicNode = this.attachFullDirectLineage(parentTaxonomicNode);
-        }
-        return taxonomicNode;
     }
 
     /**
@@ -174,10 +235,6 @@ public abstract class BLASTIdentifierRAM extends BLASTIdentifier<NucleotideFasta
      */
     @Override
     public boolean hitHasANoRankParent(NormalizedHit normalizedHit) {
-        final NodesRow nodesRow=this.ramDb.getNodeByTaxId(normalizedHit.getAssignedTaxid());
-        if(nodesRow==null){
-            return false;
-        }
-        return nodesRow.getRank()==Ranks.no_rank;
+        return this.ramDb.getRank(normalizedHit.getAssignedTaxid())==Ranks.no_rank;
     }
 }
@@ -57,16 +57,16 @@ public class TUITBLASTIdentifierDB extends BLASTIdentifierDB {
      *                               certain order. {"&lt;-command&gt;", "[value]"}, just the way if in
      *                               the blast+ executable input
      * @param identifierFileOperator {@link TUITFileOperator} that performs batch-read from the fasta file and saves results
-     * @param connection             a connection to the SQL Database that contains a NCBI schema with all the necessary
-     *                               taxonomic information
+     * @param connections            connections to the SQL Database that contains a NCBI schema with all the necessary
+     *                               taxonomic information, as many iterations get classified at a time as there are connections
      * @param cutoffSetMap           a {@link Map}, provided by the user and that may differ from the
      *                               default set
      */
     @SuppressWarnings("WeakerAccess")
     protected TUITBLASTIdentifierDB(List<NucleotideFasta> query, File tempDir, File executive, String[] parameterList,
-                                    TUITFileOperator identifierFileOperator, Connection connection, Map<Ranks, TUITCutoffSet> cutoffSetMap,
+                                    TUITFileOperator identifierFileOperator, List<Connection> connections, Map<Ranks, TUITCutoffSet> cutoffSetMap,
                                     final int batchSize, final boolean cleanup) {
-        super(query, tempDir, executive, parameterList, identifierFileOperator, connection, cutoffSetMap,batchSize,cleanup);
+        super(query, tempDir, executive, parameterList, identifierFileOperator, connections, cutoffSetMap,batchSize,cleanup);
     }
 
     /**
@@ -145,6 +145,8 @@ public class TUITBLASTIdentifierDB extends BLASTIdentifierDB {
         } catch (Exception e) {
             Log.getInstance().log(Level.SEVERE,e.getMessage());
             e.printStackTrace();
+        } finally {
+            this.closeStatements();
         }
     }
 
@@ -190,8 +192,8 @@ public class TUITBLASTIdentifierDB extends BLASTIdentifierDB {
      *                               certain order. {"&lt;-command&gt;", "[value]"}, just the way if in
      *                               the blast+ executable input
      * @param identifierFileOperator {@link TUITFileOperator} that performs batch-read from the fasta file and saves results
-     * @param connection             a connection to the SQL Database that contains a NCBI schema with all the necessary
-     *                               taxonomic information
+     * @param connections            connections to the SQL Database that contains a NCBI schema with all the necessary
+     *                               taxonomic information, as many iterations get classified at a time as there are connections
      * @param cutoffSetMap           a {@link Map}, provided by the user and that may differ from the
      *                               default set
      * @param batchSize              a size of a batch that's being sent to BLASTN at a time
@@ -200,10 +202,10 @@ public class TUITBLASTIdentifierDB extends BLASTIdentifierDB {
      */
     public static TUITBLASTIdentifierDB newInstanceFromFileOperator(
             File tempDir, File executive, String[] parameterList, TUITFileOperator<NucleotideFasta> identifierFileOperator,
-            Connection connection, Map<Ranks, TUITCutoffSet> cutoffSetMap, final int batchSize, final boolean cleanup) throws Exception {
+            List<Connection> connections, Map<Ranks, TUITCutoffSet> cutoffSetMap, final int batchSize, final boolean cleanup) throws Exception {
         List<NucleotideFasta> batch = identifierFileOperator.nextBatch(batchSize);
         if (batch != null) {
-            return new TUITBLASTIdentifierDB(batch, tempDir, executive, parameterList, identifierFileOperator, connection, cutoffSetMap, batchSize,cleanup);
+            return new TUITBLASTIdentifierDB(batch, tempDir, executive, parameterList, identifierFileOperator, connections, cutoffSetMap, batchSize,cleanup);
         } else {
             throw new Exception("The batch is empty, please check the input file");
         }
@@ -213,8 +215,8 @@ public class TUITBLASTIdentifierDB extends BLASTIdentifierDB {
      * A static factory that returns a newly created {@link TUITBLASTIdentifierDB}, which has already been provided with an XML-formatted blast output
      *
      * @param identifierFileOperator {@link TUITFileOperator} that performs batch-read from the fasta file and saves results
-     * @param connection             a connection to the SQL Database that contains a NCBI schema with all the necessary
-     *                               taxonomic information
+     * @param connections            connections to the SQL Database that contains a NCBI schema with all the necessary
+     *                               taxonomic information, as many iterations get classified at a time as there are connections
      * @param cutoffSetMap           a {@link Map}, provided by the user and that may differ from the
      *                               default set
      * @param blastOutput            {@link File} that contains an XML BLASTN output
@@ -222,12 +224,12 @@ public class TUITBLASTIdentifierDB extends BLASTIdentifierDB {
      * @return TUITBLASTIdentifierDB ready  to perform the first iteration of BLASTN and specification
      * @throws Exception if the input file read error occurs
      */
-    public static TUITBLASTIdentifierDB newInstanceFromBLASTOutput(TUITFileOperator<NucleotideFasta> identifierFileOperator, Connection connection, Map<Ranks, TUITCutoffSet> cutoffSetMap,
+    public static TUITBLASTIdentifierDB newInstanceFromBLASTOutput(TUITFileOperator<NucleotideFasta> identifierFileOperator, List<Connection> connections, Map<Ranks, TUITCutoffSet> cutoffSetMap,
                                                                  File blastOutput, final int batchSize, final boolean cleanup) throws Exception {
 
         List<NucleotideFasta> batch =identifierFileOperator.nextBatch(batchSize);
         if (batch != null) {
-            TUITBLASTIdentifierDB tuitblastIdentifierDB = new TUITBLASTIdentifierDB(batch, new File(""), null, null, identifierFileOperator, connection, cutoffSetMap, batchSize,cleanup);
+            TUITBLASTIdentifierDB tuitblastIdentifierDB = new TUITBLASTIdentifierDB(batch, new File(""), null, null, identifierFileOperator, connections, cutoffSetMap, batchSize,cleanup);
             tuitblastIdentifierDB.setBlastOutput(NCBI_BLAST_OutputHelper
                     .catchBLASTOutput(identifierFileOperator
                             .readOutputXML(blastOutput)));
@@ -152,6 +152,8 @@ public class TUITBLASTIdentifierRAM extends BLASTIdentifierRAM {
         } catch (Exception e) {
             Log.getInstance().log(Level.SEVERE, e.getMessage());
             e.printStackTrace();
+        } finally {
+            this.shutdownWorkers();
         }
     }
 
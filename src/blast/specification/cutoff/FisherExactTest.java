@@ -0,0 +1,177 @@
+package blast.specification.cutoff;
+
+import org.apache.commons.math3.special.Gamma;
+/**
+ * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
+ * software for accurate taxonomic classification of nucleotide sequences.
+ * Copyright (C) 2013  Alexander Tuzhikov, Alexander Panchin and Valery Shestopalov.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A two-sided Fisher's exact test on a 2x2 contingency table. The probabilities of the tables come from a table of the
+ * logarithms of the factorials, which is shared by all the tests and grows to the largest table total seen so far, so that a
+ * test costs a few multiplications per table that is at least as extreme as the observed one.
+ */
+public class FisherExactTest {
+    /**
+     * The largest total that gets its log-factorials tabulated, the larger ones are computed with the log-gamma function
+     */
+    private static final int MAX_TABLE_SIZE = 1 << 20;
+    /**
+     * The relative tolerance at which a table is considered as likely as the observed one
+     */
+    private static final double RELATIVE_ERROR = 1 + 1e-7;
+    /**
+     * The logarithms of the factorials, from 0!, gets replaced by a larger table rather than changed
+     */
+    private static volatile double[] logFactorials = new double[]{0};
+
+    /**
+     * Constructor grants non-instantiability
+     */
+    private FisherExactTest() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Computes the two-sided p-value of the contingency table {{a, b}, {c, d}}, that is the total probability of the tables
+     * with the same margins that are not more likely than the given one
+     *
+     * @param a {@code long} top left count
+     * @param b {@code long} top right count
+     * @param c {@code long} bottom left count
+     * @param d {@code long} bottom right count
+     * @return {@code double} p-value
+     * @throws IllegalArgumentException if any of the counts is negative
+     */
+    public static double pValue(final long a, final long b, final long c, final long d) {
+        if (a < 0 || b < 0 || c < 0 || d < 0) {
+            throw new IllegalArgumentException("Negative count in the contingency table: {{" + a + ", " + b + "}, {" + c + ", " + d + "}}.");
+        }
+        final long row1 = a + b;
+        final long row2 = c + d;
+        final long column1 = a + c;
+        final long total = row1 + row2;
+        final long lowest = Math.max(0, column1 - row2);
+        final long highest = Math.min(row1, column1);
+        if (lowest == highest) {
+            return 1;
+        }
+        //The probabilities of the tables grow up to the mode and decline beyond it
+        final long mode = Math.min(highest, Math.max(lowest, (row1 + 1) * (column1 + 1) / (total + 2)));
+        final double logMargins = logFactorial(row1) + logFactorial(row2) + logFactorial(column1) + logFactorial(total - column1)
+                - logFactorial(total);
+        final double observed = Math.exp(logMargins - logFactorial(a) - logFactorial(b) - logFactorial(c) - logFactorial(d));
+        final double threshold = observed * RELATIVE_ERROR;
+        double pValue;
+        if (a <= mode) {
+            pValue = sumTail(a, observed, -1, lowest, highest, row1, row2, column1);
+            //Skip the tables on the other side of the mode that are more likely than the observed one
+            long k = a == mode ? mode + 1 : mode;
+            if (k > highest) {
+                return Math.min(1, pValue);
+            }
+            double probability = probability(k, logMargins, row1, row2, column1);
+            while (probability > threshold && k < highest) {
+                probability = next(k, probability, 1, row1, row2, column1);
+                k++;
+            }
+            if (probability <= threshold) {
+                pValue += sumTail(k, probability, 1, lowest, highest, row1, row2, column1);
+            }
+        } else {
+            pValue = sumTail(a, observed, 1, lowest, highest, row1, row2, column1);
+            long k = mode;
+            double probability = probability(k, logMargins, row1, row2, column1);
+            while (probability > threshold && k > lowest) {
+                probability = next(k, probability, -1, row1, row2, column1);
+                k--;
+            }
+            if (probability <= threshold) {
+                pValue += sumTail(k, probability, -1, lowest, highest, row1, row2, column1);
+            }
+        }
+        return Math.min(1, pValue);
+    }
+
+    /**
+     * Sums up the probabilities of the tables from a given one away from the mode, down to where they no longer add up
+     */
+    private static double sumTail(long k, double probability, final int step, final long lowest, final long highest,
+                                  final long row1, final long row2, final long column1) {
+        double sum = 0;
+        while (true) {
+            sum += probability;
+            if (k + step < lowest || k + step > highest) {
+                return sum;
+            }
+            probability = next(k, probability, step, row1, row2, column1);
+            k += step;
+            if (probability <= sum * 1e-17) {
+                return sum;
+            }
+        }
+    }
+
+    /**
+     * Derives the probability of the next table, with the top left count one step up or down, from the probability of the
+     * current one
+     */
+    private static double next(final long k, final double probability, final int step,
+                               final long row1, final long row2, final long column1) {
+        if (step > 0) {
+            return probability * ((double) (row1 - k) * (column1 - k)) / ((double) (k + 1) * (row2 - column1 + k + 1));
+        }
+        return probability * ((double) k * (row2 - column1 + k)) / ((double) (row1 - k + 1) * (column1 - k + 1));
+    }
+
+    /**
+     * Computes the probability of the table with a given top left count
+     */
+    private static double probability(final long k, final double logMargins, final long row1, final long row2, final long column1) {
+        return Math.exp(logMargins - logFactorial(k) - logFactorial(row1 - k) - logFactorial(column1 - k)
+                - logFactorial(row2 - column1 + k));
+    }
+
+    /**
+     * @param n {@code long} non-negative number
+     * @return {@code double} ln(n!)
+     */
+    static double logFactorial(final long n) {
+        if (n > MAX_TABLE_SIZE) {
+            return Gamma.logGamma(n + 1);
+        }
+        double[] logFactorials = FisherExactTest.logFactorials;
+        if (n >= logFactorials.length) {
+            logFactorials = grow((int) n);
+        }
+        return logFactorials[(int) n];
+    }
+
+    /**
+     * Replaces the table of the log-factorials by a larger one that holds at least the given number
+     */
+    private static synchronized double[] grow(final int n) {
+        final double[] logFactorials = FisherExactTest.logFactorials;
+        if (n < logFactorials.length) {
+            return logFactorials;
+        }
+        final double[] grown = new double[Math.min(MAX_TABLE_SIZE, Integer.highestOneBit(n) << 1) + 1];
+        System.arraycopy(logFactorials, 0, grown, 0, logFactorials.length);
+        for (int i = logFactorials.length; i < grown.length; i++) {
+            grown[i] = grown[i - 1] + Math.log(i);
+        }
+        FisherExactTest.logFactorials = grown;
+        return grown;
+    }
+}
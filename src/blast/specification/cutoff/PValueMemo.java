@@ -0,0 +1,84 @@
+package blast.specification.cutoff;
+
+import blast.normal.hit.NormalizedHit;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+/**
+ * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
+ * software for accurate taxonomic classification of nucleotide sequences.
+ * Copyright (C) 2013  Alexander Tuzhikov, Alexander Panchin and Valery Shestopalov.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Keeps the p-values of the hit pairs that have been tested, with a value per {@link StatisticalTest}, so that a pair that gets
+ * tested again at a higher rank, where only the alpha changes, is not recomputed. The hits are told apart by identity. Is not
+ * thread safe, an instance is meant to live as long as a single {@link blast.normal.iteration.NormalizedIteration}.
+ */
+public class PValueMemo {
+    /**
+     * The p-values by the first hit, then by the second one, indexed by the ordinal of the test, {@code null} if not computed
+     */
+    private final Map<NormalizedHit, Map<NormalizedHit, Double[]>> pValues;
+
+    /**
+     * A protected constructor to use with static factories
+     */
+    protected PValueMemo() {
+        this.pValues = new IdentityHashMap<NormalizedHit, Map<NormalizedHit, Double[]>>();
+    }
+
+    /**
+     * @param oneNormalizedHit     {@link NormalizedHit} first hit of the pair
+     * @param anotherNormalizedHit {@link NormalizedHit} second hit of the pair
+     * @param test                 {@link StatisticalTest} that the pair has been tested with
+     * @return {@link Double} p-value, {@code null} if the pair has not been tested with the given test yet
+     */
+    public Double get(final NormalizedHit oneNormalizedHit, final NormalizedHit anotherNormalizedHit, final StatisticalTest test) {
+        final Map<NormalizedHit, Double[]> pValuesOfOne = this.pValues.get(oneNormalizedHit);
+        if (pValuesOfOne == null) {
+            return null;
+        }
+        final Double[] pValuesOfPair = pValuesOfOne.get(anotherNormalizedHit);
+        return pValuesOfPair == null ? null : pValuesOfPair[test.ordinal()];
+    }
+
+    /**
+     * @param oneNormalizedHit     {@link NormalizedHit} first hit of the pair
+     * @param anotherNormalizedHit {@link NormalizedHit} second hit of the pair
+     * @param test                 {@link StatisticalTest} that the pair has been tested with
+     * @param pValue               {@code double} p-value, may be {@code NaN} for a degenerate table
+     */
+    public void put(final NormalizedHit oneNormalizedHit, final NormalizedHit anotherNormalizedHit, final StatisticalTest test, final double pValue) {
+        Map<NormalizedHit, Double[]> pValuesOfOne = this.pValues.get(oneNormalizedHit);
+        if (pValuesOfOne == null) {
+            pValuesOfOne = new IdentityHashMap<NormalizedHit, Double[]>();
+            this.pValues.put(oneNormalizedHit, pValuesOfOne);
+        }
+        Double[] pValuesOfPair = pValuesOfOne.get(anotherNormalizedHit);
+        if (pValuesOfPair == null) {
+            pValuesOfPair = new Double[StatisticalTest.values().length];
+            pValuesOfOne.put(anotherNormalizedHit, pValuesOfPair);
+        }
+        pValuesOfPair[test.ordinal()] = pValue;
+    }
+
+    /**
+     * A static factory to get a new empty memo
+     *
+     * @return a new instance of {@link PValueMemo}
+     */
+    public static PValueMemo newInstance() {
+        return new PValueMemo();
+    }
+}
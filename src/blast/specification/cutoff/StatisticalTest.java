@@ -0,0 +1,38 @@
+package blast.specification.cutoff;
+
+/**
+ * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
+ * software for accurate taxonomic classification of nucleotide sequences.
+ * Copyright (C) 2013  Alexander Tuzhikov, Alexander Panchin and Valery Shestopalov.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The tests that tell whether the alignment of one hit is significantly better than the alignment of another hit,
+ * see {@link blast.specification.cutoff.TUITCutoffSet}. The names are the ones used by the "test" attribute of a CutoffSet
+ * within the properties file.
+ */
+public enum StatisticalTest {
+    /**
+     * Pearson's chi-squared test on the 2x2 contingency table, the default
+     */
+    chi_square,
+    /**
+     * Two-sided Fisher's exact test on the 2x2 contingency table, see {@link blast.specification.cutoff.FisherExactTest}
+     */
+    fisher_exact;
+
+    /**
+     * A list of the tests to print out as a hint
+     */
+    public static final String LIST_TESTS = "chi_square, fisher_exact";
+}
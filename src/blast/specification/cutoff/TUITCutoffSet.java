@@ -1,6 +1,5 @@
 package blast.specification.cutoff;
 
-import blast.ncbi.output.Hsp;
 import blast.normal.hit.NormalizedHit;
 import logger.Log;
 import org.apache.commons.math3.stat.inference.TestUtils;
@@ -31,10 +30,6 @@ import java.util.logging.Level;
  */
 
 public class TUITCutoffSet {
-    /**
-     * A symbol that BLAST uses to mark a gap
-     */
-    private static final char gap = '-';
     /**
      * A cutoff for pIdent
      */
@@ -50,6 +45,11 @@ public class TUITCutoffSet {
      */
     @SuppressWarnings("WeakerAccess")
     protected final double alpha;
+    /**
+     * The test that tells the alignments of two hits apart
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected final StatisticalTest test;
 
     /**
      * A protected constructor for the use via factories
@@ -57,12 +57,14 @@ public class TUITCutoffSet {
      * @param pIdentCutoff           {@code double} A cutoff for pIdent
      * @param queryCoverageCutoff    {@code double} A cutoff for query coverage
      * @param alpha {@code double} alpha cutoff for the p-value
+     * @param test  {@link StatisticalTest} that tells the alignments of two hits apart
      */
     @SuppressWarnings("WeakerAccess")
-    protected TUITCutoffSet(final double pIdentCutoff, final double queryCoverageCutoff, final double alpha) {
+    protected TUITCutoffSet(final double pIdentCutoff, final double queryCoverageCutoff, final double alpha, final StatisticalTest test) {
         this.pIdentCutoff = pIdentCutoff;
         this.queryCoverageCutoff = queryCoverageCutoff;
         this.alpha = alpha;
+        this.test = test;
     }
 
     /**
@@ -89,6 +91,14 @@ public class TUITCutoffSet {
         return alpha;
     }
 
+    /**
+     * A getter for the statistical test
+     * @return {@link StatisticalTest} that tells the alignments of two hits apart
+     */
+    public StatisticalTest getTest() {
+        return test;
+    }
+
     /**
      * As long as BLAST outputs treats every gap as an independent event, this method allows to correct for this by calculating gapopen.
      * A standard BLAST XMP output reports only gaps, but not gapopens. Note: gaps&lt;=gapopens
@@ -97,16 +107,7 @@ public class TUITCutoffSet {
      * @return {@code int} number of gapopens
      */
     public static int calculateNumberOfGapOpens(final String seq) {
-
-        int numGapOpen = 0;
-        for (int i = 1; i < seq.length(); i++) {
-            if (seq.charAt(i) == gap) {
-                if (seq.charAt(i - 1) != gap) {
-                    numGapOpen++;
-                }
-            }
-        }
-        return numGapOpen;
+        return NormalizedHit.calculateNumberOfGapOpens(seq);
     }
 
     /**
@@ -118,7 +119,20 @@ public class TUITCutoffSet {
      * @return a new instance of {@link TUITCutoffSet} from the given parameters
      */
     public static TUITCutoffSet newDefaultInstance(final double pIdentCutoff, final double queryCoverageCutoff, final double evalueDifferenceCutoff) {
-        return new TUITCutoffSet(pIdentCutoff, queryCoverageCutoff, evalueDifferenceCutoff);
+        return new TUITCutoffSet(pIdentCutoff, queryCoverageCutoff, evalueDifferenceCutoff, StatisticalTest.chi_square);
+    }
+
+    /**
+     * A static factory that returns a new instance of the {@link TUITCutoffSet} with a given statistical test
+     *
+     * @param pIdentCutoff        {@code double} A cutoff for pIdent
+     * @param queryCoverageCutoff {@code double} A cutoff for query coverage
+     * @param alpha               {@code double} alpha cutoff for the p-value
+     * @param test                {@link StatisticalTest} that tells the alignments of two hits apart
+     * @return a new instance of {@link TUITCutoffSet} from the given parameters
+     */
+    public static TUITCutoffSet newInstance(final double pIdentCutoff, final double queryCoverageCutoff, final double alpha, final StatisticalTest test) {
+        return new TUITCutoffSet(pIdentCutoff, queryCoverageCutoff, alpha, test);
     }
 
     /**
@@ -139,7 +153,8 @@ public class TUITCutoffSet {
      *
      * @param oneNormalizedHit     {@link NormalizedHit} (assuming the hit with a worse (higher) e-value)
      * @param anotherNormalizedHit {@link NormalizedHit} (assuming the hit with a better (lower) e-value)
-     * @return {@code true} Performs a Chi Squared test on a contingency table <br>
+     * @return {@code true} Performs a Chi Squared or a Fisher's exact test, depending on the {@link StatisticalTest} of the
+     *         cutoff set, on a contingency table <br>
      *         <table class="tg-table-plain">
      *         <tr>
      *         <th></th>
@@ -172,52 +187,56 @@ public class TUITCutoffSet {
      *         point to {@code null}
      */
     public boolean hitsAreStatisticallyDifferent(final NormalizedHit oneNormalizedHit, final NormalizedHit anotherNormalizedHit) {
+        return this.pValue(oneNormalizedHit, anotherNormalizedHit) < this.alpha;
+    }
 
-        int oneAlignLen=0;
-        for(Hsp hsp:oneNormalizedHit.getHit().getHitHsps().getHsp()){
-            oneAlignLen+=Integer.valueOf(hsp.getHspAlignLen());
-        }
-
-        int anotherAlignLen =0;
-        for(Hsp hsp:anotherNormalizedHit.getHit().getHitHsps().getHsp()){
-            anotherAlignLen+=Integer.valueOf(hsp.getHspAlignLen());
-        }
-
-        int oneNumIdents = 0;
-        for(Hsp hsp:oneNormalizedHit.getHit().getHitHsps().getHsp()){
-            oneNumIdents+=Integer.valueOf(hsp.getHspIdentity());
-        }
-
-        int anotherNumIdents = 0;
-        for(Hsp hsp:anotherNormalizedHit.getHit().getHitHsps().getHsp()){
-            anotherNumIdents+=Integer.valueOf(hsp.getHspIdentity());
-        }
-
-        int oneNumGaps = 0;
-        for(Hsp hsp:oneNormalizedHit.getHit().getHitHsps().getHsp()){
-            oneNumGaps+=Integer.valueOf(hsp.getHspGaps());
-        }
-
-        int anotherNumGaps = 0;
-        for(Hsp hsp:anotherNormalizedHit.getHit().getHitHsps().getHsp()){
-            anotherNumGaps+=Integer.valueOf(hsp.getHspGaps());
-        }
-
-        int oneNumGapOpens = 0;
-        for(Hsp hsp:oneNormalizedHit.getHit().getHitHsps().getHsp()){
-            oneNumGapOpens+=calculateNumberOfGapOpens(hsp.getHspQseq())
-                    + calculateNumberOfGapOpens(hsp.getHspHseq());
+    /**
+     * Same as {@code hitsAreStatisticallyDifferent(NormalizedHit, NormalizedHit)}, but takes the p-value from a memo if the pair
+     * has already been tested with the same {@link StatisticalTest}, and stores it there otherwise
+     *
+     * @param oneNormalizedHit     {@link NormalizedHit} (assuming the hit with a worse (higher) e-value)
+     * @param anotherNormalizedHit {@link NormalizedHit} (assuming the hit with a better (lower) e-value)
+     * @param pValueMemo           {@link PValueMemo} of the pairs tested so far
+     * @return {@code true} if the test has shown the statistical significant prevalence of one alignment over another,
+     *         {@code false} otherwise
+     */
+    public boolean hitsAreStatisticallyDifferent(final NormalizedHit oneNormalizedHit, final NormalizedHit anotherNormalizedHit,
+                                                 final PValueMemo pValueMemo) {
+        Double pValue = pValueMemo.get(oneNormalizedHit, anotherNormalizedHit, this.test);
+        if (pValue == null) {
+            pValue = this.pValue(oneNormalizedHit, anotherNormalizedHit);
+            pValueMemo.put(oneNormalizedHit, anotherNormalizedHit, this.test, pValue);
         }
+        return pValue < this.alpha;
+    }
 
-        int anotherNumGapOpens = 0;
-        for(Hsp hsp:anotherNormalizedHit.getHit().getHitHsps().getHsp()){
-            anotherNumGapOpens+=calculateNumberOfGapOpens(hsp.getHspQseq())
-                    + calculateNumberOfGapOpens(hsp.getHspHseq());
+    /**
+     * Computes the p-value of the test of this cutoff set on the contingency table of the given {@link NormalizedHit}s, see
+     * {@code hitsAreStatisticallyDifferent(NormalizedHit, NormalizedHit)}. The p-value does not depend on the alpha, so it
+     * may be compared against the alpha of any cutoff set with the same {@link StatisticalTest}.
+     *
+     * @param oneNormalizedHit     {@link NormalizedHit} (assuming the hit with a worse (higher) e-value)
+     * @param anotherNormalizedHit {@link NormalizedHit} (assuming the hit with a better (lower) e-value)
+     * @return {@code double} p-value
+     */
+    public double pValue(final NormalizedHit oneNormalizedHit, final NormalizedHit anotherNormalizedHit) {
+        //The HSP totals have been summed up upon the normalization of the hits
+        if (this.test == StatisticalTest.fisher_exact) {
+            return FisherExactTest.pValue(oneNormalizedHit.getNumberOfIdentities(), anotherNormalizedHit.getNumberOfIdentities(),
+                    correctedMismatches(oneNormalizedHit), correctedMismatches(anotherNormalizedHit));
         }
+        return TestUtils.chiSquareTest(new long[][]{{oneNormalizedHit.getNumberOfIdentities(), anotherNormalizedHit.getNumberOfIdentities()},
+                {correctedMismatches(oneNormalizedHit), correctedMismatches(anotherNormalizedHit)}});
+    }
 
-        return TestUtils.chiSquareTest(new long[][]{{oneNumIdents, anotherNumIdents},
-                {(oneAlignLen - (oneNumGaps - oneNumGapOpens)) - oneNumIdents,
-                        (anotherAlignLen - (anotherNumGaps - anotherNumGapOpens)) - anotherNumIdents}},this.alpha);
+    /**
+     * Counts the mismatches of a hit, with every gap open, rather than every gap, counted as a single mismatch
+     *
+     * @param normalizedHit {@link NormalizedHit}
+     * @return {@code long} align.length-(total gaps - gapopens)-identities
+     */
+    private static long correctedMismatches(final NormalizedHit normalizedHit) {
+        return (normalizedHit.getAlignmentLength() - (normalizedHit.getNumberOfGaps() - normalizedHit.getNumberOfGapOpens()))
+                - normalizedHit.getNumberOfIdentities();
     }
 }
-
@@ -0,0 +1,400 @@
+package db.connect;
+
+import blast.normal.hit.NormalizedHit;
+import logger.Log;
+import taxonomy.Ranks;
+import taxonomy.node.TaxonomicNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+/**
+ * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
+ * software for accurate taxonomic classification of nucleotide sequences.
+ * Copyright (C) 2013  Alexander Tuzhikov, Alexander Panchin and Valery Shestopalov.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A read-through cache in front of any {@link db.connect.TaxonomicDatabaseOperator}. Remembers the taxon of a GI, the parent,
+ * the closest ranked parent and the full lineage of a taxId, as well as the answers to the ancestor checks, each in a separate
+ * least recently used map of a bounded size, so that the genera and families that come back for almost every query get looked
+ * up once per run. The cached taxa serve as templates: every hit still gets its own {@link taxonomy.node.TaxonomicNode}s, the
+ * same way the wrapped operator would build them. Is safe to share among the threads that classify concurrently.
+ */
+public class CachingTaxonomicDatabaseOperator implements TaxonomicDatabaseOperator {
+    /**
+     * Marks a lookup that the wrapped operator has answered with {@code null}
+     */
+    private static final TaxonomicNode NO_TAXON = TaxonomicNode.newDefaultInstance(0, Ranks.no_rank, "");
+    /**
+     * Marks a lineage that the wrapped operator could not attach
+     */
+    private static final List<TaxonomicNode> NO_LINEAGE = Collections.emptyList();
+    /**
+     * The operator that answers the lookups missing from the cache
+     */
+    protected final TaxonomicDatabaseOperator taxonomicDatabaseOperator;
+    /**
+     * Taxa by GI
+     */
+    private final Map<Integer, TaxonomicNode> taxonByGi;
+    /**
+     * Parent taxa by taxId
+     */
+    private final Map<Integer, TaxonomicNode> parentByTaxid;
+    /**
+     * Closest parent taxa of a real rank by taxId
+     */
+    private final Map<Integer, TaxonomicNode> rankedParentByTaxid;
+    /**
+     * Ancestors, from the parent up to the root, by taxId
+     */
+    private final Map<Integer, List<TaxonomicNode>> lineageByTaxid;
+    /**
+     * Whether a taxId has a "no rank" parent
+     */
+    private final Map<Integer, Boolean> noRankParentByTaxid;
+    /**
+     * Ancestor checks by a pair of taxIds
+     */
+    private final Map<Long, Boolean> parentOf;
+    /**
+     * Number of lookups answered from the cache
+     */
+    private final AtomicLong hits;
+    /**
+     * Number of lookups passed to the wrapped operator
+     */
+    private final AtomicLong misses;
+
+    /**
+     * Protected constructor
+     *
+     * @param taxonomicDatabaseOperator {@link db.connect.TaxonomicDatabaseOperator} to wrap
+     * @param maxSize                   {@code int} maximum number of entries of each of the caches
+     */
+    protected CachingTaxonomicDatabaseOperator(final TaxonomicDatabaseOperator taxonomicDatabaseOperator, final int maxSize) {
+        this.taxonomicDatabaseOperator = taxonomicDatabaseOperator;
+        this.taxonByGi = newLruMap(maxSize);
+        this.parentByTaxid = newLruMap(maxSize);
+        this.rankedParentByTaxid = newLruMap(maxSize);
+        this.lineageByTaxid = newLruMap(maxSize);
+        this.noRankParentByTaxid = newLruMap(maxSize);
+        this.parentOf = newLruMap(maxSize);
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    @Override
+    public NormalizedHit assignTaxonomy(final NormalizedHit normalizedHit) throws Exception {
+        final int gi = normalizedHit.getGI();
+        //The hits without a GI get resolved by accession, which is not cached
+        if (gi == 0) {
+            return this.taxonomicDatabaseOperator.assignTaxonomy(normalizedHit);
+        }
+        final TaxonomicNode taxon = this.lookup(this.taxonByGi, gi);
+        if (taxon != null) {
+            if (taxon == NO_TAXON) {
+                return null;
+            }
+            final TaxonomicNode taxonomicNode = copyOf(taxon);
+            normalizedHit.setTaxonomy(taxonomicNode);
+            normalizedHit.setFocusNode(taxonomicNode);
+            return normalizedHit;
+        }
+        final NormalizedHit assigned = this.taxonomicDatabaseOperator.assignTaxonomy(normalizedHit);
+        this.store(this.taxonByGi, gi, assigned == null ? NO_TAXON : copyOf(assigned.getFocusNode()));
+        return assigned;
+    }
+
+    @Override
+    public List<NormalizedHit> assignTaxonomy(final List<NormalizedHit> normalizedHits) throws Exception {
+        final List<NormalizedHit> assigned = new ArrayList<>(Collections.<NormalizedHit>nCopies(normalizedHits.size(), null));
+        final List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < normalizedHits.size(); i++) {
+            final NormalizedHit normalizedHit = normalizedHits.get(i);
+            final TaxonomicNode taxon = normalizedHit.getGI() == 0 ? null : this.lookup(this.taxonByGi, normalizedHit.getGI());
+            if (taxon == null) {
+                missing.add(i);
+            } else if (taxon != NO_TAXON) {
+                final TaxonomicNode taxonomicNode = copyOf(taxon);
+                normalizedHit.setTaxonomy(taxonomicNode);
+                normalizedHit.setFocusNode(taxonomicNode);
+                assigned.set(i, normalizedHit);
+            }
+        }
+        //Only the hits missing from the cache go to the wrapped operator, all at once
+        if (!missing.isEmpty()) {
+            final List<NormalizedHit> missingHits = new ArrayList<>(missing.size());
+            for (int i : missing) {
+                missingHits.add(normalizedHits.get(i));
+            }
+            final List<NormalizedHit> resolved = this.taxonomicDatabaseOperator.assignTaxonomy(missingHits);
+            for (int j = 0; j < missing.size(); j++) {
+                final NormalizedHit normalizedHit = resolved.get(j);
+                assigned.set(missing.get(j), normalizedHit);
+                final int gi = missingHits.get(j).getGI();
+                if (gi != 0) {
+                    this.store(this.taxonByGi, gi, normalizedHit == null ? NO_TAXON : copyOf(normalizedHit.getFocusNode()));
+                }
+            }
+        }
+        return assigned;
+    }
+
+    @Override
+    public NormalizedHit liftRankForNormalizedHit(final NormalizedHit normalizedHit) throws Exception {
+        final int taxid = normalizedHit.getAssignedTaxid();
+        final TaxonomicNode parent = this.lookup(this.parentByTaxid, taxid);
+        if (parent != null) {
+            return parent == NO_TAXON ? null : lift(normalizedHit, parent);
+        }
+        final NormalizedHit lifted = this.taxonomicDatabaseOperator.liftRankForNormalizedHit(normalizedHit);
+        this.store(this.parentByTaxid, taxid, lifted == null ? NO_TAXON : copyOf(lifted.getFocusNode()));
+        return lifted;
+    }
+
+    @Override
+    public List<NormalizedHit> liftRankForNormalizedHits(final List<NormalizedHit> normalizedHits) throws Exception {
+        final List<NormalizedHit> lifted = new ArrayList<>(Collections.<NormalizedHit>nCopies(normalizedHits.size(), null));
+        final List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < normalizedHits.size(); i++) {
+            final NormalizedHit normalizedHit = normalizedHits.get(i);
+            final TaxonomicNode parent = this.lookup(this.parentByTaxid, normalizedHit.getAssignedTaxid());
+            if (parent == null) {
+                missing.add(i);
+            } else if (parent != NO_TAXON) {
+                lifted.set(i, lift(normalizedHit, parent));
+            }
+        }
+        if (!missing.isEmpty()) {
+            final List<NormalizedHit> missingHits = new ArrayList<>(missing.size());
+            final int[] taxids = new int[missing.size()];
+            for (int j = 0; j < missing.size(); j++) {
+                missingHits.add(normalizedHits.get(missing.get(j)));
+                //The taxids get remembered before the lift changes them
+                taxids[j] = missingHits.get(j).getAssignedTaxid();
+            }
+            final List<NormalizedHit> resolved = this.taxonomicDatabaseOperator.liftRankForNormalizedHits(missingHits);
+            for (int j = 0; j < missing.size(); j++) {
+                final NormalizedHit normalizedHit = resolved.get(j);
+                lifted.set(missing.get(j), normalizedHit);
+                this.store(this.parentByTaxid, taxids[j], normalizedHit == null ? NO_TAXON : copyOf(normalizedHit.getFocusNode()));
+            }
+        }
+        return lifted;
+    }
+
+    @Override
+    public NormalizedHit liftRankToNextRealRank(final NormalizedHit normalizedHit) throws Exception {
+        final int taxid = normalizedHit.getAssignedTaxid();
+        final TaxonomicNode rankedParent = this.lookup(this.rankedParentByTaxid, taxid);
+        if (rankedParent != null) {
+            if (rankedParent == NO_TAXON) {
+                return null;
+            }
+            //The wrapped operator may leave a hit that has a real rank already where it is
+            return rankedParent.getTaxid() == taxid ? normalizedHit : lift(normalizedHit, rankedParent);
+        }
+        final NormalizedHit lifted = this.taxonomicDatabaseOperator.liftRankToNextRealRank(normalizedHit);
+        this.store(this.rankedParentByTaxid, taxid, lifted == null ? NO_TAXON : copyOf(lifted.getFocusNode()));
+        return lifted;
+    }
+
+    @Override
+    public TaxonomicNode attachChildrenForTaxonomicNode(final TaxonomicNode parentNode) throws Exception {
+        //Subtrees are too large to be worth caching
+        return this.taxonomicDatabaseOperator.attachChildrenForTaxonomicNode(parentNode);
+    }
+
+    @Override
+    public void visitSubtree(final int taxid, final SubtreeVisitor visitor) throws Exception {
+        this.taxonomicDatabaseOperator.visitSubtree(taxid, visitor);
+    }
+
+    @Override
+    public boolean isParentOf(final int parentTaxid, final int taxid) throws Exception {
+        final long key = pair(parentTaxid, taxid);
+        final Boolean cached = this.lookup(this.parentOf, key);
+        if (cached != null) {
+            return cached;
+        }
+        final boolean isParentOf = this.taxonomicDatabaseOperator.isParentOf(parentTaxid, taxid);
+        this.store(this.parentOf, key, isParentOf);
+        return isParentOf;
+    }
+
+    @Override
+    public boolean[] areParentsOf(final int[] parentTaxids, final int taxid) throws Exception {
+        final boolean[] areParents = new boolean[parentTaxids.length];
+        final List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < parentTaxids.length; i++) {
+            final Boolean cached = this.lookup(this.parentOf, pair(parentTaxids[i], taxid));
+            if (cached == null) {
+                missing.add(i);
+            } else {
+                areParents[i] = cached;
+            }
+        }
+        if (!missing.isEmpty()) {
+            final int[] missingTaxids = new int[missing.size()];
+            for (int j = 0; j < missingTaxids.length; j++) {
+                missingTaxids[j] = parentTaxids[missing.get(j)];
+            }
+            final boolean[] resolved = this.taxonomicDatabaseOperator.areParentsOf(missingTaxids, taxid);
+            for (int j = 0; j < missingTaxids.length; j++) {
+                areParents[missing.get(j)] = resolved[j];
+                this.store(this.parentOf, pair(missingTaxids[j], taxid), resolved[j]);
+            }
+        }
+        return areParents;
+    }
+
+    @Override
+    public TaxonomicNode attachFullDirectLineage(final TaxonomicNode taxonomicNode) throws Exception {
+        final List<TaxonomicNode> lineage = this.lookup(this.lineageByTaxid, taxonomicNode.getTaxid());
+        if (lineage != null) {
+            if (lineage == NO_LINEAGE) {
+                return null;
+            }
+            TaxonomicNode currentTaxonomicNode = taxonomicNode;
+            for (TaxonomicNode ancestor : lineage) {
+                final TaxonomicNode parentTaxonomicNode = copyOf(ancestor);
+                parentTaxonomicNode.addChild(currentTaxonomicNode);
+                currentTaxonomicNode.setParent(parentTaxonomicNode);
+                currentTaxonomicNode = parentTaxonomicNode;
+            }
+            return taxonomicNode;
+        }
+        final TaxonomicNode attached = this.taxonomicDatabaseOperator.attachFullDirectLineage(taxonomicNode);
+        if (attached == null) {
+            this.store(this.lineageByTaxid, taxonomicNode.getTaxid(), NO_LINEAGE);
+        } else {
+            final List<TaxonomicNode> ancestors = new ArrayList<>();
+            for (TaxonomicNode ancestor = attached.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+                ancestors.add(copyOf(ancestor));
+            }
+            this.store(this.lineageByTaxid, taxonomicNode.getTaxid(), ancestors);
+        }
+        return attached;
+    }
+
+    @Override
+    public boolean hitHasANoRankParent(final NormalizedHit normalizedHit) throws Exception {
+        final int taxid = normalizedHit.getAssignedTaxid();
+        final Boolean cached = this.lookup(this.noRankParentByTaxid, taxid);
+        if (cached != null) {
+            return cached;
+        }
+        final boolean hasANoRankParent = this.taxonomicDatabaseOperator.hitHasANoRankParent(normalizedHit);
+        this.store(this.noRankParentByTaxid, taxid, hasANoRankParent);
+        return hasANoRankParent;
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache so far
+     *
+     * @return {@code long} number of hits
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that had to be passed to the wrapped operator so far
+     *
+     * @return {@code long} number of misses
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Logs the hit and miss counters
+     */
+    public void logStatistics() {
+        final long hits = this.getHits();
+        final long total = hits + this.getMisses();
+        Log.getInstance().log(Level.INFO, "Taxonomy cache: " + hits + " of " + total + " lookups answered from memory"
+                + (total > 0 ? " (" + (100 * hits / total) + "%)." : "."));
+    }
+
+    private <K, V> V lookup(final Map<K, V> cache, final K key) {
+        final V value;
+        synchronized (cache) {
+            value = cache.get(key);
+        }
+        if (value == null) {
+            this.misses.incrementAndGet();
+        } else {
+            this.hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    private <K, V> void store(final Map<K, V> cache, final K key, final V value) {
+        synchronized (cache) {
+            cache.put(key, value);
+        }
+    }
+
+    /**
+     * Packs a pair of taxIds into the key of an ancestor check
+     */
+    private static long pair(final int parentTaxid, final int taxid) {
+        return ((long) parentTaxid << 32) | (taxid & 0xffffffffL);
+    }
+
+    /**
+     * Lifts the focus node of a hit to a new node built after a cached taxon
+     */
+    private static NormalizedHit lift(final NormalizedHit normalizedHit, final TaxonomicNode taxon) {
+        final TaxonomicNode taxonomicNode = copyOf(taxon);
+        taxonomicNode.addChild(normalizedHit.getFocusNode());
+        normalizedHit.setTaxonomy(taxonomicNode);
+        normalizedHit.setFocusNode(taxonomicNode);
+        return normalizedHit;
+    }
+
+    /**
+     * Copies a node without its parent and children
+     */
+    private static TaxonomicNode copyOf(final TaxonomicNode taxonomicNode) {
+        return TaxonomicNode.newDefaultInstance(taxonomicNode.getTaxid(), taxonomicNode.getRank(), taxonomicNode.getScientificName());
+    }
+
+    private static <K, V> Map<K, V> newLruMap(final int maxSize) {
+        return new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+                return this.size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * A static factory to wrap an operator
+     *
+     * @param taxonomicDatabaseOperator {@link db.connect.TaxonomicDatabaseOperator} to wrap, such as a
+     *                                  {@link blast.specification.BLASTIdentifierDB} or a {@link blast.specification.BLASTIdentifierRAM}
+     * @param maxSize                   {@code int} maximum number of entries of each of the caches
+     * @return a new instance of {@link db.connect.CachingTaxonomicDatabaseOperator}
+     */
+    public static CachingTaxonomicDatabaseOperator newInstance(final TaxonomicDatabaseOperator taxonomicDatabaseOperator, final int maxSize) {
+        return new CachingTaxonomicDatabaseOperator(taxonomicDatabaseOperator, maxSize);
+    }
+}
@@ -0,0 +1,69 @@
+package db.connect;
+
+import taxonomy.Ranks;
+import taxonomy.node.TaxonomicNode;
+
+import java.util.HashMap;
+import java.util.Map;
+/**
+ * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
+ * software for accurate taxonomic classification of nucleotide sequences.
+ * Copyright (C) 2013  Alexander Tuzhikov, Alexander Panchin and Valery Shestopalov.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A {@link db.connect.SubtreeVisitor} that attaches the visited descendants to a {@link taxonomy.node.TaxonomicNode}, for those
+ * who need the subtree as a whole (see {@code TaxonomicDatabaseOperator.attachChildrenForTaxonomicNode(TaxonomicNode)}).
+ */
+public class SubtreeBuilder implements SubtreeVisitor {
+    /**
+     * The nodes attached so far, by taxId, the root of the subtree included
+     */
+    protected final Map<Integer, TaxonomicNode> nodeByTaxid;
+
+    /**
+     * Protected constructor
+     *
+     * @param parentNode {@link taxonomy.node.TaxonomicNode} root of the subtree
+     */
+    protected SubtreeBuilder(final TaxonomicNode parentNode) {
+        this.nodeByTaxid = new HashMap<>();
+        this.nodeByTaxid.put(parentNode.getTaxid(), parentNode);
+    }
+
+    @Override
+    public boolean visit(final int taxid, final int parentTaxid, final Ranks rank, final String scientificName) {
+        final TaxonomicNode parentNode = this.nodeByTaxid.get(parentTaxid);
+        if (parentNode == null || this.nodeByTaxid.containsKey(taxid)) {
+            //Neither a detached nor a repeated node can be placed within the subtree
+            return false;
+        }
+        final TaxonomicNode taxonomicNode = TaxonomicNode.newDefaultInstance(taxid, rank, scientificName);
+        taxonomicNode.setParent(parentNode);
+        parentNode.addChild(taxonomicNode);
+        this.nodeByTaxid.put(taxid, taxonomicNode);
+        return true;
+    }
+
+    /**
+     * A static factory to start a subtree. Clears any children that the root may already have (as a result of leveling up
+     * from some other rank).
+     *
+     * @param parentNode {@link taxonomy.node.TaxonomicNode} root of the subtree
+     * @return a new instance of {@link db.connect.SubtreeBuilder}
+     */
+    public static SubtreeBuilder newInstance(final TaxonomicNode parentNode) {
+        parentNode.getChildren().clear();
+        return new SubtreeBuilder(parentNode);
+    }
+}
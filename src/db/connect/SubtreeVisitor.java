@@ -0,0 +1,38 @@
+package db.connect;
+
+import taxonomy.Ranks;
+/**
+ * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
+ * software for accurate taxonomic classification of nucleotide sequences.
+ * Copyright (C) 2013  Alexander Tuzhikov, Alexander Panchin and Valery Shestopalov.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Walks the descendants of a taxonomic node one at a time (see {@code TaxonomicDatabaseOperator.visitSubtree(int, SubtreeVisitor)}),
+ * so that a subtree as large as a whole domain can be processed without assembling it from {@link taxonomy.node.TaxonomicNode}s.
+ * A parent is always visited before its children.
+ */
+public interface SubtreeVisitor {
+
+    /**
+     * Visits a descendant node
+     *
+     * @param taxid          {@code int} taxId of the node
+     * @param parentTaxid    {@code int} taxId of its parent, which has been visited already, unless it is the root of the subtree
+     * @param rank           {@link taxonomy.Ranks} of the node
+     * @param scientificName {@link String} scientific name of the node
+     * @return {@code true} to go on with the children of the node, {@code false} to skip them
+     * @throws Exception in case the visitor fails to process the node
+     */
+    public boolean visit(int taxid, int parentTaxid, Ranks rank, String scientificName) throws Exception;
+}
@@ -2,6 +2,8 @@ package db.connect;
 
 import blast.normal.hit.NormalizedHit;
 import taxonomy.node.TaxonomicNode;
+
+import java.util.List;
 /**
  * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
  * software for accurate taxonomic classification of nucleotide sequences.
@@ -32,6 +34,17 @@ public interface TaxonomicDatabaseOperator extends DatabaseOperator {
      */
     public NormalizedHit assignTaxonomy(final NormalizedHit normalizedHit) throws Exception;
 
+    /**
+     * Should be able to assign the taxonomy to a whole list of {@link NormalizedHit}s at once, such as all the hits of an
+     * iteration, so that the lookups can be answered within a single pass or database round trip.
+     *
+     * @param normalizedHits {@link List} of {@link NormalizedHit}s that need to get their own taxonomy
+     * @return {@link List} of the same size and order, with the same pointers to the hits that got their taxonomy, and
+     *         {@code null} in place of those that could not be resolved
+     * @throws Exception
+     */
+    public List<NormalizedHit> assignTaxonomy(final List<NormalizedHit> normalizedHits) throws Exception;
+
     /**
      * Should be able to lift a hit's taxonomic rank one level higher and return a pointer to the same {@link NormalizedHit}.
      *
@@ -41,6 +54,26 @@ public interface TaxonomicDatabaseOperator extends DatabaseOperator {
      */
     public NormalizedHit liftRankForNormalizedHit(final NormalizedHit normalizedHit) throws Exception;
 
+    /**
+     * Should be able to lift the taxonomic rank of a whole list of {@link NormalizedHit}s one level higher at once.
+     *
+     * @param normalizedHits {@link List} of {@link NormalizedHit}s that need to have their focus nodes lifted to a higher rank
+     * @return {@link List} of the same size and order, with the same pointers to the lifted hits, and {@code null} in place
+     *         of those that have no parent
+     * @throws Exception
+     */
+    public List<NormalizedHit> liftRankForNormalizedHits(final List<NormalizedHit> normalizedHits) throws Exception;
+
+    /**
+     * Should be able to lift a hit's focus node over any number of "no rank" ancestors straight up to the closest ancestor of
+     * a real rank (or to the root, if there is none) and return a pointer to the same {@link NormalizedHit}.
+     *
+     * @param normalizedHit {@link NormalizedHit} that has its focus node at a "no rank" node
+     * @return a {@link NormalizedHit} with a focus node lifted to a real rank, {@code null} if the lineage is broken
+     * @throws Exception
+     */
+    public NormalizedHit liftRankToNextRealRank(final NormalizedHit normalizedHit) throws Exception;
+
     /**
      * For a given {@link TaxonomicNode} should be able to reconstruct from the database and assign a full taxonomic subtree of
      * descendants.
@@ -51,6 +84,16 @@ public interface TaxonomicDatabaseOperator extends DatabaseOperator {
      */
     public TaxonomicNode attachChildrenForTaxonomicNode(final TaxonomicNode parentNode) throws Exception;
 
+    /**
+     * Should be able to walk all the descendants of a given taxid, parents before their children, without assembling the
+     * subtree in memory, so that even the largest clades (such as Bacteria) can be expanded.
+     *
+     * @param taxid   of the root of the subtree, which itself does not get visited
+     * @param visitor {@link SubtreeVisitor} that gets every descendant and decides whether to go on with its children
+     * @throws Exception
+     */
+    public void visitSubtree(int taxid, SubtreeVisitor visitor) throws Exception;
+
     /**
      * Should be able to check whether a given parent taxid is indeed a parent taxid for the given one, as well as it should check
      * whether the parent taxid may be a sibling taxid for the given.
@@ -64,6 +107,17 @@ public interface TaxonomicDatabaseOperator extends DatabaseOperator {
      */
     public boolean isParentOf(int parentTaxid, int taxid) throws Exception;
 
+    /**
+     * Should be able to check a whole set of supposed parent taxids against a given taxid at once, with the same convention
+     * as the {@code isParentOf(int, int)}.
+     *
+     * @param parentTaxids taxids of the {@link TaxonomicNode}s that should be parents to the given taxid
+     * @param taxid        of the {@link TaxonomicNode} of the pivotal taxid
+     * @return {@code boolean[]} of the same size and order, {@code true} where the taxid is indeed a parent of the given one
+     * @throws Exception
+     */
+    public boolean[] areParentsOf(int[] parentTaxids, int taxid) throws Exception;
+
     /**
      * For a given {@link TaxonomicNode} should be able to attach its parent and higher lineage structure.
      *
@@ -0,0 +1,503 @@
+package db.ram;
+
+import logger.Log;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+/**
+ * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
+ * software for accurate taxonomic classification of nucleotide sequences.
+ * Copyright (C) 2013  Alexander Tuzhikov, Alexander Panchin and Valery Shestopalov.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * An accession-taxId map for the sequences that the NCBI no longer issues GIs for. Accessions are looked up without the version
+ * (a taxId does not change between the versions of a record), so that both "AB000001.1"-styled hit IDs and the BLAST
+ * Hit_accession field resolve.
+ * The accessions are not stored: a minimal perfect hash (a cascade of collision-free bit levels, queried with rank) maps an
+ * accession to a slot. A packed check array keeps the full 64-bit hash of the accession of every slot, so that an accession
+ * that is not in the index is rejected rather than given the taxId of another slot, and the taxIds are bit-packed next to it.
+ * The whole index takes about 12 bytes per accession and is written to and mapped from a {@link db.ram.RamDbFormat} section.
+ */
+public class AccessionTaxIdIndex {
+    /**
+     * Number of bits per key within a level, trades the size of the levels for the number of them
+     */
+    static final double GAMMA = 2.0;
+    /**
+     * The keys that still collide after this number of levels are kept in a sorted fallback list
+     */
+    static final int MAX_LEVELS = 24;
+    /**
+     * Number of bits of an accession check, marks the format of the section as well
+     */
+    static final int CHECK_BITS = 64;
+    /**
+     * Largest number of accessions an index can be built from in one go
+     */
+    static final int MAX_KEYS = Integer.MAX_VALUE - 8;
+    /**
+     * Size of the section header
+     */
+    private static final int HEADER_SIZE = 32;
+    /**
+     * An index that has no accessions
+     */
+    public static final AccessionTaxIdIndex EMPTY = new AccessionTaxIdIndex(0, new long[]{0}, ChunkedLongs.wrap(new long[0]),
+            IntBuffer.wrap(new int[1]), LongBuffer.wrap(new long[0]), ChunkedLongs.wrap(new long[0]), 1, ChunkedLongs.wrap(new long[0]));
+
+    /**
+     * Number of slots (distinct accessions)
+     */
+    protected final int numberOfKeys;
+    /**
+     * Offsets of the levels within the {@code levelBits}, in bits, followed by the total number of bits
+     */
+    protected final long[] levelBitOffset;
+    /**
+     * Level bit sets, one after another
+     */
+    protected final ChunkedLongs levelBits;
+    /**
+     * Number of set bits before every 512-bit superblock of the {@code levelBits}
+     */
+    protected final IntBuffer superblockRank;
+    /**
+     * Sorted hashes of the accessions that did not fit into the levels, their slots follow the level slots
+     */
+    protected final LongBuffer fallbackKeys;
+    /**
+     * Full hashes of the accessions, one per slot
+     */
+    protected final ChunkedLongs checks;
+    /**
+     * Number of bits for a taxId within a slot
+     */
+    protected final int taxIdBits;
+    /**
+     * Bit-packed slots, {@code taxIdBits} bits per taxId
+     */
+    protected final ChunkedLongs slots;
+
+    /**
+     * Protected constructor
+     */
+    protected AccessionTaxIdIndex(final int numberOfKeys, final long[] levelBitOffset, final ChunkedLongs levelBits, final IntBuffer superblockRank,
+                                  final LongBuffer fallbackKeys, final ChunkedLongs checks, final int taxIdBits, final ChunkedLongs slots) {
+        this.numberOfKeys = numberOfKeys;
+        this.levelBitOffset = levelBitOffset;
+        this.levelBits = levelBits;
+        this.superblockRank = superblockRank;
+        this.fallbackKeys = fallbackKeys;
+        this.checks = checks;
+        this.taxIdBits = taxIdBits;
+        this.slots = slots;
+    }
+
+    /**
+     * Returns a taxId for a given accession
+     *
+     * @param accession {@link String} accession, with or without the version
+     * @return {@code int} taxId, {@code 0} if the accession is not within the index
+     */
+    public int getTaxId(final String accession) {
+        if (this.numberOfKeys == 0 || accession == null) {
+            return 0;
+        }
+        return this.getTaxId(hash(accession));
+    }
+
+    /**
+     * Returns a taxId for a given accession hash
+     *
+     * @param key {@code long} hash of an accession (see {@code hash(String)})
+     * @return {@code int} taxId, {@code 0} if the accession is not within the index
+     */
+    int getTaxId(final long key) {
+        if (this.numberOfKeys == 0) {
+            return 0;
+        }
+        final long slot = this.slotOf(key);
+        if (slot < 0 || this.checks.get(slot) != key) {
+            return 0;
+        }
+        return (int) this.readSlot(slot);
+    }
+
+    /**
+     * @return {@code int} number of accessions within the index
+     */
+    public int size() {
+        return this.numberOfKeys;
+    }
+
+    /**
+     * Finds a slot for a given key
+     *
+     * @param key {@code long} hash of an accession
+     * @return {@code long} slot, or -1 if the key can not be within the index
+     */
+    protected long slotOf(final long key) {
+        final int numberOfLevels = this.levelBitOffset.length - 1;
+        for (int level = 0; level < numberOfLevels; level++) {
+            final long levelSize = this.levelBitOffset[level + 1] - this.levelBitOffset[level];
+            final long bit = this.levelBitOffset[level] + position(key, level, levelSize);
+            if ((this.levelBits.get(bit >>> 6) & (1L << (bit & 63))) != 0) {
+                return this.rank(bit);
+            }
+        }
+        int low = 0;
+        int high = this.fallbackKeys.limit() - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final long middleKey = this.fallbackKeys.get(middle);
+            if (middleKey < key) {
+                low = middle + 1;
+            } else if (middleKey > key) {
+                high = middle - 1;
+            } else {
+                return this.numberOfKeys - this.fallbackKeys.limit() + middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Number of set bits within the {@code levelBits} before a given bit
+     */
+    private long rank(final long bit) {
+        final long word = bit >>> 6;
+        final long superblock = word >>> 3;
+        long rank = this.superblockRank.get((int) superblock);
+        for (long i = superblock << 3; i < word; i++) {
+            rank += Long.bitCount(this.levelBits.get(i));
+        }
+        return rank + Long.bitCount(this.levelBits.get(word) & ((1L << (bit & 63)) - 1));
+    }
+
+    private long readSlot(final long slot) {
+        final int bits = this.taxIdBits;
+        final long bit = slot * bits;
+        final long word = bit >>> 6;
+        final int shift = (int) (bit & 63);
+        long value = this.slots.get(word) >>> shift;
+        if (shift + bits > 64) {
+            value |= this.slots.get(word + 1) << (64 - shift);
+        }
+        return value & ((1L << bits) - 1);
+    }
+
+    /**
+     * @return {@code long} size of the section in bytes
+     */
+    long sizeInBytes() {
+        final int superblocks = this.superblockRank.limit();
+        return HEADER_SIZE + (long) this.levelBitOffset.length * Long.BYTES + (((long) superblocks * Integer.BYTES + 7) & ~7L)
+                + this.levelBits.size() * Long.BYTES + (long) this.fallbackKeys.limit() * Long.BYTES
+                + this.checks.size() * Long.BYTES + this.slots.size() * Long.BYTES;
+    }
+
+    /**
+     * Writes the index into the given channel in the {@link db.ram.RamDbFormat} byte order
+     *
+     * @param channel {@link java.nio.channels.WritableByteChannel} to write to
+     * @throws IOException in case an IO error occurs
+     */
+    void writeTo(final WritableByteChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + this.levelBitOffset.length * Long.BYTES).order(RamDbFormat.BYTE_ORDER);
+        header.putInt(this.numberOfKeys);
+        header.putInt(this.levelBitOffset.length - 1);
+        header.putInt(this.taxIdBits);
+        header.putInt(this.fallbackKeys.limit());
+        header.putInt(this.superblockRank.limit());
+        header.putInt(CHECK_BITS);
+        header.putLong(this.slots.size());
+        for (long offset : this.levelBitOffset) {
+            header.putLong(offset);
+        }
+        header.clear();
+        RamDbFormat.writeFully(channel, header);
+        RamDbFormat.writeInts(channel, this.superblockRank);
+        if ((this.superblockRank.limit() & 1) != 0) {
+            RamDbFormat.writeFully(channel, ByteBuffer.allocate(Integer.BYTES));
+        }
+        this.levelBits.writeTo(channel);
+        RamDbFormat.writeLongs(channel, this.fallbackKeys);
+        this.checks.writeTo(channel);
+        this.slots.writeTo(channel);
+    }
+
+    /**
+     * A static factory to map an index, that was previously written to a section of a {@link db.ram.RamDbFormat} file
+     *
+     * @param channel {@link java.nio.channels.FileChannel} of the file
+     * @param offset  {@code long} offset of the section
+     * @return a new instance of {@link db.ram.AccessionTaxIdIndex} that queries the file in place
+     * @throws IOException in case mapping fails, or the section was written in an older format
+     */
+    static AccessionTaxIdIndex map(final FileChannel channel, final long offset) throws IOException {
+        final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, offset, HEADER_SIZE).order(RamDbFormat.BYTE_ORDER);
+        final int numberOfKeys = header.getInt(0);
+        final int numberOfLevels = header.getInt(4);
+        final int taxIdBits = header.getInt(8);
+        final int numberOfFallbackKeys = header.getInt(12);
+        final int superblocks = header.getInt(16);
+        if (header.getInt(20) != CHECK_BITS) {
+            throw new IOException("The RAM-based taxonomic database needs to be updated.");
+        }
+        final long slotWords = header.getLong(24);
+        long position = offset + HEADER_SIZE;
+        final long[] levelBitOffset = new long[numberOfLevels + 1];
+        RamDbFormat.mapLongs(channel, position, levelBitOffset.length).get(levelBitOffset);
+        position += (long) levelBitOffset.length * Long.BYTES;
+        final IntBuffer superblockRank = RamDbFormat.mapInts(channel, position, superblocks);
+        position += ((long) superblocks * Integer.BYTES + 7) & ~7L;
+        final long levelWords = levelBitOffset[numberOfLevels] >>> 6;
+        final ChunkedLongs levelBits = ChunkedLongs.map(channel, position, levelWords);
+        position += levelWords * Long.BYTES;
+        final LongBuffer fallbackKeys = RamDbFormat.mapLongs(channel, position, numberOfFallbackKeys);
+        position += (long) numberOfFallbackKeys * Long.BYTES;
+        final ChunkedLongs checks = ChunkedLongs.map(channel, position, numberOfKeys);
+        position += (long) numberOfKeys * Long.BYTES;
+        final ChunkedLongs slots = ChunkedLongs.map(channel, position, slotWords);
+        return new AccessionTaxIdIndex(numberOfKeys, levelBitOffset, levelBits, superblockRank, fallbackKeys, checks, taxIdBits, slots);
+    }
+
+    /**
+     * A static factory to build an index from accession hashes (see {@code hash(String)}) and taxIds
+     *
+     * @param keys         {@code long[]} hashes of the accessions, may contain duplicates, the last taxId wins then
+     * @param taxIds       {@code int[]} corresponding taxIds
+     * @param numberOfKeys {@code int} number of meaningful positions within the arrays
+     * @return a new instance of {@link db.ram.AccessionTaxIdIndex}
+     */
+    public static AccessionTaxIdIndex newInstance(final long[] keys, final int[] taxIds, final int numberOfKeys) {
+        if (numberOfKeys == 0) {
+            return EMPTY;
+        }
+        //Build the levels: a key stays at the first level where no other key falls into the same bit
+        final List<long[]> levels = new ArrayList<>();
+        final List<Long> levelSizes = new ArrayList<>();
+        long[] remaining = Arrays.copyOf(keys, numberOfKeys);
+        int numberOfRemaining = numberOfKeys;
+        while (numberOfRemaining > 0 && levels.size() < MAX_LEVELS) {
+            final int level = levels.size();
+            final long levelSize = Math.max(64, ((long) Math.ceil(numberOfRemaining * GAMMA) + 63) & ~63L);
+            final long[] seen = new long[(int) (levelSize >>> 6)];
+            final long[] collided = new long[seen.length];
+            for (int i = 0; i < numberOfRemaining; i++) {
+                final long bit = position(remaining[i], level, levelSize);
+                final int word = (int) (bit >>> 6);
+                final long mask = 1L << (bit & 63);
+                if ((seen[word] & mask) != 0) {
+                    collided[word] |= mask;
+                } else {
+                    seen[word] |= mask;
+                }
+            }
+            int next = 0;
+            for (int i = 0; i < numberOfRemaining; i++) {
+                final long bit = position(remaining[i], level, levelSize);
+                if ((collided[(int) (bit >>> 6)] & (1L << (bit & 63))) != 0) {
+                    remaining[next++] = remaining[i];
+                }
+            }
+            for (int i = 0; i < seen.length; i++) {
+                seen[i] &= ~collided[i];
+            }
+            levels.add(seen);
+            levelSizes.add(levelSize);
+            numberOfRemaining = next;
+        }
+        //Whatever did not fit goes into the sorted fallback, duplicates collapse there
+        final long[] fallback = Arrays.copyOf(remaining, numberOfRemaining);
+        Arrays.sort(fallback);
+        int numberOfFallbackKeys = 0;
+        for (int i = 0; i < fallback.length; i++) {
+            if (i == 0 || fallback[i] != fallback[i - 1]) {
+                fallback[numberOfFallbackKeys++] = fallback[i];
+            }
+        }
+
+        //Concatenate the levels and rank them
+        final long[] levelBitOffset = new long[levels.size() + 1];
+        for (int i = 0; i < levels.size(); i++) {
+            levelBitOffset[i + 1] = levelBitOffset[i] + levelSizes.get(i);
+        }
+        final long[] levelBits = new long[(int) (levelBitOffset[levels.size()] >>> 6)];
+        int wordOffset = 0;
+        for (long[] level : levels) {
+            System.arraycopy(level, 0, levelBits, wordOffset, level.length);
+            wordOffset += level.length;
+        }
+        final int[] superblockRank = new int[(levelBits.length >>> 3) + 1];
+        int rank = 0;
+        for (int i = 0; i < levelBits.length; i++) {
+            if ((i & 7) == 0) {
+                superblockRank[i >>> 3] = rank;
+            }
+            rank += Long.bitCount(levelBits[i]);
+        }
+        if ((levelBits.length & 7) == 0) {
+            superblockRank[levelBits.length >>> 3] = rank;
+        }
+        final int numberOfSlots = rank + numberOfFallbackKeys;
+
+        //Fill in the slots
+        int maxTaxId = 1;
+        for (int i = 0; i < numberOfKeys; i++) {
+            maxTaxId = Math.max(maxTaxId, taxIds[i]);
+        }
+        final int taxIdBits = 32 - Integer.numberOfLeadingZeros(maxTaxId);
+        final int bits = taxIdBits;
+        final long[] checks = new long[numberOfSlots];
+        final long[] slots = new long[(int) (((long) numberOfSlots * bits + 63) >>> 6) + 1];
+        final AccessionTaxIdIndex index = new AccessionTaxIdIndex(numberOfSlots, levelBitOffset, ChunkedLongs.wrap(levelBits),
+                IntBuffer.wrap(superblockRank), LongBuffer.wrap(fallback, 0, numberOfFallbackKeys).slice(), ChunkedLongs.wrap(checks),
+                taxIdBits, ChunkedLongs.wrap(slots));
+        for (int i = 0; i < numberOfKeys; i++) {
+            final long slot = index.slotOf(keys[i]);
+            final long entry = taxIds[i];
+            checks[(int) slot] = keys[i];
+            final long bit = slot * bits;
+            final int word = (int) (bit >>> 6);
+            final int shift = (int) (bit & 63);
+            final long mask = (1L << bits) - 1;
+            slots[word] = (slots[word] & ~(mask << shift)) | (entry << shift);
+            if (shift + bits > 64) {
+                slots[word + 1] = (slots[word + 1] & ~(mask >>> (64 - shift))) | (entry >>> (64 - shift));
+            }
+        }
+        Log.getInstance().log(Level.INFO, "Accession index: " + numberOfSlots + " accessions, " + levels.size() + " levels, "
+                + numberOfFallbackKeys + " fallback keys, " + index.sizeInBytes() + " bytes.");
+        return index;
+    }
+
+    /**
+     * A static factory to build an index from the NCBI accession2taxid files (such as nucl_gb.accession2taxid), plain or gzipped.
+     * The files are tab-separated with a header line: accession, accession.version, taxid, gi.
+     *
+     * @param accession2taxid {@link java.io.File}s to read
+     * @return a new instance of {@link db.ram.AccessionTaxIdIndex}
+     * @throws IOException in case an IO error occurs, or the files hold more accessions than an index can take
+     */
+    public static AccessionTaxIdIndex loadFromAccession2TaxIdFiles(final File... accession2taxid) throws IOException {
+        return loadFromAccession2TaxIdFiles(null, accession2taxid);
+    }
+
+    /**
+     * Same as {@code loadFromAccession2TaxIdFiles(File...)}, but keeps only the given accessions, such as those of a custom BLAST
+     * database (see {@link db.ram.RamDbBuilder})
+     *
+     * @param selectedKeys    {@code long[]} sorted hashes of the accessions to keep (see {@code hash(String)}), {@code null} to keep all
+     * @param accession2taxid {@link java.io.File}s to read
+     * @return a new instance of {@link db.ram.AccessionTaxIdIndex}
+     * @throws IOException in case an IO error occurs, or the files hold more accessions than an index can take
+     */
+    static AccessionTaxIdIndex loadFromAccession2TaxIdFiles(final long[] selectedKeys, final File... accession2taxid) throws IOException {
+        long[] keys = new long[1 << 20];
+        int[] taxIds = new int[1 << 20];
+        int numberOfKeys = 0;
+        for (File file : accession2taxid) {
+            Log.getInstance().log(Level.INFO, "Mapping accessions from " + file + "...");
+            InputStream inputStream = new FileInputStream(file);
+            if (file.getName().endsWith(".gz")) {
+                inputStream = new GZIPInputStream(inputStream, 1 << 16);
+            }
+            try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.US_ASCII), 1 << 16)) {
+                String line;
+                while ((line = bufferedReader.readLine()) != null) {
+                    final int firstTab = line.indexOf('\t');
+                    final int secondTab = line.indexOf('\t', firstTab + 1);
+                    final int thirdTab = line.indexOf('\t', secondTab + 1);
+                    if (firstTab < 0 || secondTab < 0 || line.startsWith("accession\t")) {
+                        continue;
+                    }
+                    final long key = hash(line.substring(0, firstTab));
+                    if (selectedKeys != null && Arrays.binarySearch(selectedKeys, key) < 0) {
+                        continue;
+                    }
+                    if (numberOfKeys == MAX_KEYS) {
+                        throw new IOException("More than " + MAX_KEYS + " accessions in " + Arrays.toString(accession2taxid)
+                                + ", which is the most an accession index can be built from.");
+                    }
+                    if (numberOfKeys == keys.length) {
+                        final int newLength = (int) Math.min(MAX_KEYS, (long) keys.length + (keys.length >> 1));
+                        keys = Arrays.copyOf(keys, newLength);
+                        taxIds = Arrays.copyOf(taxIds, newLength);
+                    }
+                    keys[numberOfKeys] = key;
+                    taxIds[numberOfKeys] = Integer.parseInt(line.substring(secondTab + 1, thirdTab < 0 ? line.length() : thirdTab));
+                    numberOfKeys++;
+                }
+            }
+        }
+        return newInstance(keys, taxIds, numberOfKeys);
+    }
+
+    /**
+     * Hashes an accession, ignoring its version
+     *
+     * @param accession {@link String} accession, such as "AB000001" or "AB000001.1"
+     * @return {@code long} hash
+     */
+    static long hash(final String accession) {
+        int end = accession.length();
+        final int dot = accession.lastIndexOf('.');
+        if (dot > 0) {
+            boolean version = dot < end - 1;
+            for (int i = dot + 1; i < end && version; i++) {
+                version = Character.isDigit(accession.charAt(i));
+            }
+            if (version) {
+                end = dot;
+            }
+        }
+        //FNV-1a
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < end; i++) {
+            hash ^= accession.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Position of a key within a level
+     */
+    private static long position(final long key, final int level, final long levelSize) {
+        return Long.remainderUnsigned(mix(key + (level + 1) * 0x9E3779B97F4A7C15L), levelSize);
+    }
+
+    /**
+     * 64-bit finalizer of the MurmurHash3
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,207 @@
+package db.ram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+/**
+ * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
+ * software for accurate taxonomic classification of nucleotide sequences.
+ * Copyright (C) 2013  Alexander Tuzhikov, Alexander Panchin and Valery Shestopalov.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A run-length compressed GI-taxId map. Consecutive GIs that map to the same taxId (including the gaps, which map to zero) are
+ * collapsed into a single run, that keeps only the GI it starts with and the taxId. A two-level lookup first finds a block of
+ * 2^BLOCK_SHIFT GIs within a directory, and then binary searches the few runs that overlap with that block.
+ * Is preferred over the {@link db.ram.DenseGiTaxIdIndex} for the sparse or highly clustered GI ranges (see {@link db.ram.GiTaxIdIndexBuilder}).
+ */
+public class BlockGiTaxIdIndex implements GiTaxIdIndex {
+    /**
+     * A block covers 2^BLOCK_SHIFT GIs
+     */
+    static final int BLOCK_SHIFT = 16;
+    /**
+     * Size of the section header: maximum GI, block shift, number of runs, number of blocks
+     */
+    private static final int HEADER_SIZE = 16;
+    /**
+     * Largest GI within the index
+     */
+    protected final int maxGi;
+    /**
+     * Index of the run that covers the first GI of a block, indexed by block, followed by the index of the last run
+     */
+    protected final IntBuffer firstRunByBlock;
+    /**
+     * The GI that a run starts with, ascending, the first run always starts at zero
+     */
+    protected final IntBuffer runStart;
+    /**
+     * The taxId for all the GIs of a run
+     */
+    protected final IntBuffer runTaxId;
+
+    /**
+     * Protected constructor
+     *
+     * @param maxGi           {@code int} largest GI within the index
+     * @param firstRunByBlock {@link java.nio.IntBuffer} block directory
+     * @param runStart        {@link java.nio.IntBuffer} first GIs of the runs
+     * @param runTaxId        {@link java.nio.IntBuffer} taxIds of the runs
+     */
+    protected BlockGiTaxIdIndex(final int maxGi, final IntBuffer firstRunByBlock, final IntBuffer runStart, final IntBuffer runTaxId) {
+        this.maxGi = maxGi;
+        this.firstRunByBlock = firstRunByBlock;
+        this.runStart = runStart;
+        this.runTaxId = runTaxId;
+    }
+
+    @Override
+    public int getTaxId(final int gi) {
+        if (gi < 0 || gi > this.maxGi) {
+            return 0;
+        }
+        return this.runTaxId.get(this.findRun(gi));
+    }
+
+    @Override
+    public void copyTo(final GiTaxIdIndexBuilder builder, final int fromGi, final int toGi) {
+        final int last = Math.min(toGi, this.maxGi);
+        if (fromGi < 0 || fromGi > last) {
+            return;
+        }
+        final int lastRun = this.runStart.limit() - 1;
+        for (int run = this.findRun(fromGi); run <= lastRun; run++) {
+            final int start = Math.max(fromGi, this.runStart.get(run));
+            if (start > last) {
+                return;
+            }
+            final int end = run < lastRun ? Math.min(last, this.runStart.get(run + 1) - 1) : last;
+            builder.addRange(start, end, this.runTaxId.get(run));
+        }
+    }
+
+    @Override
+    public int getMaxGi() {
+        return this.maxGi;
+    }
+
+    @Override
+    public int getSectionId() {
+        return RamDbFormat.SECTION_GI_BLOCKS;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return estimateSizeInBytes(this.maxGi, this.runStart.limit());
+    }
+
+    @Override
+    public void writeTo(final WritableByteChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(RamDbFormat.BYTE_ORDER);
+        header.putInt(this.maxGi);
+        header.putInt(BLOCK_SHIFT);
+        header.putInt(this.runStart.limit());
+        header.putInt(this.firstRunByBlock.limit());
+        header.clear();
+        RamDbFormat.writeFully(channel, header);
+        RamDbFormat.writeInts(channel, this.firstRunByBlock);
+        RamDbFormat.writeInts(channel, this.runStart);
+        RamDbFormat.writeInts(channel, this.runTaxId);
+    }
+
+    /**
+     * Estimates the size of an index
+     *
+     * @param maxGi       {@code int} largest GI
+     * @param numberOfRuns {@code int} number of runs
+     * @return {@code long} size in bytes
+     */
+    static long estimateSizeInBytes(final int maxGi, final int numberOfRuns) {
+        return HEADER_SIZE + ((long) numberOfBlocks(maxGi) + 1) * Integer.BYTES + 2L * numberOfRuns * Integer.BYTES;
+    }
+
+    /**
+     * A static factory to create an index from the runs
+     *
+     * @param maxGi        {@code int} largest GI
+     * @param runStart     {@code int[]} first GIs of the runs, ascending, starting with zero
+     * @param runTaxId     {@code int[]} taxIds of the runs
+     * @param numberOfRuns {@code int} number of meaningful positions within the arrays
+     * @return a new instance of {@link db.ram.BlockGiTaxIdIndex}
+     */
+    public static BlockGiTaxIdIndex newInstance(final int maxGi, final int[] runStart, final int[] runTaxId, final int numberOfRuns) {
+        final int numberOfBlocks = numberOfBlocks(maxGi);
+        final int[] firstRunByBlock = new int[numberOfBlocks + 1];
+        int run = 0;
+        for (int block = 0; block < numberOfBlocks; block++) {
+            final long blockStart = (long) block << BLOCK_SHIFT;
+            while (run + 1 < numberOfRuns && runStart[run + 1] <= blockStart) {
+                run++;
+            }
+            firstRunByBlock[block] = run;
+        }
+        firstRunByBlock[numberOfBlocks] = numberOfRuns - 1;
+        return new BlockGiTaxIdIndex(maxGi, IntBuffer.wrap(firstRunByBlock),
+                IntBuffer.wrap(runStart, 0, numberOfRuns).slice(), IntBuffer.wrap(runTaxId, 0, numberOfRuns).slice());
+    }
+
+    /**
+     * A static factory to map an index, that was previously written to a section of a {@link db.ram.RamDbFormat} file
+     *
+     * @param channel {@link java.nio.channels.FileChannel} of the file
+     * @param offset  {@code long} offset of the section
+     * @return a new instance of {@link db.ram.BlockGiTaxIdIndex} that queries the file in place
+     * @throws IOException in case mapping fails, or the section was written with a different block size
+     */
+    public static BlockGiTaxIdIndex map(final FileChannel channel, final long offset) throws IOException {
+        final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, offset, HEADER_SIZE).order(RamDbFormat.BYTE_ORDER);
+        final int maxGi = header.getInt(0);
+        if (header.getInt(4) != BLOCK_SHIFT) {
+            throw new IOException("The RAM-based taxonomic database needs to be updated.");
+        }
+        final int numberOfRuns = header.getInt(8);
+        final int directorySize = header.getInt(12);
+        long position = offset + HEADER_SIZE;
+        final IntBuffer firstRunByBlock = RamDbFormat.mapInts(channel, position, directorySize);
+        position += (long) directorySize * Integer.BYTES;
+        final IntBuffer runStart = RamDbFormat.mapInts(channel, position, numberOfRuns);
+        position += (long) numberOfRuns * Integer.BYTES;
+        final IntBuffer runTaxId = RamDbFormat.mapInts(channel, position, numberOfRuns);
+        return new BlockGiTaxIdIndex(maxGi, firstRunByBlock, runStart, runTaxId);
+    }
+
+    /**
+     * Finds the run that covers a given GI, which is the last one that starts at or before the GI
+     */
+    private int findRun(final int gi) {
+        final int block = gi >>> BLOCK_SHIFT;
+        int low = this.firstRunByBlock.get(block);
+        int high = this.firstRunByBlock.get(block + 1);
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (this.runStart.get(middle) <= gi) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private static int numberOfBlocks(final int maxGi) {
+        return (maxGi >>> BLOCK_SHIFT) + 1;
+    }
+}
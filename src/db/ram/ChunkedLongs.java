@@ -0,0 +1,106 @@
+package db.ram;
+
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+/**
+ * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
+ * software for accurate taxonomic classification of nucleotide sequences.
+ * Copyright (C) 2013  Alexander Tuzhikov, Alexander Panchin and Valery Shestopalov.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A read-only array of longs, addressed by a {@code long} index and split into chunks, so that it may be memory-mapped beyond
+ * the 2GB limit of a single mapped buffer (see {@link db.ram.RamDbFormat}).
+ */
+final class ChunkedLongs {
+    /**
+     * Chunk size is 2^CHUNK_SHIFT longs (1GB)
+     */
+    static final int CHUNK_SHIFT = 27;
+    /**
+     * Mask of the position within a chunk
+     */
+    static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+    /**
+     * Chunks, every chunk but the last one holds exactly 2^CHUNK_SHIFT longs
+     */
+    private final LongBuffer[] chunks;
+    /**
+     * Number of longs
+     */
+    private final long size;
+
+    private ChunkedLongs(final LongBuffer[] chunks, final long size) {
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    /**
+     * @param index {@code long} index
+     * @return {@code long} value at the index
+     */
+    long get(final long index) {
+        return this.chunks[(int) (index >>> CHUNK_SHIFT)].get((int) (index & CHUNK_MASK));
+    }
+
+    /**
+     * @return {@code long} number of longs
+     */
+    long size() {
+        return this.size;
+    }
+
+    /**
+     * Writes all the longs into a given channel in the {@link db.ram.RamDbFormat} byte order
+     *
+     * @param channel {@link java.nio.channels.WritableByteChannel} to write to
+     * @throws IOException in case an IO error occurs
+     */
+    void writeTo(final WritableByteChannel channel) throws IOException {
+        for (LongBuffer chunk : this.chunks) {
+            RamDbFormat.writeLongs(channel, chunk);
+        }
+    }
+
+    /**
+     * @param longs {@code long[]} heap array to wrap
+     * @return a new instance of {@link db.ram.ChunkedLongs} on top of the array
+     */
+    static ChunkedLongs wrap(final long[] longs) {
+        final int chunkSize = 1 << CHUNK_SHIFT;
+        final LongBuffer[] chunks = new LongBuffer[Math.max(1, (int) ((longs.length + CHUNK_MASK) >>> CHUNK_SHIFT))];
+        for (int i = 0; i < chunks.length; i++) {
+            final int from = i << CHUNK_SHIFT;
+            chunks[i] = LongBuffer.wrap(longs, from, Math.min(chunkSize, longs.length - from)).slice();
+        }
+        return new ChunkedLongs(chunks, longs.length);
+    }
+
+    /**
+     * @param channel {@link java.nio.channels.FileChannel} of a {@link db.ram.RamDbFormat} file
+     * @param offset  {@code long} offset of the longs within the file
+     * @param size    {@code long} number of longs
+     * @return a new instance of {@link db.ram.ChunkedLongs} that reads the file in place
+     * @throws IOException in case mapping fails
+     */
+    static ChunkedLongs map(final FileChannel channel, final long offset, final long size) throws IOException {
+        final LongBuffer[] chunks = new LongBuffer[Math.max(1, (int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT))];
+        for (int i = 0; i < chunks.length; i++) {
+            final long from = (long) i << CHUNK_SHIFT;
+            chunks[i] = RamDbFormat.mapLongs(channel, offset + from * Long.BYTES, Math.min(1L << CHUNK_SHIFT, size - from));
+        }
+        return new ChunkedLongs(chunks, size);
+    }
+}
@@ -0,0 +1,188 @@
+package db.ram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+/**
+ * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
+ * software for accurate taxonomic classification of nucleotide sequences.
+ * Copyright (C) 2013  Alexander Tuzhikov, Alexander Panchin and Valery Shestopalov.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A plain GI-taxId table: GI is the index, and the taxId is the value at that index (zero if the GI is absent). The table is split
+ * into chunks, because a memory-mapped buffer can not address more than 2GB, while the table for the full NCBI GI range can.
+ */
+public class DenseGiTaxIdIndex implements GiTaxIdIndex {
+    /**
+     * Chunk size is 2^CHUNK_SHIFT taxIds (1GB)
+     */
+    static final int CHUNK_SHIFT = 28;
+    /**
+     * Number of taxIds per chunk
+     */
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    /**
+     * Mask of the position within a chunk
+     */
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    /**
+     * Chunks of the table, every chunk but the last one holds exactly {@code CHUNK_SIZE} taxIds
+     */
+    protected final IntBuffer[] chunks;
+    /**
+     * Largest GI within the table
+     */
+    protected final int maxGi;
+
+    /**
+     * Protected constructor
+     *
+     * @param chunks {@link java.nio.IntBuffer}[] chunks of the table
+     * @param maxGi  {@code int} largest GI within the table
+     */
+    protected DenseGiTaxIdIndex(final IntBuffer[] chunks, final int maxGi) {
+        this.chunks = chunks;
+        this.maxGi = maxGi;
+    }
+
+    @Override
+    public int getTaxId(final int gi) {
+        if (gi < 0 || gi > this.maxGi) {
+            return 0;
+        }
+        return this.chunks[gi >>> CHUNK_SHIFT].get(gi & CHUNK_MASK);
+    }
+
+    @Override
+    public int getMaxGi() {
+        return this.maxGi;
+    }
+
+    @Override
+    public int getSectionId() {
+        return RamDbFormat.SECTION_GI_DENSE;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return ((long) this.maxGi + 1) * Integer.BYTES;
+    }
+
+    @Override
+    public void writeTo(final WritableByteChannel channel) throws IOException {
+        for (IntBuffer chunk : this.chunks) {
+            RamDbFormat.writeInts(channel, chunk);
+        }
+    }
+
+    @Override
+    public void copyTo(final GiTaxIdIndexBuilder builder, final int fromGi, final int toGi) {
+        final int last = Math.min(toGi, this.maxGi);
+        if (fromGi > last) {
+            return;
+        }
+        int runStart = fromGi;
+        int runTaxId = this.getTaxId(fromGi);
+        for (int gi = fromGi + 1; gi <= last; gi++) {
+            final int taxid = this.chunks[gi >>> CHUNK_SHIFT].get(gi & CHUNK_MASK);
+            if (taxid != runTaxId) {
+                builder.addRange(runStart, gi - 1, runTaxId);
+                runStart = gi;
+                runTaxId = taxid;
+            }
+        }
+        builder.addRange(runStart, last, runTaxId);
+    }
+
+    /**
+     * Writes the table with some of the taxIds replaced, and possibly extended to a larger maximum GI. Streams from the current
+     * table straight into the channel, so that the update of a large table does not need a heap copy of it.
+     *
+     * @param channel {@link java.nio.channels.WritableByteChannel} to write to
+     * @param gis     {@code int[]} GIs to replace, ascending
+     * @param taxIds  {@code int[]} new taxIds for the GIs
+     * @param size    {@code int} number of meaningful positions within the arrays
+     * @param maxGi   {@code int} maximum GI of the written table, not less than any of the given GIs or the current maximum GI
+     * @throws IOException in case an IO error occurs
+     */
+    void writePatchedTo(final WritableByteChannel channel, final int[] gis, final int[] taxIds, final int size, final int maxGi) throws IOException {
+        final int window = 1 << 18;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(window * Integer.BYTES).order(RamDbFormat.BYTE_ORDER);
+        final IntBuffer view = buffer.asIntBuffer();
+        int next = 0;
+        for (long from = 0; from <= maxGi; from += window) {
+            final int count = (int) Math.min(window, (long) maxGi + 1 - from);
+            view.clear();
+            //Copy the current taxIds within the window, and pad the rest with zeros
+            for (long gi = from; gi < from + count; ) {
+                if (gi > this.maxGi) {
+                    view.put((int) (gi - from), 0);
+                    gi++;
+                    continue;
+                }
+                final IntBuffer chunk = this.chunks[(int) (gi >>> CHUNK_SHIFT)].duplicate();
+                final int position = (int) (gi & CHUNK_MASK);
+                final int length = (int) Math.min(Math.min(from + count, (long) this.maxGi + 1) - gi, chunk.limit() - position);
+                chunk.position(position);
+                chunk.limit(position + length);
+                view.position((int) (gi - from));
+                view.put(chunk);
+                gi += length;
+            }
+            while (next < size && gis[next] < from + count) {
+                view.put((int) (gis[next] - from), taxIds[next]);
+                next++;
+            }
+            buffer.clear();
+            buffer.limit(count * Integer.BYTES);
+            RamDbFormat.writeFully(channel, buffer);
+        }
+    }
+
+    /**
+     * A static factory to create an index on top of a heap array
+     *
+     * @param taxIdByGi {@code int[]} taxIds, indexed by GI
+     * @return a new instance of {@link db.ram.DenseGiTaxIdIndex}
+     */
+    public static DenseGiTaxIdIndex newInstance(final int[] taxIdByGi) {
+        final IntBuffer[] chunks = new IntBuffer[Math.max(1, (int) ((taxIdByGi.length + (long) CHUNK_MASK) >>> CHUNK_SHIFT))];
+        for (int i = 0; i < chunks.length; i++) {
+            final int from = i << CHUNK_SHIFT;
+            chunks[i] = IntBuffer.wrap(taxIdByGi, from, Math.min(CHUNK_SIZE, taxIdByGi.length - from)).slice();
+        }
+        return new DenseGiTaxIdIndex(chunks, taxIdByGi.length - 1);
+    }
+
+    /**
+     * A static factory to map an index, that was previously written to a section of a {@link db.ram.RamDbFormat} file
+     *
+     * @param channel {@link java.nio.channels.FileChannel} of the file
+     * @param offset  {@code long} offset of the section
+     * @param length  {@code long} length of the section in bytes
+     * @return a new instance of {@link db.ram.DenseGiTaxIdIndex} that queries the file in place
+     * @throws IOException in case mapping fails
+     */
+    public static DenseGiTaxIdIndex map(final FileChannel channel, final long offset, final long length) throws IOException {
+        final long size = length / Integer.BYTES;
+        final IntBuffer[] chunks = new IntBuffer[Math.max(1, (int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT))];
+        for (int i = 0; i < chunks.length; i++) {
+            final long from = (long) i << CHUNK_SHIFT;
+            chunks[i] = RamDbFormat.mapInts(channel, offset + from * Integer.BYTES, Math.min(CHUNK_SIZE, size - from));
+        }
+        return new DenseGiTaxIdIndex(chunks, (int) (size - 1));
+    }
+}
@@ -0,0 +1,208 @@
+package db.ram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+/**
+ * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
+ * software for accurate taxonomic classification of nucleotide sequences.
+ * Copyright (C) 2013  Alexander Tuzhikov, Alexander Panchin and Valery Shestopalov.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Parses the tab-separated lines of the filtered (".mod") NCBI dumps right from a mapped region of a file, without creating
+ * a {@link String} per line or per field. Also splits a file into such regions at the line boundaries, so that the regions can be
+ * parsed independently (see {@link db.ram.RamDbBuilder}).
+ */
+final class DmpChunkParser {
+    /**
+     * The region of the file, position to limit
+     */
+    private final ByteBuffer buffer;
+    /**
+     * Offset of the region within the file, is used to report the errors
+     */
+    private final long offset;
+
+    /**
+     * @param buffer {@link java.nio.ByteBuffer} that holds the lines from its position to its limit
+     * @param offset {@code long} offset of the buffer position within the file
+     */
+    DmpChunkParser(final ByteBuffer buffer, final long offset) {
+        this.buffer = buffer;
+        this.offset = offset;
+    }
+
+    /**
+     * Maps a region of a file for parsing
+     *
+     * @param channel {@link java.nio.channels.FileChannel} of the file
+     * @param region  {@code long[]} offset and length of the region
+     * @return a new {@link db.ram.DmpChunkParser} over the region
+     * @throws IOException in case mapping fails
+     */
+    static DmpChunkParser map(final FileChannel channel, final long[] region) throws IOException {
+        final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, region[0], region[1]);
+        return new DmpChunkParser(mapped, region[0]);
+    }
+
+    /**
+     * Splits a file into regions of about a given size, each of which starts at the beginning of a line and ends right after a line
+     *
+     * @param channel    {@link java.nio.channels.FileChannel} of the file
+     * @param regionSize {@code int} approximate size of a region in bytes
+     * @return {@link java.util.List} of offset and length pairs
+     * @throws IOException in case an IO error occurs
+     */
+    static List<long[]> split(final FileChannel channel, final int regionSize) throws IOException {
+        final long size = channel.size();
+        final List<long[]> regions = new ArrayList<>();
+        final ByteBuffer probe = ByteBuffer.allocate(1 << 12);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + regionSize);
+            //Move the end right after the next line break
+            scan:
+            while (end < size) {
+                probe.clear();
+                final int read = channel.read(probe, end);
+                if (read <= 0) {
+                    end = size;
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') {
+                        end += i + 1;
+                        break scan;
+                    }
+                }
+                end += read;
+            }
+            regions.add(new long[]{start, end - start});
+            start = end;
+        }
+        return regions;
+    }
+
+    /**
+     * @return {@code true} if there are lines left
+     */
+    boolean hasNextLine() {
+        return this.buffer.hasRemaining();
+    }
+
+    /**
+     * Parses an integer field, skipping the blanks around it, and moves to the beginning of the next field
+     *
+     * @return {@code int} value of the field
+     * @throws NumberFormatException in case the field is not an integer
+     */
+    int nextInt() {
+        this.skipBlanks();
+        final int start = this.buffer.position();
+        boolean negative = false;
+        if (this.buffer.hasRemaining() && this.buffer.get(start) == '-') {
+            negative = true;
+            this.buffer.position(start + 1);
+        }
+        long value = 0;
+        int digits = 0;
+        while (this.buffer.hasRemaining()) {
+            final int digit = this.buffer.get(this.buffer.position()) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE + 1L) {
+                throw this.malformed(start);
+            }
+            this.buffer.position(this.buffer.position() + 1);
+            digits++;
+        }
+        if (digits == 0 || (!negative && value > Integer.MAX_VALUE)) {
+            throw this.malformed(start);
+        }
+        this.skipBlanks();
+        if (this.buffer.hasRemaining()) {
+            final byte separator = this.buffer.get(this.buffer.position());
+            if (separator == '\t') {
+                this.buffer.position(this.buffer.position() + 1);
+            } else if (separator != '\n') {
+                throw this.malformed(start);
+            }
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Moves to the end of the current field, which is either a tab or the end of the line
+     *
+     * @return {@code int} position of the end of the field within the buffer, the line break and the trailing carriage return are excluded
+     */
+    int skipField() {
+        while (this.buffer.hasRemaining()) {
+            final byte b = this.buffer.get(this.buffer.position());
+            if (b == '\t' || b == '\n') {
+                break;
+            }
+            this.buffer.position(this.buffer.position() + 1);
+        }
+        int end = this.buffer.position();
+        if (end > 0 && this.buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Skips whatever is left of the current line
+     */
+    void nextLine() {
+        while (this.buffer.hasRemaining()) {
+            if (this.buffer.get() == '\n') {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return {@code int} current position within the buffer
+     */
+    int position() {
+        return this.buffer.position();
+    }
+
+    /**
+     * @return {@link java.nio.ByteBuffer} the underlying buffer
+     */
+    ByteBuffer buffer() {
+        return this.buffer;
+    }
+
+    private void skipBlanks() {
+        while (this.buffer.hasRemaining()) {
+            final byte b = this.buffer.get(this.buffer.position());
+            if (b != ' ' && b != '\r') {
+                return;
+            }
+            this.buffer.position(this.buffer.position() + 1);
+        }
+    }
+
+    private NumberFormatException malformed(final int position) {
+        return new NumberFormatException("Malformed number at byte " + (this.offset + position) + " of a dump file.");
+    }
+}
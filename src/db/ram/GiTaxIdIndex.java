@@ -0,0 +1,72 @@
+package db.ram;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+/**
+ * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
+ * software for accurate taxonomic classification of nucleotide sequences.
+ * Copyright (C) 2013  Alexander Tuzhikov, Alexander Panchin and Valery Shestopalov.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * An abstraction of the GI-taxId map within the {@link db.ram.RamDb}. Implementations may keep the map on heap or query it
+ * in place from a memory-mapped {@link db.ram.RamDbFormat} file, and know how to write themselves into a section of such a file.
+ */
+public interface GiTaxIdIndex {
+
+    /**
+     * Should return a taxId for a given GI
+     *
+     * @param gi {@code int} GI
+     * @return {@code int} taxId, {@code 0} if the GI is not within the index (deleted from the NCBI database or never issued)
+     */
+    public int getTaxId(final int gi);
+
+    /**
+     * Should return the largest GI the index knows of. Any GI above indicates that the database should be updated.
+     *
+     * @return {@code int} maximum GI
+     */
+    public int getMaxGi();
+
+    /**
+     * Should return the identifier of the {@link db.ram.RamDbFormat} section that this index is written to.
+     *
+     * @return {@code int} section identifier
+     */
+    public int getSectionId();
+
+    /**
+     * Should return the exact number of bytes that {@code writeTo(WritableByteChannel)} writes
+     *
+     * @return {@code long} size in bytes
+     */
+    public long sizeInBytes();
+
+    /**
+     * Should write the index into the given channel in the {@link db.ram.RamDbFormat} byte order
+     *
+     * @param channel {@link java.nio.channels.WritableByteChannel} to write to
+     * @throws IOException in case an IO error occurs
+     */
+    public void writeTo(final WritableByteChannel channel) throws IOException;
+
+    /**
+     * Should add the GIs of a given range to a builder as runs of equal taxIds, including the zeros of the absent GIs
+     *
+     * @param builder {@link db.ram.GiTaxIdIndexBuilder} to add to, must not have any GIs beyond {@code fromGi - 1}
+     * @param fromGi  {@code int} first GI of the range
+     * @param toGi    {@code int} last GI of the range, inclusive, is cut down to the maximum GI of the index
+     */
+    public void copyTo(final GiTaxIdIndexBuilder builder, final int fromGi, final int toGi);
+}
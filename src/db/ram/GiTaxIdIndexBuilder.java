@@ -0,0 +1,197 @@
+package db.ram;
+
+import logger.Log;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+/**
+ * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
+ * software for accurate taxonomic classification of nucleotide sequences.
+ * Copyright (C) 2013  Alexander Tuzhikov, Alexander Panchin and Valery Shestopalov.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Collects GI-taxId pairs in the ascending order of GIs (the way the NCBI sorts its gi_taxid dumps) as runs of equal taxIds, and
+ * builds the most compact {@link db.ram.GiTaxIdIndex} for them: a {@link db.ram.BlockGiTaxIdIndex} if the runs take less space
+ * than a plain table, which is the case for the sparse custom databases and the clustered NCBI GI ranges, and a
+ * {@link db.ram.DenseGiTaxIdIndex} otherwise.
+ */
+public class GiTaxIdIndexBuilder {
+    /**
+     * A block index keeps its runs in single mapped buffers, thereby can not hold more than this number of runs
+     */
+    private static final int MAX_BLOCK_RUNS = (Integer.MAX_VALUE / Integer.BYTES) - 8;
+    /**
+     * The GIs that the runs start with
+     */
+    private int[] runStart;
+    /**
+     * The taxIds of the runs
+     */
+    private int[] runTaxId;
+    /**
+     * Number of runs so far
+     */
+    private int numberOfRuns;
+    /**
+     * The first GI added, -1 if none
+     */
+    private int firstGi;
+    /**
+     * The last GI added, -1 if none
+     */
+    private int lastGi;
+
+    /**
+     * Creates an empty builder
+     */
+    public GiTaxIdIndexBuilder() {
+        this.runStart = new int[1 << 10];
+        this.runTaxId = new int[1 << 10];
+        this.numberOfRuns = 0;
+        this.firstGi = -1;
+        this.lastGi = -1;
+    }
+
+    /**
+     * Adds a GI-taxId pair
+     *
+     * @param gi    {@code int} GI, must be greater than any GI added before
+     * @param taxid {@code int} taxId
+     * @return a pointer to the same builder
+     * @throws IllegalArgumentException in case the GIs come unsorted
+     */
+    public GiTaxIdIndexBuilder add(final int gi, final int taxid) {
+        return this.addRange(gi, gi, taxid);
+    }
+
+    /**
+     * Adds a range of consecutive GIs that map to the same taxId
+     *
+     * @param fromGi {@code int} first GI of the range, must be greater than any GI added before
+     * @param toGi   {@code int} last GI of the range, inclusive
+     * @param taxid  {@code int} taxId
+     * @return a pointer to the same builder
+     * @throws IllegalArgumentException in case the GIs come unsorted
+     */
+    public GiTaxIdIndexBuilder addRange(final int fromGi, final int toGi, final int taxid) {
+        if (fromGi <= this.lastGi || toGi < fromGi) {
+            throw new IllegalArgumentException("Inconsistency in gi_taxid.dmp! GI " + fromGi + " follows GI " + this.lastGi + ".");
+        }
+        if (fromGi > this.lastGi + 1) {
+            //A gap maps to zero
+            this.addRun(this.lastGi + 1, 0);
+        }
+        this.addRun(fromGi, taxid);
+        if (this.firstGi < 0) {
+            this.firstGi = fromGi;
+        }
+        this.lastGi = toGi;
+        return this;
+    }
+
+    /**
+     * Appends all the GIs of another builder, which allows to collect the consecutive parts of a gi_taxid dump independently
+     * (see {@link db.ram.RamDbBuilder})
+     *
+     * @param next {@link db.ram.GiTaxIdIndexBuilder} with the GIs that follow the GIs of this builder
+     * @return a pointer to the same builder
+     * @throws IllegalArgumentException in case the GIs of the other builder do not follow the GIs of this builder
+     */
+    public GiTaxIdIndexBuilder append(final GiTaxIdIndexBuilder next) {
+        if (next.lastGi < 0) {
+            return this;
+        }
+        if (next.firstGi <= this.lastGi) {
+            throw new IllegalArgumentException("Inconsistency in gi_taxid.dmp! GI " + next.firstGi + " follows GI " + this.lastGi + ".");
+        }
+        for (int i = 0; i < next.numberOfRuns; i++) {
+            //The leading gap of the other builder gets trimmed to start right after the last GI of this one
+            final int from = Math.max(next.runStart[i], this.lastGi + 1);
+            final int to = i + 1 < next.numberOfRuns ? next.runStart[i + 1] : next.lastGi + 1;
+            if (from < to) {
+                this.addRun(from, next.runTaxId[i]);
+            }
+        }
+        if (this.firstGi < 0) {
+            this.firstGi = next.firstGi;
+        }
+        this.lastGi = next.lastGi;
+        return this;
+    }
+
+    /**
+     * Returns the largest GI added
+     *
+     * @return {@code int} maximum GI, -1 if none were added
+     */
+    public int getMaxGi() {
+        return this.lastGi;
+    }
+
+    /**
+     * Builds an index, chosen by the density of the added GIs
+     *
+     * @return {@link db.ram.GiTaxIdIndex} for the GIs added
+     */
+    public GiTaxIdIndex build() {
+        if (this.lastGi < 0) {
+            return DenseGiTaxIdIndex.newInstance(new int[0]);
+        }
+        if (!this.prefersDense()) {
+            Log.getInstance().log(Level.INFO, "Using a block GI index: " + this.numberOfRuns + " runs, "
+                    + BlockGiTaxIdIndex.estimateSizeInBytes(this.lastGi, this.numberOfRuns) + " bytes instead of " + this.denseSizeInBytes() + ".");
+            return BlockGiTaxIdIndex.newInstance(this.lastGi, this.runStart, this.runTaxId, this.numberOfRuns);
+        }
+        Log.getInstance().log(Level.INFO, "Using a dense GI index: " + this.denseSizeInBytes() + " bytes.");
+        final int[] taxIdByGi = new int[this.lastGi + 1];
+        for (int i = 0; i < this.numberOfRuns; i++) {
+            final int to = i + 1 < this.numberOfRuns ? this.runStart[i + 1] : this.lastGi + 1;
+            Arrays.fill(taxIdByGi, this.runStart[i], to, this.runTaxId[i]);
+        }
+        return DenseGiTaxIdIndex.newInstance(taxIdByGi);
+    }
+
+    /**
+     * Tells whether {@code build()} would choose a dense index for the added GIs, which allows to write a dense table some other
+     * way (see {@link db.ram.RamDbBuilder})
+     *
+     * @return {@code true} if a dense index is no larger than a block one, or a block one can not hold the runs
+     */
+    boolean prefersDense() {
+        return BlockGiTaxIdIndex.estimateSizeInBytes(this.lastGi, this.numberOfRuns) >= this.denseSizeInBytes()
+                || this.numberOfRuns > MAX_BLOCK_RUNS;
+    }
+
+    /**
+     * @return {@code long} size of a dense index for the added GIs in bytes
+     */
+    long denseSizeInBytes() {
+        return ((long) this.lastGi + 1) * Integer.BYTES;
+    }
+
+    private void addRun(final int gi, final int taxid) {
+        if (this.numberOfRuns > 0 && this.runTaxId[this.numberOfRuns - 1] == taxid) {
+            //Extends the current run
+            return;
+        }
+        if (this.numberOfRuns == this.runStart.length) {
+            final int newLength = (int) Math.min(Integer.MAX_VALUE - 8, (long) this.numberOfRuns + (this.numberOfRuns >> 1));
+            this.runStart = Arrays.copyOf(this.runStart, newLength);
+            this.runTaxId = Arrays.copyOf(this.runTaxId, newLength);
+        }
+        this.runStart[this.numberOfRuns] = gi;
+        this.runTaxId[this.numberOfRuns] = taxid;
+        this.numberOfRuns++;
+    }
+}
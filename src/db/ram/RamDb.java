@@ -1,14 +1,14 @@
 package db.ram;
 
-import db.ram.row.NamesRow;
 import db.ram.row.NodesRow;
-import db.ram.row.RamRow;
 import logger.Log;
 import taxonomy.Ranks;
 
 import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.logging.Level;
 
 /**
@@ -29,40 +29,110 @@ import java.util.logging.Level;
 
 
 /**
- * A serializable object, that is used as a taxonomic database. Implements {@link java.io.Serializable}, thereby needs to be deployed only once
- * and can be further used by loading into RAM. Currently the amount of RAM necessary to load the object is around 4GB.
+ * A taxonomic database, that needs to be deployed only once and can be further used by mapping its file into memory
+ * (see {@link db.ram.RamDbFormat}). The taxonomy is kept in dense primitive tables, indexed directly by taxId, so
+ * that neither the lookups, nor the object itself rely on boxed keys, map entries or row objects.
  * Usage of this object dramatically increases the speed of classification comparing to RDBMS (even well optimized), moreover, the deployment
  * process is way faster.
  */
-public class RamDb implements Serializable {
+public class RamDb {
     /**
-     * Serial version. TUIT will complain if this version goes obsolete and requests to redeploy the database.
+     * A value within the {@code rankOrdinalByTaxid} that indicates that there is no node for the taxId
      */
-    static final long serialVersionUID = 2L;
+    protected static final byte NO_RANK_ORDINAL = -1;
     /**
-     * Gi-taxId map. A use of a plain int[] array increases the amount of ram, that the object takes, however,
-     * the dramatic benefit is the speed of access. GI in this case is the index, and the taxId is the corresponding int[i];
-     * As long as the NCBI database issues new GIs and may delete the old ones, this array may have zeros (int[i]==0 is true) and this means that the
-     * NCBI database does not have a GI (the GI most likely had been there, but was deleted). This approach is way faster than using {@link java.util.HashMap}
-     * especially in terms of deployment speed.
+     * Cached {@link taxonomy.Ranks} values, so that a rank lookup does not clone the enum array every time
      */
-    protected int[] giByTaxIdMap;
+    protected static final Ranks[] RANKS = Ranks.values();
     /**
-     * Allows for a fast search of a row of GI-scientific name pair, mapped by the given GI
+     * Initial capacity for the taxId-indexed arrays upon deployment, the arrays grow as needed
      */
-    protected final Map<Integer, RamRow<Integer, String>> nameByTaxIdMap;
+    private static final int INITIAL_TAXID_CAPACITY = 1 << 16;
     /**
-     * Allows for a fast search of a row of taxId-parentTaxId-taxnomic rank, mapped by a given taxId
+     * Gi-taxId map. GI is the key, and the taxId is the value;
+     * As long as the NCBI database issues new GIs and may delete the old ones, the map may return zeros and this means that the
+     * NCBI database does not have a GI (the GI most likely had been there, but was deleted).
      */
-    protected final Map<Integer, NodesRow> nodeByTaxidMap;
+    protected final GiTaxIdIndex giTaxIdIndex;
+    /**
+     * Parent taxId, indexed by taxId. A zero (the NCBI never issues a zero taxId) indicates that the database has no node for the taxId.
+     */
+    protected final IntBuffer parentByTaxid;
+    /**
+     * {@link taxonomy.Ranks} ordinal, indexed by taxId. {@code NO_RANK_ORDINAL} indicates that the database has no node for the taxId.
+     */
+    protected final ByteBuffer rankOrdinalByTaxid;
+    /**
+     * Offsets of the scientific names within the {@code nameBlob}: a name for a given taxId occupies the bytes from
+     * {@code nameOffsetByTaxid[taxid]} up to {@code nameOffsetByTaxid[taxid + 1]}, so an empty range means that there is no name.
+     */
+    protected final IntBuffer nameOffsetByTaxid;
+    /**
+     * All scientific names, UTF-8 encoded and packed one after another in the order of taxIds.
+     */
+    protected final ByteBuffer nameBlob;
+    /**
+     * Accession-taxId map for the sequences that do not carry a GI, {@link db.ram.AccessionTaxIdIndex}.EMPTY if the database was
+     * deployed without accessions
+     */
+    protected final AccessionTaxIdIndex accessionTaxIdIndex;
+    /**
+     * Enter/exit labels of the nodes, {@link db.ram.TaxonomyTree}, mapped from the file, or computed upon load for the files
+     * written without them
+     */
+    protected final TaxonomyTree taxonomyTree;
+
+    /**
+     * Protected constructor for a database without accessions
+     *
+     * @param giTaxIdIndex       {@link db.ram.GiTaxIdIndex} GI-taxId map
+     * @param parentByTaxid      {@link java.nio.IntBuffer} of parent taxIds, indexed by taxId
+     * @param rankOrdinalByTaxid {@link java.nio.ByteBuffer} of {@link taxonomy.Ranks} ordinals, indexed by taxId
+     * @param nameOffsetByTaxid  {@link java.nio.IntBuffer} of scientific name offsets, indexed by taxId
+     * @param nameBlob           {@link java.nio.ByteBuffer} of UTF-8 encoded scientific names
+     */
+    protected RamDb(final GiTaxIdIndex giTaxIdIndex, final IntBuffer parentByTaxid, final ByteBuffer rankOrdinalByTaxid,
+                    final IntBuffer nameOffsetByTaxid, final ByteBuffer nameBlob) {
+        this(giTaxIdIndex, parentByTaxid, rankOrdinalByTaxid, nameOffsetByTaxid, nameBlob, AccessionTaxIdIndex.EMPTY);
+    }
 
     /**
      * Protected constructor
+     *
+     * @param giTaxIdIndex       {@link db.ram.GiTaxIdIndex} GI-taxId map
+     * @param parentByTaxid      {@link java.nio.IntBuffer} of parent taxIds, indexed by taxId
+     * @param rankOrdinalByTaxid {@link java.nio.ByteBuffer} of {@link taxonomy.Ranks} ordinals, indexed by taxId
+     * @param nameOffsetByTaxid  {@link java.nio.IntBuffer} of scientific name offsets, indexed by taxId
+     * @param nameBlob           {@link java.nio.ByteBuffer} of UTF-8 encoded scientific names
+     * @param accessionTaxIdIndex {@link db.ram.AccessionTaxIdIndex} accession-taxId map
+     */
+    protected RamDb(final GiTaxIdIndex giTaxIdIndex, final IntBuffer parentByTaxid, final ByteBuffer rankOrdinalByTaxid,
+                    final IntBuffer nameOffsetByTaxid, final ByteBuffer nameBlob, final AccessionTaxIdIndex accessionTaxIdIndex) {
+        this(giTaxIdIndex, parentByTaxid, rankOrdinalByTaxid, nameOffsetByTaxid, nameBlob, accessionTaxIdIndex,
+                TaxonomyTree.newInstance(parentByTaxid, rankOrdinalByTaxid));
+    }
+
+    /**
+     * Protected constructor for a database, which tree labels have already been computed
+     *
+     * @param giTaxIdIndex        {@link db.ram.GiTaxIdIndex} GI-taxId map
+     * @param parentByTaxid       {@link java.nio.IntBuffer} of parent taxIds, indexed by taxId
+     * @param rankOrdinalByTaxid  {@link java.nio.ByteBuffer} of {@link taxonomy.Ranks} ordinals, indexed by taxId
+     * @param nameOffsetByTaxid   {@link java.nio.IntBuffer} of scientific name offsets, indexed by taxId
+     * @param nameBlob            {@link java.nio.ByteBuffer} of UTF-8 encoded scientific names
+     * @param accessionTaxIdIndex {@link db.ram.AccessionTaxIdIndex} accession-taxId map
+     * @param taxonomyTree        {@link db.ram.TaxonomyTree} labels of the nodes given by the parent taxIds
      */
-    protected RamDb() {
-        //Initialize both maps
-        this.nameByTaxIdMap = new HashMap<>();
-        this.nodeByTaxidMap = new HashMap<>();
+    protected RamDb(final GiTaxIdIndex giTaxIdIndex, final IntBuffer parentByTaxid, final ByteBuffer rankOrdinalByTaxid,
+                    final IntBuffer nameOffsetByTaxid, final ByteBuffer nameBlob, final AccessionTaxIdIndex accessionTaxIdIndex,
+                    final TaxonomyTree taxonomyTree) {
+        this.accessionTaxIdIndex = accessionTaxIdIndex;
+        this.giTaxIdIndex = giTaxIdIndex;
+        this.parentByTaxid = parentByTaxid;
+        this.rankOrdinalByTaxid = rankOrdinalByTaxid;
+        this.nameOffsetByTaxid = nameOffsetByTaxid;
+        this.nameBlob = nameBlob;
+        this.taxonomyTree = taxonomyTree;
     }
 
     /**
@@ -77,12 +147,26 @@ public class RamDb implements Serializable {
         if (gi == null) {
             return null;
         }
-        if (gi >= this.giByTaxIdMap.length) {
+        if (gi < 0 || gi > this.giTaxIdIndex.getMaxGi()) {
             //A returned null must indicate that the database should be updated
             return null;
         }
         //Safely return a corresponding taxId
-        return this.giByTaxIdMap[gi.intValue()];
+        return this.giTaxIdIndex.getTaxId(gi);
+    }
+
+    /**
+     * A getter of a taxId by a given accession, for the sequences that the NCBI does not issue GIs for
+     *
+     * @param accession {@link java.lang.String} accession, with or without the version
+     * @return {@link java.lang.Integer} corresponding taxID, {@code null} if {@code null} passed or the accession is unknown to the database
+     */
+    public Integer getTaxIdByAccession(final String accession) {
+        final int taxid = this.accessionTaxIdIndex.getTaxId(accession);
+        if (taxid == 0) {
+            return null;
+        }
+        return taxid;
     }
 
     /**
@@ -92,12 +176,19 @@ public class RamDb implements Serializable {
      * @return {@link java.lang.String} scientific name, {@code null} if {@code null} passed
      */
     public String getNameByTaxId(final Integer taxid) {
-        final RamRow<Integer, String> nr = this.nameByTaxIdMap.get(taxid);
-        if (nr != null) {
-            return nr.getV();
-        } else {
+        if (taxid == null || taxid < 0 || taxid >= this.nameOffsetByTaxid.limit() - 1) {
+            return null;
+        }
+        final int from = this.nameOffsetByTaxid.get(taxid);
+        final int to = this.nameOffsetByTaxid.get(taxid + 1);
+        if (from == to) {
             return null;
         }
+        final byte[] name = new byte[to - from];
+        for (int i = 0; i < name.length; i++) {
+            name[i] = this.nameBlob.get(from + i);
+        }
+        return new String(name, StandardCharsets.UTF_8);
     }
 
     /**
@@ -107,12 +198,10 @@ public class RamDb implements Serializable {
      * @return {@link taxonomy.Ranks} taxonomic rank, or {@code null} if no rank was found by a given taxId, {@code null} if {@code null} passed
      */
     public Ranks getRankByTaxId(final Integer taxid) {
-        final NodesRow nodesRow = this.nodeByTaxidMap.get(taxid);
-        if (nodesRow.getRank() != null) {
-            return nodesRow.getRank();
-        } else {
+        if (taxid == null) {
             return null;
         }
+        return this.getRank(taxid);
     }
 
     /**
@@ -122,41 +211,196 @@ public class RamDb implements Serializable {
      * @return {@link java.lang.Integer} parent's taxId or {@code null} if no parent's taxId was found by a given taxId, {@code null} if {@code null} passed
      */
     public Integer getParetTaxIdByTaxId(final Integer taxid) { //Not used in this implementation of TUIT
-        final NodesRow nodesRow = this.getNodeByTaxId(taxid);
-        if (nodesRow != null) {
-            return nodesRow.getV();
+        if (taxid == null) {
+            return null;
+        }
+        final int parentTaxid = this.getParentTaxId(taxid);
+        if (parentTaxid != 0) {
+            return parentTaxid;
         } else {
             return null;
         }
     }
 
     /**
-     * A getter for a {@link db.ram.row.NodesRow} by the given taxId
+     * A getter for a {@link db.ram.row.NodesRow} by the given taxId. The row is created upon request, the hot paths should rather
+     * use {@code getParentTaxId(int)} and {@code getRank(int)}, which do not allocate.
      *
      * @param taxid {@link java.lang.Integer} given taxId
      * @return Corresponding {@link db.ram.row.NodesRow} or {@code null} if non found for a given taxId
      */
     public NodesRow getNodeByTaxId(final Integer taxid) {
-        return this.nodeByTaxidMap.get(taxid);
+        if (taxid == null || !this.containsTaxId(taxid)) {
+            return null;
+        }
+        return NodesRow.newInstance(taxid, this.parentByTaxid.get(taxid), this.getRank(taxid));
+    }
+
+    /**
+     * Checks whether the database has a node for a given taxId
+     *
+     * @param taxid {@code int} taxId
+     * @return {@code true} if the node exists, {@code false} otherwise
+     */
+    public boolean containsTaxId(final int taxid) {
+        return taxid > 0 && taxid < this.parentByTaxid.limit() && this.parentByTaxid.get(taxid) != 0;
+    }
+
+    /**
+     * A primitive getter for a parent taxId by a given taxId
+     *
+     * @param taxid {@code int} taxId
+     * @return {@code int} parent's taxId, or {@code 0} if no node was found by a given taxId
+     */
+    public int getParentTaxId(final int taxid) {
+        if (taxid <= 0 || taxid >= this.parentByTaxid.limit()) {
+            return 0;
+        }
+        return this.parentByTaxid.get(taxid);
+    }
+
+    /**
+     * A non-boxing getter for a taxonomic rank by a given taxId
+     *
+     * @param taxid {@code int} taxId
+     * @return {@link taxonomy.Ranks} taxonomic rank, or {@code null} if no node was found by a given taxId
+     */
+    public Ranks getRank(final int taxid) {
+        if (taxid <= 0 || taxid >= this.rankOrdinalByTaxid.limit()) {
+            return null;
+        }
+        final byte ordinal = this.rankOrdinalByTaxid.get(taxid);
+        if (ordinal == NO_RANK_ORDINAL) {
+            return null;
+        }
+        return RANKS[ordinal];
+    }
+
+    /**
+     * Checks whether a given parent taxId is indeed a parent (direct parent or grand parent within the lineage) of the given
+     * taxId. Takes constant time, see {@link db.ram.TaxonomyTree}.
+     *
+     * @param parentTaxid {@code int} taxId of the supposed parent
+     * @param taxid       {@code int} taxId
+     * @return {@code true} if the parent taxId is a parent of the given taxId (the root is a parent of itself),
+     * {@code false} otherwise, or if any of the nodes does not exist
+     */
+    public boolean isParentOf(final int parentTaxid, final int taxid) {
+        return this.taxonomyTree.isAncestorOf(parentTaxid, taxid, this.getParentTaxId(taxid));
+    }
+
+    /**
+     * Returns the closest ancestor of a given taxId, that has a real (other than "no rank") rank, or the root if there is none.
+     * Takes constant time, see {@link db.ram.TaxonomyTree}.
+     *
+     * @param taxid {@code int} taxId
+     * @return {@code int} ancestor's taxId, or {@code 0} if no node was found by a given taxId
+     */
+    public int getRankedParentTaxId(final int taxid) {
+        return this.taxonomyTree.getRankedParent(taxid);
+    }
+
+    /**
+     * Returns the pre-order enter label of a taxId, the descendants of a taxId occupy the labels right after it up to its
+     * exit label, see {@link db.ram.TaxonomyTree}
+     *
+     * @param taxid {@code int} taxId
+     * @return {@code int} enter label, {@code -1} if no node was found by a given taxId
+     */
+    public int getEnterLabel(final int taxid) {
+        return this.taxonomyTree.getEnterLabel(taxid);
+    }
+
+    /**
+     * Returns the exit label of a taxId, which is the largest enter label within its subtree, see {@link db.ram.TaxonomyTree}
+     *
+     * @param taxid {@code int} taxId
+     * @return {@code int} exit label, {@code -1} if no node was found by a given taxId
+     */
+    public int getExitLabel(final int taxid) {
+        return this.taxonomyTree.getExitLabel(taxid);
+    }
+
+    /**
+     * Returns the taxId that has a given enter label, see {@link db.ram.TaxonomyTree}
+     *
+     * @param label {@code int} enter label
+     * @return {@code int} taxId
+     */
+    public int getTaxIdByLabel(final int label) {
+        return this.taxonomyTree.getTaxidByLabel(label);
+    }
+
+    /**
+     * Returns the largest taxId the database may have a node for
+     *
+     * @return {@code int} maximum taxId
+     */
+    public int getMaxTaxId() {
+        return this.parentByTaxid.limit() - 1;
+    }
+
+    /**
+     * Packs the scientific names, given by taxId, into a blob and its offsets
+     *
+     * @param nameByTaxid {@link String}[] of scientific names, indexed by taxId, {@code null} where there is no name
+     * @param size        {@code int} number of meaningful positions within the {@code nameByTaxid}
+     * @param offsets     {@code int[]} of size {@code size + 1} to fill with the offsets
+     * @return {@code byte[]} the name blob
+     */
+    protected static byte[] packNames(final String[] nameByTaxid, final int size, final int[] offsets) {
+        final byte[][] encoded = new byte[size][];
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            if (nameByTaxid[i] != null) {
+                encoded[i] = nameByTaxid[i].getBytes(StandardCharsets.UTF_8);
+                total += encoded[i].length;
+            }
+        }
+        final byte[] blob = new byte[total];
+        int offset = 0;
+        for (int i = 0; i < size; i++) {
+            offsets[i] = offset;
+            if (encoded[i] != null) {
+                System.arraycopy(encoded[i], 0, blob, offset, encoded[i].length);
+                offset += encoded[i].length;
+            }
+        }
+        offsets[size] = offset;
+        return blob;
     }
 
     /**
-     * A static helper method that allows the class to load an instance of self for HDD and deserialize it.
+     * A static helper method that allows the class to load an instance of self from HDD. The file gets memory-mapped
+     * and queried in place rather than read into the heap.
      *
-     * @param objDb {@link java.io.File} pointing to the serialized object
+     * @param objDb {@link java.io.File} pointing to the database file
      * @return {@link db.ram.RamDb}, that was loaded from HDD
-     * @throws IOException            in case and IO error occurs
-     * @throws ClassNotFoundException in case the objDb points to an object of an incorrect class
+     * @throws IOException in case and IO error occurs, or the file is of an obsolete format and needs to be updated
      */
-    public static RamDb loadSelfFromFile(final File objDb) throws IOException, ClassNotFoundException {
-        try (
-                ObjectInputStream objectInputStream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(objDb)));
-        ) {
-            final RamDb ramDb = (RamDb) objectInputStream.readObject();
+    public static RamDb loadSelfFromFile(final File objDb) throws IOException {
+        return RamDbFormat.map(objDb);
+    }
+
+    /**
+     * Same as {@code loadSelfFromFilteredNcbiFiles(File, File, File)}, but additionally maps the accessions from the NCBI
+     * accession2taxid files (such as <a href="ftp://ftp.ncbi.nlm.nih.gov/pub/taxonomy/accession2taxid/nucl_gb.accession2taxid.gz">nucl_gb.accession2taxid.gz</a>),
+     * so that the hits that carry no GI can still be classified.
+     *
+     * @param gi_taxid_dmp    {@link java.io.File} that point to a modified gi_taxid.dmp.mod
+     * @param names_dmp       {@link java.io.File} that point to a modified names.dmp.mod
+     * @param nodes_dmp       {@link java.io.File} that point to a modified nodes.dmp.mod
+     * @param accession2taxid {@link java.io.File}s that point to accession2taxid files, plain or gzipped
+     * @return a newly created {@link db.ram.RamDb} database
+     * @throws Exception {@link java.io.IOException} in case an IO problem arises upon file read, {@link java.lang.Exception} in case any of the given files were misformatted
+     */
+    public static RamDb loadSelfFromFilteredNcbiFiles(File gi_taxid_dmp, File names_dmp, File nodes_dmp, File... accession2taxid) throws Exception {
+        final RamDb ramDb = loadSelfFromFilteredNcbiFiles(gi_taxid_dmp, names_dmp, nodes_dmp);
+        if (accession2taxid.length == 0) {
             return ramDb;
-        } catch (IOException | ClassCastException e) {
-            throw e;
         }
+        return new RamDb(ramDb.giTaxIdIndex, ramDb.parentByTaxid, ramDb.rankOrdinalByTaxid, ramDb.nameOffsetByTaxid, ramDb.nameBlob,
+                AccessionTaxIdIndex.loadFromAccession2TaxIdFiles(accession2taxid), ramDb.taxonomyTree);
     }
 
     /**
@@ -182,91 +426,72 @@ public class RamDb implements Serializable {
                 BufferedReader namesReader = new BufferedReader(new FileReader(names_dmp));
                 BufferedReader nodesReader = new BufferedReader(new FileReader(nodes_dmp));
         ) {
-            //Create a new instance of the DB
-            final RamDb ramDb = new RamDb();
-
             //Read in the files
             Log.getInstance().log(Level.INFO, "Mapping names...");
             String line;
-            //Read names line by line and create row objects for each line, put them into map
+            //Read names line by line and keep them by taxId until all of them are known, then pack them
+            String[] nameByTaxid = new String[INITIAL_TAXID_CAPACITY];
+            int namesSize = 0;
             while ((line = namesReader.readLine()) != null) {
-                final String[] split = line.split("\t");
-                final RamRow<Integer, String> namesRow = NamesRow.newInstance(Integer.valueOf(split[0]), split[1]);
-                ramDb.nameByTaxIdMap.put(namesRow.getK(), namesRow);
-            }
-            Log.getInstance().log(Level.INFO, "Deploying GIs...");
-            //Performance, described in giByTaxIdMap comment
-            int max = 0;
-            int i=0;
-            try (BufferedReader giCount = new BufferedReader(new FileReader(gi_taxid_dmp));) {
-                System.out.println(gi_taxid_dmp);
-                while ((line = giCount.readLine()) != null) {
-                    final String[] split = line.split("\t");
-                    int gi=0;
-                    try {
-                        gi = Integer.parseInt(split[0].trim());
-                    }catch (NumberFormatException e){
-                        System.out.println(split[0]);
-                        System.out.println(i);
-                    }
-                    //Check for consistent increasing sorting of the NCBI database
-                    //Seems like it, but not tested and not guaranteed by the NCBI
-                    if (max < gi) {
-                        max = gi;
-                        i++;
-                    } else {
-                        throw new Exception("Inconsistency in gi_taxid.dmp!");
-                    }
+                final int tab = line.indexOf('\t');
+                final int taxid = Integer.parseInt(line.substring(0, tab));
+                if (taxid >= nameByTaxid.length) {
+                    nameByTaxid = Arrays.copyOf(nameByTaxid, Math.max(taxid + 1, nameByTaxid.length + (nameByTaxid.length >> 1)));
                 }
+                nameByTaxid[taxid] = line.substring(tab + 1);
+                namesSize = Math.max(namesSize, taxid + 1);
             }
-            Log.getInstance().log(Level.INFO, "Maximum GI: " + max);
-            //Create a Gi-taxId map and start filling it in
-            ramDb.giByTaxIdMap = new int[max + 1];
-            //End Performance
-            int count = 0;
+            final int[] nameOffsetByTaxid = new int[namesSize + 1];
+            final byte[] nameBlob = RamDb.packNames(nameByTaxid, namesSize, nameOffsetByTaxid);
+            Log.getInstance().log(Level.INFO, "Deploying GIs...");
+            //The GIs must come sorted ascending (seems like the NCBI does so, but it is not guaranteed), the builder
+            //checks that and picks a plain or a compressed index depending on how dense the GIs are
+            final GiTaxIdIndexBuilder giTaxIdIndexBuilder = new GiTaxIdIndexBuilder();
             while ((line = giTaxidReader.readLine()) != null) {
-                final String[] split = line.split("\t");
-                final int gi = Integer.parseInt(split[0].trim());
-                final Integer taxid = Integer.parseInt(split[1].trim());
-                while (gi != count && count < ramDb.giByTaxIdMap.length) {
-                    ramDb.giByTaxIdMap[count] = 0;
-                    count++;
-                }
-                ramDb.giByTaxIdMap[count] = taxid;
-                count++;
+                final int tab = line.indexOf('\t');
+                giTaxIdIndexBuilder.add(Integer.parseInt(line.substring(0, tab).trim()), Integer.parseInt(line.substring(tab + 1).trim()));
             }
+            Log.getInstance().log(Level.INFO, "Maximum GI: " + giTaxIdIndexBuilder.getMaxGi());
             Log.getInstance().log(Level.INFO, "Mapping Nodes...");
-            final Map<Integer, Ranks> ranks_ids = new HashMap<>();
-            for (Ranks r : Ranks.values()) {
-                ranks_ids.put(r.ordinal(), r);
-            }
             //Take care of the nodes in a similar fashion:
-            //read line by line and create a corresponding row object, put a newly created object in a map
+            //read line by line and put the parent taxId and the rank ordinal straight into the arrays
+            int[] parentByTaxid = new int[INITIAL_TAXID_CAPACITY];
+            byte[] rankOrdinalByTaxid = new byte[INITIAL_TAXID_CAPACITY];
+            Arrays.fill(rankOrdinalByTaxid, NO_RANK_ORDINAL);
+            int nodesSize = 0;
             while ((line = nodesReader.readLine()) != null) {
                 final String[] split = line.split("\t");
-                final Integer taxid = Integer.valueOf(split[0]);
-                final NodesRow nodesRow = NodesRow.newInstance(taxid, Integer.valueOf(split[1]), ranks_ids.get(Integer.valueOf(split[2])));
-                ramDb.nodeByTaxidMap.put(nodesRow.getK(), nodesRow);
+                final int taxid = Integer.parseInt(split[0]);
+                final int rankOrdinal = Integer.parseInt(split[2]);
+                if (taxid >= parentByTaxid.length) {
+                    final int oldLength = parentByTaxid.length;
+                    final int newLength = Math.max(taxid + 1, oldLength + (oldLength >> 1));
+                    parentByTaxid = Arrays.copyOf(parentByTaxid, newLength);
+                    rankOrdinalByTaxid = Arrays.copyOf(rankOrdinalByTaxid, newLength);
+                    Arrays.fill(rankOrdinalByTaxid, oldLength, newLength, NO_RANK_ORDINAL);
+                }
+                parentByTaxid[taxid] = Integer.parseInt(split[1]);
+                rankOrdinalByTaxid[taxid] = rankOrdinal >= 0 && rankOrdinal < RANKS.length ? (byte) rankOrdinal : NO_RANK_ORDINAL;
+                nodesSize = Math.max(nodesSize, taxid + 1);
             }
             //Finally return the database object
-            return ramDb;
+            return new RamDb(giTaxIdIndexBuilder.build(),
+                    IntBuffer.wrap(Arrays.copyOf(parentByTaxid, nodesSize)),
+                    ByteBuffer.wrap(Arrays.copyOf(rankOrdinalByTaxid, nodesSize)),
+                    IntBuffer.wrap(nameOffsetByTaxid),
+                    ByteBuffer.wrap(nameBlob));
         }
     }
 
     /**
-     * A static method that allows the class to serialize and instance of self to the hard drive
+     * A static method that allows the class to save an instance of self to the hard drive in the {@link db.ram.RamDbFormat}
      *
-     * @param ramDb {@link db.ram.RamDb} an instance to serialize
-     * @param out   {@link java.io.File} the same file, that was passed for serialization (see @return)
-     * @return {@link java.io.File} that can be further used as a pointer to this serialized object,
-     * @throws IOException but throws in case the object was not serialized and the file does not point to a correct object
+     * @param ramDb {@link db.ram.RamDb} an instance to save
+     * @param out   {@link java.io.File} the same file, that was passed for saving (see @return)
+     * @return {@link java.io.File} that can be further used as a pointer to this saved object,
+     * @throws IOException but throws in case the object was not saved and the file does not point to a correct object
      */
     public static File serialize(RamDb ramDb, File out) throws IOException {
-        try (
-                ObjectOutputStream objectOutputStream = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(out)));
-        ) {
-            objectOutputStream.writeObject(ramDb);
-            return out;
-        }
+        return RamDbFormat.write(ramDb, out);
     }
 }
@@ -0,0 +1,832 @@
+package db.ram;
+
+import logger.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+/**
+ * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
+ * software for accurate taxonomic classification of nucleotide sequences.
+ * Copyright (C) 2013  Alexander Tuzhikov, Alexander Panchin and Valery Shestopalov.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Builds a {@link db.ram.RamDb} file from the filtered (".mod") NCBI dumps in parallel. Every dump gets split into regions at the
+ * line boundaries, and all the regions of all the dumps are parsed concurrently in place (see {@link db.ram.DmpChunkParser}).
+ * The sections are then assembled one by one, each as soon as its dump has been parsed, and written to the file right away,
+ * so that only one section at a time is held in the heap. Finally, the file gets mapped (see {@link db.ram.RamDbFormat}).
+ */
+public class RamDbBuilder {
+    /**
+     * Approximate size of a region of a dump, that gets parsed by a single thread
+     */
+    static final int REGION_SIZE = 1 << 26;
+    /**
+     * GI index, parents, ranks, tree labels, name offsets, name blob and accessions
+     */
+    private static final int NUMBER_OF_SECTIONS = 7;
+    /**
+     * Number of threads
+     */
+    protected final int threads;
+    /**
+     * Size of a region
+     */
+    protected final int regionSize;
+
+    /**
+     * Protected constructor
+     *
+     * @param threads    {@code int} number of threads
+     * @param regionSize {@code int} approximate size of a region of a dump, that gets parsed by a single thread
+     */
+    protected RamDbBuilder(final int threads, final int regionSize) {
+        this.threads = threads;
+        this.regionSize = regionSize;
+    }
+
+    /**
+     * Builds the database file and maps it
+     *
+     * @param gi_taxid_dmp    {@link java.io.File} that point to a modified gi_taxid.dmp.mod, GIs must be sorted ascending
+     * @param names_dmp       {@link java.io.File} that point to a modified names.dmp.mod
+     * @param nodes_dmp       {@link java.io.File} that point to a modified nodes.dmp.mod
+     * @param out             {@link java.io.File} to write the database to, gets replaced once the new one has been written in full
+     * @param accession2taxid {@link java.io.File}s that point to accession2taxid files, plain or gzipped, may be none
+     * @return {@link db.ram.RamDb} mapped from the newly written file
+     * @throws Exception {@link java.io.IOException} in case an IO problem arises upon file read or write, {@link java.lang.Exception}
+     *                   in case any of the given files were misformatted
+     */
+    public RamDb build(final File gi_taxid_dmp, final File names_dmp, final File nodes_dmp, final File out,
+                       final File... accession2taxid) throws Exception {
+        return this.build(null, null, gi_taxid_dmp, names_dmp, nodes_dmp, out, accession2taxid);
+    }
+
+    /**
+     * Builds a database that holds only the given identifiers of a BLAST database (such as a 16S set, or the one created by
+     * {@link toolkit.silva.SilvaHelper}) along with their taxa and the ancestors, rather than every GI the NCBI has issued. The
+     * identifiers come one or more per line, separated by whitespace, as exported with "blastdbcmd -entry all -outfmt %g" (GIs),
+     * "%a" (accessions) or "%i" (sequence IDs such as "gi|123|gb|AB000001.1|"). The dumps are parsed in full, but only the
+     * selected GIs and accessions are kept, and the taxonomy is then pruned to the lineages of the taxa they point to.
+     *
+     * @param identifiers     {@link java.io.File} with the identifiers of the BLAST database
+     * @param gi_taxid_dmp    {@link java.io.File} that point to a modified gi_taxid.dmp.mod, GIs must be sorted ascending
+     * @param names_dmp       {@link java.io.File} that point to a modified names.dmp.mod
+     * @param nodes_dmp       {@link java.io.File} that point to a modified nodes.dmp.mod
+     * @param out             {@link java.io.File} to write the database to, gets overwritten if exists
+     * @param accession2taxid {@link java.io.File}s that point to accession2taxid files, plain or gzipped, may be none
+     * @return {@link db.ram.RamDb} mapped from the newly written file
+     * @throws Exception {@link java.io.IOException} in case an IO problem arises upon file read or write, {@link java.lang.Exception}
+     *                   in case any of the given files were misformatted
+     */
+    public RamDb buildForIdentifiers(final File identifiers, final File gi_taxid_dmp, final File names_dmp, final File nodes_dmp,
+                                     final File out, final File... accession2taxid) throws Exception {
+        final List<String> accessions = new ArrayList<>();
+        final int[] selectedGis = readIdentifiers(identifiers, accessions);
+        final long[] selectedAccessions = new long[accessions.size()];
+        for (int i = 0; i < selectedAccessions.length; i++) {
+            selectedAccessions[i] = AccessionTaxIdIndex.hash(accessions.get(i));
+        }
+        Arrays.sort(selectedAccessions);
+        Log.getInstance().log(Level.INFO, "Selected " + selectedGis.length + " GIs and " + selectedAccessions.length + " accessions.");
+        final File full = new File(out.getAbsoluteFile().getParentFile(), out.getName() + ".full");
+        try {
+            final RamDb source = this.build(selectedGis, selectedAccessions, gi_taxid_dmp, names_dmp, nodes_dmp, full, accession2taxid);
+            //Keep the lineages of the taxa that the identifiers point to
+            final boolean[] keptTaxids = new boolean[source.getMaxTaxId() + 1];
+            int unresolved = 0;
+            for (int gi : selectedGis) {
+                if (!source.taxonomyTree.markLineage(source.giTaxIdIndex.getTaxId(gi), keptTaxids)) {
+                    unresolved++;
+                }
+            }
+            for (long key : selectedAccessions) {
+                if (!source.taxonomyTree.markLineage(source.accessionTaxIdIndex.getTaxId(key), keptTaxids)) {
+                    unresolved++;
+                }
+            }
+            if (unresolved > 0) {
+                Log.getInstance().log(Level.WARNING, unresolved + " identifiers of the BLAST database do not resolve to a taxon.");
+            }
+            final RamDb ramDb = writeSubset(source, keptTaxids, source.giTaxIdIndex, out);
+            Log.getInstance().log(Level.INFO, "Database for the identifiers: " + (ramDb.getMaxTaxId() + 1) + " taxIds in the tables, maximum GI: "
+                    + ramDb.giTaxIdIndex.getMaxGi() + ".");
+            return ramDb;
+        } finally {
+            deleteQuietly(full);
+        }
+    }
+
+    /**
+     * Atomically moves a newly written database over the given one. A POSIX system lets the processes that have the old file
+     * mapped keep reading it until they unmap it. Windows refuses to replace a file that is mapped by any process, this one
+     * included, in which case the new database is left next to the old one to be moved over it once nothing maps it.
+     *
+     * @param next {@link java.io.File} newly written database
+     * @param out  {@link java.io.File} database to replace
+     * @throws IOException in case the database could not be replaced
+     */
+    private static void replace(final File next, final File out) throws IOException {
+        try {
+            Files.move(next.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileSystemException e) {
+            throw new IOException("Could not replace " + out.getPath() + " (" + e.getMessage() + "), the file may be in use by a running classifier. "
+                    + "The new database has been kept as " + next.getPath() + ", please move it over the old one once the database is not in use.", e);
+        }
+    }
+
+    /**
+     * Deletes a temporary file, which Windows refuses to do while the file is mapped, in which case the file gets deleted upon
+     * exit, so that a failure to clean up does not fail the build
+     *
+     * @param file {@link java.io.File} to delete
+     */
+    private static void deleteQuietly(final File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            Log.getInstance().log(Level.WARNING, "Could not delete " + file.getPath() + " (" + e.getMessage() + "), will try again upon exit.");
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Builds the database file, keeping only the given GIs and accessions if any
+     */
+    private RamDb build(final int[] selectedGis, final long[] selectedAccessions, final File gi_taxid_dmp, final File names_dmp,
+                        final File nodes_dmp, final File out, final File... accession2taxid) throws Exception {
+        //The current database may be mapped by running classifiers, so it gets replaced rather than overwritten
+        final File next = new File(out.getAbsoluteFile().getParentFile(), out.getName() + ".next");
+        final ExecutorService executorService = Executors.newFixedThreadPool(this.threads);
+        try (
+                FileChannel giTaxidChannel = FileChannel.open(gi_taxid_dmp.toPath(), StandardOpenOption.READ);
+                FileChannel namesChannel = FileChannel.open(names_dmp.toPath(), StandardOpenOption.READ);
+                FileChannel nodesChannel = FileChannel.open(nodes_dmp.toPath(), StandardOpenOption.READ);
+                RamDbFormat.SectionSink sink = new RamDbFormat.SectionSink(next, NUMBER_OF_SECTIONS);
+        ) {
+            //The accessions come gzipped and can not be split, so a single thread takes care of them alongside the dumps
+            final Future<AccessionTaxIdIndex> accessions = accession2taxid.length == 0 ? null
+                    : executorService.submit(() -> AccessionTaxIdIndex.loadFromAccession2TaxIdFiles(selectedAccessions, accession2taxid));
+            //Submit all the regions at once, so that the threads never idle while the sections get assembled
+            final List<Future<GiTaxIdIndexBuilder>> giRegions = new ArrayList<>();
+            for (long[] region : DmpChunkParser.split(giTaxidChannel, this.regionSize)) {
+                giRegions.add(executorService.submit(() -> parseGiRegion(DmpChunkParser.map(giTaxidChannel, region), selectedGis)));
+            }
+            final List<Future<NodesRegion>> nodesRegions = this.submitNodes(executorService, nodesChannel);
+            final List<Future<NamesRegion>> namesRegions = this.submitNames(executorService, namesChannel);
+            Log.getInstance().log(Level.INFO, "Parsing " + (giRegions.size() + nodesRegions.size() + namesRegions.size())
+                    + " regions of the dumps with " + this.threads + " threads..");
+
+            Log.getInstance().log(Level.INFO, "Deploying GIs...");
+            //The regions follow each other, so the GIs stay sorted when their runs are concatenated in order
+            final GiTaxIdIndexBuilder giTaxIdIndexBuilder = new GiTaxIdIndexBuilder();
+            for (Future<GiTaxIdIndexBuilder> region : giRegions) {
+                giTaxIdIndexBuilder.append(get(region));
+            }
+            giRegions.clear();
+            Log.getInstance().log(Level.INFO, "Maximum GI: " + giTaxIdIndexBuilder.getMaxGi());
+            final GiTaxIdIndex giTaxIdIndex = giTaxIdIndexBuilder.build();
+            sink.append(giTaxIdIndex.getSectionId(), giTaxIdIndex.sizeInBytes(), giTaxIdIndex::writeTo);
+
+            appendNodes(executorService, nodesRegions, sink);
+            appendNames(executorService, namesRegions, sink);
+
+            if (accessions != null) {
+                Log.getInstance().log(Level.INFO, "Mapping accessions...");
+                final AccessionTaxIdIndex accessionTaxIdIndex = get(accessions);
+                if (accessionTaxIdIndex.size() > 0) {
+                    sink.append(RamDbFormat.SECTION_ACCESSIONS, accessionTaxIdIndex.sizeInBytes(), accessionTaxIdIndex::writeTo);
+                }
+            }
+        } catch (Exception e) {
+            Files.deleteIfExists(next.toPath());
+            throw e;
+        } finally {
+            executorService.shutdownNow();
+        }
+        replace(next, out);
+        return RamDb.loadSelfFromFile(out);
+    }
+
+    /**
+     * Updates a database file with the NCBI GI diff (such as gi_taxid_nucl_diff.dmp) and the current nodes and names, rather than
+     * rebuilding it from the full GI dump. The GIs of the diff replace or extend those of the database, and the GI index is
+     * chosen by size the way a full build does, a dense table gets patched while streamed through as long as it stays the smaller
+     * choice. The nodes and names get rebuilt, as they are small. The accessions are carried over. A new generation of the file is written next to the
+     * current one and then atomically moved over it, so that a failed update leaves the current database intact. The classifiers
+     * that have the current database mapped keep reading it on a POSIX system, while Windows refuses to replace a mapped file,
+     * this process' own mapping included, in which case the new generation is kept next to the current one.
+     *
+     * @param ramDbFile         {@link java.io.File} of the current database, gets replaced
+     * @param gi_taxid_diff_dmp {@link java.io.File} that points to the GI diff, GI-taxId pairs in any order, the last pair wins
+     * @param names_dmp         {@link java.io.File} that point to a modified names.dmp.mod
+     * @param nodes_dmp         {@link java.io.File} that point to a modified nodes.dmp.mod
+     * @return {@link db.ram.RamDb} mapped from the updated file
+     * @throws Exception {@link java.io.IOException} in case an IO problem arises upon file read or write, or the current database
+     *                   is of an obsolete format, {@link java.lang.Exception} in case any of the given files were misformatted
+     */
+    public RamDb update(final File ramDbFile, final File gi_taxid_diff_dmp, final File names_dmp, final File nodes_dmp) throws Exception {
+        final RamDb current = RamDb.loadSelfFromFile(ramDbFile);
+        final File next = new File(ramDbFile.getAbsoluteFile().getParentFile(), ramDbFile.getName() + ".next");
+        final ExecutorService executorService = Executors.newFixedThreadPool(this.threads);
+        try (
+                FileChannel namesChannel = FileChannel.open(names_dmp.toPath(), StandardOpenOption.READ);
+                FileChannel nodesChannel = FileChannel.open(nodes_dmp.toPath(), StandardOpenOption.READ);
+                RamDbFormat.SectionSink sink = new RamDbFormat.SectionSink(next, NUMBER_OF_SECTIONS);
+        ) {
+            final List<Future<NodesRegion>> nodesRegions = this.submitNodes(executorService, nodesChannel);
+            final List<Future<NamesRegion>> namesRegions = this.submitNames(executorService, namesChannel);
+
+            Log.getInstance().log(Level.INFO, "Applying GI updates...");
+            final long[] delta = this.readGiDelta(gi_taxid_diff_dmp);
+            final int[] gis = new int[delta.length];
+            final int[] taxIds = new int[delta.length];
+            for (int i = 0; i < delta.length; i++) {
+                gis[i] = (int) (delta[i] >>> 32);
+                taxIds[i] = (int) delta[i];
+            }
+            final GiTaxIdIndex currentIndex = current.giTaxIdIndex;
+            final int maxGi = delta.length > 0 ? Math.max(currentIndex.getMaxGi(), gis[delta.length - 1]) : currentIndex.getMaxGi();
+            Log.getInstance().log(Level.INFO, delta.length + " GIs updated, maximum GI: " + maxGi);
+            //Interleave the current runs with the updates, so that the choice between a dense and a block index gets made anew
+            final GiTaxIdIndexBuilder giTaxIdIndexBuilder = new GiTaxIdIndexBuilder();
+            int nextGi = 0;
+            for (int i = 0; i < gis.length; i++) {
+                currentIndex.copyTo(giTaxIdIndexBuilder, nextGi, gis[i] - 1);
+                giTaxIdIndexBuilder.add(gis[i], taxIds[i]);
+                nextGi = gis[i] + 1;
+            }
+            currentIndex.copyTo(giTaxIdIndexBuilder, nextGi, currentIndex.getMaxGi());
+            if (currentIndex instanceof DenseGiTaxIdIndex && giTaxIdIndexBuilder.prefersDense()) {
+                //Stream the table through with the updates applied
+                Log.getInstance().log(Level.INFO, "Using a dense GI index: " + giTaxIdIndexBuilder.denseSizeInBytes() + " bytes.");
+                sink.append(RamDbFormat.SECTION_GI_DENSE, giTaxIdIndexBuilder.denseSizeInBytes(),
+                        channel -> ((DenseGiTaxIdIndex) currentIndex).writePatchedTo(channel, gis, taxIds, gis.length, maxGi));
+            } else {
+                final GiTaxIdIndex giTaxIdIndex = giTaxIdIndexBuilder.build();
+                sink.append(giTaxIdIndex.getSectionId(), giTaxIdIndex.sizeInBytes(), giTaxIdIndex::writeTo);
+            }
+
+            appendNodes(executorService, nodesRegions, sink);
+            appendNames(executorService, namesRegions, sink);
+
+            if (current.accessionTaxIdIndex.size() > 0) {
+                sink.append(RamDbFormat.SECTION_ACCESSIONS, current.accessionTaxIdIndex.sizeInBytes(), current.accessionTaxIdIndex::writeTo);
+            }
+        } catch (Exception e) {
+            Files.deleteIfExists(next.toPath());
+            throw e;
+        } finally {
+            executorService.shutdownNow();
+        }
+        replace(next, ramDbFile);
+        return RamDb.loadSelfFromFile(ramDbFile);
+    }
+
+    /**
+     * Prunes a database down to the subtrees of the given taxIds (such as Bacteria and Archaea for a 16S study) along with their
+     * ancestors, so that a targeted run maps only the part of the taxonomy it may ever resolve. The taxIds are kept as they are,
+     * while the nodes and names outside the subtrees are dropped, and the GIs that point outside the subtrees are remapped to
+     * zero, the way the deleted GIs are. The GI range stays the same, so that the dropped GIs do not read as the ones the database
+     * needs to be updated for. The accessions are carried over, those that point outside the subtrees resolve to no name.
+     * The remapping gets reported to the log.
+     *
+     * @param ramDbFile  {@link java.io.File} of the full database
+     * @param out        {@link java.io.File} to write the pruned database to, gets replaced if exists, may be the same as the
+     *                   {@code ramDbFile} on a POSIX system (Windows refuses to replace a file that is mapped)
+     * @param rootTaxids {@code int}s taxIds of the subtree roots
+     * @return {@link db.ram.RamDb} mapped from the pruned file
+     * @throws Exception {@link java.io.IOException} in case an IO problem arises upon file read or write, or the database is of an
+     *                   obsolete format, {@link java.lang.IllegalArgumentException} in case the database has none of the given taxIds
+     */
+    public RamDb prune(final File ramDbFile, final File out, final int... rootTaxids) throws Exception {
+        final RamDb source = RamDb.loadSelfFromFile(ramDbFile);
+        final boolean[] keptTaxids = new boolean[source.getMaxTaxId() + 1];
+        boolean anyRoot = false;
+        for (int root : rootTaxids) {
+            if (source.taxonomyTree.markSubtree(root, keptTaxids)) {
+                keptTaxids[root] = false;
+                source.taxonomyTree.markLineage(root, keptTaxids);
+                anyRoot = true;
+            } else {
+                Log.getInstance().log(Level.WARNING, "The taxonomic database has no node for the taxId " + root + ", skipping.");
+            }
+        }
+        if (!anyRoot) {
+            throw new IllegalArgumentException("The taxonomic database has none of the taxIds " + Arrays.toString(rootTaxids) + ".");
+        }
+        Log.getInstance().log(Level.INFO, "Pruning the taxonomic database to the subtrees of " + Arrays.toString(rootTaxids) + "...");
+        final PruningGiTaxIdIndexBuilder giTaxIdIndexBuilder = new PruningGiTaxIdIndexBuilder(keptTaxids);
+        source.giTaxIdIndex.copyTo(giTaxIdIndexBuilder, 0, source.giTaxIdIndex.getMaxGi());
+        final RamDb pruned = writeSubset(source, keptTaxids, giTaxIdIndexBuilder.build(), out);
+        Log.getInstance().log(Level.INFO, "Pruned database: " + (pruned.getMaxTaxId() + 1) + " of " + keptTaxids.length
+                + " taxIds in the tables, " + giTaxIdIndexBuilder.keptGis + " GIs kept, " + giTaxIdIndexBuilder.droppedGis
+                + " GIs that point outside the subtrees remapped to zero.");
+        return pruned;
+    }
+
+    /**
+     * A static factory to create a builder that uses all the available processors
+     *
+     * @return a new instance of {@link db.ram.RamDbBuilder}
+     */
+    public static RamDbBuilder newDefaultInstance() {
+        return new RamDbBuilder(Runtime.getRuntime().availableProcessors(), REGION_SIZE);
+    }
+
+    /**
+     * A static factory
+     *
+     * @param threads {@code int} number of threads, must be positive
+     * @return a new instance of {@link db.ram.RamDbBuilder}
+     */
+    public static RamDbBuilder newInstance(final int threads) {
+        return newInstance(threads, REGION_SIZE);
+    }
+
+    /**
+     * A static factory
+     *
+     * @param threads    {@code int} number of threads, must be positive
+     * @param regionSize {@code int} approximate size of a region of a dump, that gets parsed by a single thread, must be positive
+     * @return a new instance of {@link db.ram.RamDbBuilder}
+     */
+    public static RamDbBuilder newInstance(final int threads, final int regionSize) {
+        if (threads < 1 || regionSize < 1) {
+            throw new IllegalArgumentException("Both the number of threads and the region size must be positive.");
+        }
+        return new RamDbBuilder(threads, regionSize);
+    }
+
+    /**
+     * Splits a nodes.dmp.mod into regions and submits them for parsing
+     */
+    private List<Future<NodesRegion>> submitNodes(final ExecutorService executorService, final FileChannel nodesChannel) throws IOException {
+        final List<Future<NodesRegion>> nodesRegions = new ArrayList<>();
+        for (long[] region : DmpChunkParser.split(nodesChannel, this.regionSize)) {
+            nodesRegions.add(executorService.submit(() -> NodesRegion.parse(DmpChunkParser.map(nodesChannel, region))));
+        }
+        return nodesRegions;
+    }
+
+    /**
+     * Splits a names.dmp.mod into regions and submits them for parsing
+     */
+    private List<Future<NamesRegion>> submitNames(final ExecutorService executorService, final FileChannel namesChannel) throws IOException {
+        final List<Future<NamesRegion>> namesRegions = new ArrayList<>();
+        for (long[] region : DmpChunkParser.split(namesChannel, this.regionSize)) {
+            namesRegions.add(executorService.submit(() -> NamesRegion.parse(DmpChunkParser.map(namesChannel, region))));
+        }
+        return namesRegions;
+    }
+
+    /**
+     * Writes the given GI index along with the nodes and names of the kept taxIds of a source database into a new generation
+     * of a file, and then atomically moves it over the file, which may be the source itself
+     */
+    private static RamDb writeSubset(final RamDb source, final boolean[] keptTaxids, final GiTaxIdIndex giTaxIdIndex,
+                                     final File out) throws IOException {
+        int size = keptTaxids.length;
+        while (size > 0 && !keptTaxids[size - 1]) {
+            size--;
+        }
+        final int[] parentByTaxid = new int[size];
+        final byte[] rankOrdinalByTaxid = new byte[size];
+        final int[] nameOffsetByTaxid = new int[size + 1];
+        Arrays.fill(rankOrdinalByTaxid, RamDb.NO_RANK_ORDINAL);
+        for (int taxid = 0; taxid < size; taxid++) {
+            int length = 0;
+            if (keptTaxids[taxid]) {
+                parentByTaxid[taxid] = source.parentByTaxid.get(taxid);
+                rankOrdinalByTaxid[taxid] = source.rankOrdinalByTaxid.get(taxid);
+                if (taxid + 1 < source.nameOffsetByTaxid.limit()) {
+                    length = source.nameOffsetByTaxid.get(taxid + 1) - source.nameOffsetByTaxid.get(taxid);
+                }
+            }
+            nameOffsetByTaxid[taxid + 1] = nameOffsetByTaxid[taxid] + length;
+        }
+        final byte[] nameBlob = new byte[nameOffsetByTaxid[size]];
+        final ByteBuffer names = source.nameBlob.duplicate();
+        for (int taxid = 0; taxid < size; taxid++) {
+            final int length = nameOffsetByTaxid[taxid + 1] - nameOffsetByTaxid[taxid];
+            if (length > 0) {
+                names.limit(source.nameOffsetByTaxid.get(taxid) + length);
+                names.position(source.nameOffsetByTaxid.get(taxid));
+                names.get(nameBlob, nameOffsetByTaxid[taxid], length);
+            }
+        }
+        final File next = new File(out.getAbsoluteFile().getParentFile(), out.getName() + ".next");
+        try (RamDbFormat.SectionSink sink = new RamDbFormat.SectionSink(next, NUMBER_OF_SECTIONS)) {
+            sink.append(giTaxIdIndex.getSectionId(), giTaxIdIndex.sizeInBytes(), giTaxIdIndex::writeTo);
+            sink.append(RamDbFormat.SECTION_PARENT, (long) size * Integer.BYTES,
+                    channel -> RamDbFormat.writeInts(channel, IntBuffer.wrap(parentByTaxid)));
+            sink.append(RamDbFormat.SECTION_RANK, size, channel -> RamDbFormat.writeFully(channel, ByteBuffer.wrap(rankOrdinalByTaxid)));
+            appendTaxonomyTree(parentByTaxid, rankOrdinalByTaxid, sink);
+            sink.append(RamDbFormat.SECTION_NAME_OFFSETS, (long) nameOffsetByTaxid.length * Integer.BYTES,
+                    channel -> RamDbFormat.writeInts(channel, IntBuffer.wrap(nameOffsetByTaxid)));
+            sink.append(RamDbFormat.SECTION_NAME_BLOB, nameBlob.length, channel -> RamDbFormat.writeFully(channel, ByteBuffer.wrap(nameBlob)));
+            if (source.accessionTaxIdIndex.size() > 0) {
+                sink.append(RamDbFormat.SECTION_ACCESSIONS, source.accessionTaxIdIndex.sizeInBytes(), source.accessionTaxIdIndex::writeTo);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(next.toPath());
+            throw e;
+        }
+        replace(next, out);
+        return RamDb.loadSelfFromFile(out);
+    }
+
+    /**
+     * Reads the GI-taxId pairs of a diff
+     *
+     * @return {@code long[]} GI in the upper and taxId in the lower half, ascending by GI, one pair per GI (the last one in the file)
+     */
+    private long[] readGiDelta(final File gi_taxid_diff_dmp) throws IOException {
+        long[] keys = new long[1 << 10];
+        int[] taxIds = new int[1 << 10];
+        int size = 0;
+        try (FileChannel channel = FileChannel.open(gi_taxid_diff_dmp.toPath(), StandardOpenOption.READ)) {
+            for (long[] region : DmpChunkParser.split(channel, this.regionSize)) {
+                final DmpChunkParser parser = DmpChunkParser.map(channel, region);
+                while (parser.hasNextLine()) {
+                    final int gi = parser.nextInt();
+                    final int taxid = parser.nextInt();
+                    parser.nextLine();
+                    if (size == keys.length) {
+                        keys = Arrays.copyOf(keys, size + (size >> 1));
+                        taxIds = Arrays.copyOf(taxIds, keys.length);
+                    }
+                    //The line number keeps the sort stable, so that the last pair for a GI comes last
+                    keys[size] = ((long) gi << 32) | size;
+                    taxIds[size] = taxid;
+                    size++;
+                }
+            }
+        }
+        Arrays.sort(keys, 0, size);
+        final long[] delta = new long[size];
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (i + 1 < size && (keys[i + 1] >>> 32) == (keys[i] >>> 32)) {
+                continue;
+            }
+            delta[unique++] = (keys[i] & 0xFFFFFFFF00000000L) | (taxIds[(int) keys[i]] & 0xFFFFFFFFL);
+        }
+        return Arrays.copyOf(delta, unique);
+    }
+
+    /**
+     * Assembles the parent and the rank sections from the parsed regions of a nodes.dmp.mod and appends them to the file
+     */
+    private static void appendNodes(final ExecutorService executorService, final List<Future<NodesRegion>> nodesRegions,
+                                    final RamDbFormat.SectionSink sink) throws Exception {
+        Log.getInstance().log(Level.INFO, "Mapping Nodes...");
+        final List<NodesRegion> nodes = getAll(nodesRegions);
+        int nodesSize = 0;
+        for (NodesRegion region : nodes) {
+            nodesSize = Math.max(nodesSize, region.maxTaxid + 1);
+        }
+        final int[] parentByTaxid = new int[nodesSize];
+        final byte[] rankOrdinalByTaxid = new byte[nodesSize];
+        Arrays.fill(rankOrdinalByTaxid, RamDb.NO_RANK_ORDINAL);
+        //Every taxId appears once, so the regions fill the disjoint positions of the arrays
+        invokeAll(executorService, nodes, region -> region.fill(parentByTaxid, rankOrdinalByTaxid));
+        nodes.clear();
+        sink.append(RamDbFormat.SECTION_PARENT, (long) nodesSize * Integer.BYTES,
+                channel -> RamDbFormat.writeInts(channel, IntBuffer.wrap(parentByTaxid)));
+        sink.append(RamDbFormat.SECTION_RANK, nodesSize, channel -> RamDbFormat.writeFully(channel, ByteBuffer.wrap(rankOrdinalByTaxid)));
+        appendTaxonomyTree(parentByTaxid, rankOrdinalByTaxid, sink);
+    }
+
+    /**
+     * Labels the tree given by the parents and appends the labels to the file, so that a load maps them
+     */
+    private static void appendTaxonomyTree(final int[] parentByTaxid, final byte[] rankOrdinalByTaxid,
+                                           final RamDbFormat.SectionSink sink) throws IOException {
+        Log.getInstance().log(Level.INFO, "Labeling Nodes...");
+        final TaxonomyTree taxonomyTree = TaxonomyTree.newInstance(IntBuffer.wrap(parentByTaxid), ByteBuffer.wrap(rankOrdinalByTaxid));
+        sink.append(RamDbFormat.SECTION_TAXONOMY_TREE, taxonomyTree.sizeInBytes(), taxonomyTree::writeTo);
+    }
+
+    /**
+     * Assembles the name offset and the name blob sections from the parsed regions of a names.dmp.mod and appends them to the file
+     */
+    private static void appendNames(final ExecutorService executorService, final List<Future<NamesRegion>> namesRegions,
+                                    final RamDbFormat.SectionSink sink) throws Exception {
+        Log.getInstance().log(Level.INFO, "Mapping names...");
+        final List<NamesRegion> names = getAll(namesRegions);
+        int namesSize = 0;
+        for (NamesRegion region : names) {
+            namesSize = Math.max(namesSize, region.maxTaxid + 1);
+        }
+        //Collect the name lengths shifted by one and turn them into the offsets
+        final int[] nameOffsetByTaxid = new int[namesSize + 1];
+        invokeAll(executorService, names, region -> region.fillLengths(nameOffsetByTaxid));
+        for (int i = 1; i < nameOffsetByTaxid.length; i++) {
+            final long offset = (long) nameOffsetByTaxid[i - 1] + nameOffsetByTaxid[i];
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("The scientific names exceed 2GB and do not fit the RAM-based taxonomic database.");
+            }
+            nameOffsetByTaxid[i] = (int) offset;
+        }
+        final byte[] nameBlob = new byte[nameOffsetByTaxid[namesSize]];
+        invokeAll(executorService, names, region -> region.copyNames(nameOffsetByTaxid, nameBlob));
+        names.clear();
+        sink.append(RamDbFormat.SECTION_NAME_OFFSETS, (long) nameOffsetByTaxid.length * Integer.BYTES,
+                channel -> RamDbFormat.writeInts(channel, IntBuffer.wrap(nameOffsetByTaxid)));
+        sink.append(RamDbFormat.SECTION_NAME_BLOB, nameBlob.length, channel -> RamDbFormat.writeFully(channel, ByteBuffer.wrap(nameBlob)));
+    }
+
+    /**
+     * Parses a region of a gi_taxid.dmp.mod, keeping only the given GIs if any
+     */
+    private static GiTaxIdIndexBuilder parseGiRegion(final DmpChunkParser parser, final int[] selectedGis) {
+        final GiTaxIdIndexBuilder builder = new GiTaxIdIndexBuilder();
+        while (parser.hasNextLine()) {
+            final int gi = parser.nextInt();
+            final int taxid = parser.nextInt();
+            parser.nextLine();
+            if (selectedGis == null || Arrays.binarySearch(selectedGis, gi) >= 0) {
+                builder.add(gi, taxid);
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Reads the identifiers of a BLAST database
+     *
+     * @param identifiers {@link java.io.File} with the identifiers, one or more per line
+     * @param accessions  {@link java.util.List} to collect the accessions to
+     * @return {@code int[]} sorted unique GIs
+     */
+    private static int[] readIdentifiers(final File identifiers, final List<String> accessions) throws IOException {
+        int[] gis = new int[1 << 10];
+        int size = 0;
+        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(identifiers))) {
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                for (String identifier : line.trim().split("\\s+")) {
+                    if (identifier.isEmpty()) {
+                        continue;
+                    }
+                    //Follows the way a hit ID gets split into a GI and an accession, see blast.normal.hit.NormalizedHit
+                    final String[] split = identifier.split("\\|");
+                    String gi = null;
+                    String accession;
+                    if (split.length >= 2 && split[0].equals("gi")) {
+                        gi = split[1];
+                        accession = split.length >= 4 ? split[3] : null;
+                    } else if (split.length >= 2) {
+                        accession = split[1];
+                    } else if (isNumber(split[0])) {
+                        gi = split[0];
+                        accession = null;
+                    } else {
+                        accession = split[0];
+                    }
+                    if (gi != null && isNumber(gi)) {
+                        if (size == gis.length) {
+                            gis = Arrays.copyOf(gis, size + (size >> 1));
+                        }
+                        gis[size++] = Integer.parseInt(gi);
+                    }
+                    if (accession != null && !accession.isEmpty()) {
+                        accessions.add(accession);
+                    }
+                }
+            }
+        }
+        Arrays.sort(gis, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || gis[unique - 1] != gis[i]) {
+                gis[unique++] = gis[i];
+            }
+        }
+        return Arrays.copyOf(gis, unique);
+    }
+
+    private static boolean isNumber(final String value) {
+        if (value.isEmpty() || value.length() > 10) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return Long.parseLong(value) <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Waits for a task and unwraps its failure
+     */
+    private static <T> T get(final Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static <T> List<T> getAll(final List<Future<T>> futures) throws Exception {
+        final List<T> results = new ArrayList<>(futures.size());
+        for (Future<T> future : futures) {
+            results.add(get(future));
+        }
+        futures.clear();
+        return results;
+    }
+
+    /**
+     * Runs a given action for every region in parallel and waits for all of them
+     */
+    private static <T> void invokeAll(final ExecutorService executorService, final List<T> regions, final RegionAction<T> action) throws Exception {
+        final List<Callable<Void>> tasks = new ArrayList<>(regions.size());
+        for (T region : regions) {
+            tasks.add(() -> {
+                action.apply(region);
+                return null;
+            });
+        }
+        for (Future<Void> future : executorService.invokeAll(tasks)) {
+            get(future);
+        }
+    }
+
+    /**
+     * An action over a parsed region
+     */
+    private interface RegionAction<T> {
+        void apply(T region);
+    }
+
+    /**
+     * Collects the GIs of a database, remapping those that point to the taxIds that are not kept to zero, and counts both
+     */
+    private static final class PruningGiTaxIdIndexBuilder extends GiTaxIdIndexBuilder {
+        private final boolean[] keptTaxids;
+        private long keptGis;
+        private long droppedGis;
+
+        private PruningGiTaxIdIndexBuilder(final boolean[] keptTaxids) {
+            this.keptTaxids = keptTaxids;
+        }
+
+        @Override
+        public GiTaxIdIndexBuilder addRange(final int fromGi, final int toGi, final int taxid) {
+            if (taxid == 0) {
+                return super.addRange(fromGi, toGi, 0);
+            }
+            if (taxid > 0 && taxid < this.keptTaxids.length && this.keptTaxids[taxid]) {
+                this.keptGis += (long) toGi - fromGi + 1;
+                return super.addRange(fromGi, toGi, taxid);
+            }
+            this.droppedGis += (long) toGi - fromGi + 1;
+            return super.addRange(fromGi, toGi, 0);
+        }
+    }
+
+    /**
+     * The nodes of a region of a nodes.dmp.mod
+     */
+    private static final class NodesRegion {
+        private int[] taxid;
+        private int[] parent;
+        private byte[] rankOrdinal;
+        private int size;
+        private int maxTaxid;
+
+        private NodesRegion(final int capacity) {
+            this.taxid = new int[capacity];
+            this.parent = new int[capacity];
+            this.rankOrdinal = new byte[capacity];
+            this.size = 0;
+            this.maxTaxid = -1;
+        }
+
+        private static NodesRegion parse(final DmpChunkParser parser) {
+            //A nodes line takes about 16 bytes
+            final NodesRegion region = new NodesRegion(Math.max(16, parser.buffer().remaining() / 16));
+            while (parser.hasNextLine()) {
+                final int taxid = parser.nextInt();
+                final int parent = parser.nextInt();
+                final int rankOrdinal = parser.nextInt();
+                parser.nextLine();
+                if (region.size == region.taxid.length) {
+                    final int newLength = region.size + (region.size >> 1);
+                    region.taxid = Arrays.copyOf(region.taxid, newLength);
+                    region.parent = Arrays.copyOf(region.parent, newLength);
+                    region.rankOrdinal = Arrays.copyOf(region.rankOrdinal, newLength);
+                }
+                region.taxid[region.size] = taxid;
+                region.parent[region.size] = parent;
+                region.rankOrdinal[region.size] = rankOrdinal >= 0 && rankOrdinal < RamDb.RANKS.length ? (byte) rankOrdinal : RamDb.NO_RANK_ORDINAL;
+                region.size++;
+                region.maxTaxid = Math.max(region.maxTaxid, taxid);
+            }
+            return region;
+        }
+
+        private void fill(final int[] parentByTaxid, final byte[] rankOrdinalByTaxid) {
+            for (int i = 0; i < this.size; i++) {
+                parentByTaxid[this.taxid[i]] = this.parent[i];
+                rankOrdinalByTaxid[this.taxid[i]] = this.rankOrdinal[i];
+            }
+        }
+    }
+
+    /**
+     * The scientific names of a region of a names.dmp.mod, which are kept in the mapped region until copied into the blob
+     */
+    private static final class NamesRegion {
+        private final ByteBuffer buffer;
+        private int[] taxid;
+        private int[] start;
+        private int[] end;
+        private int size;
+        private int maxTaxid;
+
+        private NamesRegion(final ByteBuffer buffer, final int capacity) {
+            this.buffer = buffer;
+            this.taxid = new int[capacity];
+            this.start = new int[capacity];
+            this.end = new int[capacity];
+            this.size = 0;
+            this.maxTaxid = -1;
+        }
+
+        private static NamesRegion parse(final DmpChunkParser parser) {
+            //A names line takes about 32 bytes
+            final NamesRegion region = new NamesRegion(parser.buffer(), Math.max(16, parser.buffer().remaining() / 32));
+            while (parser.hasNextLine()) {
+                final int taxid = parser.nextInt();
+                final int start = parser.position();
+                final int end = parser.skipField();
+                parser.nextLine();
+                if (region.size == region.taxid.length) {
+                    final int newLength = region.size + (region.size >> 1);
+                    region.taxid = Arrays.copyOf(region.taxid, newLength);
+                    region.start = Arrays.copyOf(region.start, newLength);
+                    region.end = Arrays.copyOf(region.end, newLength);
+                }
+                region.taxid[region.size] = taxid;
+                region.start[region.size] = start;
+                region.end[region.size] = Math.max(start, end);
+                region.size++;
+                region.maxTaxid = Math.max(region.maxTaxid, taxid);
+            }
+            return region;
+        }
+
+        private void fillLengths(final int[] nameOffsetByTaxid) {
+            for (int i = 0; i < this.size; i++) {
+                nameOffsetByTaxid[this.taxid[i] + 1] = this.end[i] - this.start[i];
+            }
+        }
+
+        private void copyNames(final int[] nameOffsetByTaxid, final byte[] nameBlob) {
+            final ByteBuffer source = this.buffer.duplicate();
+            for (int i = 0; i < this.size; i++) {
+                final int offset = nameOffsetByTaxid[this.taxid[i]];
+                //Guards the neighbouring names in case a taxId has more than one line
+                final int length = Math.min(this.end[i] - this.start[i], nameOffsetByTaxid[this.taxid[i] + 1] - offset);
+                source.limit(this.start[i] + length);
+                source.position(this.start[i]);
+                source.get(nameBlob, offset, length);
+            }
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package db.ram;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+/**
+ * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
+ * software for accurate taxonomic classification of nucleotide sequences.
+ * Copyright (C) 2013  Alexander Tuzhikov, Alexander Panchin and Valery Shestopalov.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The on-disk format of the {@link db.ram.RamDb}. The file starts with a magic number, a format version and a table of sections
+ * (identifier, offset, length), followed by the sections themselves, each aligned to 8 bytes and written in little-endian byte order.
+ * Upon load the sections are memory-mapped read-only and queried in place, so that the startup does not depend on the size of the
+ * database and the processes that use the same file share the OS page cache.
+ */
+public final class RamDbFormat {
+    /**
+     * "TUITRAMD" in ASCII
+     */
+    static final long MAGIC = 0x5455495452414D44L;
+    /**
+     * Format version. TUIT will complain if this version goes obsolete and requests to redeploy the database.
+     */
+    static final int FORMAT_VERSION = 1;
+    /**
+     * Byte order of all the sections
+     */
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    /**
+     * Section of a {@link db.ram.DenseGiTaxIdIndex}
+     */
+    static final int SECTION_GI_DENSE = 1;
+    /**
+     * Section of parent taxIds, indexed by taxId
+     */
+    static final int SECTION_PARENT = 2;
+    /**
+     * Section of rank ordinals, indexed by taxId
+     */
+    static final int SECTION_RANK = 3;
+    /**
+     * Section of scientific name offsets within the name blob, indexed by taxId
+     */
+    static final int SECTION_NAME_OFFSETS = 4;
+    /**
+     * Section of UTF-8 encoded scientific names
+     */
+    static final int SECTION_NAME_BLOB = 5;
+    /**
+     * Section of a {@link db.ram.BlockGiTaxIdIndex}
+     */
+    static final int SECTION_GI_BLOCKS = 6;
+    /**
+     * Section of an {@link db.ram.AccessionTaxIdIndex}, is only written if the database has accessions
+     */
+    static final int SECTION_ACCESSIONS = 7;
+    /**
+     * Section of the {@link db.ram.TaxonomyTree} labels, the files written without it get the labels computed upon load
+     */
+    static final int SECTION_TAXONOMY_TREE = 8;
+    /**
+     * Size of a file header: magic, version, number of sections
+     */
+    private static final int HEADER_SIZE = 16;
+    /**
+     * Size of a section table entry: identifier, padding, offset, length
+     */
+    private static final int SECTION_ENTRY_SIZE = 24;
+    /**
+     * Size of a buffer that is used to write the sections
+     */
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    private RamDbFormat() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Writes a given {@link db.ram.RamDb} to a file
+     *
+     * @param ramDb {@link db.ram.RamDb} to write
+     * @param out   {@link java.io.File} to write to, gets overwritten if exists
+     * @return the same {@link java.io.File}
+     * @throws IOException in case an IO error occurs
+     */
+    public static File write(final RamDb ramDb, final File out) throws IOException {
+        final List<Section> sections = new ArrayList<>();
+        sections.add(new Section(ramDb.giTaxIdIndex.getSectionId(), ramDb.giTaxIdIndex.sizeInBytes(), ramDb.giTaxIdIndex::writeTo));
+        sections.add(new Section(SECTION_PARENT, (long) ramDb.parentByTaxid.limit() * Integer.BYTES,
+                channel -> writeInts(channel, ramDb.parentByTaxid)));
+        sections.add(new Section(SECTION_RANK, ramDb.rankOrdinalByTaxid.limit(),
+                channel -> writeFully(channel, ramDb.rankOrdinalByTaxid.duplicate())));
+        sections.add(new Section(SECTION_NAME_OFFSETS, (long) ramDb.nameOffsetByTaxid.limit() * Integer.BYTES,
+                channel -> writeInts(channel, ramDb.nameOffsetByTaxid)));
+        sections.add(new Section(SECTION_NAME_BLOB, ramDb.nameBlob.limit(),
+                channel -> writeFully(channel, ramDb.nameBlob.duplicate())));
+        sections.add(new Section(SECTION_TAXONOMY_TREE, ramDb.taxonomyTree.sizeInBytes(), ramDb.taxonomyTree::writeTo));
+        if (ramDb.accessionTaxIdIndex.size() > 0) {
+            sections.add(new Section(SECTION_ACCESSIONS, ramDb.accessionTaxIdIndex.sizeInBytes(), ramDb.accessionTaxIdIndex::writeTo));
+        }
+
+        try (SectionSink sink = new SectionSink(out, sections.size())) {
+            for (Section section : sections) {
+                sink.append(section.id, section.length, section.writer);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Maps a file, that was previously written by {@code write(RamDb, File)}
+     *
+     * @param in {@link java.io.File} to map
+     * @return {@link db.ram.RamDb} that queries the file in place
+     * @throws IOException in case an IO error occurs, or the file is not of the current format version, which means that
+     *                     the database needs to be updated
+     */
+    public static RamDb map(final File in) throws IOException {
+        try (FileChannel channel = FileChannel.open(in.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(BYTE_ORDER);
+            readFully(channel, header, 0);
+            if (header.getLong(0) != MAGIC || header.getInt(8) != FORMAT_VERSION) {
+                throw new IOException("The RAM-based taxonomic database needs to be updated.");
+            }
+            final int numberOfSections = header.getInt(12);
+            final ByteBuffer table = ByteBuffer.allocate(SECTION_ENTRY_SIZE * numberOfSections).order(BYTE_ORDER);
+            readFully(channel, table, HEADER_SIZE);
+            final Map<Integer, long[]> sections = new HashMap<>();
+            for (int i = 0; i < numberOfSections; i++) {
+                final int base = i * SECTION_ENTRY_SIZE;
+                sections.put(table.getInt(base), new long[]{table.getLong(base + 8), table.getLong(base + 16)});
+            }
+
+            final GiTaxIdIndex giTaxIdIndex;
+            if (sections.containsKey(SECTION_GI_DENSE)) {
+                final long[] section = sections.get(SECTION_GI_DENSE);
+                giTaxIdIndex = DenseGiTaxIdIndex.map(channel, section[0], section[1]);
+            } else if (sections.containsKey(SECTION_GI_BLOCKS)) {
+                giTaxIdIndex = BlockGiTaxIdIndex.map(channel, sections.get(SECTION_GI_BLOCKS)[0]);
+            } else {
+                throw new IOException("The RAM-based taxonomic database has no GI-taxId section and needs to be updated.");
+            }
+            final AccessionTaxIdIndex accessionTaxIdIndex;
+            if (sections.containsKey(SECTION_ACCESSIONS)) {
+                accessionTaxIdIndex = AccessionTaxIdIndex.map(channel, sections.get(SECTION_ACCESSIONS)[0]);
+            } else {
+                accessionTaxIdIndex = AccessionTaxIdIndex.EMPTY;
+            }
+            final IntBuffer parentByTaxid = mapInts(channel, requireSection(sections, SECTION_PARENT));
+            final ByteBuffer rankOrdinalByTaxid = mapBytes(channel, requireSection(sections, SECTION_RANK));
+            final TaxonomyTree taxonomyTree;
+            if (sections.containsKey(SECTION_TAXONOMY_TREE)) {
+                taxonomyTree = TaxonomyTree.map(channel, sections.get(SECTION_TAXONOMY_TREE)[0], parentByTaxid);
+            } else {
+                taxonomyTree = TaxonomyTree.newInstance(parentByTaxid, rankOrdinalByTaxid);
+            }
+            return new RamDb(giTaxIdIndex,
+                    parentByTaxid,
+                    rankOrdinalByTaxid,
+                    mapInts(channel, requireSection(sections, SECTION_NAME_OFFSETS)),
+                    mapBytes(channel, requireSection(sections, SECTION_NAME_BLOB)),
+                    accessionTaxIdIndex,
+                    taxonomyTree);
+        }
+    }
+
+    /**
+     * Maps a region of a file as ints
+     *
+     * @param channel {@link java.nio.channels.FileChannel} of the file
+     * @param offset  {@code long} offset of the region
+     * @param size    {@code long} number of ints in the region
+     * @return {@link java.nio.IntBuffer} view of the region
+     * @throws IOException in case mapping fails
+     */
+    static IntBuffer mapInts(final FileChannel channel, final long offset, final long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, size * Integer.BYTES).order(BYTE_ORDER).asIntBuffer();
+    }
+
+    /**
+     * Maps a region of a file as longs
+     *
+     * @param channel {@link java.nio.channels.FileChannel} of the file
+     * @param offset  {@code long} offset of the region
+     * @param size    {@code long} number of longs in the region
+     * @return {@link java.nio.LongBuffer} view of the region
+     * @throws IOException in case mapping fails
+     */
+    static LongBuffer mapLongs(final FileChannel channel, final long offset, final long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, size * Long.BYTES).order(BYTE_ORDER).asLongBuffer();
+    }
+
+    /**
+     * Writes the remaining longs of a given buffer into a channel without changing the buffer position
+     *
+     * @param channel {@link java.nio.channels.WritableByteChannel} to write to
+     * @param longs   {@link java.nio.LongBuffer} to write
+     * @throws IOException in case an IO error occurs
+     */
+    static void writeLongs(final WritableByteChannel channel, final LongBuffer longs) throws IOException {
+        final LongBuffer source = longs.duplicate();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(BYTE_ORDER);
+        final LongBuffer view = buffer.asLongBuffer();
+        while (source.hasRemaining()) {
+            final int count = Math.min(view.capacity(), source.remaining());
+            final LongBuffer slice = source.duplicate();
+            slice.limit(slice.position() + count);
+            view.clear();
+            view.put(slice);
+            source.position(source.position() + count);
+            buffer.clear();
+            buffer.limit(count * Long.BYTES);
+            writeFully(channel, buffer);
+        }
+    }
+
+    /**
+     * Writes the remaining ints of a given buffer into a channel without changing the buffer position
+     *
+     * @param channel {@link java.nio.channels.WritableByteChannel} to write to
+     * @param ints    {@link java.nio.IntBuffer} to write
+     * @throws IOException in case an IO error occurs
+     */
+    static void writeInts(final WritableByteChannel channel, final IntBuffer ints) throws IOException {
+        final IntBuffer source = ints.duplicate();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(BYTE_ORDER);
+        final IntBuffer view = buffer.asIntBuffer();
+        while (source.hasRemaining()) {
+            final int count = Math.min(view.capacity(), source.remaining());
+            final IntBuffer slice = source.duplicate();
+            slice.limit(slice.position() + count);
+            view.clear();
+            view.put(slice);
+            source.position(source.position() + count);
+            buffer.clear();
+            buffer.limit(count * Integer.BYTES);
+            writeFully(channel, buffer);
+        }
+    }
+
+    /**
+     * Writes a given buffer into a channel completely
+     *
+     * @param channel {@link java.nio.channels.WritableByteChannel} to write to
+     * @param buffer  {@link java.nio.ByteBuffer} to write
+     * @throws IOException in case an IO error occurs
+     */
+    static void writeFully(final WritableByteChannel channel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Pads the file with zeros up to a given section offset
+     */
+    private static void pad(final FileChannel channel, final long offset) throws IOException {
+        final long padding = offset - channel.position();
+        if (padding > 0) {
+            writeFully(channel, ByteBuffer.allocate((int) padding));
+        }
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, current);
+            if (read < 0) {
+                throw new IOException("The RAM-based taxonomic database is truncated and needs to be updated.");
+            }
+            current += read;
+        }
+    }
+
+    private static long[] requireSection(final Map<Integer, long[]> sections, final int id) throws IOException {
+        final long[] section = sections.get(id);
+        if (section == null) {
+            throw new IOException("The RAM-based taxonomic database has no section " + id + " and needs to be updated.");
+        }
+        return section;
+    }
+
+    private static IntBuffer mapInts(final FileChannel channel, final long[] section) throws IOException {
+        return mapInts(channel, section[0], section[1] / Integer.BYTES);
+    }
+
+    private static ByteBuffer mapBytes(final FileChannel channel, final long[] section) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, section[0], section[1]);
+    }
+
+    private static long align(final long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    /**
+     * Writes a section into a channel
+     */
+    interface SectionWriter {
+        void writeTo(WritableByteChannel channel) throws IOException;
+    }
+
+    /**
+     * Writes a file section by section, so that a section may be released as soon as it has been written rather than kept
+     * until the whole database is ready (see {@link db.ram.RamDbBuilder}). The section table is written upon close, unless
+     * a section has failed to be appended, in which case the file gets deleted instead, so that it never loads with sections
+     * missing.
+     */
+    static final class SectionSink implements Closeable {
+        private final File out;
+        private final FileChannel channel;
+        private final int maxSections;
+        private final List<long[]> table;
+        private final List<Integer> ids;
+        /**
+         * Set as soon as a section fails to be appended
+         */
+        private boolean failed;
+
+        /**
+         * @param out         {@link java.io.File} to write to, gets overwritten if exists
+         * @param maxSections {@code int} maximum number of sections that will be appended
+         * @throws IOException in case the file can not be opened
+         */
+        SectionSink(final File out, final int maxSections) throws IOException {
+            this.out = out;
+            this.channel = FileChannel.open(out.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.maxSections = maxSections;
+            this.table = new ArrayList<>(maxSections);
+            this.ids = new ArrayList<>(maxSections);
+            this.channel.position(align(HEADER_SIZE + (long) SECTION_ENTRY_SIZE * maxSections));
+        }
+
+        /**
+         * Appends a section to the file
+         *
+         * @param id     {@code int} section identifier
+         * @param length {@code long} length of the section in bytes
+         * @param writer {@link db.ram.RamDbFormat.SectionWriter} that writes exactly {@code length} bytes
+         * @throws IOException in case an IO error occurs, or the writer did not write the declared length
+         */
+        void append(final int id, final long length, final SectionWriter writer) throws IOException {
+            if (this.ids.size() == this.maxSections) {
+                throw new IOException("No room for section " + id + " in the RAM-based taxonomic database table.");
+            }
+            this.failed = true;
+            final long offset = align(this.channel.position());
+            pad(this.channel, offset);
+            writer.writeTo(this.channel);
+            if (this.channel.position() - offset != length) {
+                throw new IOException("Section " + id + " of the RAM-based taxonomic database was expected to take "
+                        + length + " bytes, but took " + (this.channel.position() - offset) + ".");
+            }
+            this.failed = false;
+            this.ids.add(id);
+            this.table.add(new long[]{offset, length});
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.failed) {
+                try {
+                    this.channel.close();
+                } finally {
+                    Files.deleteIfExists(this.out.toPath());
+                }
+                return;
+            }
+            try {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + SECTION_ENTRY_SIZE * this.ids.size()).order(BYTE_ORDER);
+                header.putLong(MAGIC);
+                header.putInt(FORMAT_VERSION);
+                header.putInt(this.ids.size());
+                for (int i = 0; i < this.ids.size(); i++) {
+                    header.putInt(this.ids.get(i));
+                    header.putInt(0);
+                    header.putLong(this.table.get(i)[0]);
+                    header.putLong(this.table.get(i)[1]);
+                }
+                header.clear();
+                this.channel.position(0);
+                writeFully(this.channel, header);
+            } finally {
+                this.channel.close();
+            }
+        }
+    }
+
+    /**
+     * A section to be written: identifier, length in bytes and the writer
+     */
+    private static final class Section {
+        private final int id;
+        private final long length;
+        private final SectionWriter writer;
+
+        private Section(final int id, final long length, final SectionWriter writer) {
+            this.id = id;
+            this.length = length;
+            this.writer = writer;
+        }
+    }
+}
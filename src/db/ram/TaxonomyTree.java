@@ -0,0 +1,350 @@
+package db.ram;
+
+import taxonomy.Ranks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+/**
+ * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
+ * software for accurate taxonomic classification of nucleotide sequences.
+ * Copyright (C) 2013  Alexander Tuzhikov, Alexander Panchin and Valery Shestopalov.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Pre-order (enter/exit) labels of the taxonomic tree of a {@link db.ram.RamDb}. A node enters the depth-first traversal before all
+ * of its descendants, and its exit label is the last enter label within its subtree, so that an ancestor check turns into
+ * two array reads and a comparison instead of a walk up the parent chain. The labels are computed upon deployment in linear time
+ * with an explicit stack, so that deep lineages pose no stack depth risk, and written to a section of the database file, so that
+ * a load maps them rather than computing them anew (see {@link db.ram.RamDbFormat}).
+ * Along with the labels, every node gets its closest ancestor of a real (other than "no rank") rank, so that lifting a hit
+ * over a chain of "no rank" nodes takes a single lookup.
+ */
+public class TaxonomyTree {
+    /**
+     * A label for the taxIds that the database has no node for
+     */
+    static final int NO_LABEL = -1;
+    /**
+     * Size of the section header: number of taxIds, number of labels
+     */
+    private static final int HEADER_SIZE = 8;
+    /**
+     * Pre-order enter label, indexed by taxId
+     */
+    protected final IntBuffer enter;
+    /**
+     * The largest enter label within the subtree, indexed by taxId
+     */
+    protected final IntBuffer exit;
+    /**
+     * The closest ancestor of a real rank, or the root of the tree if there is none, indexed by taxId
+     */
+    protected final IntBuffer rankedParent;
+    /**
+     * TaxId, indexed by enter label
+     */
+    protected final IntBuffer taxidByLabel;
+    /**
+     * Parent taxIds, indexed by taxId
+     */
+    protected final IntBuffer parentByTaxid;
+
+    /**
+     * Protected constructor
+     *
+     * @param enter         {@link java.nio.IntBuffer} of enter labels, indexed by taxId
+     * @param exit          {@link java.nio.IntBuffer} of exit labels, indexed by taxId
+     * @param rankedParent  {@link java.nio.IntBuffer} of closest ancestors of a real rank, indexed by taxId
+     * @param taxidByLabel  {@link java.nio.IntBuffer} of taxIds, indexed by enter label
+     * @param parentByTaxid {@link java.nio.IntBuffer} of parent taxIds, indexed by taxId
+     */
+    protected TaxonomyTree(final IntBuffer enter, final IntBuffer exit, final IntBuffer rankedParent, final IntBuffer taxidByLabel,
+                           final IntBuffer parentByTaxid) {
+        this.enter = enter;
+        this.exit = exit;
+        this.rankedParent = rankedParent;
+        this.taxidByLabel = taxidByLabel;
+        this.parentByTaxid = parentByTaxid;
+    }
+
+    /**
+     * Checks whether one node is an ancestor (a parent, grand parent, etc.) of another. Preserves the convention of the
+     * parent walk, that a node that is its own parent (the root) is considered its own ancestor.
+     *
+     * @param ancestorTaxid {@code int} taxId of the supposed ancestor
+     * @param taxid         {@code int} taxId of the supposed descendant
+     * @param parentTaxid   {@code int} parent taxId of the supposed descendant
+     * @return {@code true} if the first node is an ancestor of the second, {@code false} otherwise, or if any of the nodes does
+     * not exist
+     */
+    public boolean isAncestorOf(final int ancestorTaxid, final int taxid, final int parentTaxid) {
+        if (!this.isLabeled(ancestorTaxid) || !this.isLabeled(taxid)) {
+            return false;
+        }
+        if (ancestorTaxid == taxid) {
+            return parentTaxid == taxid;
+        }
+        final int enter = this.enter.get(taxid);
+        return this.enter.get(ancestorTaxid) < enter && enter <= this.exit.get(ancestorTaxid);
+    }
+
+    /**
+     * Returns the closest ancestor of a given node that has a real (other than "no rank") rank. The root of the tree is
+     * returned in case there is no such, the root itself maps to itself.
+     *
+     * @param taxid {@code int} taxId
+     * @return {@code int} taxId of the ancestor, {@code 0} if the node does not exist
+     */
+    public int getRankedParent(final int taxid) {
+        if (!this.isLabeled(taxid)) {
+            return 0;
+        }
+        return this.rankedParent.get(taxid);
+    }
+
+    /**
+     * Returns the pre-order enter label of a node, the descendants of a node have their enter labels within the range from its
+     * enter label (exclusive) up to its exit label (inclusive)
+     *
+     * @param taxid {@code int} taxId
+     * @return {@code int} enter label, {@code -1} if the node does not exist
+     */
+    public int getEnterLabel(final int taxid) {
+        if (!this.isLabeled(taxid)) {
+            return NO_LABEL;
+        }
+        return this.enter.get(taxid);
+    }
+
+    /**
+     * Returns the exit label of a node, which is the largest enter label within its subtree
+     *
+     * @param taxid {@code int} taxId
+     * @return {@code int} exit label, {@code -1} if the node does not exist
+     */
+    public int getExitLabel(final int taxid) {
+        if (!this.isLabeled(taxid)) {
+            return NO_LABEL;
+        }
+        return this.exit.get(taxid);
+    }
+
+    /**
+     * Returns the node that has a given enter label, which allows to walk a subtree in pre-order, the children of a node
+     * following right after it, each one after the subtree of the previous one
+     *
+     * @param label {@code int} enter label
+     * @return {@code int} taxId of the node
+     */
+    public int getTaxidByLabel(final int label) {
+        return this.taxidByLabel.get(label);
+    }
+
+    /**
+     * Marks a node along with all of its descendants, which occupy a single range of the enter labels
+     *
+     * @param taxid {@code int} taxId of the subtree root
+     * @param marks {@code boolean[]} marks to set, indexed by taxId, at least as large as the tree
+     * @return {@code true} if the node exists, {@code false} otherwise
+     */
+    boolean markSubtree(final int taxid, final boolean[] marks) {
+        if (!this.isLabeled(taxid)) {
+            return false;
+        }
+        for (int label = this.enter.get(taxid); label <= this.exit.get(taxid); label++) {
+            marks[this.taxidByLabel.get(label)] = true;
+        }
+        return true;
+    }
+
+    /**
+     * Marks a node along with all of its ancestors, stops early at an ancestor that has already been marked
+     *
+     * @param taxid {@code int} taxId
+     * @param marks {@code boolean[]} marks to set, indexed by taxId, at least as large as the tree
+     * @return {@code true} if the node exists, {@code false} otherwise
+     */
+    boolean markLineage(final int taxid, final boolean[] marks) {
+        if (!this.isLabeled(taxid)) {
+            return false;
+        }
+        int current = taxid;
+        while (!marks[current]) {
+            marks[current] = true;
+            final int parent = this.parentByTaxid.get(current);
+            if (!isChild(this.parentByTaxid, current, parent)) {
+                break;
+            }
+            current = parent;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the size of the section that the tree takes within a database file
+     *
+     * @return {@code long} size in bytes
+     */
+    long sizeInBytes() {
+        return HEADER_SIZE + (3L * this.enter.limit() + this.taxidByLabel.limit()) * Integer.BYTES;
+    }
+
+    /**
+     * Writes the labels to a section of a {@link db.ram.RamDbFormat} file
+     *
+     * @param channel {@link java.nio.channels.WritableByteChannel} to write to
+     * @throws IOException in case an IO error occurs
+     */
+    void writeTo(final WritableByteChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(RamDbFormat.BYTE_ORDER);
+        header.putInt(this.enter.limit());
+        header.putInt(this.taxidByLabel.limit());
+        header.clear();
+        RamDbFormat.writeFully(channel, header);
+        RamDbFormat.writeInts(channel, this.enter);
+        RamDbFormat.writeInts(channel, this.exit);
+        RamDbFormat.writeInts(channel, this.rankedParent);
+        RamDbFormat.writeInts(channel, this.taxidByLabel);
+    }
+
+    /**
+     * @param taxid {@code int} taxId
+     * @return {@code true} if the node for the given taxId has been labeled
+     */
+    protected boolean isLabeled(final int taxid) {
+        return taxid > 0 && taxid < this.enter.limit() && this.enter.get(taxid) != NO_LABEL;
+    }
+
+    /**
+     * A static factory to label the tree given by the parent taxIds. The tree is traversed from the root as well as from every
+     * node whose parent is missing, so that the detached subtrees get labeled too.
+     *
+     * @param parentByTaxid      {@link java.nio.IntBuffer} of parent taxIds, indexed by taxId, zero where there is no node
+     * @param rankOrdinalByTaxid {@link java.nio.ByteBuffer} of {@link taxonomy.Ranks} ordinals, indexed by taxId
+     * @return a new instance of {@link db.ram.TaxonomyTree}
+     */
+    public static TaxonomyTree newInstance(final IntBuffer parentByTaxid, final ByteBuffer rankOrdinalByTaxid) {
+        final int size = parentByTaxid.limit();
+        //Collect the children of every node into a compressed (offsets and values) adjacency list
+        final int[] childOffset = new int[size + 1];
+        for (int taxid = 1; taxid < size; taxid++) {
+            final int parent = parentByTaxid.get(taxid);
+            if (isChild(parentByTaxid, taxid, parent)) {
+                childOffset[parent + 1]++;
+            }
+        }
+        for (int taxid = 0; taxid < size; taxid++) {
+            childOffset[taxid + 1] += childOffset[taxid];
+        }
+        final int[] children = new int[childOffset[size]];
+        final int[] next = Arrays.copyOf(childOffset, size);
+        for (int taxid = 1; taxid < size; taxid++) {
+            final int parent = parentByTaxid.get(taxid);
+            if (isChild(parentByTaxid, taxid, parent)) {
+                children[next[parent]++] = taxid;
+            }
+        }
+
+        final int[] enter = new int[size];
+        final int[] exit = new int[size];
+        final int[] rankedParent = new int[size];
+        Arrays.fill(enter, NO_LABEL);
+        final int[] taxidByLabel = new int[size];
+        final int[] stack = new int[size];
+        int label = 0;
+        for (int root = 1; root < size; root++) {
+            //Start from the root and the nodes with missing parents
+            if (parentByTaxid.get(root) == 0 || isChild(parentByTaxid, root, parentByTaxid.get(root))) {
+                continue;
+            }
+            int depth = 0;
+            stack[depth++] = root;
+            rankedParent[root] = root;
+            while (depth > 0) {
+                final int taxid = stack[--depth];
+                taxidByLabel[label] = taxid;
+                enter[taxid] = label++;
+                if (taxid != root) {
+                    //The parent has been labeled before the child
+                    final int parent = parentByTaxid.get(taxid);
+                    rankedParent[taxid] = parent == root || isRanked(rankOrdinalByTaxid, parent) ? parent : rankedParent[parent];
+                }
+                for (int i = childOffset[taxid + 1] - 1; i >= childOffset[taxid]; i--) {
+                    stack[depth++] = children[i];
+                }
+            }
+        }
+        //A subtree occupies a contiguous range of enter labels, so the exit label is the enter label plus the subtree size less one.
+        //The descendants get labeled after their ancestors, thereby the sizes are summed up in reverse label order.
+        for (int i = label - 1; i >= 0; i--) {
+            final int taxid = taxidByLabel[i];
+            exit[taxid]++;
+            final int parent = parentByTaxid.get(taxid);
+            if (isChild(parentByTaxid, taxid, parent)) {
+                exit[parent] += exit[taxid];
+            }
+        }
+        for (int i = 0; i < label; i++) {
+            final int taxid = taxidByLabel[i];
+            exit[taxid] += enter[taxid] - 1;
+        }
+        return new TaxonomyTree(IntBuffer.wrap(enter), IntBuffer.wrap(exit), IntBuffer.wrap(rankedParent),
+                IntBuffer.wrap(taxidByLabel, 0, label).slice(), parentByTaxid);
+    }
+
+    /**
+     * A static factory to map the labels, that were previously written to a section of a {@link db.ram.RamDbFormat} file
+     *
+     * @param channel       {@link java.nio.channels.FileChannel} of the file
+     * @param offset        {@code long} offset of the section
+     * @param parentByTaxid {@link java.nio.IntBuffer} of parent taxIds, indexed by taxId, that the labels were computed for
+     * @return a new instance of {@link db.ram.TaxonomyTree} that queries the file in place
+     * @throws IOException in case mapping fails, or the labels do not match the nodes
+     */
+    static TaxonomyTree map(final FileChannel channel, final long offset, final IntBuffer parentByTaxid) throws IOException {
+        final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, offset, HEADER_SIZE).order(RamDbFormat.BYTE_ORDER);
+        final int size = header.getInt(0);
+        final int labels = header.getInt(4);
+        if (size != parentByTaxid.limit()) {
+            throw new IOException("The RAM-based taxonomic database needs to be updated.");
+        }
+        long position = offset + HEADER_SIZE;
+        final IntBuffer enter = RamDbFormat.mapInts(channel, position, size);
+        position += (long) size * Integer.BYTES;
+        final IntBuffer exit = RamDbFormat.mapInts(channel, position, size);
+        position += (long) size * Integer.BYTES;
+        final IntBuffer rankedParent = RamDbFormat.mapInts(channel, position, size);
+        position += (long) size * Integer.BYTES;
+        final IntBuffer taxidByLabel = RamDbFormat.mapInts(channel, position, labels);
+        return new TaxonomyTree(enter, exit, rankedParent, taxidByLabel, parentByTaxid);
+    }
+
+    private static boolean isRanked(final ByteBuffer rankOrdinalByTaxid, final int taxid) {
+        if (taxid >= rankOrdinalByTaxid.limit()) {
+            return false;
+        }
+        final byte ordinal = rankOrdinalByTaxid.get(taxid);
+        return ordinal != RamDb.NO_RANK_ORDINAL && ordinal != Ranks.no_rank.ordinal();
+    }
+
+    /**
+     * A node is a child of its parent, unless it is its own parent or the parent is missing
+     */
+    private static boolean isChild(final IntBuffer parentByTaxid, final int taxid, final int parent) {
+        return parent != taxid && parent > 0 && parent < parentByTaxid.limit() && parentByTaxid.get(parent) != 0;
+    }
+}
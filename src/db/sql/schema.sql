@@ -85,6 +85,20 @@ ENGINE = InnoDB
 COMMENT = 'A table of taxonomic nodes that contains daughter-parent taxonomic relationship. Makes it usefull to reconstruct the full taxonomic tree breanch for a given taxid.';
 
 
+-- -----------------------------------------------------
+-- Table `NCBI`.`node_labels`
+-- -----------------------------------------------------
+CREATE  TABLE IF NOT EXISTS `NCBI`.`node_labels` (
+  `taxid` INT UNSIGNED NOT NULL ,
+  `enter_label` INT UNSIGNED NOT NULL COMMENT 'Pre-order label of the node within the taxonomic tree' ,
+  `exit_label` INT UNSIGNED NOT NULL COMMENT 'The largest pre-order label within the subtree of the node' ,
+  `ranked_parent_taxid` INT UNSIGNED NOT NULL COMMENT 'The closest ancestor of a real (other than no rank) rank, the root for itself' ,
+  PRIMARY KEY (`taxid`) ,
+  INDEX `ind_enter_label` (`enter_label` ASC) )
+ENGINE = InnoDB
+COMMENT = 'Nested interval labels of the nodes: a node descends from another if its enter label falls within the labels of the other, so that an ancestor check takes two point lookups instead of a walk up the nodes table. Rebuilt from the nodes upon every deploy and update.';
+
+
 -- -----------------------------------------------------
 -- Placeholder table for view `NCBI`.`taxon_by_gi`
 -- -----------------------------------------------------
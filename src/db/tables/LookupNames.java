@@ -66,6 +66,15 @@ public class LookupNames {
                     id_ranks
                 }
             }
+            public static class node_labels {
+                public static final String name = "node_labels";
+                public enum columns {
+                    taxid,
+                    enter_label,
+                    exit_label,
+                    ranked_parent_taxid
+                }
+            }
             public enum views{
                 taxon_by_gi("taxon_by_gi"),
                 f_level_children_by_parent("f_level_children_by_parent"),
@@ -0,0 +1,432 @@
+package helper;
+
+import db.tables.LookupNames;
+import logger.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+/**
+ * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
+ * software for accurate taxonomic classification of nucleotide sequences.
+ * Copyright (C) 2013  Alexander Tuzhikov, Alexander Panchin and Valery Shestopalov.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Streams the rows of the NCBI dump files into the tables of the NCBI schema with a "LOAD DATA LOCAL INFILE", which the MySQL
+ * driver feeds from an {@link java.io.InputStream} rather than from a file. The dump files get filtered in chunks, that are
+ * parsed in parallel and handed over to the driver in the order of the file, so that no intermediate .mod files get written.
+ * The servers that do not allow local infiles (such as MySQL 8 with the default {@code local_infile=OFF}), as well as the
+ * drivers that can not read a local infile from a stream, get reported back, so that the callers can fall back to the .mod files.
+ */
+public class LocalInfileLoader {
+    /**
+     * Approximate size of a chunk of a dump file in bytes
+     */
+    private static final int CHUNK_SIZE = 1 << 24;
+    /**
+     * The name the driver gets to see instead of a file, as the rows come from a stream
+     */
+    private static final String STREAM = "stream";
+    /**
+     * The MySQL error codes of a refused local infile: ER_NOT_ALLOWED_COMMAND, CR_LOAD_DATA_LOCAL_INFILE_REJECTED and
+     * ER_CLIENT_LOCAL_FILES_DISABLED
+     */
+    private static final int[] LOCAL_INFILE_REFUSED = {1148, 2068, 3948};
+
+    /**
+     * Constructor grants non-instantiability
+     */
+    private LocalInfileLoader() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Filters a line of a dump file into the rows of a table
+     */
+    public interface RowFilter {
+        /**
+         * Appends the row that a line of a dump file maps to, if any. Gets called concurrently for the different chunks of the
+         * file, thereby should not change any shared state.
+         *
+         * @param line {@link String} line of the dump file without the line break
+         * @param rows {@link StringBuilder} to append the tab separated row to, terminated by a line break
+         */
+        void filter(String line, StringBuilder rows);
+    }
+
+    /**
+     * Loads the rows from a stream into a table of the NCBI schema, replacing the rows with the same keys. If the driver can
+     * not read a local infile from a stream, or either the driver or the server refuses the local infile before any of the
+     * rows have been read, nothing gets loaded and {@code false} is returned, so that the caller can load the rows from a file.
+     *
+     * @param connection {@link Connection} to the database
+     * @param rows       {@link InputStream} of tab separated rows, each terminated by a line break, gets closed upon return
+     * @param table      {@link String} name of the table
+     * @param columns    the columns of the table, in the order of the fields of a row
+     * @return {@code true} if the rows have been loaded, {@code false} if the local infile has been refused
+     * @throws SQLException in case something goes wrong upon database communication
+     * @throws IOException  in case the stream fails to close
+     */
+    public static boolean load(final Connection connection, final InputStream rows, final String table, final Enum<?>... columns) throws SQLException, IOException {
+        final StringBuilder columnList = new StringBuilder();
+        for (Enum<?> column : columns) {
+            if (columnList.length() > 0) {
+                columnList.append(", ");
+            }
+            columnList.append(column.name());
+        }
+        try (ReadTrackingInputStream inputStream = new ReadTrackingInputStream(rows);
+             Statement statement = connection.createStatement()) {
+            //Switch to a correct schema
+            statement.execute("use " + LookupNames.dbs.NCBI.name);
+            if (!setLocalInfileInputStream(statement, inputStream)) {
+                Log.getInstance().log(Level.WARNING, "The database driver can not read a local infile from a stream, "
+                        + "falling back to a file for " + table + ".");
+                return false;
+            }
+            try {
+                statement.execute(
+                        "LOAD DATA LOCAL INFILE '" + STREAM + "' REPLACE INTO TABLE "
+                                + table
+                                + " FIELDS TERMINATED BY '\t' LINES TERMINATED BY '\n'"
+                                + " (" + columnList + ")");
+            } catch (SQLException e) {
+                if (inputStream.read || !isLocalInfileRefused(e)) {
+                    throw e;
+                }
+                Log.getInstance().log(Level.WARNING, "The local infile has been refused (" + e.getMessage()
+                        + "), falling back to a file for " + table + ". Set local_infile=ON on the server to stream the rows.");
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Hands a stream over to the driver, which reads it instead of a local infile. The Connector/J statements of both the 5.x
+     * and the 8.x versions take it over their {@code setLocalInfileInputStream(InputStream)}, which is looked up reflectively,
+     * so that no particular version of the driver is needed to compile.
+     *
+     * @return {@code false} if the driver does not take a stream
+     */
+    private static boolean setLocalInfileInputStream(final Statement statement, final InputStream inputStream) throws SQLException {
+        final Statement driverStatement = statement.isWrapperFor(Statement.class) ? statement.unwrap(Statement.class) : statement;
+        try {
+            final Method method = driverStatement.getClass().getMethod("setLocalInfileInputStream", InputStream.class);
+            method.invoke(driverStatement, inputStream);
+            return true;
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return false;
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Tells whether an error is a refusal of a local infile by either the driver or the server
+     */
+    private static boolean isLocalInfileRefused(final SQLException e) {
+        for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+            for (int errorCode : LOCAL_INFILE_REFUSED) {
+                if (cause.getErrorCode() == errorCode) {
+                    return true;
+                }
+            }
+            if (cause.getMessage() != null && cause.getMessage().contains("local data is disabled")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens a stream of the rows that a dump file filters into. The file gets split into chunks, that are filtered on all the
+     * available processors, a few chunks ahead of what has been read so far.
+     *
+     * @param dmpFile   {@link File} dump file
+     * @param rowFilter {@link helper.LocalInfileLoader.RowFilter} that maps the lines of the file to rows
+     * @return {@link InputStream} of the rows in the order of the lines of the file
+     * @throws IOException in case the file can not be opened
+     */
+    public static InputStream filter(final File dmpFile, final RowFilter rowFilter) throws IOException {
+        return filter(dmpFile, rowFilter, CHUNK_SIZE);
+    }
+
+    /**
+     * Same as {@code filter(File, RowFilter)}, with a given size of the chunks
+     */
+    static InputStream filter(final File dmpFile, final RowFilter rowFilter, final int chunkSize) throws IOException {
+        return new FilteredChunksInputStream(dmpFile, rowFilter, Runtime.getRuntime().availableProcessors(), chunkSize);
+    }
+
+    /**
+     * Splits a file into chunks of about a given size, each of which ends right after a line break, or at the end of the file
+     *
+     * @param channel   {@link FileChannel} of the file
+     * @param chunkSize {@code int} size of a chunk in bytes, before it gets extended up to the next line break
+     * @return {@link List} of offset and length pairs of the chunks, in the order of the file
+     * @throws IOException in case the file fails to read
+     */
+    static List<long[]> split(final FileChannel channel, final int chunkSize) throws IOException {
+        final long size = channel.size();
+        final List<long[]> chunks = new ArrayList<>();
+        final ByteBuffer probe = ByteBuffer.allocate(1 << 12);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + chunkSize);
+            //Move the end right after the next line break
+            scan:
+            while (end < size) {
+                probe.clear();
+                final int read = channel.read(probe, end);
+                if (read <= 0) {
+                    end = size;
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') {
+                        end += i + 1;
+                        break scan;
+                    }
+                }
+                end += read;
+            }
+            chunks.add(new long[]{start, end - start});
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Splits a line of a dump file by a separator without the overhead of a regular expression
+     *
+     * @param line      {@link String} line
+     * @param separator {@link String} separator, such as "\t|\t" for the taxdump files, or "\t" for the gi_taxid files
+     * @return {@code String[]} fields of the line
+     */
+    public static String[] split(final String line, final String separator) {
+        final List<String> fields = new ArrayList<>();
+        int start = 0;
+        int end;
+        while ((end = line.indexOf(separator, start)) >= 0) {
+            fields.add(line.substring(start, end));
+            start = end + separator.length();
+        }
+        fields.add(line.substring(start));
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * A stream of rows that get generated on demand, a portion at a time, so that a table of any size does not have to be
+     * held in memory at once
+     */
+    public abstract static class RowInputStream extends InputStream {
+        /**
+         * The portion of rows being read
+         */
+        private byte[] current = new byte[0];
+        /**
+         * Position within the current portion
+         */
+        private int position;
+        /**
+         * Set as soon as there are no more rows
+         */
+        private boolean exhausted;
+
+        /**
+         * Appends the next portion of rows
+         *
+         * @param rows {@link StringBuilder} to append the tab separated rows to, each terminated by a line break
+         * @return {@code false} if there are no more rows
+         * @throws IOException in case the rows can not be generated
+         */
+        protected abstract boolean nextRows(StringBuilder rows) throws IOException;
+
+        @Override
+        public int read() throws IOException {
+            if (!this.fill()) {
+                return -1;
+            }
+            return this.current[this.position++] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!this.fill()) {
+                return -1;
+            }
+            final int read = Math.min(len, this.current.length - this.position);
+            System.arraycopy(this.current, this.position, b, off, read);
+            this.position += read;
+            return read;
+        }
+
+        private boolean fill() throws IOException {
+            while (this.position == this.current.length) {
+                if (this.exhausted) {
+                    return false;
+                }
+                final StringBuilder rows = new StringBuilder();
+                this.exhausted = !this.nextRows(rows);
+                this.current = rows.toString().getBytes(StandardCharsets.UTF_8);
+                this.position = 0;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Remembers whether the driver has started reading the rows, after which they can not be loaded from a file anymore
+     */
+    private static class ReadTrackingInputStream extends InputStream {
+        private final InputStream inputStream;
+        private boolean read;
+
+        private ReadTrackingInputStream(final InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+        @Override
+        public int read() throws IOException {
+            this.read = true;
+            return this.inputStream.read();
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            this.read = true;
+            return this.inputStream.read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.inputStream.close();
+        }
+    }
+
+    /**
+     * Filters the chunks of a dump file in parallel and returns the rows in the order of the file
+     */
+    private static class FilteredChunksInputStream extends RowInputStream {
+        private final FileChannel channel;
+        private final RowFilter rowFilter;
+        private final ExecutorService executorService;
+        /**
+         * Offset and length pairs of the chunks that have not been submitted yet
+         */
+        private final Deque<long[]> chunks;
+        /**
+         * The chunks being filtered, in the order of the file
+         */
+        private final Deque<Future<String>> filtered;
+        /**
+         * Number of chunks to filter ahead of the reader
+         */
+        private final int window;
+
+        private FilteredChunksInputStream(final File dmpFile, final RowFilter rowFilter, final int threads, final int chunkSize) throws IOException {
+            this.channel = FileChannel.open(dmpFile.toPath(), StandardOpenOption.READ);
+            this.rowFilter = rowFilter;
+            this.chunks = new ArrayDeque<>(split(this.channel, chunkSize));
+            this.filtered = new ArrayDeque<>();
+            this.window = 2 * threads;
+            this.executorService = Executors.newFixedThreadPool(threads);
+        }
+
+        @Override
+        protected boolean nextRows(final StringBuilder rows) throws IOException {
+            while (this.filtered.size() < this.window && !this.chunks.isEmpty()) {
+                final long[] chunk = this.chunks.poll();
+                this.filtered.add(this.executorService.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return filterChunk(chunk);
+                    }
+                }));
+            }
+            final Future<String> next = this.filtered.poll();
+            if (next == null) {
+                return false;
+            }
+            try {
+                rows.append(next.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while filtering a dump file.", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Could not filter a dump file: " + e.getCause().getMessage(), e.getCause());
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.executorService.shutdownNow();
+            this.channel.close();
+        }
+
+        /**
+         * Reads a chunk and filters its lines, a chunk always starts at the beginning of a line and ends right after a line
+         */
+        private String filterChunk(final long[] chunk) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) chunk[1]);
+            while (buffer.hasRemaining()) {
+                if (this.channel.read(buffer, chunk[0] + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            final String text = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+            final StringBuilder rows = new StringBuilder(text.length() / 2);
+            int start = 0;
+            while (start < text.length()) {
+                int end = text.indexOf('\n', start);
+                if (end < 0) {
+                    end = text.length();
+                }
+                final int lineEnd = end > start && text.charAt(end - 1) == '\r' ? end - 1 : end;
+                if (lineEnd > start) {
+                    this.rowFilter.filter(text.substring(start, lineEnd), rows);
+                }
+                start = end + 1;
+            }
+            return rows.toString();
+        }
+    }
+}
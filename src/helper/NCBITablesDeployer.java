@@ -2,6 +2,7 @@ package helper;
 
 
 import db.ram.RamDb;
+import db.ram.RamDbBuilder;
 import helper.gitaxid.GI_TaxIDDeployer;
 import helper.names.NamesDeployer;
 import helper.nodes.NodesDBDeployer;
@@ -14,6 +15,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.logging.Level;
 /**
  * Taxonomic Unit Identification Tool (TUIT) is a free open source platform independent
@@ -44,6 +46,14 @@ public class NCBITablesDeployer {
      * Database password
      */
     public static final String password = "tuit";
+    /**
+     * The NCBI FTP directory of the accession2taxid files
+     */
+    public static final String NCBI_ACCESSION2TAXID = "/pub/taxonomy/accession2taxid";
+    /**
+     * Accession-taxId map for the GenBank nucleotide records, that the NCBI no longer issues GIs for
+     */
+    public static final String NUCL_GB_ACCESSION2TAXID_ARCH = "nucl_gb.accession2taxid.gz";
 
     /**
      * Constructor grants non-instantiability
@@ -66,11 +76,11 @@ public class NCBITablesDeployer {
 
         //Deploy the names table
         Log.getInstance().log(Level.INFO, "Deploying Names Database..");
-        NamesDeployer.injectProcessedNamesDmpFile(connection, NamesDeployer.filterNamesDmpFile(namesDmpFile));
+        NamesDeployer.streamNamesDmpFile(connection, namesDmpFile);
         Log.getInstance().log(Level.INFO, "Names Database deployed");
         //Deploy the gi_taxid table
         Log.getInstance().log(Level.INFO, "Deploying GI_TaxID Database..");
-        GI_TaxIDDeployer.injectProcessedGI_TaxIDDmpFile(connection, GI_TaxIDDeployer.filterGI_TaxIDDmp(connection, gi_taxidDmpFile));
+        GI_TaxIDDeployer.streamGI_TaxIDDmp(connection, gi_taxidDmpFile);
         Log.getInstance().log(Level.INFO, "GI_TaxID Database deployed");
         //Read and create a validation table for the nodes.dmp
         Log.getInstance().log(Level.INFO, "Preparing Rank-validation table..");
@@ -78,7 +88,7 @@ public class NCBITablesDeployer {
         Log.getInstance().log(Level.INFO, "Rank-validation table deployed");
         //Deploy the nodes table
         Log.getInstance().log(Level.INFO, "Deploying Nodes Database..");
-        NodesDBDeployer.injectProcessedNodesDmpFile(connection, NodesDBDeployer.filterNodesDmpFile(connection, nodesDmpFile));
+        NodesDBDeployer.streamNodesDmpFile(connection, nodesDmpFile);
         Log.getInstance().log(Level.INFO, "Nodes Database deployed");
         Log.getInstance().log(Level.INFO, "NCBI database tables are ready.");
 
@@ -111,12 +121,14 @@ public class NCBITablesDeployer {
         File gi_taxid_deploy_dir = SystemUtil.unArchiveGZFile(gi_taxid_dmp, tmpDir);
         //Deploying the database
         Log.getInstance().log(Level.INFO, "Deploying Names Database..");
-        NamesDeployer.injectProcessedNamesDmpFile(connection, NamesDeployer.filterNamesDmpFile(new File(taxdump_dir, SystemUtil.NAMES_FILE)));
+        NamesDeployer.streamNamesDmpFile(connection, new File(taxdump_dir, SystemUtil.NAMES_FILE));
         Log.getInstance().log(Level.INFO, "Deploying GI_TAXID Database..");
-        GI_TaxIDDeployer.injectProcessedGI_TaxIDDmpFile(connection, GI_TaxIDDeployer.filterGI_TaxIDDmp(connection, new File(gi_taxid_deploy_dir, SystemUtil.GI_TAXID_NUCL)));
+        GI_TaxIDDeployer.streamGI_TaxIDDmp(connection, new File(gi_taxid_deploy_dir, SystemUtil.GI_TAXID_NUCL));
         Log.getInstance().log(Level.INFO, "Deploying Nodes Database..");
         NodesDBDeployer.deployRanksValidationTable(connection);
-        NodesDBDeployer.injectProcessedNodesDmpFile(connection, NodesDBDeployer.filterNodesDmpFile(connection, new File(taxdump_dir, SystemUtil.NODES_FILE)));
+        NodesDBDeployer.streamNodesDmpFile(connection, new File(taxdump_dir, SystemUtil.NODES_FILE));
+        Log.getInstance().log(Level.INFO, "Labeling Nodes..");
+        NodesDBDeployer.injectNodeLabels(connection);
         //Reporting
         Log.getInstance().log(Level.INFO, "Database deployed successfully..");
 
@@ -136,12 +148,44 @@ public class NCBITablesDeployer {
      * @throws Exception in case a connection of a serialization error occurs
      */
     public static void fastDeployNCBIRamDatabaseFromNCBI(final File tmpDir, final File ramDbObject) throws Exception {
+        final TaxonomyFiles taxFiles = downloadRamDatabaseFilesFromNCBI(tmpDir);
+        Log.getInstance().log(Level.INFO, "Assembling RAM database object..");
+        fastDeployRamDatabaseFromFiles(taxFiles, ramDbObject);
+    }
+
+    /**
+     * Deploys a RAM-based taxonomic database that only holds the sequences of a given BLAST database (such as a 16S set, or the one
+     * created by {@link toolkit.silva.SilvaHelper}) along with their taxa and the ancestors (see {@link db.ram.RamDbBuilder}),
+     * which takes a small fraction of the memory and the load time of the full one
+     *
+     * @param tmpDir      requires a {@link java.io.File} that points to a temporary directory that is needed to download the files form the
+     *                    <a href="ftp://ftp-trace.ncbi.nlm.nih.gov/pub/taxonomy/">NCBI ftp</a>
+     * @param identifiers {@link java.io.File} with the identifiers of the BLAST database, as exported by "blastdbcmd -entry all -outfmt %i"
+     * @param ramDbObject {@link java.io.File} that points to a file that the {@link db.ram.RamDb} object can be serialized to
+     * @throws Exception in case a connection of a serialization error occurs
+     */
+    public static void fastDeployNCBIRamDatabaseForBLASTDatabase(final File tmpDir, final File identifiers, final File ramDbObject) throws Exception {
+        final TaxonomyFiles taxFiles = downloadRamDatabaseFilesFromNCBI(tmpDir);
+        Log.getInstance().log(Level.INFO, "Assembling RAM database object for " + identifiers + "..");
+        RamDbBuilder.newDefaultInstance().buildForIdentifiers(identifiers, taxFiles.getGiTaxidDmp(), taxFiles.getNamesDmp(),
+                taxFiles.getNodesDmp(), ramDbObject, taxFiles.getAccession2taxid());
+        //Reporting
+        Log.getInstance().log(Level.INFO, "Database deployed successfully..");
+    }
+
+    /**
+     * Downloads and filters the files that a RAM-based taxonomic database gets built from
+     */
+    private static TaxonomyFiles downloadRamDatabaseFilesFromNCBI(final File tmpDir) throws Exception {
         //Downloading files
         Log.getInstance().log(Level.INFO, "Downloading files..");
         Log.getInstance().log(Level.INFO, "Downloading " + SystemUtil.TAXDUMP_ARCH);
         File taxdump_tar_gz = SystemUtil.downloadFileFromNCBIFTP(tmpDir, SystemUtil.NCBI_TAXONOMY, SystemUtil.TAXDUMP_ARCH);
         Log.getInstance().log(Level.INFO, "Downloading " + SystemUtil.GI_TAXID_DMP_ARCH + " updates..");
         File gi_taxid_dmp = SystemUtil.downloadFileFromNCBIFTP(tmpDir, SystemUtil.NCBI_TAXONOMY, SystemUtil.GI_TAXID_DMP_ARCH);
+        Log.getInstance().log(Level.INFO, "Downloading " + NUCL_GB_ACCESSION2TAXID_ARCH);
+        //Is read gzipped, no need to extract
+        File accession2taxid = SystemUtil.downloadFileFromNCBIFTP(tmpDir, NCBI_ACCESSION2TAXID, NUCL_GB_ACCESSION2TAXID_ARCH);
         //Extracting files
         Log.getInstance().log(Level.INFO, "Extracting " + SystemUtil.TAXDUMP_ARCH);
         File taxdump_dir = SystemUtil.unArchiveTarGZFile(taxdump_tar_gz, tmpDir);
@@ -152,21 +196,85 @@ public class NCBITablesDeployer {
         final File names_dmp = NamesDeployer.filterNamesDmpFile(new File(taxdump_dir, SystemUtil.NAMES_FILE));
         Log.getInstance().log(Level.INFO, "Deploying Nodes Database..");
         final File nodes_dmp = NodesDBDeployer.filterNodesDmpFileRam(new File(taxdump_dir, SystemUtil.NODES_FILE));
-        Log.getInstance().log(Level.INFO, "Assembling RAM database object..");
-        fastDeployRamDatabaseFromFiles(
-                new TaxonomyFiles.TaxonomyFilesBuilder().giTaxidDmp(gi_taxid_deploy_dir.toPath().resolve(SystemUtil.GI_TAXID_NUCL)).namesDmp(names_dmp.toPath()).nodesDmp(nodes_dmp.toPath()).build()
-                , ramDbObject);
+        return new TaxonomyFiles.TaxonomyFilesBuilder().giTaxidDmp(gi_taxid_deploy_dir.toPath().resolve(SystemUtil.GI_TAXID_NUCL))
+                .namesDmp(names_dmp.toPath()).nodesDmp(nodes_dmp.toPath()).accession2taxid(accession2taxid.toPath()).build();
     }
 
     public static void fastDeployRamDatabaseFromFiles(final TaxonomyFiles taxFiles, final File ramDbObject) throws Exception {
-        //Deploying
-        final RamDb ramDb = RamDb.loadSelfFromFilteredNcbiFiles(taxFiles.getGiTaxidDmp(), taxFiles.getNamesDmp(), taxFiles.nodesDmp);
-        Log.getInstance().log(Level.INFO, "Serializing the database for future use..");
-        RamDb.serialize(ramDb, ramDbObject);
+        //Deploying, the database gets written section by section as the dumps are parsed in parallel
+        RamDbBuilder.newDefaultInstance().build(taxFiles.getGiTaxidDmp(), taxFiles.getNamesDmp(), taxFiles.nodesDmp, ramDbObject, taxFiles.getAccession2taxid());
         //Reporting
         Log.getInstance().log(Level.INFO, "Database deployed successfully..");
     }
 
+    /**
+     * Updates a RAM-based taxonomic database directly from the NCBI FTP server. Only the GI diff gets applied to the GIs
+     * of the existing database (see {@link db.ram.RamDbBuilder}), the nodes and the names are taken from the current taxdump.
+     * Falls back to a full deployment in case the database does not exist yet, or is of an obsolete format.
+     *
+     * @param tmpDir      requires a {@link java.io.File} that points to a temporary directory that is needed to download the files form the
+     *                    <a href="ftp://ftp-trace.ncbi.nlm.nih.gov/pub/taxonomy/">NCBI ftp</a>
+     * @param ramDbObject {@link java.io.File} that points to the database file, that gets replaced with the updated one
+     * @throws Exception in case a connection of a serialization error occurs
+     */
+    public static void updateNCBIRamDatabaseFromNCBI(final File tmpDir, final File ramDbObject) throws Exception {
+        if (!ramDbObject.exists()) {
+            Log.getInstance().log(Level.INFO, "No RAM database to update, deploying..");
+            fastDeployNCBIRamDatabaseFromNCBI(tmpDir, ramDbObject);
+            return;
+        }
+        try {
+            RamDb.loadSelfFromFile(ramDbObject);
+        } catch (IOException e) {
+            Log.getInstance().log(Level.INFO, e.getMessage() + " Deploying..");
+            fastDeployNCBIRamDatabaseFromNCBI(tmpDir, ramDbObject);
+            return;
+        }
+        //Downloading files
+        Log.getInstance().log(Level.INFO, "Downloading updates..");
+        Log.getInstance().log(Level.INFO, "Downloading " + SystemUtil.TAXDUMP_ARCH);
+        File taxdump_tar_gz = SystemUtil.downloadFileFromNCBIFTP(tmpDir, SystemUtil.NCBI_TAXONOMY, SystemUtil.TAXDUMP_ARCH);
+        Log.getInstance().log(Level.INFO, "Downloading " + SystemUtil.GI_TAXID_UPD_FILE_ARCH + " updates..");
+        File gi_taxid_update = SystemUtil.downloadFileFromNCBIFTP(tmpDir, SystemUtil.NCBI_TAXONOMY, SystemUtil.GI_TAXID_UPD_FILE_ARCH);
+        //Extracting files
+        Log.getInstance().log(Level.INFO, "Extracting " + SystemUtil.TAXDUMP_ARCH);
+        File taxdump_dir = SystemUtil.unArchiveTarGZFile(taxdump_tar_gz, tmpDir);
+        Log.getInstance().log(Level.INFO, "Extracting " + SystemUtil.GI_TAXID_UPD_FILE_ARCH);
+        File gi_taxid_update_dir = SystemUtil.unArchiveGZFile(gi_taxid_update, tmpDir);
+        //Updating the database
+        final File names_dmp = NamesDeployer.filterNamesDmpFile(new File(taxdump_dir, SystemUtil.NAMES_FILE));
+        final File nodes_dmp = NodesDBDeployer.filterNodesDmpFileRam(new File(taxdump_dir, SystemUtil.NODES_FILE));
+        Log.getInstance().log(Level.INFO, "Updating RAM database..");
+        RamDbBuilder.newDefaultInstance().update(ramDbObject, new File(gi_taxid_update_dir, SystemUtil.GI_TAXID_UPD_FILE), names_dmp, nodes_dmp);
+        //Reporting
+        Log.getInstance().log(Level.INFO, "Database update completed successfully..");
+    }
+
+    /**
+     * Provides a RAM-based taxonomic database pruned to the subtrees of the given taxIds (see {@link db.ram.RamDbBuilder}). The
+     * pruned database is kept next to the full one and gets rebuilt whenever the full one is newer.
+     *
+     * @param ramDbObject {@link java.io.File} that points to the full database file
+     * @param rootTaxids  {@code int}s taxIds of the subtree roots
+     * @return {@link java.io.File} that points to the pruned database file
+     * @throws Exception in case an IO error occurs, or the full database has none of the given taxIds
+     */
+    public static File pruneNCBIRamDatabase(final File ramDbObject, final int... rootTaxids) throws Exception {
+        final int[] sorted = rootTaxids.clone();
+        Arrays.sort(sorted);
+        final StringBuilder suffix = new StringBuilder();
+        for (int taxid : sorted) {
+            suffix.append('.').append(taxid);
+        }
+        final File pruned = new File(ramDbObject.getAbsoluteFile().getParentFile(), ramDbObject.getName() + suffix);
+        if (pruned.exists() && pruned.lastModified() >= ramDbObject.lastModified()) {
+            return pruned;
+        }
+        Log.getInstance().log(Level.INFO, "Pruning RAM database..");
+        RamDbBuilder.newDefaultInstance().prune(ramDbObject, pruned, sorted);
+        return pruned;
+    }
+
     /**
      * Fully updates the NCBI taxonomic database directly from the NCBI FTP server
      *
@@ -189,11 +297,13 @@ public class NCBITablesDeployer {
         File gi_taxid_update_dir = SystemUtil.unArchiveGZFile(gi_taxid_update, tmpDir);
         //Updating the database
         Log.getInstance().log(Level.INFO, "Updating Names Database..");
-        NamesDeployer.injectProcessedNamesDmpFile(connection, NamesDeployer.filterNamesDmpFile(new File(taxdump_dir, SystemUtil.NAMES_FILE)));
+        NamesDeployer.streamNamesDmpFile(connection, new File(taxdump_dir, SystemUtil.NAMES_FILE));
         Log.getInstance().log(Level.INFO, "Updating GI_TAXID Database..");
-        GI_TaxIDDeployer.injectProcessedGI_TaxIDDmpFile(connection, GI_TaxIDDeployer.filterGI_TaxIDDmp(connection, new File(gi_taxid_update_dir, SystemUtil.GI_TAXID_UPD_FILE)));
+        GI_TaxIDDeployer.streamGI_TaxIDDmp(connection, new File(gi_taxid_update_dir, SystemUtil.GI_TAXID_UPD_FILE));
         Log.getInstance().log(Level.INFO, "Updating Nodes Database..");
-        NodesDBDeployer.injectProcessedNodesDmpFile(connection, NodesDBDeployer.filterNodesDmpFile(connection, new File(taxdump_dir, SystemUtil.NODES_FILE)));
+        NodesDBDeployer.streamNodesDmpFile(connection, new File(taxdump_dir, SystemUtil.NODES_FILE));
+        Log.getInstance().log(Level.INFO, "Labeling Nodes..");
+        NodesDBDeployer.injectNodeLabels(connection);
         //Reporting
         Log.getInstance().log(Level.INFO, "Database update completed successfully..");
     }
@@ -208,11 +318,16 @@ public class NCBITablesDeployer {
         private final File giTaxidDmp;
         private final File nodesDmp;
         private final File namesDmp;
+        private final File[] accession2taxid;
 
         public TaxonomyFiles(TaxonomyFilesBuilder builder) {
             this.giTaxidDmp = builder.giTaxidDmp.toFile();
             this.nodesDmp = builder.nodesDmp.toFile();
             this.namesDmp = builder.namesDmp.toFile();
+            this.accession2taxid = new File[builder.accession2taxid.length];
+            for (int i = 0; i < this.accession2taxid.length; i++) {
+                this.accession2taxid[i] = builder.accession2taxid[i].toFile();
+            }
         }
 
         public File getGiTaxidDmp() {
@@ -227,10 +342,15 @@ public class NCBITablesDeployer {
             return nodesDmp;
         }
 
+        public File[] getAccession2taxid() {
+            return accession2taxid;
+        }
+
         public static class TaxonomyFilesBuilder {
             private Path giTaxidDmp;
             private Path nodesDmp;
             private Path namesDmp;
+            private Path[] accession2taxid = new Path[0];
 
             public TaxonomyFilesBuilder giTaxidDmp(Path giTaxidDmp) {
                 this.giTaxidDmp = giTaxidDmp;
@@ -247,6 +367,12 @@ public class NCBITablesDeployer {
                 return this;
             }
 
+            //Optional, for the records without GIs
+            public TaxonomyFilesBuilder accession2taxid(Path... accession2taxid) {
+                this.accession2taxid = accession2taxid;
+                return this;
+            }
+
             //Constructor omitted
             public TaxonomyFiles build() {
                 if (this.giTaxidDmp == null || this.nodesDmp == null || this.namesDmp == null) {
@@ -1,10 +1,12 @@
 package helper.gitaxid;
 
 import db.tables.LookupNames;
+import helper.LocalInfileLoader;
 import logger.Log;
 
 import java.io.*;
 import java.sql.*;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.logging.Level;
@@ -239,4 +241,61 @@ public class GI_TaxIDDeployer {
             }
         }
     }
+
+    /**
+     * Collects the taxids of the Names table into a {@link BitSet}, which takes a bit per taxid instead of a boxed
+     * {@link Integer} within a {@link HashSet}, and can be shared among the threads that filter a gi_taxid.dmp file.
+     *
+     * @param connection {@link Connection} to the database
+     * @return {@link BitSet} with the bits of the existing taxids set
+     * @throws SQLException in case something goes wrong upon database communication
+     */
+    public static BitSet collectExistingTaxIDs(final Connection connection) throws SQLException {
+        final BitSet existingTaxIDs = new BitSet();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("use " + LookupNames.dbs.NCBI.name);
+            try (ResultSet resultSet = statement.executeQuery(
+                    "select " + LookupNames.dbs.NCBI.names.columns.taxid
+                            + " from " + LookupNames.dbs.NCBI.names.name)) {
+                while (resultSet.next()) {
+                    existingTaxIDs.set(resultSet.getInt(1));
+                }
+            }
+        }
+        Log.getInstance().log(Level.INFO, "TaxIDs in database: " + existingTaxIDs.cardinality());
+        return existingTaxIDs;
+    }
+
+    /**
+     * Streams the gi_taxid.dmp file into the GI_TAXID table of the NCBI schema. Keeps only the lines with a taxid that exists
+     * within the Names table, same as {@code filterGI_TaxIDDmp(Connection, File)}, but parses the file in parallel chunks and
+     * feeds the rows to the database directly, without a gi_taxid.dmp.mod file in between. Falls back to a gi_taxid.dmp.mod file
+     * if the local infile gets refused.
+     *
+     * @param connection   {@link Connection} to the database
+     * @param gi_taxidFile {@link File} gi_taxid.dmp
+     * @throws SQLException in case something goes wrong upon database communication
+     * @throws IOException  in case a file read fails
+     */
+    public static void streamGI_TaxIDDmp(final Connection connection, final File gi_taxidFile) throws SQLException, IOException {
+        final BitSet existingTaxIDs = collectExistingTaxIDs(connection);
+        final boolean loaded = LocalInfileLoader.load(connection, LocalInfileLoader.filter(gi_taxidFile, new LocalInfileLoader.RowFilter() {
+            @Override
+            public void filter(final String line, final StringBuilder rows) {
+                final int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    return;
+                }
+                final String taxid = line.substring(tab + 1).trim();
+                if (existingTaxIDs.get(Integer.parseInt(taxid))) {
+                    rows.append(line, 0, tab).append('\t').append(taxid).append('\n');
+                }
+            }
+        }), LookupNames.dbs.NCBI.gi_taxid.name,
+                LookupNames.dbs.NCBI.gi_taxid.columns.gi,
+                LookupNames.dbs.NCBI.gi_taxid.columns.taxid);
+        if (!loaded) {
+            GI_TaxIDDeployer.injectProcessedGI_TaxIDDmpFile(connection, GI_TaxIDDeployer.filterGI_TaxIDDmp(connection, gi_taxidFile));
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package helper.names;
 
 import db.tables.LookupNames;
+import helper.LocalInfileLoader;
 import logger.Log;
 
 import java.io.*;
@@ -188,4 +189,38 @@ public class NamesDeployer {
             }
         }
     }
+
+    /**
+     * Streams the names.dmp file into the Names table of the NCBI schema. Extracts the taxid and the "scientific name" marked
+     * fields, same as {@code filterNamesDmpFile(File)}, but parses the file in parallel chunks and feeds the rows to the database
+     * directly, without a names.dmp.mod file in between. Falls back to a names.dmp.mod file if the local infile gets refused.
+     *
+     * @param connection   {@link Connection} to the database
+     * @param namesDmpFile {@link File} names.dmp
+     * @throws IOException  in case a file read fails
+     * @throws SQLException in case something goes wrong upon database communication
+     */
+    public static void streamNamesDmpFile(final Connection connection, final File namesDmpFile) throws IOException, SQLException {
+        final InputStream rows = LocalInfileLoader.filter(namesDmpFile, new LocalInfileLoader.RowFilter() {
+            @Override
+            public void filter(final String line, final StringBuilder rows) {
+                final String[] split = LocalInfileLoader.split(line, "\t");//The dmp file has a broken format, can't use "\t\\|\t"
+                if (split.length >= 7 && split[6].trim().equals("scientific name")) {
+                    rows.append(split[0].trim()).append('\t').append(split[2].trim()).append('\n');
+                }
+            }
+        });
+        final boolean loaded;
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("use " + LookupNames.dbs.NCBI.name);
+            statement.execute("SET foreign_key_checks = 0;");
+            loaded = LocalInfileLoader.load(connection, rows, LookupNames.dbs.NCBI.names.name,
+                    LookupNames.dbs.NCBI.names.columns.taxid,
+                    LookupNames.dbs.NCBI.names.columns.name);
+            statement.execute("SET foreign_key_checks = 1;");
+        }
+        if (!loaded) {
+            NamesDeployer.injectProcessedNamesDmpFile(connection, NamesDeployer.filterNamesDmpFile(namesDmpFile));
+        }
+    }
 }
@@ -1,11 +1,18 @@
 package helper.nodes;
 
+import db.ram.TaxonomyTree;
 import db.tables.LookupNames;
+import helper.LocalInfileLoader;
 import logger.Log;
 import taxonomy.Ranks;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.*;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -297,4 +304,211 @@ public class NodesDBDeployer {
             statement.execute("SET foreign_key_checks = 1;");
         }
     }
+
+    /**
+     * Streams the nodes.dmp file into the Nodes table of the NCBI schema. Extracts the same fields as
+     * {@code filterNodesDmpFile(Connection, File)}, but parses the file in parallel chunks and feeds the rows to the database
+     * directly, without a nodes.dmp.mod file in between. Falls back to a nodes.dmp.mod file if the local infile gets refused.
+     *
+     * @param connection   {@link Connection} to the database
+     * @param nodesDmpFile {@link File} nodes.dmp
+     * @throws IOException  in case a file read fails
+     * @throws SQLException in case something goes wrong upon database communication
+     */
+    public static void streamNodesDmpFile(final Connection connection, final File nodesDmpFile) throws IOException, SQLException {
+        //Prepare a validation lookup
+        final Map<String, Integer> ranks_ids = NodesDBDeployer.collectRanksValidationLookup(connection);
+        final InputStream rows = LocalInfileLoader.filter(nodesDmpFile, new LocalInfileLoader.RowFilter() {
+            @Override
+            public void filter(final String line, final StringBuilder rows) {
+                final String[] splitter = LocalInfileLoader.split(line, "\t|\t");
+                if (splitter.length > 3 && !splitter[0].isEmpty() && !splitter[1].isEmpty()) {
+                    final Integer id_ranks = ranks_ids.get(splitter[2]);
+                    if (id_ranks != null) {
+                        rows.append(splitter[0]).append('\t').append(splitter[1]).append('\t').append(id_ranks).append('\n');
+                    }
+                }
+            }
+        });
+        final boolean loaded;
+        try (Statement statement = connection.createStatement();) {
+            statement.execute("use " + LookupNames.dbs.NCBI.name);
+            statement.execute("SET foreign_key_checks = 0;");
+            loaded = LocalInfileLoader.load(connection, rows, LookupNames.dbs.NCBI.nodes.name,
+                    LookupNames.dbs.NCBI.nodes.columns.taxid,
+                    LookupNames.dbs.NCBI.nodes.columns.parent_taxid,
+                    LookupNames.dbs.NCBI.nodes.columns.id_ranks);
+            statement.execute("SET foreign_key_checks = 1;");
+        }
+        if (!loaded) {
+            NodesDBDeployer.injectProcessedNodesDmpFile(connection, NodesDBDeployer.filterNodesDmpFile(connection, nodesDmpFile));
+        }
+    }
+
+    /**
+     * Labels the nodes of a filtered nodes.dmp.mod (as produced by {@code filterNodesDmpFile(Connection, File)}) with the nested
+     * intervals of the taxonomic tree and the closest ancestors of a real rank (see {@link db.ram.TaxonomyTree}), and writes them
+     * into a file for the {@code node_labels} table.
+     *
+     * @param nodesFilteredFile {@link File} nodes.dmp.mod with the taxid, parent_taxid and id_ranks columns
+     * @return a new {@link File} that points to the labels file
+     * @throws IOException in case a file read/write fails
+     */
+    public static File labelNodesDmpFile(final File nodesFilteredFile) throws IOException {
+        final NodeTable nodeTable = new NodeTable();
+        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(nodesFilteredFile))) {
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                final String[] splitter = line.split("\t");
+                if (splitter.length < 3) {
+                    continue;
+                }
+                nodeTable.add(Integer.parseInt(splitter[0]), Integer.parseInt(splitter[1]), Integer.parseInt(splitter[2]));
+            }
+        }
+        final TaxonomyTree taxonomyTree = nodeTable.toTaxonomyTree();
+        final int size = nodeTable.size;
+        final File labelsFile = new File(nodesFilteredFile.getAbsoluteFile().toString() + ".labels");
+        try (BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(labelsFile))) {
+            for (int taxid = 1; taxid < size; taxid++) {
+                final int enter = taxonomyTree.getEnterLabel(taxid);
+                if (enter < 0) {
+                    continue;
+                }
+                bufferedWriter.write(taxid + "\t" + enter + '\t' + taxonomyTree.getExitLabel(taxid) + '\t'
+                        + taxonomyTree.getRankedParent(taxid) + '\n');
+            }
+        }
+        return labelsFile;
+    }
+
+    /**
+     * Replaces the content of the node_labels table of the NCBI schema with a labels file, as the labels of all the nodes may
+     * shift whenever a single node changes.
+     *
+     * @param connection {@link Connection} to the database
+     * @param labelsFile {@link File} as produced by {@code labelNodesDmpFile(File)}
+     * @throws SQLException in case something goes wrong upon database communication
+     */
+    public static void injectNodeLabelsFile(final Connection connection, final File labelsFile) throws SQLException {
+        try (Statement statement = connection.createStatement();) {
+            //Switch to a correct schema
+            statement.execute("use " + LookupNames.dbs.NCBI.name);
+            statement.execute("TRUNCATE TABLE " + LookupNames.dbs.NCBI.node_labels.name);
+            statement.execute(
+                    "LOAD DATA INFILE '"
+                            + labelsFile.getPath().replaceAll("\\\\", "/")
+                            + "' REPLACE INTO TABLE "
+                            + LookupNames.dbs.NCBI.node_labels.name
+                            + " FIELDS TERMINATED BY '\t' LINES TERMINATED BY '\n'" +
+                            " ("
+                            + LookupNames.dbs.NCBI.node_labels.columns.taxid + ", "
+                            + LookupNames.dbs.NCBI.node_labels.columns.enter_label + ", "
+                            + LookupNames.dbs.NCBI.node_labels.columns.exit_label + ", "
+                            + LookupNames.dbs.NCBI.node_labels.columns.ranked_parent_taxid
+                            + ")"
+            );
+        }
+    }
+
+    /**
+     * Replaces the content of the node_labels table of the NCBI schema with the labels of the nodes that the Nodes table
+     * currently holds. The labels get streamed to the database as they are generated, without a labels file in between,
+     * unless the local infile gets refused, in which case they get written to a temporary labels file first.
+     *
+     * @param connection {@link Connection} to the database
+     * @throws SQLException in case something goes wrong upon database communication
+     * @throws IOException  in case the labels fail to stream
+     */
+    public static void injectNodeLabels(final Connection connection) throws SQLException, IOException {
+        final NodeTable nodeTable = new NodeTable();
+        try (Statement statement = connection.createStatement();) {
+            //Switch to a correct schema
+            statement.execute("use " + LookupNames.dbs.NCBI.name);
+            try (ResultSet resultSet = statement.executeQuery(
+                    "select " + LookupNames.dbs.NCBI.nodes.columns.taxid + ", "
+                            + LookupNames.dbs.NCBI.nodes.columns.parent_taxid + ", "
+                            + LookupNames.dbs.NCBI.nodes.columns.id_ranks
+                            + " from " + LookupNames.dbs.NCBI.nodes.name)) {
+                while (resultSet.next()) {
+                    nodeTable.add(resultSet.getInt(1), resultSet.getInt(2), resultSet.getInt(3));
+                }
+            }
+            statement.execute("TRUNCATE TABLE " + LookupNames.dbs.NCBI.node_labels.name);
+        }
+        final TaxonomyTree taxonomyTree = nodeTable.toTaxonomyTree();
+        final int size = nodeTable.size;
+        final boolean loaded = LocalInfileLoader.load(connection, labelRows(taxonomyTree, size),
+                LookupNames.dbs.NCBI.node_labels.name,
+                LookupNames.dbs.NCBI.node_labels.columns.taxid,
+                LookupNames.dbs.NCBI.node_labels.columns.enter_label,
+                LookupNames.dbs.NCBI.node_labels.columns.exit_label,
+                LookupNames.dbs.NCBI.node_labels.columns.ranked_parent_taxid);
+        if (!loaded) {
+            final File labelsFile = File.createTempFile(LookupNames.dbs.NCBI.node_labels.name, ".labels");
+            try (InputStream rows = labelRows(taxonomyTree, size)) {
+                Files.copy(rows, labelsFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                NodesDBDeployer.injectNodeLabelsFile(connection, labelsFile);
+            } finally {
+                if (!labelsFile.delete()) {
+                    labelsFile.deleteOnExit();
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates the rows of the node_labels table, a portion of taxids at a time
+     */
+    private static InputStream labelRows(final TaxonomyTree taxonomyTree, final int size) {
+        return new LocalInfileLoader.RowInputStream() {
+            private int taxid = 1;
+
+            @Override
+            protected boolean nextRows(final StringBuilder rows) {
+                if (this.taxid >= size) {
+                    return false;
+                }
+                final int last = Math.min(size, this.taxid + (1 << 16));
+                for (; this.taxid < last; this.taxid++) {
+                    final int enter = taxonomyTree.getEnterLabel(this.taxid);
+                    if (enter >= 0) {
+                        rows.append(this.taxid).append('\t').append(enter).append('\t').append(taxonomyTree.getExitLabel(this.taxid))
+                                .append('\t').append(taxonomyTree.getRankedParent(this.taxid)).append('\n');
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Collects the parents and the ranks of the nodes by taxId, in the ids of the ranks validation table, to label them
+     */
+    private static class NodeTable {
+        private int[] parentByTaxid = new int[1 << 16];
+        private byte[] rankOrdinalByTaxid = new byte[1 << 16];
+        /**
+         * The largest taxId added plus one
+         */
+        private int size;
+
+        private void add(final int taxid, final int parentTaxid, final int idRanks) {
+            if (taxid >= this.parentByTaxid.length) {
+                final int newLength = Math.max(taxid + 1, this.parentByTaxid.length + (this.parentByTaxid.length >> 1));
+                this.parentByTaxid = Arrays.copyOf(this.parentByTaxid, newLength);
+                this.rankOrdinalByTaxid = Arrays.copyOf(this.rankOrdinalByTaxid, newLength);
+            }
+            this.parentByTaxid[taxid] = parentTaxid;
+            //The ranks validation table assigns the ids in the order of the ranks, starting with one
+            final int rankOrdinal = idRanks - 1;
+            this.rankOrdinalByTaxid[taxid] = (byte) (rankOrdinal >= 0 && rankOrdinal < Ranks.values().length ? rankOrdinal : Ranks.no_rank.ordinal());
+            this.size = Math.max(this.size, taxid + 1);
+        }
+
+        private TaxonomyTree toTaxonomyTree() {
+            return TaxonomyTree.newInstance(IntBuffer.wrap(this.parentByTaxid, 0, this.size).slice(),
+                    ByteBuffer.wrap(this.rankOrdinalByTaxid, 0, this.size).slice());
+        }
+    }
 }
@@ -618,7 +618,8 @@ public class TUITFileOperatorHelper {
     }
 
     /**
-     * Returns a list of leaves for the given taxid.
+     * Returns a list of leaves for the given taxid. The branch gets expanded level by level, the children of a whole level being
+     * selected with a few IN-list queries, so a large branch takes about as many queries as it is deep.
      *
      * @param connection {@link Connection} to the database
      * @param taxid      which identifies the branch, which contains the leaves that need to be found
@@ -628,28 +629,52 @@ public class TUITFileOperatorHelper {
      */
     @SuppressWarnings("WeakerAccess")
     public static List<Integer> leavesByTaxid(Connection connection, int taxid, List<Integer> leaves) throws SQLException {
-        List<Integer> taxids;
-        try (Statement statement = connection.createStatement();){
+        /*
+      The largest number of parents selected by a single query
+     */
+        final int BATCH_SIZE = 512;
+        try (Statement statement = connection.createStatement();) {
             statement.execute("USE " + LookupNames.dbs.NCBI.name);
-            final ResultSet resultSet = statement.executeQuery(
-                    "SELECT "
-                            + LookupNames.dbs.NCBI.nodes.columns.taxid.name()
-                            + " FROM "
-                            + LookupNames.dbs.NCBI.views.f_level_children_by_parent
-                            + " WHERE "
-                            + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name()
-                            + "=" + String.valueOf(taxid)
-            );
-            taxids = new ArrayList<>();
-            while (resultSet.next()) {
-                taxids.add(resultSet.getInt(1));
-            }
-            if (taxids.isEmpty()) {
-                leaves.add(taxid);
-            } else {
-                for (Integer i : taxids) {
-                    leaves = TUITFileOperatorHelper.leavesByTaxid(connection, i, leaves);
+            List<Integer> level = new ArrayList<>();
+            level.add(taxid);
+            while (!level.isEmpty()) {
+                final Set<Integer> parents = new HashSet<>();
+                final List<Integer> nextLevel = new ArrayList<>();
+                for (int from = 0; from < level.size(); from += BATCH_SIZE) {
+                    final StringBuilder inList = new StringBuilder();
+                    for (Integer i : level.subList(from, Math.min(level.size(), from + BATCH_SIZE))) {
+                        if (inList.length() > 0) {
+                            inList.append(',');
+                        }
+                        inList.append(i);
+                    }
+                    try (ResultSet resultSet = statement.executeQuery(
+                            "SELECT "
+                                    + LookupNames.dbs.NCBI.nodes.columns.taxid.name() + ", "
+                                    + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name()
+                                    + " FROM "
+                                    + LookupNames.dbs.NCBI.views.f_level_children_by_parent
+                                    + " WHERE "
+                                    + LookupNames.dbs.NCBI.nodes.columns.parent_taxid.name()
+                                    + " IN (" + inList + ")"
+                    )) {
+                        while (resultSet.next()) {
+                            final int child = resultSet.getInt(1);
+                            final int parent = resultSet.getInt(2);
+                            //The root is its own parent
+                            if (child != parent) {
+                                parents.add(parent);
+                                nextLevel.add(child);
+                            }
+                        }
+                    }
+                }
+                for (Integer i : level) {
+                    if (!parents.contains(i)) {
+                        leaves.add(i);
+                    }
                 }
+                level = nextLevel;
             }
         }
         return leaves;
@@ -33,6 +33,9 @@ public class CutoffSet {
     @XmlAttribute(name = "rank", required = true)
     @XmlJavaTypeAdapter(CollapsedStringAdapter.class)
     protected String rank;
+    @XmlAttribute(name = "test")
+    @XmlJavaTypeAdapter(CollapsedStringAdapter.class)
+    protected String test;
     @XmlElement(required = true)
     protected PIdentCutoff pIdentCutoff;
     @XmlElement(name = "QueryCoverageCutoff", required = true)
@@ -64,6 +67,30 @@ public class CutoffSet {
         this.rank = value;
     }
 
+    /**
+     * Gets the value of the test property.
+     * 
+     * @return
+     *     possible object is
+     *     {@link String }
+     *     
+     */
+    public String getTest() {
+        return test;
+    }
+
+    /**
+     * Sets the value of the test property.
+     * 
+     * @param value
+     *     allowed object is
+     *     {@link String }
+     *     
+     */
+    public void setTest(String value) {
+        this.test = value;
+    }
+
     /**
      * Gets the value of the pIdentCutoff property.
      * 
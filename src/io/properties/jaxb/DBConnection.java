@@ -41,6 +41,9 @@ public class DBConnection {
     @XmlAttribute(name = "password", required = true)
     @XmlJavaTypeAdapter(NormalizedStringAdapter.class)
     protected String password;
+    @XmlAttribute(name = "poolSize")
+    @XmlJavaTypeAdapter(NormalizedStringAdapter.class)
+    protected String poolSize;
     @XmlMixed
     @XmlAnyElement
     protected List<Object> content;
@@ -117,6 +120,30 @@ public class DBConnection {
         this.password = value;
     }
 
+    /**
+     * Gets the value of the poolSize property.
+     * 
+     * @return
+     *     possible object is
+     *     {@link String }
+     *     
+     */
+    public String getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Sets the value of the poolSize property.
+     * 
+     * @param value
+     *     allowed object is
+     *     {@link String }
+     *     
+     */
+    public void setPoolSize(String value) {
+        this.poolSize = value;
+    }
+
     /**
      * Gets the value of the content property.
      * 
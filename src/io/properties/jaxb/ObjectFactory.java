@@ -92,6 +92,14 @@ public class ObjectFactory {
         return new TMPDir();
     }
 
+    /**
+     * Create an instance of {@link TaxonomyCache }
+     * 
+     */
+    public TaxonomyCache createTaxonomyCache() {
+        return new TaxonomyCache();
+    }
+
     /**
      * Create an instance of {@link BLASTNParameters }
      * 
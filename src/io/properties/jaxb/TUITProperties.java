@@ -25,6 +25,7 @@ import javax.xml.bind.annotation.XmlType;
     "dbConnection",
     "blastnPath",
     "tmpDir",
+    "taxonomyCache",
     "blastnParameters",
     "specificationParameters"
 })
@@ -37,6 +38,8 @@ public class TUITProperties {
     protected BLASTNPath blastnPath;
     @XmlElement(name = "TMPDir", required = true)
     protected TMPDir tmpDir;
+    @XmlElement(name = "TaxonomyCache")
+    protected TaxonomyCache taxonomyCache;
     @XmlElement(name = "BLASTNParameters", required = true)
     protected BLASTNParameters blastnParameters;
     @XmlElement(name = "SpecificationParameters")
@@ -114,6 +117,30 @@ public class TUITProperties {
         this.tmpDir = value;
     }
 
+    /**
+     * Gets the value of the taxonomyCache property.
+     * 
+     * @return
+     *     possible object is
+     *     {@link TaxonomyCache }
+     *     
+     */
+    public TaxonomyCache getTaxonomyCache() {
+        return taxonomyCache;
+    }
+
+    /**
+     * Sets the value of the taxonomyCache property.
+     * 
+     * @param value
+     *     allowed object is
+     *     {@link TaxonomyCache }
+     *     
+     */
+    public void setTaxonomyCache(TaxonomyCache value) {
+        this.taxonomyCache = value;
+    }
+
     /**
      * Gets the value of the blastnParameters property.
      * 
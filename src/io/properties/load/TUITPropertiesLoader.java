@@ -1,5 +1,6 @@
 package io.properties.load;
 
+import blast.specification.cutoff.StatisticalTest;
 import exception.TUITPropertyBadFormatException;
 import io.file.TUITFileOperatorHelper;
 import io.properties.jaxb.*;
@@ -36,6 +37,14 @@ public class TUITPropertiesLoader {
      * A preset of BLASTNParameters to substitue any of those missing from the properties file
      */
     private static final BLASTNParameters DEFAULT_BLASTN_PARAMETERS = new BLASTNParameters();
+    /**
+     * A default number of connections to the database, a single connection classifies the queries one by one
+     */
+    private static final String DEFAULT_POOL_SIZE = "1";
+    /**
+     * A default number of entries of each of the taxonomy caches
+     */
+    private static final String DEFAULT_TAXONOMY_CACHE_SIZE = "100000";
 
     static {
         //Expect
@@ -141,6 +150,34 @@ public class TUITPropertiesLoader {
         if (dbConnection.getPassword() == null || dbConnection.getPassword().equals("")) {
             throw new TUITPropertyBadFormatException("No password provided for the database connection property, " + DBCONNECTION_EXAMPLE);
         }
+        if (dbConnection.getPoolSize() == null || dbConnection.getPoolSize().equals("")) {
+            dbConnection.setPoolSize(TUITPropertiesLoader.DEFAULT_POOL_SIZE);
+        } else {
+            try {
+                if (Integer.parseInt(dbConnection.getPoolSize().trim()) <= 0) {
+                    throw new TUITPropertyBadFormatException("Erroneous \"pool size\" property for the database connection, "
+                            + "please use reasonable unsigned integer values.");
+                }
+            } catch (NumberFormatException ne) {
+                throw new TUITPropertyBadFormatException("Erroneous \"pool size\" property for the database connection, please provide an unsigned integer value.");
+            }
+        }
+        //Check the taxonomy cache, which is optional
+        if (tuitProperties.getTaxonomyCache() == null || tuitProperties.getTaxonomyCache().getSize() == null
+                || tuitProperties.getTaxonomyCache().getSize().equals("")) {
+            final TaxonomyCache defaultTaxonomyCache = new TaxonomyCache();
+            defaultTaxonomyCache.setSize(TUITPropertiesLoader.DEFAULT_TAXONOMY_CACHE_SIZE);
+            tuitProperties.setTaxonomyCache(defaultTaxonomyCache);
+        } else {
+            try {
+                if (Integer.parseInt(tuitProperties.getTaxonomyCache().getSize().trim()) < 0) {
+                    throw new TUITPropertyBadFormatException("Erroneous \"taxonomy cache size\" property, "
+                            + "please use an unsigned integer value (0 turns the cache off).");
+                }
+            } catch (NumberFormatException ne) {
+                throw new TUITPropertyBadFormatException("Erroneous \"taxonomy cache size\" property, please provide an unsigned integer value.");
+            }
+        }
 
         return tuitProperties;
 
@@ -224,6 +261,17 @@ public class TUITPropertiesLoader {
                         throw new TUITPropertyBadFormatException("Bad alpha cutoff at cutoff set number " + i + CORRECT_TO_UNSIGNED_DOUBLE_AL);
                     }
                 }
+                //Check the statistical test, which is optional
+                if (specificationParameters.getCutoffSet().getTest() == null || specificationParameters.getCutoffSet().getTest().equals("")) {
+                    specificationParameters.getCutoffSet().setTest(StatisticalTest.chi_square.name());
+                } else {
+                    try {
+                        StatisticalTest.valueOf(specificationParameters.getCutoffSet().getTest().trim());
+                    } catch (IllegalArgumentException iae) {
+                        throw new TUITPropertyBadFormatException("A bad statistical test specified at cutoff set number " + i + ", please use one of the following:\n" +
+                                StatisticalTest.LIST_TESTS);
+                    }
+                }
             }
         } else {
             Log.getInstance().log(Level.WARNING,"No specification parameters given, using defaults.");
@@ -1,6 +1,6 @@
 package toolkit.silva;
 
-import db.ram.RamDb;
+import db.ram.RamDbBuilder;
 import logger.Log;
 import taxonomy.Ranks;
 import taxonomy.node.TaxonomicNode;
@@ -367,9 +367,7 @@ public class SilvaHelper {
 
         try {
             Log.getInstance().setLogName("test");
-            final RamDb ramDb = RamDb.loadSelfFromFilteredNcbiFiles(toModGITaxidFile.toFile(), toModNamesFile.toFile(), toModNodesFile.toFile());
-            System.out.println("Saving RAM DB..");
-            RamDb.serialize(ramDb, toRAMDBFile.toFile());
+            RamDbBuilder.newDefaultInstance().build(toModGITaxidFile.toFile(), toModNamesFile.toFile(), toModNodesFile.toFile(), toRAMDBFile.toFile());
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -1,7 +1,9 @@
 import blast.specification.BLASTIdentifier;
 import blast.specification.TUITBLASTIdentifierDB;
 import blast.specification.TUITBLASTIdentifierRAM;
+import blast.specification.cutoff.StatisticalTest;
 import blast.specification.cutoff.TUITCutoffSet;
+import db.connect.CachingTaxonomicDatabaseOperator;
 import db.mysql.MySQL_Connector;
 import db.ram.RamDb;
 import exception.TUITPropertyBadFormatException;
@@ -108,6 +110,14 @@ public class tuit {
      * The -update flag
      */
     private final static String UPDATE = "update";
+    /**
+     * The -prune flag, followed by the taxIds to restrict the RAM-based taxonomy to
+     */
+    private final static String PRUNE = "prune";
+    /**
+     * The -blastdb_ids flag, in combination with DEPLOY restricts the RAM-based taxonomy to the identifiers of a BLAST database
+     */
+    private final static String BLASTDB_IDS = "blastdb_ids";
     /**
      * tuit output file extension
      */
@@ -138,6 +148,7 @@ public class tuit {
         String[] parameters = null;
         //
         Connection connection = null;
+        final List<Connection> connections = new ArrayList<Connection>();
         MySQL_Connector mySQL_connector;
         //
         Map<Ranks, TUITCutoffSet> cutoffMap;
@@ -157,6 +168,7 @@ public class tuit {
         options.addOption(tuit.DEPLOY, "deploy", false, "Deploy the taxonomic databases");
         options.addOption(tuit.UPDATE, "update", false, "Update the taxonomic databases");
         options.addOption(tuit.USE_DB, "usedb", false, "Use RDBMS instead of RAM-based taxonomy");
+        options.addOption(tuit.BLASTDB_IDS, "blastdb_ids<file>", true, "If used in combination with -deploy restricts the RAM-based taxonomy to the identifiers (exported by blastdbcmd) of a BLAST database");
 
         Option option = new Option(tuit.REDUCE, "reduce", true, "Pack identical (100% similar sequences) records in the given sample file");
         option.setArgs(Option.UNLIMITED_VALUES);
@@ -165,6 +177,9 @@ public class tuit {
         option.setArgs(Option.UNLIMITED_VALUES);
         options.addOption(option);
         options.addOption(tuit.NORMALIZE, "normalize", false, "If used in combination with -combine ensures that the values are normalized by the root value");
+        option=new Option(tuit.PRUNE, "prune", true, "Restrict the RAM-based taxonomy to the subtrees of the given taxIds");
+        option.setArgs(Option.UNLIMITED_VALUES);
+        options.addOption(option);
 
         HelpFormatter formatter = new HelpFormatter();
 
@@ -246,6 +261,8 @@ public class tuit {
             if (commandLine.hasOption(tuit.DEPLOY)) {
                 if (commandLine.hasOption(tuit.USE_DB)) {
                     NCBITablesDeployer.fastDeployNCBIDatabasesFromNCBI(connection, tmpDir);
+                } else if (commandLine.hasOption(tuit.BLASTDB_IDS)) {
+                    NCBITablesDeployer.fastDeployNCBIRamDatabaseForBLASTDatabase(tmpDir, new File(commandLine.getOptionValue(tuit.BLASTDB_IDS)), ramDbFile);
                 } else {
                     NCBITablesDeployer.fastDeployNCBIRamDatabaseFromNCBI(tmpDir, ramDbFile);
                 }
@@ -258,8 +275,8 @@ public class tuit {
                 if (commandLine.hasOption(tuit.USE_DB)) {
                     NCBITablesDeployer.updateDatabasesFromNCBI(connection, tmpDir);
                 } else {
-                    //No need to specify a different way to update the database other than just deploy in case of the RAM database
-                    NCBITablesDeployer.fastDeployNCBIRamDatabaseFromNCBI(tmpDir, ramDbFile);
+                    //Applies the GI diff to the existing RAM database, deploys it in full if there is none
+                    NCBITablesDeployer.updateNCBIRamDatabaseFromNCBI(tmpDir, ramDbFile);
                 }
                 Log.getInstance().log(Level.FINE, "Task done, exiting...");
                 return;
@@ -267,22 +284,32 @@ public class tuit {
 
             //Connect to the database
             if (commandLine.hasOption(tuit.USE_DB)) {
-                mySQL_connector = MySQL_Connector.newDefaultInstance(
-                        "jdbc:mysql://" + tuitProperties.getDBConnection().getUrl().trim() + "/",
-                        tuitProperties.getDBConnection().getLogin().trim(),
-                        tuitProperties.getDBConnection().getPassword().trim());
-                mySQL_connector.connectToDatabase();
-                connection = mySQL_connector.getConnection();
+                //Each connection of the pool lets one more query get classified at a time
+                final int poolSize = Integer.parseInt(tuitProperties.getDBConnection().getPoolSize().trim());
+                for (int i = 0; i < poolSize; i++) {
+                    mySQL_connector = MySQL_Connector.newDefaultInstance(
+                            "jdbc:mysql://" + tuitProperties.getDBConnection().getUrl().trim() + "/",
+                            tuitProperties.getDBConnection().getLogin().trim(),
+                            tuitProperties.getDBConnection().getPassword().trim());
+                    mySQL_connector.connectToDatabase();
+                    connections.add(mySQL_connector.getConnection());
+                }
+                connection = connections.get(0);
             } else {
                 //Probe for ram database
 
                 if (ramDbFile.exists() && ramDbFile.canRead()) {
                     Log.getInstance().log(Level.INFO, "Loading RAM taxonomic map...");
-                    try {
+                    //An obsolete database file gets reported with a request to update
+                    if (commandLine.hasOption(tuit.PRUNE)) {
+                        final String[] values = commandLine.getOptionValues(tuit.PRUNE);
+                        final int[] rootTaxids = new int[values.length];
+                        for (int i = 0; i < values.length; i++) {
+                            rootTaxids[i] = Integer.parseInt(values[i].trim());
+                        }
+                        ramDb = RamDb.loadSelfFromFile(NCBITablesDeployer.pruneNCBIRamDatabase(ramDbFile, rootTaxids));
+                    } else {
                         ramDb = RamDb.loadSelfFromFile(ramDbFile);
-                    } catch (IOException ie) {
-                        if (ie instanceof java.io.InvalidClassException)
-                            throw new IOException("The RAM-based taxonomic database needs to be updated.");
                     }
 
                 } else {
@@ -386,10 +413,11 @@ public class tuit {
                 cutoffMap = new HashMap<Ranks, TUITCutoffSet>(tuitProperties.getSpecificationParameters().size());
                 for (SpecificationParameters specificationParameters : tuitProperties.getSpecificationParameters()) {
                     cutoffMap.put(Ranks.valueOf(specificationParameters.getCutoffSet().getRank()),
-                            TUITCutoffSet.newDefaultInstance(
+                            TUITCutoffSet.newInstance(
                                     Double.parseDouble(specificationParameters.getCutoffSet().getPIdentCutoff().getValue()),
                                     Double.parseDouble(specificationParameters.getCutoffSet().getQueryCoverageCutoff().getValue()),
-                                    Double.parseDouble(specificationParameters.getCutoffSet().getAlpha().getValue())));
+                                    Double.parseDouble(specificationParameters.getCutoffSet().getAlpha().getValue()),
+                                    StatisticalTest.valueOf(specificationParameters.getCutoffSet().getTest().trim())));
                 }
             } else {
                 cutoffMap = new HashMap<Ranks, TUITCutoffSet>();
@@ -420,14 +448,14 @@ public class tuit {
                     if (blastOutputFile == null) {
                         blastIdentifier = TUITBLASTIdentifierDB.newInstanceFromFileOperator(
                                 tmpDir, blastnExecutable, parameters,
-                                nucleotideFastaTUITFileOperator, connection,
+                                nucleotideFastaTUITFileOperator, connections,
                                 cutoffMap,
                                 Integer.parseInt(tuitProperties.getBLASTNParameters().getMaxFilesInBatch().getValue())
                                 , cleanup);
 
                     } else {
                         try {
-                            blastIdentifier = TUITBLASTIdentifierDB.newInstanceFromBLASTOutput(nucleotideFastaTUITFileOperator, connection,
+                            blastIdentifier = TUITBLASTIdentifierDB.newInstanceFromBLASTOutput(nucleotideFastaTUITFileOperator, connections,
                                     cutoffMap, blastOutputFile,
                                     Integer.parseInt(tuitProperties.getBLASTNParameters().getMaxFilesInBatch().getValue()), cleanup);
 
@@ -459,9 +487,24 @@ public class tuit {
                             e.printStackTrace();
                         }
                     }
+                    //The in-memory lookups are thread safe, so the iterations of a batch get classified on the threads that BLAST has used
+                    if (blastIdentifier != null) {
+                        blastIdentifier.setClassifierThreads(Integer.parseInt(tuitProperties.getBLASTNParameters().getNumThreads().getValue().trim()));
+                    }
+                }
+                //Keep the lookups that repeat across the queries and batches in memory, the RAM-based taxonomy is mapped
+                //and answers as fast as the cache would, so only the database lookups get cached
+                final int taxonomyCacheSize = Integer.parseInt(tuitProperties.getTaxonomyCache().getSize().trim());
+                CachingTaxonomicDatabaseOperator taxonomyCache = null;
+                if (blastIdentifier != null && commandLine.hasOption(tuit.USE_DB) && taxonomyCacheSize > 0) {
+                    taxonomyCache = CachingTaxonomicDatabaseOperator.newInstance(blastIdentifier, taxonomyCacheSize);
+                    blastIdentifier.setTaxonomicDatabaseOperator(taxonomyCache);
                 }
                 Future<?> runnableFuture = executorService.submit(blastIdentifier);
                 runnableFuture.get();
+                if (taxonomyCache != null) {
+                    taxonomyCache.logStatistics();
+                }
                 executorService.shutdown();
             }
         } catch (ParseException pe) {
@@ -492,9 +535,9 @@ public class tuit {
             Log.getInstance().log(Level.SEVERE, e.getMessage());
             e.printStackTrace();
         } finally {
-            if (connection != null) {
+            for (Connection pooled : connections) {
                 try {
-                    connection.close();
+                    pooled.close();
                 } catch (SQLException sqle) {
                     Log.getInstance().log(Level.SEVERE, "Problem closing the database connection: " + sqle);
                 }
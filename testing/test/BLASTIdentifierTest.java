@@ -0,0 +1,159 @@
+package blast.specification;
+
+import blast.ncbi.output.BlastOutput;
+import blast.ncbi.output.BlastOutputIterations;
+import blast.ncbi.output.Iteration;
+import blast.ncbi.output.IterationHits;
+import blast.normal.iteration.NormalizedIteration;
+import blast.specification.cutoff.TUITCutoffSet;
+import format.fasta.nucleotide.NucleotideFasta;
+import io.file.TUITFileOperator;
+import logger.Log;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import taxonomy.Ranks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the concurrent classification of the iterations of a batch, none of which needs BLAST or a database, as the
+ * iterations have no hits.
+ */
+public class BLASTIdentifierTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        Log.getInstance().setLogName(new File(this.temporaryFolder.getRoot(), "identifier.log").toString());
+    }
+
+    @Test
+    public void testConcurrentResultsAreSavedInOrder() throws Exception {
+        final List<String> saved = Collections.synchronizedList(new ArrayList<String>());
+        final SleepingIdentifier identifier = new SleepingIdentifier(16, saved, -1);
+        identifier.setClassifierThreads(4);
+        try {
+            identifier.specify();
+        } finally {
+            identifier.shutdownWorkers();
+        }
+        //The later queries get classified first, but are held until the ones before them are saved
+        final List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 16; i++) {
+            expected.add("query" + i);
+        }
+        assertEquals(expected, saved);
+    }
+
+    @Test
+    public void testFailedBatchStopsWorkers() throws Exception {
+        final List<String> saved = Collections.synchronizedList(new ArrayList<String>());
+        final SleepingIdentifier identifier = new SleepingIdentifier(16, saved, 2);
+        identifier.setClassifierThreads(4);
+        try {
+            identifier.specify();
+            fail("The failure of an iteration must fail the batch.");
+        } catch (IllegalStateException e) {
+            assertEquals("query2", e.getMessage());
+        }
+        //No worker may still be classifying once the identifier is free to close its statements
+        assertEquals(0, identifier.running.get());
+        assertEquals(2, saved.size());
+        //A new batch gets classified on new workers
+        saved.clear();
+        final SleepingIdentifier next = new SleepingIdentifier(4, saved, -1);
+        next.setClassifierThreads(2);
+        next.specify();
+        next.shutdownWorkers();
+        assertEquals(4, saved.size());
+    }
+
+    /**
+     * Classifies the iterations in the reverse order of the queries, by letting the earlier ones sleep longer, and fails
+     * a given one
+     */
+    private static class SleepingIdentifier extends BLASTIdentifierRAM {
+        private final int failing;
+        private final AtomicInteger running = new AtomicInteger();
+
+        private SleepingIdentifier(final int numberOfQueries, final List<String> saved, final int failing) throws Exception {
+            super(queries(numberOfQueries), null, null, null, new RecordingFileOperator(saved),
+                    new HashMap<Ranks, TUITCutoffSet>(), numberOfQueries, false, null);
+            this.failing = failing;
+            final BlastOutput blastOutput = new BlastOutput();
+            blastOutput.setBlastOutputIterations(new BlastOutputIterations());
+            for (int i = 0; i < numberOfQueries; i++) {
+                final Iteration iteration = new Iteration();
+                iteration.setIterationQueryDef("query" + i);
+                iteration.setIterationQueryLen("4");
+                iteration.setIterationHits(new IterationHits());
+                blastOutput.getBlastOutputIterations().getIteration().add(iteration);
+            }
+            this.setBlastOutput(blastOutput);
+        }
+
+        @Override
+        protected void classify(final NormalizedIteration<Iteration> normalizedIteration) throws Exception {
+            this.running.incrementAndGet();
+            try {
+                final int index = Integer.parseInt(normalizedIteration.getIterationQueryName().substring("query".length()));
+                if (index == this.failing) {
+                    Thread.sleep(20);
+                    throw new IllegalStateException(normalizedIteration.getIterationQueryName());
+                }
+                Thread.sleep(5 * (16 - index));
+                super.classify(normalizedIteration);
+            } finally {
+                this.running.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void run() {
+        }
+
+        private static List<NucleotideFasta> queries(final int numberOfQueries) throws Exception {
+            final List<NucleotideFasta> queries = new ArrayList<NucleotideFasta>(numberOfQueries);
+            for (int i = 0; i < numberOfQueries; i++) {
+                queries.add(NucleotideFasta.newInstanceFromFormattedText(">query" + i + "\nACGT\n"));
+            }
+            return queries;
+        }
+    }
+
+    /**
+     * Records the order the results get saved in
+     */
+    private static class RecordingFileOperator extends TUITFileOperator<NucleotideFasta> {
+        private final List<String> saved;
+
+        private RecordingFileOperator(final List<String> saved) {
+            this.saved = saved;
+        }
+
+        @Override
+        protected NucleotideFasta newFastaFromRecord(final String record) throws Exception {
+            return NucleotideFasta.newInstanceFromFormattedText(record);
+        }
+
+        @Override
+        protected boolean inputFileFormattingIsFine() throws Exception {
+            return true;
+        }
+
+        @Override
+        public boolean saveResults(final NucleotideFasta query, final NormalizedIteration<Iteration> normalizedIteration) throws Exception {
+            return this.saved.add(query.getAC());
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package db.connect;
+
+import blast.ncbi.output.Hit;
+import blast.ncbi.output.HitHsps;
+import blast.ncbi.output.Hsp;
+import blast.normal.hit.NormalizedHit;
+import org.junit.Test;
+import taxonomy.Ranks;
+import taxonomy.node.TaxonomicNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the cache against a small in-memory taxonomy that counts the lookups reaching it.
+ */
+public class CachingTaxonomicDatabaseOperatorTest {
+
+    @Test
+    public void testNegativeEntries() throws Exception {
+        final CountingTaxonomicDatabaseOperator operator = new CountingTaxonomicDatabaseOperator();
+        final CachingTaxonomicDatabaseOperator cache = CachingTaxonomicDatabaseOperator.newInstance(operator, 16);
+
+        //A GI that has no taxon
+        assertNull(cache.assignTaxonomy(hit(3)));
+        assertNull(cache.assignTaxonomy(hit(3)));
+        assertEquals(1, operator.assignTaxonomy);
+
+        //A taxon that has no parent
+        assertNull(cache.liftRankForNormalizedHit(assigned(1)));
+        assertNull(cache.liftRankForNormalizedHit(assigned(1)));
+        assertEquals(1, operator.liftRankForNormalizedHit);
+
+        //A taxon that has no lineage
+        assertNull(cache.attachFullDirectLineage(TaxonomicNode.newDefaultInstance(999, Ranks.species, "unknown")));
+        assertNull(cache.attachFullDirectLineage(TaxonomicNode.newDefaultInstance(999, Ranks.species, "unknown")));
+        assertEquals(1, operator.attachFullDirectLineage);
+
+        assertEquals(3, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void testLiftRankToNextRealRank() throws Exception {
+        final CountingTaxonomicDatabaseOperator operator = new CountingTaxonomicDatabaseOperator();
+        final CachingTaxonomicDatabaseOperator cache = CachingTaxonomicDatabaseOperator.newInstance(operator, 16);
+
+        //A hit that has a real rank already stays where it is, also when answered from the cache
+        final NormalizedHit species = assigned(2);
+        final TaxonomicNode speciesNode = species.getFocusNode();
+        assertSame(species, cache.liftRankToNextRealRank(species));
+        final NormalizedHit cachedSpecies = assigned(2);
+        final TaxonomicNode cachedSpeciesNode = cachedSpecies.getFocusNode();
+        assertSame(cachedSpecies, cache.liftRankToNextRealRank(cachedSpecies));
+        assertSame(speciesNode, species.getFocusNode());
+        assertSame(cachedSpeciesNode, cachedSpecies.getFocusNode());
+        assertNull(cachedSpeciesNode.getParent());
+
+        //A "no rank" taxon gets lifted to a new node of its ranked ancestor
+        final NormalizedHit unranked = cache.liftRankToNextRealRank(assigned(4));
+        final NormalizedHit cachedUnranked = cache.liftRankToNextRealRank(assigned(4));
+        assertEquals(561, unranked.getAssignedTaxid());
+        assertEquals(561, cachedUnranked.getAssignedTaxid());
+        assertEquals(Ranks.genus, cachedUnranked.getAssignedRank());
+        assertNotSame(unranked.getFocusNode(), cachedUnranked.getFocusNode());
+        assertEquals(1, cachedUnranked.getFocusNode().getChildren().size());
+        assertEquals(2, operator.liftRankToNextRealRank);
+    }
+
+    @Test
+    public void testLineageReplay() throws Exception {
+        final CountingTaxonomicDatabaseOperator operator = new CountingTaxonomicDatabaseOperator();
+        final CachingTaxonomicDatabaseOperator cache = CachingTaxonomicDatabaseOperator.newInstance(operator, 16);
+
+        final TaxonomicNode attached = cache.attachFullDirectLineage(TaxonomicNode.newDefaultInstance(562, Ranks.species, "Escherichia coli"));
+        final TaxonomicNode replayed = cache.attachFullDirectLineage(TaxonomicNode.newDefaultInstance(562, Ranks.species, "Escherichia coli"));
+        assertEquals(1, operator.attachFullDirectLineage);
+        assertEquals(attached.getFormattedLineage(), replayed.getFormattedLineage());
+        assertEquals(lineage(attached), lineage(replayed));
+        assertEquals(Arrays.asList(562, 90000, 561, 2, 1), lineage(replayed));
+        //Every node of the replayed lineage is new and linked both ways
+        for (TaxonomicNode node = replayed, other = attached; node.getParent() != null; node = node.getParent(), other = other.getParent()) {
+            assertNotSame(other.getParent(), node.getParent());
+            assertTrue(node.getParent().getChildren().contains(node));
+        }
+    }
+
+    @Test
+    public void testBulkMissMerge() throws Exception {
+        final CountingTaxonomicDatabaseOperator operator = new CountingTaxonomicDatabaseOperator();
+        final CachingTaxonomicDatabaseOperator cache = CachingTaxonomicDatabaseOperator.newInstance(operator, 16);
+        assertNotNull(cache.assignTaxonomy(hit(5)));
+        assertNull(cache.assignTaxonomy(hit(3)));
+
+        final List<NormalizedHit> normalizedHits = Arrays.asList(hit(2), hit(5), hit(3), hit(7), hit(6));
+        final List<NormalizedHit> assigned = cache.assignTaxonomy(normalizedHits);
+        //Only the missing GIs reach the wrapped operator, in a single call
+        assertEquals(1, operator.bulkAssignTaxonomy);
+        assertEquals(Arrays.asList(2, 7, 6), operator.bulkGIs);
+        assertEquals(normalizedHits.size(), assigned.size());
+        assertSame(normalizedHits.get(0), assigned.get(0));
+        assertEquals(562, assigned.get(0).getAssignedTaxid());
+        assertSame(normalizedHits.get(1), assigned.get(1));
+        assertEquals(561, assigned.get(1).getAssignedTaxid());
+        assertNull(assigned.get(2));
+        assertNull(assigned.get(3));
+        assertSame(normalizedHits.get(4), assigned.get(4));
+        assertEquals(9606, assigned.get(4).getAssignedTaxid());
+
+        //The resolved ones, the missing one included, are cached now
+        cache.assignTaxonomy(Arrays.asList(hit(2), hit(7), hit(6)));
+        assertEquals(1, operator.bulkAssignTaxonomy);
+    }
+
+    private static List<Integer> lineage(final TaxonomicNode taxonomicNode) {
+        final List<Integer> taxids = new ArrayList<>();
+        for (TaxonomicNode node = taxonomicNode; node != null; node = node.getParent()) {
+            taxids.add(node.getTaxid());
+        }
+        return taxids;
+    }
+
+    private static NormalizedHit hit(final int gi) throws Exception {
+        final Hsp hsp = new Hsp();
+        hsp.setHspEvalue("1e-50");
+        hsp.setHspBitScore("180");
+        hsp.setHspQueryFrom("1");
+        hsp.setHspQueryTo("100");
+        hsp.setHspHitFrom("1");
+        hsp.setHspHitTo("100");
+        hsp.setHspAlignLen("100");
+        hsp.setHspIdentity("100");
+        final HitHsps hitHsps = new HitHsps();
+        hitHsps.getHsp().add(hsp);
+        final Hit hit = new Hit();
+        hit.setHitId("gi|" + gi + "|gb|AB" + gi + ".1|");
+        hit.setHitAccession("AB" + gi);
+        hit.setHitHsps(hitHsps);
+        return NormalizedHit.newDefaultInstanceFromHit(hit, 100);
+    }
+
+    private static NormalizedHit assigned(final int gi) throws Exception {
+        return new CountingTaxonomicDatabaseOperator().assignTaxonomy(hit(gi));
+    }
+
+    /**
+     * root(1) -> Bacteria(2) -> Escherichia(561) -> unranked(90000) -> Escherichia coli(562), Homo sapiens(9606) under the root
+     */
+    private static class CountingTaxonomicDatabaseOperator implements TaxonomicDatabaseOperator {
+        private final Map<Integer, Integer> taxidByGi = new HashMap<>();
+        private final Map<Integer, TaxonomicNode> taxa = new HashMap<>();
+        private final Map<Integer, Integer> parentByTaxid = new HashMap<>();
+        private int assignTaxonomy;
+        private int bulkAssignTaxonomy;
+        private final List<Integer> bulkGIs = new ArrayList<>();
+        private int liftRankForNormalizedHit;
+        private int liftRankToNextRealRank;
+        private int attachFullDirectLineage;
+
+        private CountingTaxonomicDatabaseOperator() {
+            this.taxon(1, 0, Ranks.no_rank, "root");
+            this.taxon(2, 1, Ranks.superkingdom, "Bacteria");
+            this.taxon(561, 2, Ranks.genus, "Escherichia");
+            this.taxon(90000, 561, Ranks.no_rank, "unranked");
+            this.taxon(562, 90000, Ranks.species, "Escherichia coli");
+            this.taxon(9606, 1, Ranks.species, "Homo sapiens");
+            this.taxidByGi.put(2, 562);
+            this.taxidByGi.put(4, 90000);
+            this.taxidByGi.put(5, 561);
+            this.taxidByGi.put(6, 9606);
+            this.taxidByGi.put(1, 1);
+        }
+
+        private void taxon(final int taxid, final int parentTaxid, final Ranks rank, final String name) {
+            this.taxa.put(taxid, TaxonomicNode.newDefaultInstance(taxid, rank, name));
+            this.parentByTaxid.put(taxid, parentTaxid);
+        }
+
+        private TaxonomicNode node(final int taxid) {
+            final TaxonomicNode taxon = this.taxa.get(taxid);
+            return taxon == null ? null : TaxonomicNode.newDefaultInstance(taxid, taxon.getRank(), taxon.getScientificName());
+        }
+
+        private NormalizedHit lift(final NormalizedHit normalizedHit, final int taxid) {
+            final TaxonomicNode parent = this.node(taxid);
+            if (parent == null) {
+                return null;
+            }
+            parent.addChild(normalizedHit.getFocusNode());
+            normalizedHit.setTaxonomy(parent);
+            normalizedHit.setFocusNode(parent);
+            return normalizedHit;
+        }
+
+        @Override
+        public NormalizedHit assignTaxonomy(final NormalizedHit normalizedHit) throws Exception {
+            this.assignTaxonomy++;
+            return this.assign(normalizedHit);
+        }
+
+        private NormalizedHit assign(final NormalizedHit normalizedHit) {
+            final Integer taxid = this.taxidByGi.get(normalizedHit.getGI());
+            if (taxid == null) {
+                return null;
+            }
+            final TaxonomicNode taxonomicNode = this.node(taxid);
+            normalizedHit.setTaxonomy(taxonomicNode);
+            normalizedHit.setFocusNode(taxonomicNode);
+            return normalizedHit;
+        }
+
+        @Override
+        public List<NormalizedHit> assignTaxonomy(final List<NormalizedHit> normalizedHits) throws Exception {
+            this.bulkAssignTaxonomy++;
+            final List<NormalizedHit> assigned = new ArrayList<>();
+            for (NormalizedHit normalizedHit : normalizedHits) {
+                this.bulkGIs.add(normalizedHit.getGI());
+                assigned.add(this.assign(normalizedHit));
+            }
+            return assigned;
+        }
+
+        @Override
+        public NormalizedHit liftRankForNormalizedHit(final NormalizedHit normalizedHit) throws Exception {
+            this.liftRankForNormalizedHit++;
+            return this.lift(normalizedHit, this.parentByTaxid.get(normalizedHit.getAssignedTaxid()));
+        }
+
+        @Override
+        public List<NormalizedHit> liftRankForNormalizedHits(final List<NormalizedHit> normalizedHits) throws Exception {
+            final List<NormalizedHit> lifted = new ArrayList<>();
+            for (NormalizedHit normalizedHit : normalizedHits) {
+                lifted.add(this.liftRankForNormalizedHit(normalizedHit));
+            }
+            return lifted;
+        }
+
+        @Override
+        public NormalizedHit liftRankToNextRealRank(final NormalizedHit normalizedHit) throws Exception {
+            this.liftRankToNextRealRank++;
+            int taxid = normalizedHit.getAssignedTaxid();
+            if (this.taxa.get(taxid).getRank() != Ranks.no_rank) {
+                return normalizedHit;
+            }
+            while (taxid != 0 && this.taxa.get(taxid).getRank() == Ranks.no_rank) {
+                taxid = this.parentByTaxid.get(taxid);
+            }
+            return taxid == 0 ? null : this.lift(normalizedHit, taxid);
+        }
+
+        @Override
+        public TaxonomicNode attachChildrenForTaxonomicNode(final TaxonomicNode parentNode) throws Exception {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void visitSubtree(final int taxid, final SubtreeVisitor visitor) throws Exception {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isParentOf(final int parentTaxid, final int taxid) throws Exception {
+            for (Integer parent = this.parentByTaxid.get(taxid); parent != null && parent != 0; parent = this.parentByTaxid.get(parent)) {
+                if (parent == parentTaxid) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean[] areParentsOf(final int[] parentTaxids, final int taxid) throws Exception {
+            final boolean[] areParents = new boolean[parentTaxids.length];
+            for (int i = 0; i < parentTaxids.length; i++) {
+                areParents[i] = this.isParentOf(parentTaxids[i], taxid);
+            }
+            return areParents;
+        }
+
+        @Override
+        public TaxonomicNode attachFullDirectLineage(final TaxonomicNode taxonomicNode) throws Exception {
+            this.attachFullDirectLineage++;
+            if (!this.taxa.containsKey(taxonomicNode.getTaxid())) {
+                return null;
+            }
+            TaxonomicNode currentTaxonomicNode = taxonomicNode;
+            for (int parent = this.parentByTaxid.get(taxonomicNode.getTaxid()); parent != 0; parent = this.parentByTaxid.get(parent)) {
+                final TaxonomicNode parentTaxonomicNode = this.node(parent);
+                parentTaxonomicNode.addChild(currentTaxonomicNode);
+                currentTaxonomicNode.setParent(parentTaxonomicNode);
+                currentTaxonomicNode = parentTaxonomicNode;
+            }
+            return taxonomicNode;
+        }
+
+        @Override
+        public boolean hitHasANoRankParent(final NormalizedHit normalizedHit) throws Exception {
+            final Integer parent = this.parentByTaxid.get(normalizedHit.getAssignedTaxid());
+            return parent != null && parent != 0 && this.taxa.get(parent).getRank() == Ranks.no_rank;
+        }
+    }
+}
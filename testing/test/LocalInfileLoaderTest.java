@@ -0,0 +1,128 @@
+package helper;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the splitting of the lines and of the dump files into chunks, none of which needs a database.
+ */
+public class LocalInfileLoaderTest {
+
+    @Test
+    public void testSplit() {
+        assertArrayEquals(new String[]{"1", "2", "no rank", ""}, LocalInfileLoader.split("1\t|\t2\t|\tno rank\t|\t", "\t|\t"));
+        assertArrayEquals(new String[]{"562", "", "Escherichia coli"}, LocalInfileLoader.split("562\t\tEscherichia coli", "\t"));
+        assertArrayEquals(new String[]{"abc"}, LocalInfileLoader.split("abc", "\t"));
+        assertArrayEquals(new String[]{""}, LocalInfileLoader.split("", "\t"));
+        assertArrayEquals(new String[]{"", ""}, LocalInfileLoader.split("\t|\t", "\t|\t"));
+        //A part of the separator is not a separator
+        assertArrayEquals(new String[]{"a\t|b"}, LocalInfileLoader.split("a\t|b", "\t|\t"));
+    }
+
+    @Test
+    public void testChunkBoundaries() throws IOException {
+        final String withBreak = "1\t2\n22\t33\n\n333\t444\n4444\t5555\n";
+        final String withoutBreak = "1\t2\n22\t33\n333\t444";
+        for (String content : new String[]{withBreak, withoutBreak, "\n", "single line"}) {
+            final File dmpFile = write(content);
+            try (FileChannel channel = FileChannel.open(dmpFile.toPath(), StandardOpenOption.READ)) {
+                for (int chunkSize = 1; chunkSize <= content.length() + 1; chunkSize++) {
+                    final List<long[]> chunks = LocalInfileLoader.split(channel, chunkSize);
+                    long start = 0;
+                    for (long[] chunk : chunks) {
+                        //The chunks follow each other without a gap
+                        assertEquals(start, chunk[0]);
+                        assertTrue(chunk[1] > 0);
+                        start += chunk[1];
+                        //A chunk ends right after a line break, unless it is the last one
+                        assertTrue(content.charAt((int) start - 1) == '\n' || start == content.length());
+                        //A chunk is no shorter than asked for, unless it is the last one
+                        assertTrue(chunk[1] >= chunkSize || start == content.length());
+                    }
+                    assertEquals(content.length(), start);
+                }
+            } finally {
+                Files.delete(dmpFile.toPath());
+            }
+        }
+    }
+
+    @Test
+    public void testRowsAcrossChunks() throws IOException {
+        final StringBuilder content = new StringBuilder();
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append(i).append("\t|\t").append(i % 7).append("\t|\t\n");
+            if (i % 3 == 0) {
+                expected.append(i).append('\t').append(i % 7).append('\n');
+            }
+        }
+        final File dmpFile = write(content.toString());
+        try {
+            for (int chunkSize : new int[]{1, 10, 333, 1 << 20}) {
+                assertEquals(expected.toString(), filter(dmpFile, chunkSize, new LocalInfileLoader.RowFilter() {
+                    @Override
+                    public void filter(final String line, final StringBuilder rows) {
+                        final String[] split = LocalInfileLoader.split(line, "\t|\t");
+                        if (Integer.parseInt(split[0]) % 3 == 0) {
+                            rows.append(split[0]).append('\t').append(split[1]).append('\n');
+                        }
+                    }
+                }));
+            }
+        } finally {
+            Files.delete(dmpFile.toPath());
+        }
+    }
+
+    @Test
+    public void testCrLf() throws IOException {
+        final File dmpFile = write("1\t|\t1\t|\t\r\n2\t|\t1\t|\t\r\n\r\n3\t|\t2\r\t|\t\r\n4\t|\t2\t|\t");
+        try {
+            for (int chunkSize = 1; chunkSize <= 64; chunkSize++) {
+                //The line breaks lose their carriage returns, the ones within a line stay, the empty lines get skipped
+                assertEquals("[1\t|\t1\t|\t]\n[2\t|\t1\t|\t]\n[3\t|\t2\r\t|\t]\n[4\t|\t2\t|\t]\n",
+                        filter(dmpFile, chunkSize, new LocalInfileLoader.RowFilter() {
+                            @Override
+                            public void filter(final String line, final StringBuilder rows) {
+                                rows.append('[').append(line).append("]\n");
+                            }
+                        }));
+            }
+        } finally {
+            Files.delete(dmpFile.toPath());
+        }
+    }
+
+    private static File write(final String content) throws IOException {
+        final File dmpFile = File.createTempFile("dmp", ".dmp");
+        Files.write(dmpFile.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return dmpFile;
+    }
+
+    /**
+     * Reads the rows of a filtered file through a small buffer
+     */
+    private static String filter(final File dmpFile, final int chunkSize, final LocalInfileLoader.RowFilter rowFilter) throws IOException {
+        final ByteArrayOutputStream rows = new ByteArrayOutputStream();
+        try (InputStream inputStream = LocalInfileLoader.filter(dmpFile, rowFilter, chunkSize)) {
+            final byte[] buffer = new byte[7];
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                rows.write(buffer, 0, read);
+            }
+        }
+        return new String(rows.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
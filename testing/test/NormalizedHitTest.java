@@ -0,0 +1,66 @@
+package blast.normal.hit;
+
+import blast.ncbi.output.Hit;
+import blast.ncbi.output.HitHsps;
+import blast.ncbi.output.Hsp;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the HSP totals that a {@link blast.normal.hit.NormalizedHit} sums up upon the normalization
+ */
+public class NormalizedHitTest {
+
+    @Test
+    public void testHspAggregates() throws Exception {
+        final Hit hit = new Hit();
+        hit.setHitId("gi|123|gb|AB000001.1|");
+        hit.setHitHsps(new HitHsps());
+        hit.getHitHsps().getHsp().add(hsp("100", "90", "4", "AC--GT-A", "ACGTG-TA"));
+        //BLAST leaves out the gaps of an HSP that has none
+        hit.getHitHsps().getHsp().add(hsp("50", "48", null, "ACGT", "ACGT"));
+        hit.getHitHsps().getHsp().add(hsp("20", "15", "1", "A-C", "AGC"));
+        final NormalizedHit normalizedHit = NormalizedHit.newDefaultInstanceFromHit(hit, 200);
+        assertEquals(123, normalizedHit.getGI());
+        assertEquals(170, normalizedHit.getAlignmentLength());
+        assertEquals(153, normalizedHit.getNumberOfIdentities());
+        assertEquals(5, normalizedHit.getNumberOfGaps());
+        //Two gap opens within the first query, one within the first subject, one within the last query
+        assertEquals(4, normalizedHit.getNumberOfGapOpens());
+    }
+
+    @Test
+    public void testSingleHsp() throws Exception {
+        final Hit hit = new Hit();
+        hit.setHitId("gb|AB000002.1|");
+        hit.setHitHsps(new HitHsps());
+        hit.getHitHsps().getHsp().add(hsp("30", "30", null, "ACGTACGT", "ACGTACGT"));
+        final NormalizedHit normalizedHit = NormalizedHit.newDefaultInstanceFromHit(hit, 30);
+        assertEquals(0, normalizedHit.getGI());
+        assertEquals("AB000002.1", normalizedHit.getAccession());
+        assertEquals(30, normalizedHit.getAlignmentLength());
+        assertEquals(30, normalizedHit.getNumberOfIdentities());
+        assertEquals(0, normalizedHit.getNumberOfGaps());
+        assertEquals(0, normalizedHit.getNumberOfGapOpens());
+    }
+
+    @Test
+    public void testCalculateNumberOfGapOpens() {
+        assertEquals(0, NormalizedHit.calculateNumberOfGapOpens(null));
+        assertEquals(0, NormalizedHit.calculateNumberOfGapOpens("ACGT"));
+        assertEquals(1, NormalizedHit.calculateNumberOfGapOpens("AC---GT"));
+        assertEquals(3, NormalizedHit.calculateNumberOfGapOpens("A-C--G-T"));
+    }
+
+    private static Hsp hsp(final String alignLen, final String identity, final String gaps, final String qseq, final String hseq) {
+        final Hsp hsp = new Hsp();
+        hsp.setHspAlignLen(alignLen);
+        hsp.setHspIdentity(identity);
+        hsp.setHspGaps(gaps);
+        hsp.setHspQseq(qseq);
+        hsp.setHspHseq(hseq);
+        hsp.setHspEvalue("1e-10");
+        return hsp;
+    }
+}
@@ -1,15 +1,64 @@
 package db.ram;
 
+import logger.Log;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import taxonomy.Ranks;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
 
 /**
  * Created by alext on 2/12/14.
  */
 //TODO: remove
 public class RamDBTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+    /**
+     * names.dmp.mod and nodes.dmp.mod of a small taxonomy: root(1) &lt;- Bacteria(2) &lt;- Escherichia(561) &lt;-
+     * Escherichia coli(562), Bacteria(2) &lt;- Staphylococcus aureus(1280), root(1) &lt;- Eukaryota(2759) &lt;- Homo sapiens(9606)
+     */
+    private File names_dmp;
+    private File nodes_dmp;
+
+    @Before
+    public void setUp() throws IOException {
+        Log.getInstance().setLogName(this.file("ramdb.log").toString());
+        this.names_dmp = this.write("names.dmp.mod", "1\troot", "2\tBacteria", "561\tEscherichia", "562\tEscherichia coli",
+                "1280\tStaphylococcus aureus", "2759\tEukaryota", "9606\tHomo sapiens");
+        this.nodes_dmp = this.write("nodes.dmp.mod",
+                "1\t1\t" + Ranks.no_rank.ordinal(),
+                "2\t1\t" + Ranks.superkingdom.ordinal(),
+                "561\t2\t" + Ranks.genus.ordinal(),
+                "562\t561\t" + Ranks.species.ordinal(),
+                "1280\t2\t" + Ranks.species.ordinal(),
+                "2759\t1\t" + Ranks.superkingdom.ordinal(),
+                "9606\t2759\t" + Ranks.species.ordinal());
+    }
+
+    private File file(final String name) {
+        return new File(this.temporaryFolder.getRoot(), name);
+    }
+
+    private File write(final String name, final String... lines) throws IOException {
+        return Files.write(this.file(name).toPath(), Arrays.asList(lines), StandardCharsets.UTF_8).toFile();
+    }
+
     //@Test
     public void test(){
 
@@ -51,5 +100,312 @@ public class RamDBTest {
         }
     }
 
+    @Test
+    public void testDenseTaxidArrays() throws Exception {
+        final File gi_taxid_dmp = this.write("gi_taxid.dmp.mod", "2\t562", "5\t9606");
+
+        final RamDb ramDb = RamDb.loadSelfFromFilteredNcbiFiles(gi_taxid_dmp, this.names_dmp, this.nodes_dmp);
+        assertEquals(Integer.valueOf(562), ramDb.getTaxIdByGi(2));
+        assertEquals(Integer.valueOf(0), ramDb.getTaxIdByGi(3));
+        assertNull(ramDb.getTaxIdByGi(6));
+        assertEquals("Escherichia coli", ramDb.getNameByTaxId(562));
+        assertNull(ramDb.getNameByTaxId(563));
+        assertEquals(Ranks.species, ramDb.getRankByTaxId(562));
+        assertNull(ramDb.getRankByTaxId(100000));
+        assertEquals(Integer.valueOf(561), ramDb.getParetTaxIdByTaxId(562));
+        assertEquals(561, ramDb.getParentTaxId(562));
+        assertEquals(0, ramDb.getParentTaxId(560));
+        assertEquals(Ranks.genus, ramDb.getNodeByTaxId(561).getRank());
+        assertNull(ramDb.getNodeByTaxId(3));
+
+        final RamDb loaded = RamDb.loadSelfFromFile(RamDb.serialize(ramDb, this.file("ramdb.obj")));
+        assertEquals("Homo sapiens", loaded.getNameByTaxId(9606));
+        assertEquals(Integer.valueOf(9606), loaded.getTaxIdByGi(5));
+        assertEquals(Ranks.genus, loaded.getRank(561));
+
+        final File obsolete = Files.write(this.file("obsolete.obj").toPath(), new byte[]{(byte) 0xAC, (byte) 0xED, 0, 5}).toFile();
+        try {
+            RamDb.loadSelfFromFile(obsolete);
+            fail("An obsolete database file must not load");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("needs to be updated"));
+        }
+    }
+
+    @Test
+    public void testSparseGiIndex() throws Exception {
+        final GiTaxIdIndexBuilder builder = new GiTaxIdIndexBuilder();
+        for (int gi = 1000000; gi < 1000100; gi++) {
+            builder.add(gi, gi < 1000050 ? 562 : 9606);
+        }
+        builder.add(2000000000, 561);
+        final GiTaxIdIndex index = builder.build();
+        assertTrue(index instanceof BlockGiTaxIdIndex);
+        assertEquals(0, index.getTaxId(0));
+        assertEquals(0, index.getTaxId(999999));
+        assertEquals(562, index.getTaxId(1000000));
+        assertEquals(562, index.getTaxId(1000049));
+        assertEquals(9606, index.getTaxId(1000050));
+        assertEquals(0, index.getTaxId(1000100));
+        assertEquals(561, index.getTaxId(2000000000));
+        assertEquals(2000000000, index.getMaxGi());
+
+        final RamDb ramDb = new RamDb(index, IntBuffer.wrap(new int[]{0, 1}), ByteBuffer.wrap(new byte[]{-1, 1}),
+                IntBuffer.wrap(new int[]{0, 0, 0}), ByteBuffer.wrap(new byte[0]));
+        final RamDb loaded = RamDb.loadSelfFromFile(RamDb.serialize(ramDb, this.file("ramdb.obj")));
+        assertTrue(this.file("ramdb.obj").length() < 1 << 20);
+        assertEquals(Integer.valueOf(9606), loaded.getTaxIdByGi(1000099));
+        assertEquals(Integer.valueOf(0), loaded.getTaxIdByGi(1500000000));
+        assertEquals(Integer.valueOf(561), loaded.getTaxIdByGi(2000000000));
+        assertNull(loaded.getTaxIdByGi(2000000001));
+    }
+
+    @Test
+    public void testAccessionIndex() throws Exception {
+        final List<String> lines = new ArrayList<>();
+        lines.add("accession\taccession.version\ttaxid\tgi");
+        for (int i = 0; i < 100000; i++) {
+            lines.add("AB" + i + "\tAB" + i + ".1\t" + (i % 3000 + 1) + "\t0");
+        }
+        final File accession2taxid = this.write("nucl_gb.accession2taxid", lines.toArray(new String[lines.size()]));
+        final AccessionTaxIdIndex index = AccessionTaxIdIndex.loadFromAccession2TaxIdFiles(accession2taxid);
+        assertEquals(100000, index.size());
+        for (int i = 0; i < 100000; i += 7) {
+            assertEquals(i % 3000 + 1, index.getTaxId("AB" + i + ".2"));
+        }
+        //The check array rejects every accession that is not in the index
+        for (int i = 0; i < 100000; i++) {
+            assertEquals(0, index.getTaxId("XY" + i));
+        }
+
+        final RamDb ramDb = new RamDb(DenseGiTaxIdIndex.newInstance(new int[1]), IntBuffer.wrap(new int[]{0, 1}), ByteBuffer.wrap(new byte[]{-1, 1}),
+                IntBuffer.wrap(new int[]{0, 0, 0}), ByteBuffer.wrap(new byte[0]), index);
+        final RamDb loaded = RamDb.loadSelfFromFile(RamDb.serialize(ramDb, this.file("ramdb.obj")));
+        assertEquals(Integer.valueOf(43), loaded.getTaxIdByAccession("AB99042"));
+        assertNull(loaded.getTaxIdByAccession("AB100000.1"));
+        for (int i = 0; i < 100000; i++) {
+            assertNull(loaded.getTaxIdByAccession("XY" + i));
+        }
+    }
+
+    @Test
+    public void testParallelBuilder() throws Exception {
+        final List<String> gis = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        final List<String> nodes = new ArrayList<>();
+        for (int i = 1; i < 5000; i++) {
+            gis.add((i * 3) + "\t" + (i / 10 + 1));
+            names.add(i + "\tTaxon " + i + (i % 7 == 0 ? "\r" : ""));
+            nodes.add(i + "\t" + (i / 2 + 1) + "\t" + (i % Ranks.values().length));
+        }
+        final File gi_taxid_dmp = this.write("gi_taxid.dmp.mod", gis.toArray(new String[gis.size()]));
+        final File names_dmp = this.write("parallel_names.dmp.mod", names.toArray(new String[names.size()]));
+        final File nodes_dmp = this.write("parallel_nodes.dmp.mod", nodes.toArray(new String[nodes.size()]));
+
+        final RamDb serial = RamDb.loadSelfFromFilteredNcbiFiles(gi_taxid_dmp, names_dmp, nodes_dmp);
+        //Tiny regions make every region boundary fall in the middle of a line
+        final RamDb parallel = RamDbBuilder.newInstance(4, 100).build(gi_taxid_dmp, names_dmp, nodes_dmp, this.file("ramdb.obj"));
+        for (int gi = 0; gi <= 15000; gi++) {
+            assertEquals(serial.getTaxIdByGi(gi), parallel.getTaxIdByGi(gi));
+        }
+        for (int taxid = 0; taxid <= 5000; taxid++) {
+            assertEquals(serial.getParentTaxId(taxid), parallel.getParentTaxId(taxid));
+            assertEquals(serial.getRank(taxid), parallel.getRank(taxid));
+        }
+        assertEquals("Taxon 4900", parallel.getNameByTaxId(4900));
+        assertEquals("Taxon 49", parallel.getNameByTaxId(49));
+        assertNull(parallel.getNameByTaxId(5000));
+
+        final File unsorted = this.write("unsorted.dmp.mod", "5\t1", "7\t1", "6\t1");
+        try {
+            RamDbBuilder.newInstance(2, 4).build(unsorted, names_dmp, nodes_dmp, this.file("unsorted.obj"));
+            fail("Unsorted GIs must not be accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("Inconsistency"));
+        }
+    }
+
+    @Test
+    public void testParentLabels() throws Exception {
+        final Random random = new Random(42);
+        final int[] parents = new int[3000];
+        parents[1] = 1;
+        for (int taxid = 2; taxid < 2900; taxid++) {
+            parents[taxid] = 1 + random.nextInt(taxid - 1);
+        }
+        //A detached subtree under a missing node
+        parents[2950] = 2999;
+        parents[2951] = 2950;
+        final RamDb ramDb = new RamDb(DenseGiTaxIdIndex.newInstance(new int[1]), IntBuffer.wrap(parents), ByteBuffer.wrap(new byte[3000]),
+                IntBuffer.wrap(new int[3001]), ByteBuffer.wrap(new byte[0]));
+        for (int i = 0; i < 20000; i++) {
+            final int parent = random.nextInt(3000);
+            final int taxid = random.nextInt(3000);
+            boolean expected = false;
+            for (int current = ramDb.getParentTaxId(taxid); current > 0 && current < 2900; current = ramDb.getParentTaxId(current)) {
+                if (current == parent) {
+                    expected = true;
+                    break;
+                }
+                if (current == 1) {
+                    break;
+                }
+            }
+            assertEquals(expected, ramDb.isParentOf(parent, taxid));
+        }
+        assertTrue(ramDb.isParentOf(1, 1));
+        assertTrue(ramDb.isParentOf(2950, 2951));
+        assertFalse(ramDb.isParentOf(1, 2951));
+        assertFalse(ramDb.isParentOf(2951, 2951));
+        //A subtree occupies the labels right after its root, each node following its parent
+        for (int i = 0; i < 200; i++) {
+            final int root = 1 + random.nextInt(2899);
+            final Set<Integer> visited = new HashSet<>();
+            visited.add(root);
+            for (int label = ramDb.getEnterLabel(root) + 1; label <= ramDb.getExitLabel(root); label++) {
+                final int taxid = ramDb.getTaxIdByLabel(label);
+                assertTrue(visited.contains(ramDb.getParentTaxId(taxid)));
+                visited.add(taxid);
+            }
+            for (int taxid = 2; taxid < 2900; taxid++) {
+                assertEquals(taxid == root || ramDb.isParentOf(root, taxid), visited.contains(taxid));
+            }
+        }
+    }
+
+    @Test
+    public void testRankedParents() throws Exception {
+        //1 (root) <- 2 (superkingdom) <- 3 (no rank) <- 4 (no rank) <- 5 (species), 1 <- 6 (no rank) <- 7 (genus)
+        final int[] parents = {0, 1, 1, 2, 3, 4, 1, 6};
+        final byte[] ranks = {-1, (byte) Ranks.no_rank.ordinal(), (byte) Ranks.superkingdom.ordinal(), (byte) Ranks.no_rank.ordinal(),
+                (byte) Ranks.no_rank.ordinal(), (byte) Ranks.species.ordinal(), (byte) Ranks.no_rank.ordinal(), (byte) Ranks.genus.ordinal()};
+        final RamDb ramDb = new RamDb(DenseGiTaxIdIndex.newInstance(new int[1]), IntBuffer.wrap(parents), ByteBuffer.wrap(ranks),
+                IntBuffer.wrap(new int[9]), ByteBuffer.wrap(new byte[0]));
+        assertEquals(2, ramDb.getRankedParentTaxId(5));
+        assertEquals(2, ramDb.getRankedParentTaxId(4));
+        assertEquals(1, ramDb.getRankedParentTaxId(2));
+        assertEquals(1, ramDb.getRankedParentTaxId(6));
+        assertEquals(1, ramDb.getRankedParentTaxId(7));
+        assertEquals(1, ramDb.getRankedParentTaxId(1));
+        assertEquals(0, ramDb.getRankedParentTaxId(8));
+    }
+
+    @Test
+    public void testMappedTaxonomyTree() throws Exception {
+        final int[] parents = {0, 1, 1, 2, 3, 4, 1, 6};
+        final byte[] ranks = {-1, (byte) Ranks.no_rank.ordinal(), (byte) Ranks.superkingdom.ordinal(), (byte) Ranks.no_rank.ordinal(),
+                (byte) Ranks.no_rank.ordinal(), (byte) Ranks.species.ordinal(), (byte) Ranks.no_rank.ordinal(), (byte) Ranks.genus.ordinal()};
+        final RamDb computed = new RamDb(DenseGiTaxIdIndex.newInstance(new int[1]), IntBuffer.wrap(parents), ByteBuffer.wrap(ranks),
+                IntBuffer.wrap(new int[9]), ByteBuffer.wrap(new byte[0]));
+        final RamDb mapped = RamDb.loadSelfFromFile(RamDb.serialize(computed, this.file("ramdb.obj")));
+        //The labels come from the file rather than get computed anew
+        assertTrue(mapped.taxonomyTree.enter.isDirect());
+        for (int taxid = 0; taxid < 9; taxid++) {
+            assertEquals(computed.getRankedParentTaxId(taxid), mapped.getRankedParentTaxId(taxid));
+            for (int other = 0; other < 9; other++) {
+                assertEquals(computed.isParentOf(taxid, other), mapped.isParentOf(taxid, other));
+            }
+        }
+    }
 
+    @Test
+    public void testIncrementalUpdate() throws Exception {
+        final File diff = this.write("gi_taxid_diff.dmp", "7\t562", "3\t9606", "7\t9606", "3000000\t562");
+        //A dense and a block index
+        for (String[] gis : new String[][]{{"2\t562", "3\t562", "5\t9606"}, {"2\t562", "2000000\t9606"}}) {
+            final File gi_taxid_dmp = this.write("gi_taxid.dmp.mod", gis);
+            final File ramDbFile = this.file("ramdb.obj");
+            RamDbBuilder.newInstance(2).build(gi_taxid_dmp, this.names_dmp, this.nodes_dmp, ramDbFile);
+            final RamDb updated = RamDbBuilder.newInstance(2).update(ramDbFile, diff, this.names_dmp, this.nodes_dmp);
+            assertEquals(Integer.valueOf(562), updated.getTaxIdByGi(2));
+            assertEquals(Integer.valueOf(9606), updated.getTaxIdByGi(3));
+            assertEquals(Integer.valueOf(9606), updated.getTaxIdByGi(7));
+            assertEquals(Integer.valueOf(0), updated.getTaxIdByGi(8));
+            assertEquals(Integer.valueOf(562), updated.getTaxIdByGi(3000000));
+            assertNull(updated.getTaxIdByGi(3000001));
+            assertEquals("Homo sapiens", updated.getNameByTaxId(9606));
+            assertTrue(updated.isParentOf(1, 562));
+            assertFalse(this.file("ramdb.obj.next").exists());
+        }
+        final RamDb block = RamDb.loadSelfFromFile(this.file("ramdb.obj"));
+        assertEquals(Integer.valueOf(9606), block.getTaxIdByGi(2000000));
+        assertEquals(Integer.valueOf(0), block.getTaxIdByGi(1999999));
+        assertTrue(block.giTaxIdIndex instanceof BlockGiTaxIdIndex);
+    }
+
+    @Test
+    public void testIncrementalUpdateKeepsDenseIndex() throws Exception {
+        final File ramDbFile = this.file("ramdb.obj");
+        RamDbBuilder.newInstance(2).build(this.write("gi_taxid.dmp.mod", "2\t562", "3\t562", "5\t9606"), this.names_dmp, this.nodes_dmp, ramDbFile);
+        //A small diff keeps the dense table the smaller choice, so it gets patched
+        RamDb updated = RamDbBuilder.newInstance(2).update(ramDbFile, this.write("gi_taxid_diff.dmp", "4\t1280", "6\t562"), this.names_dmp, this.nodes_dmp);
+        assertTrue(updated.giTaxIdIndex instanceof DenseGiTaxIdIndex);
+        assertEquals(Integer.valueOf(562), updated.getTaxIdByGi(3));
+        assertEquals(Integer.valueOf(1280), updated.getTaxIdByGi(4));
+        assertEquals(Integer.valueOf(562), updated.getTaxIdByGi(6));
+        assertNull(updated.getTaxIdByGi(7));
+        //A far GI makes the dense table larger than the runs, so the update switches to a block index
+        updated = RamDbBuilder.newInstance(2).update(ramDbFile, this.write("gi_taxid_diff.dmp", "3000000\t9606"), this.names_dmp, this.nodes_dmp);
+        assertTrue(updated.giTaxIdIndex instanceof BlockGiTaxIdIndex);
+        assertEquals(Integer.valueOf(1280), updated.getTaxIdByGi(4));
+        assertEquals(Integer.valueOf(0), updated.getTaxIdByGi(2999999));
+        assertEquals(Integer.valueOf(9606), updated.getTaxIdByGi(3000000));
+    }
+
+    @Test
+    public void testPrune() throws Exception {
+        final File gi_taxid_dmp = this.write("gi_taxid.dmp.mod", "2\t562", "3\t9606", "5\t562", "6\t9606");
+        final File ramDbFile = this.file("ramdb.obj");
+        RamDbBuilder.newInstance(2).build(gi_taxid_dmp, this.names_dmp, this.nodes_dmp, ramDbFile);
+        final RamDb pruned = RamDbBuilder.newInstance(2).prune(ramDbFile, this.file("ramdb.obj.2"), 2, 123456);
+        assertEquals(Integer.valueOf(562), pruned.getTaxIdByGi(2));
+        assertEquals(Integer.valueOf(0), pruned.getTaxIdByGi(3));
+        assertEquals(Integer.valueOf(562), pruned.getTaxIdByGi(5));
+        assertEquals(Integer.valueOf(0), pruned.getTaxIdByGi(6));
+        assertEquals("Escherichia coli", pruned.getNameByTaxId(562));
+        assertEquals("root", pruned.getNameByTaxId(1));
+        assertNull(pruned.getNameByTaxId(9606));
+        assertNull(pruned.getNodeByTaxId(2759));
+        assertTrue(pruned.isParentOf(1, 562));
+        assertEquals("Staphylococcus aureus", pruned.getNameByTaxId(1280));
+        assertEquals(1280, pruned.getMaxTaxId());
+    }
+
+    @Test
+    public void testBuildForIdentifiers() throws Exception {
+        final File gi_taxid_dmp = this.write("gi_taxid.dmp.mod", "2\t562", "3\t9606", "5\t562", "6\t9606");
+        final File accession2taxid = this.write("nucl_gb.accession2taxid",
+                "accession\taccession.version\ttaxid\tgi",
+                "AB000001\tAB000001.1\t1280\t0",
+                "AB000002\tAB000002.1\t9606\t0");
+        final File identifiers = this.write("blastdb.ids", "gi|5|gb|X00005.1|", "AB000001.1", "7");
+        final RamDb ramDb = RamDbBuilder.newInstance(2).buildForIdentifiers(identifiers, gi_taxid_dmp, this.names_dmp, this.nodes_dmp,
+                this.file("ramdb.obj"), accession2taxid);
+        assertEquals(Integer.valueOf(562), ramDb.getTaxIdByGi(5));
+        assertNull(ramDb.getTaxIdByGi(6));
+        assertEquals(Integer.valueOf(0), ramDb.getTaxIdByGi(2));
+        assertEquals(Integer.valueOf(1280), ramDb.getTaxIdByAccession("AB000001"));
+        assertNull(ramDb.getTaxIdByAccession("AB000002"));
+        assertEquals("Staphylococcus aureus", ramDb.getNameByTaxId(1280));
+        assertEquals("Bacteria", ramDb.getNameByTaxId(2));
+        assertNull(ramDb.getNameByTaxId(9606));
+        assertTrue(ramDb.isParentOf(2, 562));
+        assertFalse(this.file("ramdb.obj.full").exists());
+    }
+
+    @Test
+    public void testFailedBuildKeepsDatabase() throws Exception {
+        final File gi_taxid_dmp = this.write("gi_taxid.dmp.mod", "2\t562");
+        final File out = this.file("ramdb.obj");
+        RamDbBuilder.newInstance(2).build(gi_taxid_dmp, this.names_dmp, this.nodes_dmp, out);
+        final File broken = this.write("broken.dmp.mod", "2\t562", "not a GI");
+        try {
+            RamDbBuilder.newInstance(2).build(broken, this.names_dmp, this.nodes_dmp, out);
+            fail("A misformatted dump should fail the build");
+        } catch (Exception e) {
+            //expected
+        }
+        assertFalse(this.file("ramdb.obj.next").exists());
+        assertEquals(Integer.valueOf(562), RamDb.loadSelfFromFile(out).getTaxIdByGi(2));
+    }
 }
@@ -1,8 +1,14 @@
 package blast.specification.cutoff;
 
+import blast.ncbi.output.Hit;
+import blast.ncbi.output.HitHsps;
+import blast.ncbi.output.Hsp;
+import blast.normal.hit.NormalizedHit;
 import org.apache.commons.math3.stat.inference.TestUtils;
 import org.junit.Test;
 
+import static org.junit.Assert.*;
+
 /**
  * Created with IntelliJ IDEA.
  * User: alext
@@ -20,4 +26,63 @@ public class TUITCutoffSetTest {
 
        );
     }
+
+    @Test
+    public void testFisherExact() {
+        //Reference p-values from R's fisher.test
+        assertEquals(34.0 / 70, FisherExactTest.pValue(3, 1, 1, 3), 1e-12);
+        assertEquals(0.0027594561852200836, FisherExactTest.pValue(1, 9, 11, 3), 1e-12);
+        assertEquals(2.0 / 184756, FisherExactTest.pValue(10, 0, 0, 10), 1e-15);
+        assertEquals(1, FisherExactTest.pValue(5, 5, 5, 5), 1e-12);
+        assertEquals(1, FisherExactTest.pValue(0, 0, 7, 3), 0);
+        //The test is symmetric with respect to the rows and the columns
+        assertEquals(FisherExactTest.pValue(1430, 1514, 87, 0), FisherExactTest.pValue(1514, 1430, 0, 87), 1e-15);
+        assertEquals(FisherExactTest.pValue(1430, 1514, 87, 0), FisherExactTest.pValue(1430, 87, 1514, 0), 1e-15);
+    }
+
+    @Test
+    public void testPValueMemo() throws Exception {
+        final NormalizedHit better = hit("gi|1|gb|AB000001.1|", "500", "490", "4", "ACGT--ACGT-A", "ACGTACACGTGA");
+        final NormalizedHit worse = hit("gi|2|gb|AB000002.1|", "500", "430", null, "ACGTACGT", "ACGTACGT");
+        for (StatisticalTest test : StatisticalTest.values()) {
+            final PValueMemo pValueMemo = PValueMemo.newInstance();
+            final TUITCutoffSet species = TUITCutoffSet.newInstance(97.5, 95, 0.05, test);
+            final TUITCutoffSet genus = TUITCutoffSet.newInstance(95, 90, 0.01, test);
+            assertNull(pValueMemo.get(worse, better, test));
+            //A memoized test answers as the one that is computed every time
+            assertEquals(species.hitsAreStatisticallyDifferent(worse, better), species.hitsAreStatisticallyDifferent(worse, better, pValueMemo));
+            final Double pValue = pValueMemo.get(worse, better, test);
+            assertEquals(species.pValue(worse, better), pValue, 0);
+            //At a higher rank the same p-value gets compared against the alpha of that rank
+            assertEquals(genus.hitsAreStatisticallyDifferent(worse, better), genus.hitsAreStatisticallyDifferent(worse, better, pValueMemo));
+            assertSame(pValue, pValueMemo.get(worse, better, test));
+            //It is the memoized p-value that gets compared, rather than a recomputed one
+            pValueMemo.put(worse, better, test, 0.02);
+            assertTrue(species.hitsAreStatisticallyDifferent(worse, better, pValueMemo));
+            assertFalse(genus.hitsAreStatisticallyDifferent(worse, better, pValueMemo));
+            //The pairs are ordered, and the tests are kept apart
+            assertNull(pValueMemo.get(better, worse, test));
+            for (StatisticalTest other : StatisticalTest.values()) {
+                if (other != test) {
+                    assertNull(pValueMemo.get(worse, better, other));
+                }
+            }
+        }
+    }
+
+    private static NormalizedHit hit(final String id, final String alignLen, final String identity, final String gaps,
+                                     final String qseq, final String hseq) throws Exception {
+        final Hsp hsp = new Hsp();
+        hsp.setHspAlignLen(alignLen);
+        hsp.setHspIdentity(identity);
+        hsp.setHspGaps(gaps);
+        hsp.setHspQseq(qseq);
+        hsp.setHspHseq(hseq);
+        hsp.setHspEvalue("1e-100");
+        final Hit hit = new Hit();
+        hit.setHitId(id);
+        hit.setHitHsps(new HitHsps());
+        hit.getHitHsps().getHsp().add(hsp);
+        return NormalizedHit.newDefaultInstanceFromHit(hit, 500);
+    }
 }